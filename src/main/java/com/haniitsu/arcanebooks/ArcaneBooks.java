@@ -1,9 +1,25 @@
 package com.haniitsu.arcanebooks;
 
+import com.haniitsu.arcanebooks.eventlisteners.AuraListener;
+import com.haniitsu.arcanebooks.eventlisteners.BlockCasterSchedulerListener;
+import com.haniitsu.arcanebooks.eventlisteners.CastRateLimiterListener;
+import com.haniitsu.arcanebooks.eventlisteners.ClientDisconnectListener;
+import com.haniitsu.arcanebooks.eventlisteners.DeferredBurstListener;
+import com.haniitsu.arcanebooks.eventlisteners.ManaStoreListener;
 import com.haniitsu.arcanebooks.eventlisteners.PlayerJoinServerListener;
+import com.haniitsu.arcanebooks.eventlisteners.RegistryPersistenceListener;
+import com.haniitsu.arcanebooks.eventlisteners.SpellProjectileClientListener;
+import com.haniitsu.arcanebooks.eventlisteners.SpellFieldListener;
+import com.haniitsu.arcanebooks.eventlisteners.SpellProjectileListener;
+import com.haniitsu.arcanebooks.eventlisteners.SpellTriggerTickListener;
+import com.haniitsu.arcanebooks.eventlisteners.WatchedRegionListener;
 import com.haniitsu.arcanebooks.items.ItemRuneStone;
 import com.haniitsu.arcanebooks.items.ItemSpellBook;
 import com.haniitsu.arcanebooks.items.ItemSpellScroll;
+import com.haniitsu.arcanebooks.magic.CastRateLimiter;
+import com.haniitsu.arcanebooks.magic.DeferredBursts;
+import com.haniitsu.arcanebooks.magic.detection.WatchedRegionIndex;
+import com.haniitsu.arcanebooks.magic.mana.EntityManaStores;
 import com.haniitsu.arcanebooks.misc.UtilMethods;
 import com.haniitsu.arcanebooks.packets.RuneDesignsAddedPacket;
 import com.haniitsu.arcanebooks.packets.RuneDesignsBacklogClearedPacket;
@@ -15,6 +31,8 @@ import com.haniitsu.arcanebooks.packets.SpellEffectsBacklogClearedPacket;
 import com.haniitsu.arcanebooks.packets.SpellEffectsClearedPacket;
 import com.haniitsu.arcanebooks.packets.SpellEffectsRemovedPacket;
 import com.haniitsu.arcanebooks.packets.SpellEffectsSyncPacket;
+import com.haniitsu.arcanebooks.packets.SpellProjectilesPacket;
+import com.haniitsu.arcanebooks.packets.SpellWordIdsSyncPacket;
 import com.haniitsu.arcanebooks.projectiles.SpellProjectileCommon;
 import cpw.mods.fml.common.FMLCommonHandler;
 import cpw.mods.fml.common.Mod;
@@ -26,6 +44,7 @@ import cpw.mods.fml.common.network.simpleimpl.SimpleNetworkWrapper;
 import cpw.mods.fml.common.registry.GameRegistry;
 import cpw.mods.fml.relauncher.Side;
 import net.minecraft.client.Minecraft;
+import net.minecraftforge.common.MinecraftForge;
 
 /*
 
@@ -72,6 +91,18 @@ public class ArcaneBooks
     
     /** The packet sender/receiver used by this mod. */
     public SimpleNetworkWrapper packetChannel;
+    
+    /** The regions watched by Detect spell effects cast from blocks. */
+    public WatchedRegionIndex watchedRegions;
+    
+    /** The mana stores of entities, loaded from and saved to the entities' NBT data. */
+    public EntityManaStores manaStores;
+    
+    /** Limits how much server time each caster can spend casting spells. */
+    public CastRateLimiter castRateLimiter;
+    
+    /** The parts of spell bursts in unloaded chunks, waiting for the chunks to load. */
+    public DeferredBursts deferredBursts;
 
     @Mod.EventHandler
     public void PreInitializationEvent(FMLPreInitializationEvent event)
@@ -87,6 +118,50 @@ public class ArcaneBooks
         registerPackets();
         
         FMLCommonHandler.instance().bus().register(new PlayerJoinServerListener());
+        
+        RegistryPersistenceListener registryPersistenceListener = new RegistryPersistenceListener();
+        FMLCommonHandler.instance().bus().register(registryPersistenceListener);
+        MinecraftForge.EVENT_BUS.register(registryPersistenceListener);
+        
+        FMLCommonHandler.instance().bus().register(new SpellTriggerTickListener());
+        
+        SpellProjectileListener spellProjectileListener = new SpellProjectileListener();
+        FMLCommonHandler.instance().bus().register(spellProjectileListener);
+        MinecraftForge.EVENT_BUS.register(spellProjectileListener);
+        
+        if(event.getSide() == Side.CLIENT)
+        {
+            FMLCommonHandler.instance().bus().register(new SpellProjectileClientListener());
+            FMLCommonHandler.instance().bus().register(new ClientDisconnectListener());
+        }
+        
+        watchedRegions = new WatchedRegionIndex();
+        MinecraftForge.EVENT_BUS.register(new WatchedRegionListener());
+        
+        manaStores = new EntityManaStores();
+        ManaStoreListener manaStoreListener = new ManaStoreListener();
+        FMLCommonHandler.instance().bus().register(manaStoreListener);
+        MinecraftForge.EVENT_BUS.register(manaStoreListener);
+        
+        castRateLimiter = new CastRateLimiter();
+        FMLCommonHandler.instance().bus().register(new CastRateLimiterListener());
+        
+        deferredBursts = new DeferredBursts();
+        DeferredBurstListener deferredBurstListener = new DeferredBurstListener();
+        FMLCommonHandler.instance().bus().register(deferredBurstListener);
+        MinecraftForge.EVENT_BUS.register(deferredBurstListener);
+        
+        BlockCasterSchedulerListener blockCasterSchedulerListener = new BlockCasterSchedulerListener();
+        FMLCommonHandler.instance().bus().register(blockCasterSchedulerListener);
+        MinecraftForge.EVENT_BUS.register(blockCasterSchedulerListener);
+        
+        AuraListener auraListener = new AuraListener();
+        FMLCommonHandler.instance().bus().register(auraListener);
+        MinecraftForge.EVENT_BUS.register(auraListener);
+        
+        SpellFieldListener spellFieldListener = new SpellFieldListener();
+        FMLCommonHandler.instance().bus().register(spellFieldListener);
+        MinecraftForge.EVENT_BUS.register(spellFieldListener);
     }
 
     @Mod.EventHandler
@@ -127,5 +202,7 @@ public class ArcaneBooks
         packetChannel.registerMessage(RuneDesignsAddedPacket          .Handler.class, RuneDesignsAddedPacket          .class, 8,  Side.CLIENT);
         packetChannel.registerMessage(RuneDesignsRemovedPacket        .Handler.class, RuneDesignsRemovedPacket        .class, 9,  Side.CLIENT);
         packetChannel.registerMessage(RuneDesignsClearedPacket        .Handler.class, RuneDesignsClearedPacket        .class, 10, Side.CLIENT);
+        packetChannel.registerMessage(SpellProjectilesPacket          .Handler.class, SpellProjectilesPacket          .class, 11, Side.CLIENT);
+        packetChannel.registerMessage(SpellWordIdsSyncPacket          .Handler.class, SpellWordIdsSyncPacket          .class, 12, Side.CLIENT);
     }
 }
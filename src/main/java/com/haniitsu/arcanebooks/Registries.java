@@ -1,8 +1,5 @@
 package com.haniitsu.arcanebooks;
 
-import com.haniitsu.arcanebooks.magic.SpellEffect;
-import com.haniitsu.arcanebooks.magic.SpellWord;
-import com.haniitsu.arcanebooks.magic.modifiers.effect.SpellEffectModifier;
 import com.haniitsu.arcanebooks.misc.UtilMethods;
 import com.haniitsu.arcanebooks.misc.events.EventListener;
 import com.haniitsu.arcanebooks.packets.RuneDesignsAddedPacket;
@@ -13,13 +10,16 @@ import com.haniitsu.arcanebooks.packets.SpellEffectsBacklogClearedPacket;
 import com.haniitsu.arcanebooks.packets.SpellEffectsAddedPacket;
 import com.haniitsu.arcanebooks.packets.SpellEffectsClearedPacket;
 import com.haniitsu.arcanebooks.packets.SpellEffectsRemovedPacket;
+import com.haniitsu.arcanebooks.registries.RegistryFileService;
+import com.haniitsu.arcanebooks.registries.RuneDesignJournal;
 import com.haniitsu.arcanebooks.registries.RuneDesignRegistry;
 import com.haniitsu.arcanebooks.registries.SpellEffectDefinitionRegistry;
+import com.haniitsu.arcanebooks.registries.SpellEffectFileWatcher;
 import com.haniitsu.arcanebooks.registries.SpellEffectRegistry;
-import com.haniitsu.arcanebooks.runes.RuneDesign;
 import java.io.File;
-import java.util.Map;
-import org.apache.commons.lang3.NotImplementedException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 
 /**
  * Holds the set of data registries specific to this mod.
@@ -61,11 +61,39 @@ public class Registries
      upon start-up.*/
     public RuneDesignRegistry baseRuneDesigns;
     
+    /** Reloads baseSpellEffects when its file is changed, or null if the file isn't being watched. */
+    protected SpellEffectFileWatcher spellEffectsFileWatcher;
+    
+    /** Reads and writes the files of the registries kept with the world, in the background. */
+    protected final RegistryFileService worldFiles = new RegistryFileService();
+    
+    /** The journal changes to baseRuneDesigns are recorded in, or null if no world is loaded. */
+    protected RuneDesignJournal runeDesignsJournal;
+    
+    /**
+     * Whether the world's rune designs couldn't be read. If so, nothing's written to the world's rune design files for
+     * as long as it's loaded, so that what's in them isn't replaced by the empty registry, and can still be recovered.
+     */
+    protected boolean runeDesignsLoadFailed = false;
+    
+    /**
+     * Things waiting to be done on the server thread at the end of the next server tick. e.g. making changes read from
+     * files in the background, so the events they raise and the packets they send happen on the server thread.
+     */
+    protected final Queue<Runnable> serverTickTasks = new ConcurrentLinkedQueue<Runnable>();
+    
     protected void refreshRegistries()
     {
         definitions = new SpellEffectDefinitionRegistry();
         baseSpellEffects = new SpellEffectRegistry(definitions);
         
+        definitions.definitionsRegistered.registerListener(new EventListener<SpellEffectDefinitionRegistry.DefinitionsRegisteredArgs>()
+        {
+            @Override
+            public void onEvent(Object sender, SpellEffectDefinitionRegistry.DefinitionsRegisteredArgs args)
+            { baseSpellEffects.updateBackloggedEffects(args.getDefinitionNames()); }
+        });
+        
         baseSpellEffects.backlogCleared.registerListener(new EventListener<SpellEffectRegistry.BacklogClearedArgs>()
         {
             @Override
@@ -77,20 +105,7 @@ public class Registries
         {
             @Override
             public void onEvent(Object sender, SpellEffectRegistry.EffectsAddedArgs args)
-            {
-                StringBuilder combinedString = new StringBuilder();
-                boolean first = true;
-                
-                for(String effectString : args.getEffectStrings())
-                {
-                    if(first) first = false;
-                    else      combinedString.append('\n');
-                    
-                    combinedString.append(effectString);
-                }
-                
-                UtilMethods.sendPacketToAllExceptPlayerRunningServer(ArcaneBooks.instance.packetChannel, new SpellEffectsAddedPacket(combinedString.toString()));
-            }
+            { UtilMethods.sendPacketToAllExceptPlayerRunningServer(ArcaneBooks.instance.packetChannel, new SpellEffectsAddedPacket(args.getEffectStrings())); }
         });
         
         baseSpellEffects.effectsRemoved.registerListener(new EventListener<SpellEffectRegistry.EffectsRemovedArgs>()
@@ -104,18 +119,7 @@ public class Registries
                     return;
                 }
                 
-                StringBuilder combinedString = new StringBuilder();
-                boolean first = true;
-                
-                for(String effectName : args.getEffectNames())
-                {
-                    if(first) first = false;
-                    else      combinedString.append('\n');
-                    
-                    combinedString.append(effectName);
-                }
-                
-                UtilMethods.sendPacketToAllExceptPlayerRunningServer(ArcaneBooks.instance.packetChannel, new SpellEffectsRemovedPacket(combinedString.toString()));
+                UtilMethods.sendPacketToAllExceptPlayerRunningServer(ArcaneBooks.instance.packetChannel, new SpellEffectsRemovedPacket(args.getEffectNames()));
             }
         });
     }
@@ -136,51 +140,8 @@ public class Registries
             @Override
             public void onEvent(Object sender, RuneDesignRegistry.RuneDesignsAddedArgs args)
             {
-                StringBuilder sb = new StringBuilder();
-                boolean first = true;
-                
-                for(Map.Entry<SpellWord, RuneDesign> i : args.getDesignsAdded().entrySet())
-                {
-                    if(first) first = false;
-                    else      sb.append("\n");
-                    
-                    // Example line:
-                    // effect:heal=2,3>3,1_0,0>1,2_3,0>2,1
-                    
-                    if(i.getKey() instanceof SpellEffect)
-                    {
-                        sb.append("effect:");
-                        sb.append(((SpellEffect)i).getName());
-                    }
-                    else if(i.getKey() instanceof SpellEffectModifier)
-                    {
-                        sb.append(((SpellEffectModifier)i).getModifierGroupName());
-                        sb.append(':');
-                        sb.append(((SpellEffectModifier)i).getModifierName());
-                    }
-                    else
-                    {
-                        throw new NotImplementedException("Support for SpellWord not implemented in the registries "
-                                                        + "listener of RuneDesignRegistry.itemsAdded: \n"
-                                                        + i.getKey().getClass().toString());
-                    }
-                    
-                    sb.append('=');
-                    sb.append(i.getValue().toString());
-                }
-                
-                for(Map.Entry<String, RuneDesign> i : args.getDesignsBacklogged().entrySet())
-                {
-                    if(first) first = false;
-                    else      sb.append("\n");
-                    
-                    sb.append("effect:");
-                    sb.append(i.getKey());
-                    sb.append('=');
-                    sb.append(i.getValue().toString());
-                }
-                
-                UtilMethods.sendPacketToAllExceptPlayerRunningServer(ArcaneBooks.instance.packetChannel, new RuneDesignsAddedPacket(sb.toString()));
+                RuneDesignsAddedPacket packet = new RuneDesignsAddedPacket(args.getDesignsAdded(), args.getDesignsBacklogged());
+                UtilMethods.sendPacketToAllExceptPlayerRunningServer(ArcaneBooks.instance.packetChannel, packet);
             }
         });
         
@@ -195,51 +156,152 @@ public class Registries
                     return;
                 }
                 
-                StringBuilder sb = new StringBuilder();
-                boolean first = true;
+                RuneDesignsRemovedPacket packet = new RuneDesignsRemovedPacket(args.getDesignsRemoved().keySet(),
+                                                                               args.getBackloggedDesignsRemoved().keySet());
                 
-                for(Map.Entry<SpellWord, RuneDesign> i : args.getDesignsRemoved().entrySet())
-                {
-                    if(first) first = false;
-                    else      sb.append("\n");
-                    
-                    if(i.getKey() instanceof SpellEffect)
-                    {
-                        sb.append("effect:");
-                        sb.append(((SpellEffect)i).getName());
-                    }
-                    else if(i.getKey() instanceof SpellEffectModifier)
-                    {
-                        sb.append(((SpellEffectModifier)i).getModifierGroupName());
-                        sb.append(':');
-                        sb.append(((SpellEffectModifier)i).getModifierName());
-                    }
-                }
-                
-                for(Map.Entry<String, RuneDesign> i : args.getBackloggedDesignsRemoved().entrySet())
-                {
-                    if(first) first = false;
-                    else      sb.append("\n");
-                    
-                    sb.append("effect:");
-                    sb.append(i.getKey());
-                }
-                
-                UtilMethods.sendPacketToAllExceptPlayerRunningServer(ArcaneBooks.instance.packetChannel, new RuneDesignsRemovedPacket(sb.toString()));
+                UtilMethods.sendPacketToAllExceptPlayerRunningServer(ArcaneBooks.instance.packetChannel, packet);
             }
         });
     }
     
     public void load(File configDirectory)
     {
+        if(spellEffectsFileWatcher != null)
+            spellEffectsFileWatcher.close();
+        
+        File spellEffectsFile = new File(configDirectory, "ArcaneBooks/SpellEffects.cfg");
+        
         refreshRegistries();
         definitions.loadDefaultValues();
-        baseSpellEffects.loadFromFile(new File(configDirectory, "ArcaneBooks/SpellEffects.cfg"));
+        baseSpellEffects.loadFromFile(spellEffectsFile, new File(configDirectory, "ArcaneBooks/SpellEffects.cache"));
+        
+        // Published on the server thread, as players are sent the changes.
+        spellEffectsFileWatcher = new SpellEffectFileWatcher(baseSpellEffects, spellEffectsFile, new Executor()
+        {
+            @Override
+            public void execute(Runnable task)
+            { runOnServerTick(task); }
+        });
+        
+        spellEffectsFileWatcher.start();
     }
     
+    /**
+     * Creates the registries kept with the world, and fills them from the world's files, which are read in the
+     * background so loading the world doesn't wait on them. They're empty until the next server tick after they've
+     * been read, when what was read is put into them. Changes to them from then on are recorded in journals next to
+     * the files. If a file can't be read, its files are left as they are, and its registry isn't saved with the world.
+     * @param worldDirectory The world's save directory.
+     */
     public void loadWithWorld(File worldDirectory)
     {
+        if(runeDesignsJournal != null)
+            unloadWithWorld();
+        
         refreshRegistriesOnWorldLoad();
-        baseRuneDesigns.loadFromFile(new File(worldDirectory, "ArcaneBooks/RuneDesigns.dat"));
+        
+        final RuneDesignRegistry runeDesigns = baseRuneDesigns;
+        final RuneDesignJournal journal = new RuneDesignJournal(new File(worldDirectory, "ArcaneBooks/RuneDesigns.dat"),
+                                                                worldFiles,
+                                                                RuneDesignJournal.defaultSyncIntervalInMilliseconds);
+        runeDesignsJournal = journal;
+        
+        worldFiles.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                String contents;
+                
+                try
+                { contents = journal.load(); }
+                catch(RuntimeException exception)
+                {
+                    exception.printStackTrace();
+                    contents = null;
+                }
+                
+                final String loadedContents = contents;
+                
+                runOnServerTick(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    { runeDesignsLoaded(runeDesigns, journal, loadedContents); }
+                });
+            }
+        });
+    }
+    
+    /**
+     * Puts the rune designs read from the world's files into the registry they were read for, and starts recording
+     * changes to it in its journal. If they couldn't be read, the registry's left empty, and saving it is turned off
+     * for as long as the world's loaded. Called on the server thread.
+     * @param runeDesigns The registry the rune designs were read for.
+     * @param journal The journal they were read from.
+     * @param contents The rune designs read, or null if they couldn't be.
+     */
+    protected void runeDesignsLoaded(RuneDesignRegistry runeDesigns, RuneDesignJournal journal, String contents)
+    {
+        // The world was unloaded, or another loaded, while they were being read.
+        if(runeDesigns != baseRuneDesigns || journal != runeDesignsJournal)
+            return;
+        
+        if(contents == null)
+        {
+            // A failed read isn't the same as there being no rune designs yet; saving over the files would lose them.
+            runeDesignsLoadFailed = true;
+            
+            System.out.println("ERROR: Could not load the rune designs of this world from "
+                             + journal.getCheckpointFile().getPath() + ". Rune designs won't be saved until the world's "
+                             + "loaded again, and its rune design files have been left as they are. Changes to rune "
+                             + "designs made until then will be lost.");
+            return;
+        }
+        
+        runeDesigns.setFromString(contents);
+        runeDesigns.setJournal(journal);
+    }
+    
+    /**
+     * Has something done on the server thread at the end of the next server tick, in the order asked for. Can be
+     * called from any thread.
+     * @param task The thing to do.
+     */
+    public void runOnServerTick(Runnable task)
+    { serverTickTasks.add(task); }
+    
+    /** Does the things waiting to be done on the server thread. Should be called at the end of every server tick. */
+    public void onServerTick()
+    {
+        Runnable task;
+        
+        while((task = serverTickTasks.poll()) != null)
+            task.run();
+    }
+    
+    /**
+     * Saves the registries kept with the world. As changes are recorded in the journals as they're made, this only has
+     * to make sure they've reached the disk.
+     */
+    public void saveWithWorld()
+    {
+        if(runeDesignsJournal == null || runeDesignsLoadFailed)
+            return;
+        
+        runeDesignsJournal.sync();
+    }
+    
+    /** Finishes writing any changes to the registries kept with the world, as it's being unloaded. */
+    public void unloadWithWorld()
+    {
+        if(runeDesignsJournal == null)
+            return;
+        
+        baseRuneDesigns.setJournal(null);
+        runeDesignsJournal.close();
+        worldFiles.flush();
+        runeDesignsJournal = null;
+        runeDesignsLoadFailed = false;
     }
 }
\ No newline at end of file
@@ -0,0 +1,46 @@
+package com.haniitsu.arcanebooks.eventlisteners;
+
+import com.haniitsu.arcanebooks.magic.auras.AuraManager;
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import cpw.mods.fml.common.gameevent.TickEvent;
+import net.minecraftforge.event.entity.EntityEvent;
+import net.minecraftforge.event.world.WorldEvent;
+
+/**
+ * Moves each world's aura manager on every world tick, tells them about entities moving between chunk sections, and
+ * drops aura managers when their world unloads.
+ *
+ * Registered with both the FML event bus (for ticks) and the Forge event bus. (for entities moving and world unloads)
+ */
+public class AuraListener
+{
+    @SubscribeEvent
+    public void onWorldTick(TickEvent.WorldTickEvent event)
+    {
+        if(event.phase != TickEvent.Phase.END || event.world.isRemote)
+            return;
+        
+        AuraManager manager = AuraManager.getIfPresent(event.world);
+        
+        if(manager != null)
+            manager.tick();
+    }
+    
+    @SubscribeEvent
+    public void onEntityEnteringChunk(EntityEvent.EnteringChunk event)
+    {
+        // Raised whenever an entity's added to a chunk section, not just when it moves into another chunk - including
+        // when it's spawned, loaded, or moves up or down into another section of the same chunk.
+        if(event.entity.worldObj == null || event.entity.worldObj.isRemote)
+            return;
+        
+        AuraManager manager = AuraManager.getIfPresent(event.entity.worldObj);
+        
+        if(manager != null)
+            manager.entityEnteredSection(event.entity, event.newChunkX, event.newChunkZ);
+    }
+    
+    @SubscribeEvent
+    public void onWorldUnload(WorldEvent.Unload event)
+    { AuraManager.release(event.world); }
+}
@@ -0,0 +1,47 @@
+package com.haniitsu.arcanebooks.eventlisteners;
+
+import com.haniitsu.arcanebooks.magic.caster.BlockCasterScheduler;
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import cpw.mods.fml.common.gameevent.TickEvent;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraftforge.event.world.ChunkEvent;
+import net.minecraftforge.event.world.WorldEvent;
+
+/**
+ * Moves each world's block caster scheduler on every world tick, picks scheduled casts back up when their chunks load,
+ * and drops schedulers when their world unloads.
+ * 
+ * Registered with both the FML event bus (for ticks) and the Forge event bus. (for chunk loads and world unloads)
+ */
+public class BlockCasterSchedulerListener
+{
+    @SubscribeEvent
+    public void onWorldTick(TickEvent.WorldTickEvent event)
+    {
+        if(event.phase != TickEvent.Phase.END || event.world.isRemote)
+            return;
+        
+        BlockCasterScheduler scheduler = BlockCasterScheduler.getIfPresent(event.world);
+        
+        if(scheduler != null)
+            scheduler.tick();
+    }
+    
+    @SubscribeEvent
+    public void onChunkLoad(ChunkEvent.Load event)
+    {
+        Chunk chunk = event.getChunk();
+        
+        if(chunk.worldObj.isRemote)
+            return;
+        
+        BlockCasterScheduler scheduler = BlockCasterScheduler.getIfPresent(chunk.worldObj);
+        
+        if(scheduler != null)
+            scheduler.chunkLoaded(chunk.xPosition, chunk.zPosition);
+    }
+    
+    @SubscribeEvent
+    public void onWorldUnload(WorldEvent.Unload event)
+    { BlockCasterScheduler.release(event.world); }
+}
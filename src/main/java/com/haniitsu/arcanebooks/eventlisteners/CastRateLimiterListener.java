@@ -0,0 +1,18 @@
+package com.haniitsu.arcanebooks.eventlisteners;
+
+import com.haniitsu.arcanebooks.ArcaneBooks;
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import cpw.mods.fml.common.gameevent.TickEvent;
+
+/**
+ * Casts spells held onto by the cast rate limiter once their casters have cast time again.
+ */
+public class CastRateLimiterListener
+{
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent event)
+    {
+        if(event.phase == TickEvent.Phase.END)
+            ArcaneBooks.instance.castRateLimiter.onServerTick();
+    }
+}
@@ -0,0 +1,21 @@
+package com.haniitsu.arcanebooks.eventlisteners;
+
+import com.haniitsu.arcanebooks.ArcaneBooks;
+import com.haniitsu.arcanebooks.magic.SpellWordIds;
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import cpw.mods.fml.common.network.FMLNetworkEvent.ClientDisconnectionFromServerEvent;
+
+/**
+ * Listens to the client disconnecting from a server, so that what the server sent the client upon joining (the ids of
+ * spell words, and the spell effects and rune designs) is replaced with the client's own again.
+ */
+public class ClientDisconnectListener
+{
+    @SubscribeEvent
+    public void onDisconnect(ClientDisconnectionFromServerEvent event)
+    {
+        SpellWordIds.restoreLocal();
+        ArcaneBooks.instance.registries.spellEffects = ArcaneBooks.instance.registries.baseSpellEffects;
+        ArcaneBooks.instance.registries.runeDesigns  = ArcaneBooks.instance.registries.baseRuneDesigns;
+    }
+}
@@ -0,0 +1,39 @@
+package com.haniitsu.arcanebooks.eventlisteners;
+
+import com.haniitsu.arcanebooks.ArcaneBooks;
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import cpw.mods.fml.common.gameevent.TickEvent;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraftforge.event.world.ChunkEvent;
+import net.minecraftforge.event.world.WorldEvent;
+
+/**
+ * Replays the parts of spell bursts deferred for being in unloaded chunks once the chunks load, and forgets about them
+ * when their world unloads.
+ */
+public class DeferredBurstListener
+{
+    @SubscribeEvent
+    public void onChunkLoad(ChunkEvent.Load event)
+    {
+        Chunk chunk = event.getChunk();
+        
+        if(!chunk.worldObj.isRemote)
+            ArcaneBooks.instance.deferredBursts.chunkLoaded(chunk.worldObj.provider.dimensionId,
+                                                            chunk.xPosition, chunk.zPosition);
+    }
+    
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent event)
+    {
+        if(event.phase == TickEvent.Phase.END)
+            ArcaneBooks.instance.deferredBursts.onServerTick();
+    }
+    
+    @SubscribeEvent
+    public void onWorldUnload(WorldEvent.Unload event)
+    {
+        if(!event.world.isRemote)
+            ArcaneBooks.instance.deferredBursts.releaseWorld(event.world.provider.dimensionId);
+    }
+}
@@ -0,0 +1,47 @@
+package com.haniitsu.arcanebooks.eventlisteners;
+
+import com.haniitsu.arcanebooks.ArcaneBooks;
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import cpw.mods.fml.common.gameevent.PlayerEvent.PlayerLoggedOutEvent;
+import cpw.mods.fml.common.gameevent.TickEvent;
+import java.util.List;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraftforge.event.world.ChunkEvent;
+
+/**
+ * Saves changed mana stores to their entities every so often, and saves and releases the mana stores of players when
+ * they log out and of other entities when their chunks unload.
+ *
+ * Registered with both the FML event bus (for ticks and players logging out) and the Forge event bus. (for chunks
+ * unloading)
+ */
+public class ManaStoreListener
+{
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent event)
+    {
+        if(event.phase == TickEvent.Phase.END)
+            ArcaneBooks.instance.manaStores.onServerTick();
+    }
+    
+    @SubscribeEvent
+    public void onPlayerLogOut(PlayerLoggedOutEvent event)
+    { ArcaneBooks.instance.manaStores.release(event.player); }
+    
+    @SubscribeEvent
+    public void onChunkUnload(ChunkEvent.Unload event)
+    {
+        Chunk chunk = event.getChunk();
+        
+        if(chunk.worldObj.isRemote)
+            return;
+        
+        // Players' stores are kept until they log out, as players can be moved between chunks and worlds.
+        for(List list : chunk.entityLists)
+            for(Object i : list)
+                if(!(i instanceof EntityPlayer))
+                    ArcaneBooks.instance.manaStores.release((Entity)i);
+    }
+}
@@ -4,6 +4,7 @@ import com.haniitsu.arcanebooks.ArcaneBooks;
 import com.haniitsu.arcanebooks.misc.UtilMethods;
 import com.haniitsu.arcanebooks.packets.RuneDesignsSyncPacket;
 import com.haniitsu.arcanebooks.packets.SpellEffectsSyncPacket;
+import com.haniitsu.arcanebooks.packets.SpellWordIdsSyncPacket;
 import cpw.mods.fml.common.eventhandler.SubscribeEvent;
 import cpw.mods.fml.common.gameevent.PlayerEvent.PlayerLoggedInEvent;
 import net.minecraft.entity.player.EntityPlayerMP;
@@ -24,6 +25,8 @@ public class PlayerJoinServerListener
             return;
         }
 
+        // Ids first, so the client's spell words have the server's ids before anything's sent by id.
+        ArcaneBooks.instance.packetChannel.sendTo(new SpellWordIdsSyncPacket(), (EntityPlayerMP)event.player);
         ArcaneBooks.instance.packetChannel.sendTo(new SpellEffectsSyncPacket(), (EntityPlayerMP)event.player);
         ArcaneBooks.instance.packetChannel.sendTo(new RuneDesignsSyncPacket(),  (EntityPlayerMP)event.player);
     }
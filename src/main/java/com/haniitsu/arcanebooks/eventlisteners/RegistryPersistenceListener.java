@@ -0,0 +1,52 @@
+package com.haniitsu.arcanebooks.eventlisteners;
+
+import com.haniitsu.arcanebooks.ArcaneBooks;
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import cpw.mods.fml.common.gameevent.TickEvent;
+import net.minecraft.world.World;
+import net.minecraftforge.event.world.WorldEvent;
+
+/**
+ * Listens to the overworld loading, saving, and unloading, so that the registries kept with the world (e.g. rune
+ * designs) are loaded from and saved to its directory. Both happen in the background, and what's read is put into the
+ * registries at the end of a server tick.
+ */
+public class RegistryPersistenceListener
+{
+    @SubscribeEvent
+    public void onWorldLoad(WorldEvent.Load event)
+    {
+        if(isServerOverworld(event.world) && event.world.getSaveHandler() != null)
+            ArcaneBooks.instance.registries.loadWithWorld(event.world.getSaveHandler().getWorldDirectory());
+    }
+    
+    @SubscribeEvent
+    public void onWorldSave(WorldEvent.Save event)
+    {
+        if(isServerOverworld(event.world))
+            ArcaneBooks.instance.registries.saveWithWorld();
+    }
+    
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent event)
+    {
+        if(event.phase == TickEvent.Phase.END)
+            ArcaneBooks.instance.registries.onServerTick();
+    }
+    
+    @SubscribeEvent
+    public void onWorldUnload(WorldEvent.Unload event)
+    {
+        if(isServerOverworld(event.world))
+            ArcaneBooks.instance.registries.unloadWithWorld();
+    }
+    
+    /**
+     * Gets whether a world is the server's overworld, which the registries are kept with. (Other dimensions share its
+     * save directory.)
+     * @param world The world to check.
+     * @return True if it's the overworld, on the server. Otherwise, false.
+     */
+    private static boolean isServerOverworld(World world)
+    { return !world.isRemote && world.provider.dimensionId == 0; }
+}
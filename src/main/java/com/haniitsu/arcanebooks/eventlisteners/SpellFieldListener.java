@@ -0,0 +1,70 @@
+package com.haniitsu.arcanebooks.eventlisteners;
+
+import com.haniitsu.arcanebooks.magic.fields.SpellFieldIndex;
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import cpw.mods.fml.common.gameevent.TickEvent;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraftforge.event.world.ChunkEvent;
+import net.minecraftforge.event.world.WorldEvent;
+
+/**
+ * Indexes spell fields as their chunks load and unload, applies them each world tick, and saves them with the world.
+ *
+ * Registered with both the FML event bus (for ticks) and the Forge event bus. (for chunks loading and worlds saving)
+ */
+public class SpellFieldListener
+{
+    @SubscribeEvent
+    public void onWorldTick(TickEvent.WorldTickEvent event)
+    {
+        if(event.phase != TickEvent.Phase.END || event.world.isRemote)
+            return;
+        
+        SpellFieldIndex index = SpellFieldIndex.getIfPresent(event.world);
+        
+        if(index != null)
+            index.tick();
+    }
+    
+    @SubscribeEvent
+    public void onChunkLoad(ChunkEvent.Load event)
+    {
+        Chunk chunk = event.getChunk();
+        
+        if(!chunk.worldObj.isRemote)
+            SpellFieldIndex.get(chunk.worldObj).chunkLoaded(chunk.xPosition, chunk.zPosition);
+    }
+    
+    @SubscribeEvent
+    public void onChunkUnload(ChunkEvent.Unload event)
+    {
+        Chunk chunk = event.getChunk();
+        
+        if(chunk.worldObj.isRemote)
+            return;
+        
+        SpellFieldIndex index = SpellFieldIndex.getIfPresent(chunk.worldObj);
+        
+        if(index != null)
+            index.chunkUnloaded(chunk.xPosition, chunk.zPosition);
+    }
+    
+    @SubscribeEvent
+    public void onWorldSave(WorldEvent.Save event)
+    {
+        if(event.world.isRemote)
+            return;
+        
+        SpellFieldIndex index = SpellFieldIndex.getIfPresent(event.world);
+        
+        if(index != null)
+            index.save();
+    }
+    
+    @SubscribeEvent
+    public void onWorldUnload(WorldEvent.Unload event)
+    {
+        if(!event.world.isRemote)
+            SpellFieldIndex.release(event.world);
+    }
+}
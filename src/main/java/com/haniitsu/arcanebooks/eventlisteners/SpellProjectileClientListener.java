@@ -0,0 +1,30 @@
+package com.haniitsu.arcanebooks.eventlisteners;
+
+import com.haniitsu.arcanebooks.projectiles.SpellProjectileManager;
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import cpw.mods.fml.common.gameevent.TickEvent;
+import net.minecraft.client.Minecraft;
+import net.minecraft.world.World;
+
+/**
+ * Moves the client's mirror of the spell projectiles in the world it's in along every client tick.
+ */
+public class SpellProjectileClientListener
+{
+    @SubscribeEvent
+    public void onClientTick(TickEvent.ClientTickEvent event)
+    {
+        if(event.phase != TickEvent.Phase.END)
+            return;
+        
+        World world = Minecraft.getMinecraft().theWorld;
+        
+        if(world == null)
+            return;
+        
+        SpellProjectileManager manager = SpellProjectileManager.getIfPresent(world);
+        
+        if(manager != null)
+            manager.tick();
+    }
+}
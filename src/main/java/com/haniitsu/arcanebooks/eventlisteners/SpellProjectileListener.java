@@ -0,0 +1,30 @@
+package com.haniitsu.arcanebooks.eventlisteners;
+
+import com.haniitsu.arcanebooks.projectiles.SpellProjectileManager;
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import cpw.mods.fml.common.gameevent.TickEvent;
+import net.minecraftforge.event.world.WorldEvent;
+
+/**
+ * Moves the spell projectiles in each world along every world tick, and drops them when their world unloads.
+ * 
+ * Registered with both the FML event bus (for ticks) and the Forge event bus. (for world unloads)
+ */
+public class SpellProjectileListener
+{
+    @SubscribeEvent
+    public void onWorldTick(TickEvent.WorldTickEvent event)
+    {
+        if(event.phase != TickEvent.Phase.END || event.world.isRemote)
+            return;
+        
+        SpellProjectileManager manager = SpellProjectileManager.getIfPresent(event.world);
+        
+        if(manager != null)
+            manager.tick();
+    }
+    
+    @SubscribeEvent
+    public void onWorldUnload(WorldEvent.Unload event)
+    { SpellProjectileManager.release(event.world); }
+}
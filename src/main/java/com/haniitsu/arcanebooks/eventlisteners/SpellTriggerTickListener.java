@@ -0,0 +1,19 @@
+package com.haniitsu.arcanebooks.eventlisteners;
+
+import com.haniitsu.arcanebooks.magic.SpellTriggerQueue;
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import cpw.mods.fml.common.gameevent.TickEvent;
+
+/**
+ * Casts any triggered spells that were carried over from previous server ticks, for trigger chains that went over the
+ * number of spells they're allowed to cast in a single tick.
+ */
+public class SpellTriggerTickListener
+{
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent event)
+    {
+        if(event.phase == TickEvent.Phase.END)
+            SpellTriggerQueue.onServerTick();
+    }
+}
@@ -0,0 +1,40 @@
+package com.haniitsu.arcanebooks.eventlisteners;
+
+import com.haniitsu.arcanebooks.ArcaneBooks;
+import com.haniitsu.arcanebooks.magic.detection.WatchedRegionWorldAccess;
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraftforge.event.world.ChunkEvent;
+import net.minecraftforge.event.world.WorldEvent;
+
+/**
+ * Hooks into server worlds as they load so that the regions watched by Detect spell effects cast from blocks are told
+ * about every block change, and listens to chunk/world unloads so they're released when their casters unload.
+ */
+public class WatchedRegionListener
+{
+    @SubscribeEvent
+    public void onWorldLoad(WorldEvent.Load event)
+    {
+        if(!event.world.isRemote)
+            event.world.addWorldAccess(new WatchedRegionWorldAccess(ArcaneBooks.instance.watchedRegions,
+                                                                    event.world.provider.dimensionId));
+    }
+    
+    @SubscribeEvent
+    public void onChunkUnload(ChunkEvent.Unload event)
+    {
+        Chunk chunk = event.getChunk();
+        
+        if(!chunk.worldObj.isRemote)
+            ArcaneBooks.instance.watchedRegions.releaseChunk(chunk.worldObj.provider.dimensionId,
+                                                             chunk.xPosition, chunk.zPosition);
+    }
+    
+    @SubscribeEvent
+    public void onWorldUnload(WorldEvent.Unload event)
+    {
+        if(!event.world.isRemote)
+            ArcaneBooks.instance.watchedRegions.releaseWorld(event.world.provider.dimensionId);
+    }
+}
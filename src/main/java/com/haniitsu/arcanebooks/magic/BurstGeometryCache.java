@@ -0,0 +1,134 @@
+package com.haniitsu.arcanebooks.magic;
+
+import com.haniitsu.arcanebooks.magic.modifiers.effect.AOEShape;
+import com.haniitsu.arcanebooks.misc.BlockLocation;
+import com.haniitsu.arcanebooks.misc.Direction;
+import com.haniitsu.arcanebooks.misc.LoadedChunks;
+import com.haniitsu.arcanebooks.misc.Location;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import net.minecraft.world.World;
+
+/**
+ * Holds onto the blocks covered by AOEs across a batch of spell casts, (see Spell.castAll) so that the same spell
+ * burst from many blocks only works out the shape of its AOE once. The covered blocks are held relative to the burst
+ * location, and moved to wherever each burst happens.
+ *
+ * This only applies to AOE shapes that are translation invariant, burst at the centre of a block, (as bursts from
+ * casting blocks are) where moving the blocks covered gives exactly the same blocks as working them out again.
+ * Anything else is passed straight through to the AOE shape.
+ */
+public class BurstGeometryCache
+{
+    /** The blocks covered by each AOE shape, size and direction, as per AOEShape.getBlockOffsetsInRange. */
+    protected final Map<List<Object>, int[]> blockOffsets = new HashMap<List<Object>, int[]>();
+    
+    /** The chunks found to be loaded so far, as their world IDs and chunk keys. */
+    protected final Set<List<Object>> loadedChunks = new HashSet<List<Object>>();
+    
+    /**
+     * Gets all blocks within the passed AOE shape (of the passed size) with the passed burst location at the centre,
+     * leaving out blocks in chunks that aren't loaded. The same as AOEShape.getBlocksInRange.
+     * @param shape The AOE shape.
+     * @param AOESize The size of the AOE in metres.
+     * @param burstLocation The centre-point of the AOE shape; the place where the spell effect was burst.
+     * @param burstDirection The direction the spell burst was facing in.
+     * @param skippedChunks The collection to add the keys of any chunks skipped for not being loaded to, or null.
+     * @return The blocks that should be affected.
+     */
+    public Collection<BlockLocation> getBlocksInRange(AOEShape shape, double AOESize, Location burstLocation,
+                                                      Direction burstDirection, Collection<Long> skippedChunks)
+    {
+        if(!shape.isTranslationInvariant() || !isBlockCentre(burstLocation))
+            return shape.getBlocksInRange(AOESize, burstLocation, burstDirection, skippedChunks);
+        
+        List<Object> key = Arrays.<Object>asList(shape, AOESize, burstDirection);
+        int[] offsets = blockOffsets.get(key);
+        
+        if(offsets == null)
+        {
+            offsets = shape.getBlockOffsetsInRange(AOESize, new Location(0.5, 0.5, 0.5), burstDirection);
+            blockOffsets.put(key, offsets);
+        }
+        
+        int worldId = burstLocation.getWorldId();
+        World world = burstLocation.getWorld();
+        int burstX  = (int)Math.floor(burstLocation.getX());
+        int burstY  = (int)Math.floor(burstLocation.getY());
+        int burstZ  = (int)Math.floor(burstLocation.getZ());
+        
+        // Going by the same bounds AOEShape.getBlocksInRange does, so exactly the same blocks come out.
+        BlockLocation min = new Location(burstLocation.getX() - AOESize,
+                                         burstLocation.getY() - AOESize,
+                                         burstLocation.getZ() - AOESize).toBlockLocation();
+        
+        BlockLocation max = new Location(burstLocation.getX() + AOESize,
+                                         burstLocation.getY() + AOESize,
+                                         burstLocation.getZ() + AOESize).toBlockLocation();
+        
+        Collection<BlockLocation> blocks = new HashSet<BlockLocation>();
+        
+        for(int i = 0; i < offsets.length; i += 3)
+        {
+            int x = burstX + offsets[i];
+            int y = burstY + offsets[i + 1];
+            int z = burstZ + offsets[i + 2];
+            
+            if(x < min.getX() || x > max.getX() || y < min.getY() || y > max.getY() || z < min.getZ() || z > max.getZ())
+                continue;
+            
+            if(!isChunkLoaded(world, worldId, x >> 4, z >> 4))
+            {
+                if(skippedChunks != null)
+                    skippedChunks.add(LoadedChunks.getChunkKey(x >> 4, z >> 4));
+                
+                continue;
+            }
+            
+            blocks.add(new BlockLocation(worldId, x, y, z));
+        }
+        
+        return blocks;
+    }
+    
+    /**
+     * Checks whether a chunk is loaded, remembering it for the rest of the batch if it is. Chunks are only unloaded
+     * between ticks, so a chunk that's loaded stays loaded for the batch - but one that isn't could be loaded by
+     * something part-way through, so those are checked again each time.
+     * @param world The world the chunk is in.
+     * @param worldId The ID of the world.
+     * @param chunkX The chunk's X coördinate.
+     * @param chunkZ The chunk's Z coördinate.
+     * @return True if the chunk is loaded, otherwise false.
+     */
+    protected boolean isChunkLoaded(World world, int worldId, int chunkX, int chunkZ)
+    {
+        List<Object> key = Arrays.<Object>asList(worldId, LoadedChunks.getChunkKey(chunkX, chunkZ));
+        
+        if(loadedChunks.contains(key))
+            return true;
+        
+        if(!LoadedChunks.isChunkLoaded(world, chunkX, chunkZ))
+            return false;
+        
+        loadedChunks.add(key);
+        return true;
+    }
+    
+    /**
+     * Gets whether the passed location is exactly at the centre of a block.
+     * @param location The location to check.
+     * @return True if the location's at the centre of a block, otherwise false.
+     */
+    static boolean isBlockCentre(Location location)
+    {
+        return location.getX() - Math.floor(location.getX()) == 0.5
+            && location.getY() - Math.floor(location.getY()) == 0.5
+            && location.getZ() - Math.floor(location.getZ()) == 0.5;
+    }
+}
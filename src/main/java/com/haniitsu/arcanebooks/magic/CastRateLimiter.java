@@ -0,0 +1,487 @@
+package com.haniitsu.arcanebooks.magic;
+
+import com.haniitsu.arcanebooks.magic.caster.SpellCaster;
+import com.haniitsu.arcanebooks.magic.caster.SpellCasterBlock;
+import com.haniitsu.arcanebooks.magic.caster.SpellCasterEntity;
+import com.haniitsu.arcanebooks.magic.caster.SpellCasterPlayer;
+import com.haniitsu.arcanebooks.misc.events.BasicEvent;
+import com.haniitsu.arcanebooks.misc.events.Event;
+import com.haniitsu.arcanebooks.misc.events.args.BasicEventArgs;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.ChatComponentText;
+
+/**
+ * Limits how much server time each caster can spend casting spells. Each caster has a bucket of milliseconds of cast
+ * time, which casts are paid for from after they've run (by how long they actually took) and which slowly refills.
+ * Casters whose buckets have run dry can't cast until they've refilled a bit - their casts are either turned down, or
+ * held onto and cast once they can be.
+ *
+ * How big buckets are and how quickly they refill depends on the caster's group. By default, players are either in the
+ * "op" or "player" group, other entities in the "mob" group, and blocks in the "block" group.
+ */
+public class CastRateLimiter
+{
+    /**
+     * How much cast time casters in a group can have saved up, and how quickly it builds up.
+     */
+    public static class Limits
+    {
+        /**
+         * Creates a new set of limits.
+         * @param capacityMillis The most milliseconds of cast time a caster can have saved up.
+         * @param refillMillisPerSecond How many milliseconds of cast time a caster gets back per second.
+         * @param deferWhenThrottled Whether casts made while out of cast time should be cast once the caster has some
+         * back, rather than being turned down.
+         */
+        public Limits(double capacityMillis, double refillMillisPerSecond, boolean deferWhenThrottled)
+        {
+            this.capacityMillis        = capacityMillis;
+            this.refillMillisPerSecond = refillMillisPerSecond;
+            this.deferWhenThrottled    = deferWhenThrottled;
+        }
+        
+        /** The most milliseconds of cast time a caster can have saved up. */
+        final double capacityMillis;
+        
+        /** How many milliseconds of cast time a caster gets back per second. */
+        final double refillMillisPerSecond;
+        
+        /** Whether casts made while out of cast time should be held onto and cast later rather than turned down. */
+        final boolean deferWhenThrottled;
+        
+        public double getCapacityMillis()
+        { return capacityMillis; }
+        
+        public double getRefillMillisPerSecond()
+        { return refillMillisPerSecond; }
+        
+        public boolean defersWhenThrottled()
+        { return deferWhenThrottled; }
+    }
+    
+    /**
+     * Works out which group a caster is in, for the purposes of which limits apply to it.
+     */
+    public static interface GroupResolver
+    {
+        /**
+         * Gets the group of the passed caster.
+         * @param caster The caster to get the group of.
+         * @return The name of the caster's group.
+         */
+        String getGroup(SpellCaster caster);
+    }
+    
+    /**
+     * The cast time available to a single caster.
+     */
+    protected static class Bucket
+    {
+        /**
+         * Creates a new, full bucket.
+         * @param group The group of the caster the bucket is for.
+         * @param limits The limits of that group.
+         */
+        public Bucket(String group, Limits limits)
+        {
+            this.group         = group;
+            this.millisLeft    = limits.capacityMillis;
+            this.lastRefilled  = System.nanoTime();
+        }
+        
+        /**
+         * The group of the caster this bucket is for, as of its last cast. Casters can change group, (e.g. players
+         * being opped) so this is updated on each cast.
+         */
+        volatile String group;
+        
+        /** The milliseconds of cast time left. This goes below 0 when a cast takes more time than was left. */
+        double millisLeft;
+        
+        /** When the bucket was last refilled, as per System.nanoTime(). */
+        long lastRefilled;
+        
+        /** When the caster was last told they were casting too much, as per System.nanoTime(). */
+        long lastWarned = 0;
+        
+        /** The spell held onto to be cast once the caster has cast time back, or null if there isn't one. */
+        Spell deferredSpell = null;
+        
+        /** The caster of the spell held onto. */
+        SpellCaster deferredCaster = null;
+        
+        /**
+         * Adds back the cast time built up since the bucket was last refilled.
+         * @param limits The limits of the bucket's group.
+         * @param now The current time, as per System.nanoTime().
+         */
+        void refill(Limits limits, long now)
+        {
+            // Checked first, as no time having passed would give 0 * infinity, which is NaN and would never refill.
+            if(limits.refillMillisPerSecond == Double.POSITIVE_INFINITY)
+                millisLeft = limits.capacityMillis;
+            else if(now > lastRefilled)
+            {
+                double secondsPassed = (now - lastRefilled) / 1000000000.0;
+                millisLeft = Math.min(limits.capacityMillis, millisLeft + secondsPassed * limits.refillMillisPerSecond);
+            }
+            
+            lastRefilled = Math.max(lastRefilled, now);
+        }
+        
+        /**
+         * Moves the bucket to the passed group, if it's not already in it, holding no more than the new group's
+         * capacity.
+         * @param newGroup The caster's group now.
+         * @param limits The limits of that group.
+         */
+        void setGroup(String newGroup, Limits limits)
+        {
+            if(newGroup.equals(group))
+                return;
+            
+            group      = newGroup;
+            millisLeft = Math.min(millisLeft, limits.capacityMillis);
+        }
+    }
+    
+    /**
+     * Args for when a caster is throttled.
+     */
+    public static class ThrottledArgs extends BasicEventArgs
+    {
+        /**
+         * Creates a new instance of this event args with the passed args.
+         * @param caster The caster throttled.
+         * @param spell The spell the caster tried to cast.
+         * @param group The group of the caster.
+         * @param deferred Whether the cast was held onto to be cast later, rather than turned down.
+         */
+        public ThrottledArgs(SpellCaster caster, Spell spell, String group, boolean deferred)
+        {
+            this.caster   = caster;
+            this.spell    = spell;
+            this.group    = group;
+            this.deferred = deferred;
+        }
+        
+        final SpellCaster caster;
+        final Spell       spell;
+        final String      group;
+        final boolean     deferred;
+        
+        public SpellCaster getCaster()
+        { return caster; }
+        
+        public Spell getSpell()
+        { return spell; }
+        
+        public String getGroup()
+        { return group; }
+        
+        public boolean wasDeferred()
+        { return deferred; }
+    }
+    
+    /**
+     * Counts of what the limiter has done, for a single group.
+     */
+    public static class Metrics
+    {
+        final AtomicLong castsAllowed  = new AtomicLong();
+        final AtomicLong castsRejected = new AtomicLong();
+        final AtomicLong castsDeferred = new AtomicLong();
+        final AtomicLong nanosCharged  = new AtomicLong();
+        
+        /** Gets the number of casts let through. */
+        public long getCastsAllowed()
+        { return castsAllowed.get(); }
+        
+        /** Gets the number of casts turned down. */
+        public long getCastsRejected()
+        { return castsRejected.get(); }
+        
+        /** Gets the number of casts held onto to be cast later. */
+        public long getCastsDeferred()
+        { return castsDeferred.get(); }
+        
+        /** Gets the total time spent on casts, in milliseconds. */
+        public double getMillisCharged()
+        { return nanosCharged.get() / 1000000.0; }
+    }
+    
+    /**
+     * Creates a new rate limiter, with the default limits for each of the default groups.
+     */
+    public CastRateLimiter()
+    {
+        setLimits("op",     new Limits(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, false));
+        setLimits("player", new Limits(100, 25, false));
+        setLimits("mob",    new Limits(50,  10, false));
+        setLimits("block",  new Limits(50,  10, true));
+    }
+    
+    /** The limits of groups without their own. */
+    public static final Limits defaultLimits = new Limits(50, 10, false);
+    
+    /** The number of nanoseconds between warnings to a player that they're casting too much. */
+    static final long nanosBetweenWarnings = 1000000000L;
+    
+    /** The limits of each group. */
+    protected final Map<String, Limits> limits = new ConcurrentHashMap<String, Limits>();
+    
+    /** The buckets of each caster, by caster key. (see getCasterKey) */
+    protected final Map<Object, Bucket> buckets = new ConcurrentHashMap<Object, Bucket>();
+    
+    /** The counts of what the limiter has done for each group. */
+    protected final Map<String, Metrics> metrics = new ConcurrentHashMap<String, Metrics>();
+    
+    /** Works out the groups of casters. */
+    protected volatile GroupResolver groupResolver = new GroupResolver()
+    {
+        @Override
+        public String getGroup(SpellCaster caster)
+        {
+            if(caster instanceof SpellCasterPlayer)
+            {
+                MinecraftServer server = MinecraftServer.getServer();
+                EntityPlayer player = ((SpellCasterPlayer)caster).getCasterEntity();
+                
+                if(server != null && server.getConfigurationManager().func_152596_g(player.getGameProfile()))
+                    return "op";
+                
+                return "player";
+            }
+            
+            if(caster instanceof SpellCasterEntity)
+                return "mob";
+            
+            if(caster instanceof SpellCasterBlock)
+                return "block";
+            
+            return "other";
+        }
+    };
+    
+    /** When a caster has a cast turned down or held onto because they're out of cast time. */
+    final public Event<ThrottledArgs> throttled = new BasicEvent<ThrottledArgs>();
+    
+    /**
+     * Sets the limits of a group. This applies to casters already in the group from their next cast.
+     * @param group The name of the group.
+     * @param groupLimits The group's new limits.
+     */
+    public void setLimits(String group, Limits groupLimits)
+    { limits.put(group, groupLimits); }
+    
+    /**
+     * Gets the limits of a group.
+     * @param group The name of the group.
+     * @return The group's limits, or the default limits if it doesn't have its own.
+     */
+    public Limits getLimits(String group)
+    {
+        Limits groupLimits = limits.get(group);
+        return groupLimits != null ? groupLimits : defaultLimits;
+    }
+    
+    /**
+     * Sets what works out which group casters are in.
+     * @param resolver The new group resolver.
+     */
+    public void setGroupResolver(GroupResolver resolver)
+    { groupResolver = resolver; }
+    
+    /**
+     * Checks whether the passed caster has any cast time left, and so whether they should be allowed to cast the
+     * passed spell now. If they don't and their group defers casts, the cast is held onto and cast later. (replacing
+     * any other cast already being held onto for the caster)
+     * @param spell The spell being cast.
+     * @param caster The caster casting it.
+     * @return True if the spell should be cast now, otherwise false.
+     */
+    public boolean tryAcquire(Spell spell, SpellCaster caster)
+    {
+        Bucket bucket = getBucket(caster);
+        String group = groupResolver.getGroup(caster); // Each cast, as casters can change group. (e.g. being opped)
+        Limits groupLimits = getLimits(group);
+        Metrics groupMetrics = getMetrics(group);
+        long now = System.nanoTime();
+        boolean warn;
+        
+        synchronized(bucket)
+        {
+            bucket.setGroup(group, groupLimits);
+            bucket.refill(groupLimits, now);
+            
+            if(bucket.millisLeft > 0)
+            {
+                groupMetrics.castsAllowed.incrementAndGet();
+                return true;
+            }
+            
+            if(groupLimits.deferWhenThrottled)
+            {
+                bucket.deferredSpell  = spell;
+                bucket.deferredCaster = caster;
+            }
+            
+            warn = now - bucket.lastWarned >= nanosBetweenWarnings;
+            
+            if(warn)
+                bucket.lastWarned = now;
+        }
+        
+        if(groupLimits.deferWhenThrottled)
+            groupMetrics.castsDeferred.incrementAndGet();
+        else
+            groupMetrics.castsRejected.incrementAndGet();
+        
+        // Only every so often, so players holding down right-click don't get their chat flooded.
+        if(warn && caster instanceof SpellCasterPlayer)
+            ((SpellCasterPlayer)caster).getCasterEntity().addChatMessage(new ChatComponentText(
+                groupLimits.deferWhenThrottled ? "Your spell fizzles for a moment, straining to be cast."
+                                               : "You're too drained to cast another spell just yet."));
+        
+        throttled.raise(this, new ThrottledArgs(caster, spell, group, groupLimits.deferWhenThrottled));
+        return false;
+    }
+    
+    /**
+     * Takes the time a cast took out of its caster's cast time.
+     * @param caster The caster that cast the spell.
+     * @param nanos How long the cast took, in nanoseconds.
+     */
+    public void charge(SpellCaster caster, long nanos)
+    {
+        Bucket bucket = getBucket(caster);
+        getMetrics(bucket.group).nanosCharged.addAndGet(nanos);
+        
+        synchronized(bucket)
+        { bucket.millisLeft -= nanos / 1000000.0; }
+    }
+    
+    /**
+     * Casts any held onto casts whose casters have cast time again, and forgets about casters with full buckets and
+     * nothing held onto. Should be called once per server tick.
+     */
+    public void onServerTick()
+    {
+        List<Spell>       spellsToCast  = new ArrayList<Spell>();
+        List<SpellCaster> castersToCast = new ArrayList<SpellCaster>();
+        long now = System.nanoTime();
+        
+        for(Iterator<Bucket> i = buckets.values().iterator(); i.hasNext();)
+        {
+            Bucket bucket = i.next();
+            Limits groupLimits = getLimits(bucket.group);
+            
+            synchronized(bucket)
+            {
+                bucket.refill(groupLimits, now);
+                
+                if(bucket.deferredSpell != null && bucket.millisLeft > 0)
+                {
+                    spellsToCast .add(bucket.deferredSpell);
+                    castersToCast.add(bucket.deferredCaster);
+                    bucket.deferredSpell  = null;
+                    bucket.deferredCaster = null;
+                }
+                else if(bucket.deferredSpell == null && bucket.millisLeft >= groupLimits.capacityMillis)
+                    i.remove(); // A new, full bucket is the same as this one.
+            }
+        }
+        
+        for(int i = 0; i < spellsToCast.size(); i++)
+            spellsToCast.get(i).cast(castersToCast.get(i));
+    }
+    
+    /**
+     * Gets the counts of what the limiter has done for each group, e.g. to export as metrics.
+     * @return The metrics of each group that's had casters cast, by group name.
+     */
+    public Map<String, Metrics> getMetrics()
+    { return Collections.unmodifiableMap(new HashMap<String, Metrics>(metrics)); }
+    
+    /**
+     * Gets the counts of what the limiter has done for the passed group, creating them if they don't exist yet.
+     * @param group The name of the group.
+     * @return The group's metrics.
+     */
+    protected Metrics getMetrics(String group)
+    {
+        Metrics groupMetrics = metrics.get(group);
+        
+        if(groupMetrics == null)
+        {
+            synchronized(metrics)
+            {
+                groupMetrics = metrics.get(group);
+                
+                if(groupMetrics == null)
+                {
+                    groupMetrics = new Metrics();
+                    metrics.put(group, groupMetrics);
+                }
+            }
+        }
+        
+        return groupMetrics;
+    }
+    
+    /**
+     * Gets the bucket of the passed caster, creating a full one if it doesn't have one.
+     * @param caster The caster to get the bucket of.
+     * @return The caster's bucket.
+     */
+    protected Bucket getBucket(SpellCaster caster)
+    {
+        Object key = getCasterKey(caster);
+        Bucket bucket = buckets.get(key);
+        
+        if(bucket == null)
+        {
+            synchronized(buckets)
+            {
+                bucket = buckets.get(key);
+                
+                if(bucket == null)
+                {
+                    String group = groupResolver.getGroup(caster);
+                    bucket = new Bucket(group, getLimits(group));
+                    buckets.put(key, bucket);
+                }
+            }
+        }
+        
+        return bucket;
+    }
+    
+    /**
+     * Gets the object identifying a caster, so that different wrappers of the same caster share a bucket.
+     * @param caster The caster to get the key of.
+     * @return The player's UUID, the entity, the block location, or the caster itself if it's none of these.
+     */
+    protected static Object getCasterKey(SpellCaster caster)
+    {
+        if(caster instanceof SpellCasterPlayer)
+            return ((SpellCasterPlayer)caster).getCasterEntity().getUniqueID();
+        
+        if(caster instanceof SpellCasterEntity)
+            return ((SpellCasterEntity)caster).getCasterEntity();
+        
+        if(caster instanceof SpellCasterBlock)
+            return ((SpellCasterBlock)caster).getBlockLocation();
+        
+        return caster;
+    }
+}
@@ -8,6 +8,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 import org.apache.commons.lang3.NotImplementedException;
 
 /**
@@ -63,10 +64,25 @@ public class ConfiguredDefinition implements SpellEffectDefinitionModifier
         this.argumentValue = argumentValue;
         List<SpellEffectDefinitionModifier> freshModifiers = new ArrayList<SpellEffectDefinitionModifier>(modifiers);
         
+        // The passed modifiers will already contain the value modifier if they came from another configured definition
+        // or from a configured definition instruction - don't add it twice.
         if(argumentValue != null)
-            freshModifiers.add(new ModifierValueDefinitionModifier(argumentValue));
+        {
+            ModifierValueDefinitionModifier valueModifier = new ModifierValueDefinitionModifier(argumentValue);
+            
+            if(!freshModifiers.contains(valueModifier))
+                freshModifiers.add(valueModifier);
+        }
+        
+        this.defModifiers = Collections.unmodifiableList(freshModifiers);
         
-        this.defModifiers = Collections.unmodifiableList(new ArrayList<SpellEffectDefinitionModifier>(freshModifiers));
+        // Worked out up-front, as configured definitions are interned by structure and so get hashed a lot while
+        // loading, and their contents never change.
+        int hash = 3;
+        hash = 29 * hash + System.identityHashCode(this.definition);
+        hash = 29 * hash + (this.argumentValue != null ? this.argumentValue.hashCode() : 0);
+        hash = 29 * hash + this.defModifiers.hashCode();
+        this.hash = hash;
     }
     
     /** The core definition itself. */
@@ -81,9 +97,16 @@ public class ConfiguredDefinition implements SpellEffectDefinitionModifier
      */
     protected final String argumentValue;
     
+    /** The hash code of this configured definition, worked out from its definition, value, and modifiers. */
+    private final int hash;
+    
     private List<LogicalCheckDefinitionModifier> logicalChecksCache = null;
     
-    private CastCache castCache = null;
+    /**
+     * The cast cache made for this configured definition by its spell effect definition. Held in an atomic reference
+     * so that one made on a loading thread is safely visible to the server thread, and so that only one is ever kept.
+     */
+    private final AtomicReference<CastCache> castCache = new AtomicReference<CastCache>(null);
     
     /**
      * Gets the spell effect definition's name.
@@ -93,6 +116,13 @@ public class ConfiguredDefinition implements SpellEffectDefinitionModifier
     public String getName()
     { return definition.getName(); }
     
+    /**
+     * Gets the spell effect definition this configures.
+     * @return The core, unconfigured definition.
+     */
+    public SpellEffectDefinition getDefinition()
+    { return definition; }
+    
     /**
      * Gets the definition modifiers.
      * @return The definition modifiers, affecting the behaviour of the spell effect definition.
@@ -138,11 +168,39 @@ public class ConfiguredDefinition implements SpellEffectDefinitionModifier
     public String getValue()
     { return argumentValue; }
     
+    /**
+     * Gets the cast cache for this configured definition, asking the spell effect definition to make one if it
+     * hasn't been made yet.
+     * @return The cast cache, or null if the spell effect definition doesn't use one.
+     */
     public CastCache getCastCache()
-    { return castCache; }
+    {
+        CastCache cache = castCache.get();
+        
+        if(cache == null)
+        {
+            cache = definition.makeCastCache(this);
+            
+            if(cache != null && !castCache.compareAndSet(null, cache))
+                cache = castCache.get(); // Someone else got there first - use theirs so there's only ever one.
+        }
+        
+        return cache;
+    }
     
+    /**
+     * Replaces the cast cache for this configured definition.
+     * @param cache The new cast cache.
+     */
     public void setCastCache(CastCache cache)
-    { castCache = cache; }
+    { castCache.set(cache); }
+    
+    /**
+     * Makes sure the cast cache for this configured definition has been made, so that the first cast using it doesn't
+     * have to make it.
+     */
+    public void prepareCastCache()
+    { getCastCache(); }
     
     @Override
     public ConfiguredDefinition getCopy()
@@ -152,6 +210,36 @@ public class ConfiguredDefinition implements SpellEffectDefinitionModifier
     public ConfiguredDefinition getCopyWithNewModifiers(List<SpellEffectDefinitionModifier> newModifiers)
     { return new ConfiguredDefinition(definition, argumentValue, newModifiers); }
     
+    @Override
+    public int hashCode()
+    { return hash; }
+    
+    /**
+     * Checks whether the passed object is a configured definition with the same structure as this one. That is, with
+     * the same spell effect definition, the same value, and equal modifiers in the same order. Cast caches aren't
+     * considered, since they're only ever derived from the rest.
+     * @param obj The object to compare against.
+     * @return True if the passed object is a structurally identical configured definition. Otherwise, false.
+     */
+    @Override
+    public boolean equals(Object obj)
+    {
+        if(obj == this)
+            return true;
+        if(obj == null)
+            return false;
+        if(getClass() != obj.getClass())
+            return false;
+        final ConfiguredDefinition other = (ConfiguredDefinition)obj;
+        if(this.hash != other.hash)
+            return false;
+        if(this.definition != other.definition)
+            return false;
+        if(this.argumentValue == null ? other.argumentValue != null : !this.argumentValue.equals(other.argumentValue))
+            return false;
+        return this.defModifiers.equals(other.defModifiers);
+    }
+    
     /**
      * Performs the spell effect definition's action for a spell cast.
      * @param spellArgs The spellargs object relating to the specific phrase cast that this performance will be related
@@ -0,0 +1,318 @@
+package com.haniitsu.arcanebooks.magic;
+
+import com.haniitsu.arcanebooks.misc.BlockLocation;
+import com.haniitsu.arcanebooks.misc.LoadedChunks;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import net.minecraft.entity.Entity;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+
+/**
+ * Holds onto the parts of spell bursts that reached into unloaded chunks, for definitions whose unloaded chunk policy
+ * is to defer, (see SpellEffectDefinition.UnloadedChunkPolicy) and performs those definitions on them if the chunks are
+ * loaded before too long.
+ *
+ * Deferred bursts are replayed on the server tick after their chunks load, rather than from the chunk load itself, as
+ * changing the world while a chunk's still being loaded isn't safe.
+ */
+public class DeferredBursts
+{
+    /**
+     * A spell burst with parts in unloaded chunks, waiting for them to load.
+     */
+    protected static class DeferredBurst
+    {
+        /**
+         * Creates a new deferred burst.
+         * @param args The spell args of the burst, without any affected blocks or entities.
+         * @param definitions The definitions to perform on the chunks once they load.
+         * @param chunks The keys of the unloaded chunks, as per LoadedChunks.getChunkKey.
+         * @param expiryTick The tick after which the burst should no longer be replayed.
+         */
+        public DeferredBurst(SpellArgs args, List<ConfiguredDefinition> definitions, Set<Long> chunks, long expiryTick)
+        {
+            this.args        = args;
+            this.definitions = definitions;
+            this.chunksLeft  = chunks;
+            this.expiryTick  = expiryTick;
+        }
+        
+        /** The spell args of the burst, without any affected blocks or entities. */
+        final SpellArgs args;
+        
+        /** The definitions to perform on the chunks once they load. */
+        final List<ConfiguredDefinition> definitions;
+        
+        /** The keys of the chunks that haven't loaded yet. */
+        final Set<Long> chunksLeft;
+        
+        /** The tick after which the burst should no longer be replayed. */
+        final long expiryTick;
+    }
+    
+    /** How many ticks a deferred burst waits for its chunks to load before being dropped. (a minute) */
+    public static volatile int lifetimeTicks = 1200;
+    
+    /**
+     * The most deferred bursts held onto at once. Bursts deferred past this are skipped instead, so a flood of huge
+     * AOEs at the edge of the loaded world can't build up.
+     */
+    public static volatile int maxDeferredBursts = 256;
+    
+    /** The deferred bursts, by world ID and then by the chunks they're waiting on. */
+    protected final Map<Integer, Map<Long, List<DeferredBurst>>> burstsByChunk
+        = new HashMap<Integer, Map<Long, List<DeferredBurst>>>();
+    
+    /** The chunks with deferred bursts waiting on them that have loaded since the last tick, by world ID. */
+    protected final Map<Integer, Set<Long>> chunksLoaded = new HashMap<Integer, Set<Long>>();
+    
+    /** The number of deferred bursts being held onto. */
+    protected int burstCount = 0;
+    
+    /** The number of ticks so far, for working out when deferred bursts expire. */
+    protected long currentTick = 0;
+    
+    /**
+     * Holds onto the parts of a spell burst in unloaded chunks, to perform the passed definitions on them when they
+     * load.
+     * @param args The spell args of the burst.
+     * @param definitions The definitions to perform on the chunks. These should be the ones with the defer policy.
+     * @param chunks The keys of the unloaded chunks the burst reached into, as per LoadedChunks.getChunkKey.
+     * @return True if the burst was deferred, or false if too many are already being held onto.
+     */
+    public synchronized boolean defer(SpellArgs args, List<ConfiguredDefinition> definitions, Collection<Long> chunks)
+    {
+        if(chunks.isEmpty() || definitions.isEmpty() || burstCount >= maxDeferredBursts)
+            return false;
+        
+        // Dropping the affected blocks and entities, as they're worked out again for each chunk when it loads.
+        SpellArgs strippedArgs = args.withAffectedBlocks(Collections.<BlockLocation>emptyList())
+                                     .withAffectedEntities(Collections.<Entity>emptyList());
+        
+        DeferredBurst burst = new DeferredBurst(strippedArgs,
+                                                Collections.unmodifiableList(new ArrayList<ConfiguredDefinition>(definitions)),
+                                                new HashSet<Long>(chunks),
+                                                currentTick + lifetimeTicks);
+        
+        int worldId = args.getBurstLocation().getWorldId();
+        Map<Long, List<DeferredBurst>> worldBursts = burstsByChunk.get(worldId);
+        
+        if(worldBursts == null)
+        {
+            worldBursts = new HashMap<Long, List<DeferredBurst>>();
+            burstsByChunk.put(worldId, worldBursts);
+        }
+        
+        for(Long chunk : burst.chunksLeft)
+        {
+            List<DeferredBurst> chunkBursts = worldBursts.get(chunk);
+            
+            if(chunkBursts == null)
+            {
+                chunkBursts = new ArrayList<DeferredBurst>();
+                worldBursts.put(chunk, chunkBursts);
+            }
+            
+            chunkBursts.add(burst);
+        }
+        
+        burstCount++;
+        return true;
+    }
+    
+    /**
+     * Notes that a chunk has loaded, so any bursts waiting on it are replayed next tick.
+     * @param worldId The ID of the world the chunk is in.
+     * @param chunkX The chunk's X coördinate.
+     * @param chunkZ The chunk's Z coördinate.
+     */
+    public synchronized void chunkLoaded(int worldId, int chunkX, int chunkZ)
+    {
+        Map<Long, List<DeferredBurst>> worldBursts = burstsByChunk.get(worldId);
+        long chunkKey = LoadedChunks.getChunkKey(chunkX, chunkZ);
+        
+        if(worldBursts == null || !worldBursts.containsKey(chunkKey))
+            return;
+        
+        Set<Long> worldChunksLoaded = chunksLoaded.get(worldId);
+        
+        if(worldChunksLoaded == null)
+        {
+            worldChunksLoaded = new HashSet<Long>();
+            chunksLoaded.put(worldId, worldChunksLoaded);
+        }
+        
+        worldChunksLoaded.add(chunkKey);
+    }
+    
+    /**
+     * Replays deferred bursts on the chunks that have loaded since the last tick, and drops expired ones. Should be
+     * called once per server tick.
+     */
+    public void onServerTick()
+    {
+        List<DeferredBurst> toReplay      = new ArrayList<DeferredBurst>();
+        List<Long>          toReplayChunk = new ArrayList<Long>();
+        List<Integer>       toReplayWorld = new ArrayList<Integer>();
+        
+        synchronized(this)
+        {
+            currentTick++;
+            
+            for(Map.Entry<Integer, Set<Long>> worldEntry : chunksLoaded.entrySet())
+            {
+                Map<Long, List<DeferredBurst>> worldBursts = burstsByChunk.get(worldEntry.getKey());
+                
+                if(worldBursts == null)
+                    continue;
+                
+                for(Long chunk : worldEntry.getValue())
+                {
+                    List<DeferredBurst> chunkBursts = worldBursts.remove(chunk);
+                    
+                    if(chunkBursts == null)
+                        continue;
+                    
+                    for(DeferredBurst burst : chunkBursts)
+                    {
+                        burst.chunksLeft.remove(chunk);
+                        
+                        if(burst.chunksLeft.isEmpty())
+                            burstCount--;
+                        
+                        if(burst.expiryTick >= currentTick)
+                        {
+                            toReplay     .add(burst);
+                            toReplayChunk.add(chunk);
+                            toReplayWorld.add(worldEntry.getKey());
+                        }
+                    }
+                }
+                
+                if(worldBursts.isEmpty())
+                    burstsByChunk.remove(worldEntry.getKey());
+            }
+            
+            chunksLoaded.clear();
+            
+            // No need to check for expired bursts every tick.
+            if(currentTick % 100 == 0)
+                removeExpired();
+        }
+        
+        for(int i = 0; i < toReplay.size(); i++)
+        {
+            try
+            { replay(toReplay.get(i), toReplayWorld.get(i), toReplayChunk.get(i)); }
+            catch(RuntimeException exception)
+            { exception.printStackTrace(); } // One broken burst shouldn't stop the rest from being replayed.
+        }
+    }
+    
+    /**
+     * Forgets about all deferred bursts in a world, e.g. when the world unloads.
+     * @param worldId The ID of the world.
+     */
+    public synchronized void releaseWorld(int worldId)
+    {
+        Map<Long, List<DeferredBurst>> worldBursts = burstsByChunk.remove(worldId);
+        chunksLoaded.remove(worldId);
+        
+        if(worldBursts == null)
+            return;
+        
+        Set<DeferredBurst> bursts = Collections.newSetFromMap(new IdentityHashMap<DeferredBurst, Boolean>());
+        
+        for(List<DeferredBurst> chunkBursts : worldBursts.values())
+            bursts.addAll(chunkBursts);
+        
+        burstCount -= bursts.size();
+    }
+    
+    /**
+     * Performs a deferred burst's definitions on the blocks and entities in one of its chunks that's now loaded.
+     * @param burst The deferred burst.
+     * @param worldId The ID of the world the chunk is in.
+     * @param chunkKey The key of the chunk, as per LoadedChunks.getChunkKey.
+     */
+    protected void replay(DeferredBurst burst, int worldId, long chunkKey)
+    {
+        SpellArgs args = burst.args;
+        World world = args.getBurstLocation().getWorld();
+        int chunkX = LoadedChunks.getChunkX(chunkKey);
+        int chunkZ = LoadedChunks.getChunkZ(chunkKey);
+        
+        if(!LoadedChunks.isChunkLoaded(world, chunkX, chunkZ))
+            return;
+        
+        Chunk chunk = world.getChunkFromChunkCoords(chunkX, chunkZ);
+        double size = args.getAOESize().getDistance() * args.getAOEShape().getAOESizeModifier();
+        
+        Collection<BlockLocation> blocks
+            = args.getAOEShape().getBlocksInRangeInChunk(size, args.getBurstLocation(), args.getBurstDirection(), chunkX, chunkZ);
+        
+        Collection<Entity> entities
+            = args.getAOEShape().getEntitiesInRangeInChunk(size, args.getBurstLocation(), args.getBurstDirection(), chunk);
+        
+        // The target itself was dealt with when the burst first happened, if it was to be.
+        if(args.getBlockHit() != null)
+            blocks.remove(args.getBlockHit());
+        
+        if(args.getEntityHit() != null)
+            entities.remove(args.getEntityHit());
+        
+        if(blocks.isEmpty() && entities.isEmpty())
+            return;
+        
+        SpellArgs chunkArgs = args.withAffectedBlocks(blocks).withAffectedEntities(entities);
+        
+        for(ConfiguredDefinition def : burst.definitions)
+            def.PerformEffect(chunkArgs);
+    }
+    
+    /**
+     * Drops deferred bursts that have been waiting too long for their chunks to load.
+     */
+    protected void removeExpired()
+    {
+        Set<DeferredBurst> expired = Collections.newSetFromMap(new IdentityHashMap<DeferredBurst, Boolean>());
+        
+        for(Iterator<Map<Long, List<DeferredBurst>>> i = burstsByChunk.values().iterator(); i.hasNext();)
+        {
+            Map<Long, List<DeferredBurst>> worldBursts = i.next();
+            
+            for(Iterator<List<DeferredBurst>> j = worldBursts.values().iterator(); j.hasNext();)
+            {
+                List<DeferredBurst> chunkBursts = j.next();
+                
+                for(Iterator<DeferredBurst> k = chunkBursts.iterator(); k.hasNext();)
+                {
+                    DeferredBurst burst = k.next();
+                    
+                    if(burst.expiryTick < currentTick)
+                    {
+                        k.remove();
+                        expired.add(burst);
+                    }
+                }
+                
+                if(chunkBursts.isEmpty())
+                    j.remove();
+            }
+            
+            if(worldBursts.isEmpty())
+                i.remove();
+        }
+        
+        burstCount -= expired.size();
+    }
+}
@@ -0,0 +1,174 @@
+package com.haniitsu.arcanebooks.magic;
+
+import com.haniitsu.arcanebooks.magic.modifiers.effect.AOE;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.AOEShape;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.AOESize;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.SpellStrength;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.SpellTarget;
+import com.haniitsu.arcanebooks.misc.BlockLocation;
+import com.haniitsu.arcanebooks.misc.Location;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import net.minecraft.entity.Entity;
+
+/**
+ * What's kept of a spell phrase cast once it's been performed, as part of a spell cast's history. Spell casts can live
+ * for a while, (e.g. while their projectiles are in flight) so rather than holding onto every SpellArgs object with
+ * all of the blocks and entities it affected, this holds how many there were, what was hit, and the messages passed.
+ *
+ * The actual blocks and entities affected are only kept if a definition in the spell says it needs them, (see
+ * SpellEffectDefinition.needsFullCastHistory()) and entities are only ever held weakly, so dead or unloaded entities
+ * can still be cleaned up.
+ */
+public class PhraseCastSummary
+{
+    /**
+     * Creates a summary of the passed spell phrase cast.
+     * @param args The spell args of the spell phrase cast.
+     * @param keepTargets Whether to hold onto the blocks and entities affected, rather than just how many there were.
+     */
+    public PhraseCastSummary(SpellArgs args, boolean keepTargets)
+    {
+        this.effect                = args.effect;
+        this.burstLocation         = args.burstLocation;
+        this.aoe                   = args.aoe;
+        this.aoeSize               = args.aoeSize;
+        this.aoeShape              = args.aoeShape;
+        this.spellStrength         = args.spellStrength;
+        this.spellTarget           = args.spellTarget;
+        this.blockHit              = args.blockHit;
+        this.entityHit             = args.entityHit == null ? null : new WeakReference<Entity>(args.entityHit);
+        this.blocksAffectedCount   = args.blocksAffected.size();
+        this.entitiesAffectedCount = args.entitiesAffected.size();
+        this.messages              = args.messages.isEmpty() ? Collections.<String, SpellMessage>emptyMap()
+                                                             : new HashMap<String, SpellMessage>(args.messages);
+        
+        if(keepTargets)
+        {
+            Set<Entity> entities = Collections.newSetFromMap(new WeakHashMap<Entity, Boolean>());
+            entities.addAll(args.entitiesAffected);
+            this.blocksAffected   = Collections.unmodifiableSet(new HashSet<BlockLocation>(args.blocksAffected));
+            this.entitiesAffected = entities;
+        }
+        else
+        {
+            this.blocksAffected   = null;
+            this.entitiesAffected = null;
+        }
+    }
+    
+    /** The spell effect that was burst. */
+    final SpellEffect effect;
+    
+    /** The location the spell phrase burst at. */
+    final Location burstLocation;
+    
+    /** The AOE used. */
+    final AOE aoe;
+    
+    /** The AOE size used. */
+    final AOESize aoeSize;
+    
+    /** The AOE shape used. */
+    final AOEShape aoeShape;
+    
+    /** The strength of the spell phrase cast. */
+    final SpellStrength spellStrength;
+    
+    /** The targeting method used. */
+    final SpellTarget spellTarget;
+    
+    /** The block hit, or null if no block was hit. */
+    final BlockLocation blockHit;
+    
+    /** The entity hit, or null if no entity was hit. */
+    final WeakReference<Entity> entityHit;
+    
+    /** How many blocks were affected. */
+    final int blocksAffectedCount;
+    
+    /** How many entities were affected. */
+    final int entitiesAffectedCount;
+    
+    /** The messages passed by the spell phrase cast's definitions, by name. */
+    final Map<String, SpellMessage> messages;
+    
+    /** The blocks affected, or null if they weren't kept. */
+    final Set<BlockLocation> blocksAffected;
+    
+    /** The entities affected, held weakly, or null if they weren't kept. */
+    final Set<Entity> entitiesAffected;
+    
+    public SpellEffect getSpellEffect()
+    { return effect; }
+    
+    public Location getBurstLocation()
+    { return burstLocation; }
+    
+    public AOE getAOE()
+    { return aoe; }
+    
+    public AOESize getAOESize()
+    { return aoeSize; }
+    
+    public AOEShape getAOEShape()
+    { return aoeShape; }
+    
+    public SpellStrength getSpellStrength()
+    { return spellStrength; }
+    
+    public SpellTarget getSpellTarget()
+    { return spellTarget; }
+    
+    public BlockLocation getBlockHit()
+    { return blockHit; }
+    
+    /**
+     * Gets the entity hit by the spell phrase cast.
+     * @return The entity hit, or null if no entity was hit or it's since been cleaned up.
+     */
+    public Entity getEntityHit()
+    { return entityHit == null ? null : entityHit.get(); }
+    
+    public int getBlocksAffectedCount()
+    { return blocksAffectedCount; }
+    
+    public int getEntitiesAffectedCount()
+    { return entitiesAffectedCount; }
+    
+    /**
+     * Gets a message passed by the spell phrase cast.
+     * @param name The name of the message.
+     * @return The message, or null if no message with that name was passed.
+     */
+    public SpellMessage getMessage(String name)
+    { return messages.get(name.trim().toUpperCase()); }
+    
+    /**
+     * Gets whether the blocks and entities affected were kept, rather than just how many there were.
+     * @return True if getBlocksAffected() and getEntitiesAffected() can be used, otherwise false.
+     */
+    public boolean hasTargets()
+    { return blocksAffected != null; }
+    
+    /**
+     * Gets the blocks affected by the spell phrase cast.
+     * @return The blocks affected, or null if they weren't kept.
+     */
+    public Collection<BlockLocation> getBlocksAffected()
+    { return blocksAffected == null ? null : new ArrayList<BlockLocation>(blocksAffected); }
+    
+    /**
+     * Gets the entities affected by the spell phrase cast that haven't since been cleaned up.
+     * @return The entities affected, or null if they weren't kept.
+     */
+    public Collection<Entity> getEntitiesAffected()
+    { return entitiesAffected == null ? null : new ArrayList<Entity>(entitiesAffected); }
+}
@@ -1,8 +1,12 @@
 package com.haniitsu.arcanebooks.magic;
 
+import com.haniitsu.arcanebooks.ArcaneBooks;
+import com.haniitsu.arcanebooks.magic.auras.AuraManager;
 import com.haniitsu.arcanebooks.magic.caster.SpellCaster;
 import com.haniitsu.arcanebooks.magic.caster.SpellCasterBlock;
 import com.haniitsu.arcanebooks.magic.caster.SpellCasterEntity;
+import com.haniitsu.arcanebooks.magic.fields.SpellFieldIndex;
+import com.haniitsu.arcanebooks.magic.modifiers.definition.SpellEffectDefinitionModifier;
 import com.haniitsu.arcanebooks.magic.modifiers.effect.AOE;
 import com.haniitsu.arcanebooks.magic.modifiers.effect.AOEShape;
 import com.haniitsu.arcanebooks.magic.modifiers.effect.AOESize;
@@ -13,10 +17,12 @@ import com.haniitsu.arcanebooks.misc.BlockLocation;
 import com.haniitsu.arcanebooks.misc.Direction;
 import com.haniitsu.arcanebooks.misc.Location;
 import com.haniitsu.arcanebooks.misc.UtilMethods;
+import com.haniitsu.arcanebooks.registries.SpellEffectRegistry;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -151,6 +157,37 @@ public class Spell
         public void burst(SpellCast cast, Entity entityHit, Location burstLocation, Direction burstDirection, SpellTarget target)
         { this.burst(cast, null, entityHit, burstLocation, burstDirection, target); }
         
+        /**
+         * Performs the spell phrase's effect on exactly the passed entities, rather than on whatever's within its AOE
+         * of where it bursts. Used where something else has already worked out what should be affected. (e.g. auras)
+         * @param cast The spell cast this is part of.
+         * @param aoe The AOE the entities were picked with.
+         * @param aoeSize The AOE size the entities were picked with.
+         * @param aoeShape The AOE shape the entities were picked with.
+         * @param strength The strength to perform the effect at.
+         * @param burstLocation Where the effect is centred.
+         * @param burstDirection The direction the effect is facing in.
+         * @param target The spell target the phrase was cast with.
+         * @param entities The entities to affect.
+         */
+        public void applyTo(SpellCast cast,         AOE aoe, AOESize aoeSize, AOEShape aoeShape, SpellStrength strength,
+                            Location burstLocation, Direction burstDirection, SpellTarget target,
+                            Collection<? extends Entity> entities)
+        {
+            if(possibleSpellEffects.isEmpty())
+                return;
+            
+            SpellEffect effect = UtilMethods.getRandomMember(possibleSpellEffects);
+            
+            SpellArgs args = new SpellArgs(effect, cast.getCaster(), cast, modifiers,
+                                           burstLocation, burstDirection,
+                                           aoe, aoeSize, aoeShape, strength, target,
+                                           Collections.<BlockLocation>emptyList(), entities, null, null);
+            
+            effect.performEffect(args);
+            cast.addPhraseCast(args);
+        }
+        
         public void burst(SpellCast cast,         BlockLocation blockHit,   Entity entityHit,
                           Location burstLocation, Direction burstDirection, SpellTarget target)
         {
@@ -166,6 +203,7 @@ public class Spell
             
             Collection<Entity>        affectedEntities = new HashSet<Entity>();
             Collection<BlockLocation> affectedBlocks   = new HashSet<BlockLocation>();
+            Collection<Long>          unloadedChunks   = new HashSet<Long>();
             
             if(aoe == AOE.targetOnly)
             {
@@ -177,8 +215,12 @@ public class Spell
             }
             else if(aoe == AOE.aroundTarget || aoe == AOE.targetAndAroundTarget)
             {
-                affectedEntities.addAll(aoeShape.getEntitiesInRange(aoeSize.getDistance()*aoeShape.getAOESizeModifier(), burstLocation, burstDirection));
-                affectedBlocks  .addAll(aoeShape.getBlocksInRange  (aoeSize.getDistance()*aoeShape.getAOESizeModifier(), burstLocation, burstDirection));
+                affectedEntities.addAll(aoeShape.getEntitiesInRange(aoeSize.getDistance()*aoeShape.getAOESizeModifier(), burstLocation, burstDirection, unloadedChunks));
+                
+                if(cast.geometryCache != null)
+                    affectedBlocks.addAll(cast.geometryCache.getBlocksInRange(aoeShape, aoeSize.getDistance()*aoeShape.getAOESizeModifier(), burstLocation, burstDirection, unloadedChunks));
+                else
+                    affectedBlocks.addAll(aoeShape.getBlocksInRange(aoeSize.getDistance()*aoeShape.getAOESizeModifier(), burstLocation, burstDirection, unloadedChunks));
                 
                 if(aoe == AOE.aroundTarget)
                 {
@@ -203,8 +245,22 @@ public class Spell
                                            aoe, aoeSize, aoeShape, strength, target,
                                            affectedBlocks, affectedEntities, blockHit, entityHit);
             
-            cast.addSpellArgs(args);
             effect.performEffect(args);
+            cast.addPhraseCast(args);
+            
+            // Parts of the AOE in unloaded chunks were left out rather than loading them, but some definitions want
+            // to be performed on them if they load soon.
+            if(!unloadedChunks.isEmpty() && ArcaneBooks.instance != null && ArcaneBooks.instance.deferredBursts != null)
+            {
+                List<ConfiguredDefinition> deferringDefs = new ArrayList<ConfiguredDefinition>();
+                
+                for(ConfiguredDefinition def : effect.getDefinitions())
+                    if(def.getDefinition().getUnloadedChunkPolicy() == SpellEffectDefinition.UnloadedChunkPolicy.defer)
+                        deferringDefs.add(def);
+                
+                if(!deferringDefs.isEmpty())
+                    ArcaneBooks.instance.deferredBursts.defer(args, deferringDefs, unloadedChunks);
+            }
         }
     }
     
@@ -222,11 +278,46 @@ public class Spell
          * @param direction The direction the spell is be cast in.
          */
         public SpellCast(Spell spell, SpellCaster caster, Location location, Direction direction)
+        { this(spell, caster, location, direction, new SpellTriggerQueue(), null); }
+        
+        /**
+         * Creates a new instance.
+         * @param spell The spell that is being cast.
+         * @param caster The caster casting the spell.
+         * @param location The location where the spell is being cast.
+         * @param direction The direction the spell is be cast in.
+         * @param triggerQueue The queue any spells triggered by this cast should be added to.
+         * @param triggeredBy The chain of casts that triggered this one, or null if it wasn't triggered by another cast.
+         */
+        public SpellCast(Spell spell, SpellCaster caster, Location location, Direction direction,
+                         SpellTriggerQueue triggerQueue, SpellTriggerQueue.TriggerChain triggeredBy)
+        { this(spell, caster, location, direction, triggerQueue, triggeredBy, null); }
+        
+        /**
+         * Creates a new instance.
+         * @param spell The spell that is being cast.
+         * @param caster The caster casting the spell.
+         * @param location The location where the spell is being cast.
+         * @param direction The direction the spell is be cast in.
+         * @param triggerQueue The queue any spells triggered by this cast should be added to.
+         * @param triggeredBy The chain of casts that triggered this one, or null if it wasn't triggered by another cast.
+         * @param geometryCache The AOE geometry shared with other casts in the same batch, or null if this cast isn't
+         * part of a batch.
+         */
+        public SpellCast(Spell spell, SpellCaster caster, Location location, Direction direction,
+                         SpellTriggerQueue triggerQueue, SpellTriggerQueue.TriggerChain triggeredBy,
+                         BurstGeometryCache geometryCache)
         {
-            this.spell     = spell;
-            this.caster    = caster;
-            this.location  = location;
-            this.direction = direction;
+            this.spell         = spell;
+            this.caster        = caster;
+            this.location      = location;
+            this.direction     = direction;
+            this.triggerQueue  = triggerQueue;
+            this.triggerChain  = new SpellTriggerQueue.TriggerChain(spell, caster, triggeredBy);
+            this.geometryCache = geometryCache;
+            
+            this.spellEffects = ArcaneBooks.instance == null || ArcaneBooks.instance.registries.spellEffects == null
+                              ? null : ArcaneBooks.instance.registries.spellEffects.getSnapshot();
         }
         
         /** The spell that this is a casting of. */
@@ -248,10 +339,10 @@ public class Spell
         final Direction direction;
         
         /**
-         * The individual phrase casts caused by this spell cast. This will change as the phrases are cast, and will
-         * only ever contain the SpellArgs objects for the phrases already cast.
+         * Summaries of the individual phrase casts caused by this spell cast. This will change as the phrases are cast,
+         * and will only ever contain the summaries of the phrases already cast.
          */
-        final List<SpellArgs> phrasesCast = new ArrayList<SpellArgs>();
+        final List<PhraseCastSummary> phrasesCast = new ArrayList<PhraseCastSummary>();
         
         /** The phrases being cast that are fired as projectiles. */
         final List<Phrase> projectilePhrases = new ArrayList<Phrase>();
@@ -259,11 +350,30 @@ public class Spell
         final Map<String, SpellMessage> messages = new HashMap<String, SpellMessage>();
         
         /**
-         * Adds a spell phrase's spell args object. i.e. the representation of the phrase being cast.
-         * @param args The spell args object to add.
+         * The queue spells triggered by this cast are added to. This is shared with the cast that triggered this one,
+         * if any, so the whole chain of triggers is cast one after the other and held to the same limits.
+         */
+        final SpellTriggerQueue triggerQueue;
+        
+        /** This cast, along with the chain of casts that triggered it, if any. */
+        final SpellTriggerQueue.TriggerChain triggerChain;
+        
+        /** The AOE geometry shared with other casts in the same batch, (see Spell.castAll) or null if there isn't one. */
+        final BurstGeometryCache geometryCache;
+        
+        /**
+         * The spell effects registered as of the start of the cast, so that the whole cast sees the same ones even if
+         * the registry changes part-way through. Null if there's no spell effect registry to take them from.
+         */
+        final SpellEffectRegistry.EffectsSnapshot spellEffects;
+        
+        /**
+         * Adds a summary of a spell phrase cast, once it's been performed. The affected blocks and entities are only
+         * kept if a definition in the spell needs them.
+         * @param args The spell args object of the phrase cast.
          */
-        void addSpellArgs(SpellArgs args)
-        { phrasesCast.add(args); }
+        void addPhraseCast(SpellArgs args)
+        { phrasesCast.add(new PhraseCastSummary(args, spell.needsFullCastHistory())); }
         
         /**
          * Passes on a message which will be accessible to later spell effect definitions via .getMessage(string);
@@ -323,11 +433,11 @@ public class Spell
         { return direction; }
         
         /**
-         * Gets all of the spell args objects for phrases that have already been cast.
-         * @return The spell args objects already cast, in order of when they were cast. (first earliest)
+         * Gets the summaries of the phrases that have already been cast.
+         * @return The summaries of the phrases already cast, in order of when they were cast. (first earliest)
          */
-        public List<SpellArgs> getSpellArgsCast()
-        { return new ArrayList<SpellArgs>(phrasesCast); }
+        public List<PhraseCastSummary> getPhrasesCast()
+        { return new ArrayList<PhraseCastSummary>(phrasesCast); }
         
         /**
          * Gets all of the spell phrases being cast that target via projectile.
@@ -351,6 +461,54 @@ public class Spell
          */
         public void markAsProjectilePhrase(Phrase phrase)
         { projectilePhrases.add(phrase); }
+        
+        /**
+         * Gets how many triggers deep this cast is. That is, how many spell casts in a row triggered another to lead to
+         * this one.
+         * @return The number of casts that led to this one via triggering, or 0 if this cast wasn't triggered.
+         */
+        public int getTriggerDepth()
+        { return triggerChain.depth; }
+        
+        /**
+         * Gets the spell effects registered as of the start of the cast. Spell effect definitions looking spell
+         * effects up by name should use this rather than the registry, so the whole cast sees the same ones.
+         * @return A snapshot of the registered spell effects, or null if there's no spell effect registry.
+         */
+        public SpellEffectRegistry.EffectsSnapshot getSpellEffects()
+        { return spellEffects; }
+        
+        /**
+         * Gets the queue that spells triggered by this cast are added to.
+         * @return The trigger queue of this cast's trigger chain.
+         */
+        public SpellTriggerQueue getTriggerQueue()
+        { return triggerQueue; }
+        
+        /**
+         * Triggers the passed spell to be cast by the passed caster. The spell isn't cast immediately, but once this
+         * spell cast (and any other triggered casts before it) has finished.
+         * @param spell The spell to trigger.
+         * @param caster The caster to cast the spell.
+         * @return True if the spell was triggered, or false if doing so would exceed the limits of the trigger chain,
+         * or if the caster's already casting the spell as one of the casts that led to this one.
+         */
+        public boolean triggerSpell(Spell spell, SpellCaster caster)
+        { return triggerQueue.enqueue(this, spell, caster); }
+        
+        /**
+         * Creates a new cast of the same spell by the same caster, with a trigger chain of its own, for when part of
+         * this cast takes effect again after the cast itself has finished. (e.g. each time an aura's phrase is applied)
+         * Messages passed so far are carried over, but nothing done as part of the new cast is added to this one.
+         * @return The new spell cast.
+         */
+        public SpellCast recast()
+        {
+            SpellCast recast = new SpellCast(spell, caster, location, direction, new SpellTriggerQueue(),
+                                             triggerChain.triggeredBy);
+            recast.messages.putAll(messages);
+            return recast;
+        }
     }
     
     /**
@@ -373,13 +531,184 @@ public class Spell
     public List<Phrase> getPhrases()
     { return phrases; }
     
+    /** The estimate of how expensive the spell is to cast. Worked out when first asked for. */
+    private volatile SpellCostEstimate costEstimate = null;
+    
+    /** Whether any definition in this spell needs full phrase cast history, or null if it hasn't been worked out. */
+    private volatile Boolean needsFullCastHistory = null;
+    
+    /**
+     * Gets an upper bound on how much work casting this spell could take, without casting it.
+     * @return The spell's cost estimate.
+     */
+    public SpellCostEstimate estimateCost()
+    {
+        SpellCostEstimate estimate = costEstimate;
+        
+        if(estimate == null)
+        {
+            estimate = SpellCostEstimate.of(this);
+            costEstimate = estimate;
+        }
+        
+        return estimate;
+    }
+    
+    /**
+     * Gets whether any spell effect definition this spell could perform needs the blocks and entities affected by
+     * earlier phrase casts to be kept. (see SpellEffectDefinition.needsFullCastHistory())
+     * @return True if casts of this spell should keep the blocks and entities affected, otherwise false.
+     */
+    public boolean needsFullCastHistory()
+    {
+        Boolean needs = needsFullCastHistory;
+        
+        if(needs == null)
+        {
+            needs = false;
+            
+            for(Phrase phrase : phrases)
+                for(SpellEffect effect : phrase.getPossibleSpellEffect())
+                    for(ConfiguredDefinition def : effect.getDefinitions())
+                        if(needsFullCastHistory(def))
+                            needs = true;
+            
+            needsFullCastHistory = needs;
+        }
+        
+        return needs;
+    }
+    
+    private static boolean needsFullCastHistory(SpellEffectDefinitionModifier modifier)
+    {
+        if(modifier instanceof ConfiguredDefinition
+        && ((ConfiguredDefinition)modifier).getDefinition().needsFullCastHistory())
+            return true;
+        
+        for(SpellEffectDefinitionModifier i : modifier.getSubModifiers())
+            if(needsFullCastHistory(i))
+                return true;
+        
+        return false;
+    }
+    
     /**
      * Performs the spell. That is, performs all of the spell phrases that are part of the spell sequentially.
+     *
+     * If the caster has used up their cast time, (see CastRateLimiter) the spell isn't cast, or is cast later.
      * @param caster 
+     * @return True if the spell was cast, or false if the caster was throttled.
+     */
+    public boolean cast(SpellCaster caster)
+    { return cast(caster, (BurstGeometryCache)null); }
+    
+    /**
+     * Casts the spell from each of the passed casters, one after the other. This is the same as casting it from each
+     * caster in turn, except that the casters are cast from chunk by chunk rather than in the order passed, and that
+     * the blocks covered by the spell's AOEs are worked out once and shared between casters where possible. Meant for
+     * when many casting blocks cast the same spell at once. (e.g. from the same redstone signal)
+     * @param casters The casters to cast the spell from.
+     * @return The number of casters that cast the spell, rather than being throttled.
+     */
+    public int castAll(List<? extends SpellCaster> casters)
+    {
+        List<SpellCaster> sortedCasters = new ArrayList<SpellCaster>(casters);
+        BurstGeometryCache geometryCache = new BurstGeometryCache();
+        int castCount = 0;
+        
+        // Stable, so casters in the same chunk are still cast in the order passed.
+        Collections.sort(sortedCasters, casterChunkOrder);
+        
+        for(SpellCaster caster : sortedCasters)
+            if(cast(caster, geometryCache))
+                castCount++;
+        
+        return castCount;
+    }
+    
+    /**
+     * Orders spell casters by world, then by the chunk they're in.
+     */
+    static final Comparator<SpellCaster> casterChunkOrder = new Comparator<SpellCaster>()
+    {
+        @Override
+        public int compare(SpellCaster first, SpellCaster second)
+        {
+            Location firstLocation  = first .getLocation();
+            Location secondLocation = second.getLocation();
+            
+            int comparison = compareInts(firstLocation.getWorldId(), secondLocation.getWorldId());
+            
+            if(comparison == 0)
+                comparison = compareInts((int)Math.floor(firstLocation.getX()) >> 4, (int)Math.floor(secondLocation.getX()) >> 4);
+            
+            if(comparison == 0)
+                comparison = compareInts((int)Math.floor(firstLocation.getZ()) >> 4, (int)Math.floor(secondLocation.getZ()) >> 4);
+            
+            return comparison;
+        }
+        
+        private int compareInts(int first, int second)
+        { return first < second ? -1 : (first == second ? 0 : 1); }
+    };
+    
+    /**
+     * Performs the spell, sharing AOE geometry with other casts in the same batch.
+     * @param caster The caster casting the spell.
+     * @param geometryCache The AOE geometry shared between casts in the batch, or null if this isn't part of one.
+     * @return True if the spell was cast, or false if the caster was throttled.
+     */
+    boolean cast(SpellCaster caster, BurstGeometryCache geometryCache)
+    {
+        CastRateLimiter rateLimiter = ArcaneBooks.instance != null ? ArcaneBooks.instance.castRateLimiter : null;
+        
+        if(rateLimiter != null && !rateLimiter.tryAcquire(this, caster))
+            return false;
+        
+        long startTime = System.nanoTime();
+        SpellTriggerQueue triggerQueue = new SpellTriggerQueue();
+        
+        try
+        {
+            cast(caster, triggerQueue, null, geometryCache);
+            
+            // Any spells triggered by this one are cast here, after it's finished, rather than from inside the effects
+            // that triggered them.
+            if(triggerQueue.hasPendingTriggers())
+                triggerQueue.run();
+        }
+        finally
+        {
+            if(rateLimiter != null)
+                rateLimiter.charge(caster, System.nanoTime() - startTime);
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Performs the spell as part of a chain of triggered spells. Any spells triggered are added to the passed trigger
+     * queue rather than being cast.
+     * @param caster The caster casting the spell.
+     * @param triggerQueue The trigger queue of the chain this cast is part of.
+     * @param triggeredBy The chain of casts that triggered this one.
+     */
+    void cast(SpellCaster caster, SpellTriggerQueue triggerQueue, SpellTriggerQueue.TriggerChain triggeredBy)
+    { cast(caster, triggerQueue, triggeredBy, null); }
+    
+    /**
+     * Performs the spell as part of a chain of triggered spells, sharing AOE geometry with other casts in the same
+     * batch.
+     * @param caster The caster casting the spell.
+     * @param triggerQueue The trigger queue of the chain this cast is part of.
+     * @param triggeredBy The chain of casts that triggered this one, or null if it wasn't triggered.
+     * @param geometryCache The AOE geometry shared between casts in the batch, or null if this isn't part of one.
      */
-    public void cast(SpellCaster caster)
+    void cast(SpellCaster caster, SpellTriggerQueue triggerQueue, SpellTriggerQueue.TriggerChain triggeredBy,
+              BurstGeometryCache geometryCache)
     {
-        SpellCast spellCast = new SpellCast(this, caster, caster.getLocation(), caster.getDirection());
+        SpellCast spellCast = new SpellCast(this, caster, caster.getLocation(), caster.getDirection(),
+                                            triggerQueue, triggeredBy, geometryCache);
         List<Phrase> projectilePhrases = new ArrayList<Phrase>();
         
         for(Phrase phrase : phrases)
@@ -388,6 +717,10 @@ public class Spell
             
             if(currentTarget == SpellTarget.projectile)
                 projectilePhrases.add(phrase);
+            else if(currentTarget == SpellTarget.aura && caster instanceof SpellCasterEntity)
+                AuraManager.get(((SpellCasterEntity)caster).getCasterEntity().worldObj).attach(spellCast, phrase, (SpellCasterEntity)caster);
+            else if(currentTarget == SpellTarget.field && caster.getLocation().getWorld() != null)
+                SpellFieldIndex.get(caster.getLocation().getWorld()).createField(phrase, caster.getLocation(), caster.getDirection());
             else
             {
                 if(caster instanceof SpellCasterEntity)
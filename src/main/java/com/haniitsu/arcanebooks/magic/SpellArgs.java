@@ -30,6 +30,47 @@ public class SpellArgs
     // This class file would be so much smaller if Java supported C#-style properties. The need for almost all of the
     // getters and setters would just -~*disappear*~-. ~Hanii
     
+    /**
+     * An affected entity, paired with its squared distance from where the spell phrase burst. Worked out once per
+     * SpellArgs object so that spell effect definitions don't each have to filter the affected entities and do the
+     * distance maths themselves.
+     * @param <T> The type of the entity.
+     */
+    public static class EntityInRange<T extends Entity>
+    {
+        /**
+         * Creates a new instance.
+         * @param entity The affected entity.
+         * @param distanceSquared The squared distance between the entity and the burst location.
+         */
+        public EntityInRange(T entity, double distanceSquared)
+        {
+            this.entity          = entity;
+            this.distanceSquared = distanceSquared;
+        }
+        
+        /** The affected entity. */
+        final T entity;
+        
+        /** The squared distance between the entity and the location the spell phrase burst at. */
+        final double distanceSquared;
+        
+        /**
+         * Gets the affected entity.
+         * @return The entity.
+         */
+        public T getEntity()
+        { return entity; }
+        
+        /**
+         * Gets the squared distance between the entity and the location the spell phrase burst at. Squared, so
+         * comparisons against squared ranges don't need a square root.
+         * @return The squared distance from the burst location.
+         */
+        public double getDistanceSquared()
+        { return distanceSquared; }
+    }
+    
     /**
      * Creates a new SpellArgs object with the passed initial values.
      * @param effect The spell effect concerned.
@@ -72,6 +113,34 @@ public class SpellArgs
                         Collection<? extends BlockLocation> blocksAffected, Collection<? extends Entity> entitiesAffected,
                         BlockLocation blockHit, Entity entityHit,
                         Map<String, SpellMessage> backingMessagesMap)
+    {
+        this(effect,         caster,           cast,     modifiers,
+             location,       direction,
+             aoe,            aoeSize,          aoeShape, spellStrength, spellTarget,
+             blocksAffected, entitiesAffected,
+             blockHit,       entityHit,
+             backingMessagesMap,
+             null,           null,
+             false);
+    }
+    
+    /**
+     * Creates a new SpellArgs object, reusing the passed entities-in-range lists rather than working them out again.
+     * They're only ever shared between SpellArgs objects with the same affected entities and burst location.
+     * @param entitiesInRange The affected entities with their distances, or null if they should be worked out.
+     * @param mobsInRange The affected living entities with their distances, or null if they should be worked out.
+     * @param affectedFiltered Whether the affected blocks or entities have been narrowed down from what the AOE
+     * covers, e.g. by IgnoreEntities.
+     */
+    private SpellArgs(SpellEffect effect, SpellCaster caster, SpellCast cast,
+                      Collection<? extends SpellEffectModifier> modifiers,
+                      Location location, Direction direction,
+                      AOE aoe, AOESize aoeSize, AOEShape aoeShape, SpellStrength spellStrength, SpellTarget spellTarget,
+                      Collection<? extends BlockLocation> blocksAffected, Collection<? extends Entity> entitiesAffected,
+                      BlockLocation blockHit, Entity entityHit,
+                      Map<String, SpellMessage> backingMessagesMap,
+                      List<EntityInRange<Entity>> entitiesInRange, List<EntityInRange<EntityLivingBase>> mobsInRange,
+                      boolean affectedFiltered)
     {
         this.effect           = effect;
         this.caster           = caster;
@@ -94,6 +163,44 @@ public class SpellArgs
         this.entityHit        = entityHit;
         
         this.messages         = backingMessagesMap;
+        this.affectedFiltered = affectedFiltered;
+        
+        if(entitiesInRange == null || mobsInRange == null)
+        {
+            List<EntityInRange<Entity>>           entities = new ArrayList<EntityInRange<Entity>>(this.entitiesAffected.size());
+            List<EntityInRange<EntityLivingBase>> mobs     = new ArrayList<EntityInRange<EntityLivingBase>>();
+            
+            for(Entity i : this.entitiesAffected)
+            {
+                double distanceSquared = 0;
+                
+                if(location != null)
+                {
+                    double xDist = i.posX - location.getX();
+                    double yDist = i.posY - location.getY();
+                    double zDist = i.posZ - location.getZ();
+                    distanceSquared = (xDist * xDist) + (yDist * yDist) + (zDist * zDist);
+                }
+                
+                entities.add(new EntityInRange<Entity>(i, distanceSquared));
+                
+                if(i instanceof EntityLivingBase)
+                    mobs.add(new EntityInRange<EntityLivingBase>((EntityLivingBase)i, distanceSquared));
+            }
+            
+            entitiesInRange = Collections.unmodifiableList(entities);
+            mobsInRange     = Collections.unmodifiableList(mobs);
+        }
+        
+        this.entitiesInRange = entitiesInRange;
+        this.mobsInRange     = mobsInRange;
+        
+        List<EntityLivingBase> mobs = new ArrayList<EntityLivingBase>(mobsInRange.size());
+        
+        for(EntityInRange<EntityLivingBase> i : mobsInRange)
+            mobs.add(i.getEntity());
+        
+        this.mobsAffected = Collections.unmodifiableList(mobs);
     }
     
     /**
@@ -107,7 +214,9 @@ public class SpellArgs
              o.aoe,            o.aoeSize,          o.aoeShape, o.spellStrength,   o.spellTarget,
              o.blocksAffected, o.entitiesAffected,
              o.blockHit,       o.entityHit,
-             o.messages);
+             o.messages,
+             o.entitiesInRange, o.mobsInRange,
+             o.affectedFiltered);
     }
     
     /** The spell effect modifiers used in the spell phrase that was cast. */
@@ -131,6 +240,20 @@ public class SpellArgs
     /** The entities in range of this spell burst, as determined by the AOE, the AOE size, and the AOE shape. */
     final Collection<Entity> entitiesAffected;
     
+    /** The entities in range of this spell burst, with their squared distances from the burst location. */
+    final List<EntityInRange<Entity>> entitiesInRange;
+    
+    /** The living entities in range of this spell burst, with their squared distances from the burst location. */
+    final List<EntityInRange<EntityLivingBase>> mobsInRange;
+    
+    /** The living entities in range of this spell burst. */
+    final List<EntityLivingBase> mobsAffected;
+    
+    /**
+     * Whether the affected blocks or entities have been narrowed down from what the AOE covers, e.g. by IgnoreEntities.
+     */
+    final boolean affectedFiltered;
+    
     /** The caster that cast the spell. */
     final SpellCaster caster;
     
@@ -268,16 +391,35 @@ public class SpellArgs
     public Collection<Entity> getEntitiesAffected()
     { return new ArrayList<Entity>(entitiesAffected); }
     
+    /**
+     * Gets the living entities within the AOE. This is worked out once, when the SpellArgs object is created, and
+     * isn't copied for each caller.
+     * @return An unmodifiable collection of the living entities affected.
+     */
     public Collection<EntityLivingBase> getMobsAffected()
-    {
-        List<EntityLivingBase> mobs = new ArrayList<EntityLivingBase>();
-        
-        for(Entity i : getEntitiesAffected())
-            if(i instanceof EntityLivingBase)
-                mobs.add((EntityLivingBase)i);
-        
-        return mobs;
-    }
+    { return mobsAffected; }
+    
+    /**
+     * Gets the entities within the AOE, along with each one's squared distance from the burst location.
+     * @return An unmodifiable list of the entities affected and their squared distances.
+     */
+    public List<EntityInRange<Entity>> getEntitiesInRange()
+    { return entitiesInRange; }
+    
+    /**
+     * Gets the living entities within the AOE, along with each one's squared distance from the burst location.
+     * @return An unmodifiable list of the living entities affected and their squared distances.
+     */
+    public List<EntityInRange<EntityLivingBase>> getMobsInRange()
+    { return mobsInRange; }
+    
+    /**
+     * Gets whether the affected blocks or entities have been narrowed down from everything the AOE covers, as is done
+     * by IgnoreEntities, IgnoreBlocks, etc.
+     * @return True if the affected blocks or entities aren't simply everything within the AOE. Otherwise, false.
+     */
+    public boolean isAffectedAreaFiltered()
+    { return affectedFiltered; }
     
     /**
      * Gets the caster that cast the spell.
@@ -358,7 +500,11 @@ public class SpellArgs
                              blocks,
                              this.entitiesAffected,
                              this.blockHit,
-                             this.entityHit);
+                             this.entityHit,
+                             new HashMap<String, SpellMessage>(),
+                             this.entitiesInRange,
+                             this.mobsInRange,
+                             true);
     }
     
     /**
@@ -383,6 +529,10 @@ public class SpellArgs
                              this.blocksAffected,
                              entities, //this.entitiesAffected,
                              this.blockHit,
-                             this.entityHit);
+                             this.entityHit,
+                             new HashMap<String, SpellMessage>(),
+                             null,
+                             null,
+                             true);
     }
 }
\ No newline at end of file
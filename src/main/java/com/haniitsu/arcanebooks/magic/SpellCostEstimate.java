@@ -0,0 +1,265 @@
+package com.haniitsu.arcanebooks.magic;
+
+import com.haniitsu.arcanebooks.magic.Spell.Phrase;
+import com.haniitsu.arcanebooks.magic.modifiers.definition.SpellEffectDefinitionModifier;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.AOE;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.AOEShape;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.AOESize;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An upper bound on how much work casting a spell could take, worked out from the spell alone without casting it. Can
+ * be used to turn away or slow down overly expensive spells before they're cast, or to charge mana in proportion.
+ *
+ * Where a phrase could go one of several ways (e.g. has several possible AOE sizes) the most expensive is assumed.
+ * Spells triggered by a spell aren't included.
+ */
+public class SpellCostEstimate
+{
+    /**
+     * Creates a new estimate.
+     * @param blocksTouched The most blocks the spell could affect.
+     * @param entitiesTouched The most entities the spell could affect.
+     * @param definitionsExecuted The most configured definitions the spell could perform.
+     * @param worldWrites The most changes to the world the spell could make.
+     */
+    public SpellCostEstimate(long blocksTouched, long entitiesTouched, long definitionsExecuted, long worldWrites)
+    {
+        this.blocksTouched       = blocksTouched;
+        this.entitiesTouched     = entitiesTouched;
+        this.definitionsExecuted = definitionsExecuted;
+        this.worldWrites         = worldWrites;
+    }
+    
+    /** An estimate of no cost at all. */
+    public static final SpellCostEstimate none = new SpellCostEstimate(0, 0, 0, 0);
+    
+    /**
+     * The number of entities assumed to be in each block of an AOE. There's no way of knowing how many entities a
+     * spell will hit before it's cast, so estimates of the entities touched are based on this.
+     */
+    public static volatile double assumedEntitiesPerBlock = 0.25;
+    
+    /**
+     * The most AOE shape and size pairs to hold onto the blocks covered for. Sizes come from spells players write, so
+     * there's no limit to how many there could be; once this many are held, they're all let go of and worked out again
+     * as they're needed.
+     */
+    public static volatile int maxCachedBlocksCovered = 1024;
+    
+    /** The most blocks covered by each AOE shape at each size, as they're worked out. */
+    static final Map<List<Object>, Long> blocksCoveredCache = new ConcurrentHashMap<List<Object>, Long>();
+    
+    /** The most blocks the spell could affect. */
+    protected final long blocksTouched;
+    
+    /** The most entities the spell could affect. */
+    protected final long entitiesTouched;
+    
+    /** The most configured definitions the spell could perform. */
+    protected final long definitionsExecuted;
+    
+    /** The most changes to the world the spell could make. (blocks changed, entities hurt, etc.) */
+    protected final long worldWrites;
+    
+    public long getBlocksTouched()
+    { return blocksTouched; }
+    
+    public long getEntitiesTouched()
+    { return entitiesTouched; }
+    
+    public long getDefinitionsExecuted()
+    { return definitionsExecuted; }
+    
+    public long getWorldWrites()
+    { return worldWrites; }
+    
+    /**
+     * Gets the estimate as a single number, for comparing against limits or working out mana costs.
+     * @return The sum of the blocks and entities touched, definitions executed, and world writes.
+     */
+    public long getTotal()
+    { return blocksTouched + entitiesTouched + definitionsExecuted + worldWrites; }
+    
+    /**
+     * Gets the estimate for doing both this and another estimated thing.
+     * @param other The other estimate.
+     * @return A new estimate, with each part being the sum of the parts of this and the other estimate.
+     */
+    public SpellCostEstimate plus(SpellCostEstimate other)
+    {
+        return new SpellCostEstimate(blocksTouched       + other.blocksTouched,
+                                     entitiesTouched     + other.entitiesTouched,
+                                     definitionsExecuted + other.definitionsExecuted,
+                                     worldWrites         + other.worldWrites);
+    }
+    
+    /**
+     * Gets the estimate for doing either this or another estimated thing.
+     * @param other The other estimate.
+     * @return A new estimate, with each part being the larger of the parts of this and the other estimate.
+     */
+    public SpellCostEstimate max(SpellCostEstimate other)
+    {
+        return new SpellCostEstimate(Math.max(blocksTouched,       other.blocksTouched),
+                                     Math.max(entitiesTouched,     other.entitiesTouched),
+                                     Math.max(definitionsExecuted, other.definitionsExecuted),
+                                     Math.max(worldWrites,         other.worldWrites));
+    }
+    
+    /**
+     * Estimates the cost of casting the passed spell. Spell.estimateCost() should usually be used instead, as it
+     * holds onto the estimate.
+     * @param spell The spell to estimate the cost of.
+     * @return The estimate.
+     */
+    public static SpellCostEstimate of(Spell spell)
+    {
+        SpellCostEstimate estimate = none;
+        
+        for(Phrase phrase : spell.getPhrases())
+            estimate = estimate.plus(of(phrase));
+        
+        return estimate;
+    }
+    
+    /**
+     * Estimates the cost of bursting the passed spell phrase.
+     * @param phrase The spell phrase to estimate the cost of.
+     * @return The estimate.
+     */
+    public static SpellCostEstimate of(Phrase phrase)
+    {
+        List<AOE>      aoes   = phrase.getPossibleAOEs();
+        List<AOEShape> shapes = phrase.getPossibleShapes();
+        List<AOESize>  sizes  = phrase.getPossibleSizes();
+        
+        if(aoes.isEmpty())
+            aoes = Collections.singletonList(AOE.defaultValue);
+        
+        if(shapes.isEmpty())
+            shapes = Collections.singletonList(AOEShape.defaultValue);
+        
+        if(sizes.isEmpty())
+            sizes = Collections.singletonList(AOESize.defaultValue);
+        
+        SpellCostEstimate estimate = none;
+        
+        for(SpellEffect effect : phrase.getPossibleSpellEffect())
+        {
+            List<ConfiguredDefinition> defs = new ArrayList<ConfiguredDefinition>();
+            
+            for(ConfiguredDefinition def : effect.getDefinitions())
+                addConfiguredDefinitionsTo(def, defs);
+            
+            for(AOE aoe : aoes)
+                for(AOEShape shape : shapes)
+                    for(AOESize size : sizes)
+                    {
+                        long blocks;
+                        long entities;
+                        
+                        if(aoe == AOE.targetOnly)
+                        {
+                            blocks   = 1;
+                            entities = 1;
+                        }
+                        else
+                        {
+                            blocks   = getMaxBlocksCovered(shape, size.getDistance() * shape.getAOESizeModifier());
+                            entities = (long)Math.ceil(blocks * assumedEntitiesPerBlock);
+                            
+                            if(aoe == AOE.targetAndAroundTarget)
+                            {
+                                blocks++;
+                                entities++;
+                            }
+                        }
+                        
+                        long writes = 0;
+                        
+                        for(ConfiguredDefinition def : defs)
+                            writes += def.getDefinition().getMaxWorldWrites(blocks, entities);
+                        
+                        estimate = estimate.max(new SpellCostEstimate(blocks, entities, defs.size(), writes));
+                    }
+        }
+        
+        return estimate;
+    }
+    
+    /**
+     * Gets the most blocks the passed AOE shape of the passed size could cover, working it out if it isn't held onto.
+     * @param shape The AOE shape.
+     * @param AOESize The size of the AOE in metres.
+     * @return The most blocks the shape covers.
+     */
+    static long getMaxBlocksCovered(AOEShape shape, double AOESize)
+    {
+        List<Object> key = Arrays.<Object>asList(shape, AOESize);
+        Long blocks = blocksCoveredCache.get(key);
+        
+        if(blocks == null)
+        {
+            blocks = shape.getMaxBlocksCovered(AOESize);
+            
+            if(blocksCoveredCache.size() >= maxCachedBlocksCovered)
+                blocksCoveredCache.clear();
+            
+            blocksCoveredCache.put(key, blocks);
+        }
+        
+        return blocks;
+    }
+    
+    private static void addConfiguredDefinitionsTo(SpellEffectDefinitionModifier modifier, List<ConfiguredDefinition> defs)
+    {
+        if(modifier instanceof ConfiguredDefinition)
+            defs.add((ConfiguredDefinition)modifier);
+        
+        for(SpellEffectDefinitionModifier i : modifier.getSubModifiers())
+            addConfiguredDefinitionsTo(i, defs);
+    }
+    
+    @Override
+    public int hashCode()
+    {
+        int hash = 7;
+        hash = 37 * hash + (int)(this.blocksTouched       ^ (this.blocksTouched       >>> 32));
+        hash = 37 * hash + (int)(this.entitiesTouched     ^ (this.entitiesTouched     >>> 32));
+        hash = 37 * hash + (int)(this.definitionsExecuted ^ (this.definitionsExecuted >>> 32));
+        hash = 37 * hash + (int)(this.worldWrites         ^ (this.worldWrites         >>> 32));
+        return hash;
+    }
+    
+    @Override
+    public boolean equals(Object obj)
+    {
+        if(obj == null)
+            return false;
+        
+        if(getClass() != obj.getClass())
+            return false;
+        
+        final SpellCostEstimate other = (SpellCostEstimate)obj;
+        
+        return this.blocksTouched       == other.blocksTouched
+            && this.entitiesTouched     == other.entitiesTouched
+            && this.definitionsExecuted == other.definitionsExecuted
+            && this.worldWrites         == other.worldWrites;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return "blocks: "       + blocksTouched
+             + ", entities: "    + entitiesTouched
+             + ", definitions: " + definitionsExecuted
+             + ", writes: "      + worldWrites;
+    }
+}
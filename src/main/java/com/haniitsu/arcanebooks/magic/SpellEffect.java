@@ -2,6 +2,7 @@ package com.haniitsu.arcanebooks.magic;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -18,6 +19,7 @@ public class SpellEffect implements SpellWord
     public SpellEffect(String name, ConfiguredDefinition definition)
     {
         this.name = name;
+        spellWordId = new SpellWordIds.Id(SpellWordIds.effectKey(name));
         definitions = new ArrayList<ConfiguredDefinition>();
         definitions.add(definition);
     }
@@ -30,6 +32,7 @@ public class SpellEffect implements SpellWord
     public SpellEffect(String name, ConfiguredDefinition... definitions)
     {
         this.name = name;
+        spellWordId = new SpellWordIds.Id(SpellWordIds.effectKey(name));
         this.definitions = new ArrayList<ConfiguredDefinition>(Arrays.asList(definitions));
     }
     
@@ -41,6 +44,7 @@ public class SpellEffect implements SpellWord
     public SpellEffect(String name, List<? extends ConfiguredDefinition> definitions)
     {
         this.name = name;
+        spellWordId = new SpellWordIds.Id(SpellWordIds.effectKey(name));
         this.definitions = new ArrayList<ConfiguredDefinition>(definitions);
     }
     
@@ -50,6 +54,9 @@ public class SpellEffect implements SpellWord
     /** The configured spell effect definition that define this spell effect. */
     List<ConfiguredDefinition> definitions;
     
+    /** Looks up the spell word id of this spell effect. Registered by the spell effect registries it's added to. */
+    private final SpellWordIds.Id spellWordId;
+    
     /**
      * Gets the name of this spell effect.
      * @return The name.
@@ -57,6 +64,17 @@ public class SpellEffect implements SpellWord
     public String getName()
     { return name; }
     
+    @Override
+    public int getSpellWordId()
+    { return spellWordId.get(); }
+    
+    /**
+     * Gets the configured spell effect definitions that define this spell effect.
+     * @return The configured definitions, as an unmodifiable list.
+     */
+    public List<ConfiguredDefinition> getDefinitions()
+    { return Collections.unmodifiableList(definitions); }
+    
     /**
      * Performs this spell effect's effect.
      * @param spellArgs The spell args representing the spell phrase cast that this spell effect should be cast under.
@@ -1,7 +1,6 @@
 package com.haniitsu.arcanebooks.magic;
 
-import com.haniitsu.arcanebooks.magic.modifiers.definition.SpellEffectDefinitionModifier;
-import java.util.List;
+import com.haniitsu.arcanebooks.magic.castcaches.CastCache;
 
 /**
  * The hard-coded meaty chunks of a spell. The encapsulated code that actually does things that can be manipulated into
@@ -9,6 +8,21 @@ import java.util.List;
  */
 public abstract class SpellEffectDefinition
 {
+    /**
+     * What happens to the parts of a spell burst's AOE that are in chunks that aren't loaded.
+     */
+    public static enum UnloadedChunkPolicy
+    {
+        /** The blocks and entities in unloaded chunks are left out. */
+        skip,
+        
+        /**
+         * The blocks and entities in unloaded chunks are left out, but the definition is performed again on them if
+         * the chunks are loaded soon after. (see DeferredBursts)
+         */
+        defer
+    }
+    
     /**
      * Creates a spell effect definition with the given name.
      * @param name The name of the spell effect definition.
@@ -34,4 +48,45 @@ public abstract class SpellEffectDefinition
      * @param def The configured definition this is being called from.
      */
     public abstract void performEffect(SpellArgs spellArgs, ConfiguredDefinition def);
+    
+    /**
+     * Creates the cast cache for the passed configured definition, holding whatever this spell effect definition
+     * would otherwise have to work out from the configured definition's modifiers on every cast.
+     * 
+     * This is called when spell effects are realised rather than when they're first cast, and may be called for
+     * different configured definitions on different threads at the same time - so it should only look at the passed
+     * configured definition, and not at the world or anything else that might change.
+     * @param def The configured definition to create a cast cache for.
+     * @return The new cast cache, or null if this spell effect definition doesn't use one.
+     */
+    public CastCache makeCastCache(ConfiguredDefinition def)
+    { return null; }
+    
+    /**
+     * Gets the most changes to the world (blocks changed, entities hurt, etc.) this spell effect definition could make
+     * in a single spell burst affecting the passed numbers of blocks and entities. Used in estimating how expensive a
+     * spell is before it's cast.
+     * @param blocksAffected The most blocks the spell burst could affect.
+     * @param entitiesAffected The most entities the spell burst could affect.
+     * @return The most changes to the world this could make.
+     */
+    public long getMaxWorldWrites(long blocksAffected, long entitiesAffected)
+    { return 0; }
+    
+    /**
+     * Gets whether this spell effect definition needs the blocks and entities affected by earlier spell phrase casts
+     * of the same spell cast, rather than just a summary of them. Spell casts only hold onto them if a definition in the
+     * spell needs them, as they can otherwise take up a lot of memory while the spell's projectiles are in flight.
+     * @return True if this looks at PhraseCastSummary.getBlocksAffected() or .getEntitiesAffected(), otherwise false.
+     */
+    public boolean needsFullCastHistory()
+    { return false; }
+    
+    /**
+     * Gets what should happen to the parts of spell bursts this definition is part of that reach into unloaded chunks.
+     * Chunks are never loaded just to perform a spell burst in them, as that can stall the server.
+     * @return The policy for unloaded chunks.
+     */
+    public UnloadedChunkPolicy getUnloadedChunkPolicy()
+    { return UnloadedChunkPolicy.skip; }
 }
\ No newline at end of file
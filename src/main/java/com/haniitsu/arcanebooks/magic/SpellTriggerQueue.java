@@ -0,0 +1,319 @@
+package com.haniitsu.arcanebooks.magic;
+
+import com.haniitsu.arcanebooks.magic.Spell.SpellCast;
+import com.haniitsu.arcanebooks.magic.caster.SpellCaster;
+import com.haniitsu.arcanebooks.magic.caster.SpellCasterBlock;
+import com.haniitsu.arcanebooks.magic.caster.SpellCasterEntity;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * The queue of spells triggered by a spell cast (e.g. by the TriggerSpell definition) and by any spells those trigger
+ * in turn. Triggered spells aren't cast from within the spell effect that triggered them, but are queued up and cast
+ * one after another once the cast that started the chain has finished, so a chain of triggers never grows the stack.
+ *
+ * Each chain is limited in how deep it can go and how many spells it can trigger in total. A spell won't be triggered
+ * on a caster that's already casting it as one of the casts that led to the trigger, (which would otherwise let
+ * self-triggering spells loop forever) though separate branches of a chain can each trigger the same spell on the same
+ * caster. Any triggers beyond the number a chain is allowed to cast per server tick are carried over to the next tick.
+ */
+public class SpellTriggerQueue
+{
+    /**
+     * A spell cast as part of a trigger chain, along with the casts that triggered it, back to the one that started the
+     * chain. Used to tell when a trigger would loop back round to a cast that led to it.
+     */
+    public static class TriggerChain
+    {
+        /**
+         * Creates a new instance.
+         * @param spell The spell being cast.
+         * @param caster The caster casting it.
+         * @param triggeredBy The chain of casts that triggered this one, or null if it started the chain.
+         */
+        TriggerChain(Spell spell, SpellCaster caster, TriggerChain triggeredBy)
+        {
+            this.spell       = spell;
+            this.casterKey   = getCasterKey(caster);
+            this.triggeredBy = triggeredBy;
+            this.depth       = triggeredBy == null ? 0 : triggeredBy.depth + 1;
+        }
+        
+        /** The spell being cast. */
+        final Spell spell;
+        
+        /** What the caster casting the spell is, as per .getCasterKey. */
+        final Object casterKey;
+        
+        /** The chain of casts that triggered this one, or null if it started the chain. */
+        final TriggerChain triggeredBy;
+        
+        /** How many triggers deep into the chain this cast is. The cast that started the chain is at a depth of 0. */
+        final int depth;
+        
+        /**
+         * Gets whether the passed spell is being cast by the passed caster as this cast or one of the casts that led to
+         * it.
+         * @param spell The spell.
+         * @param casterKey The caster, as per .getCasterKey.
+         * @return True if the caster's casting the spell somewhere along this chain. Otherwise, false.
+         */
+        boolean contains(Spell spell, Object casterKey)
+        {
+            for(TriggerChain i = this; i != null; i = i.triggeredBy)
+                if(i.spell == spell && i.casterKey.equals(casterKey))
+                    return true;
+            
+            return false;
+        }
+    }
+    
+    /**
+     * A spell waiting to be cast by a caster as part of a trigger chain.
+     */
+    protected static class PendingTrigger
+    {
+        /**
+         * Creates a new instance.
+         * @param spell The spell to be cast.
+         * @param caster The caster to cast the spell.
+         * @param triggeredBy The chain of casts that triggered the spell.
+         */
+        public PendingTrigger(Spell spell, SpellCaster caster, TriggerChain triggeredBy)
+        {
+            this.spell       = spell;
+            this.caster      = caster;
+            this.triggeredBy = triggeredBy;
+        }
+        
+        /** The spell to be cast. */
+        final Spell spell;
+        
+        /** The caster to cast the spell. */
+        final SpellCaster caster;
+        
+        /** The chain of casts that triggered the spell. */
+        final TriggerChain triggeredBy;
+    }
+    
+    /**
+     * Creates a new trigger queue, with the default limits.
+     */
+    public SpellTriggerQueue()
+    { this(defaultMaxDepth, defaultTriggerBudget, defaultTriggersPerTick); }
+    
+    /**
+     * Creates a new trigger queue.
+     * @param maxDepth The maximum number of triggers deep a chain can go. Triggers from a cast that was itself this
+     * many triggers deep are ignored.
+     * @param triggerBudget The maximum number of spells the chain can trigger in total.
+     * @param triggersPerTick The maximum number of triggered spells the chain can cast in a single server tick.
+     */
+    public SpellTriggerQueue(int maxDepth, int triggerBudget, int triggersPerTick)
+    {
+        this.maxDepth        = maxDepth;
+        this.triggerBudget   = triggerBudget;
+        this.triggersPerTick = triggersPerTick;
+    }
+    
+    /** The maximum trigger depth of new trigger queues, unless otherwise specified. */
+    public static volatile int defaultMaxDepth = 8;
+    
+    /** The maximum total number of triggered spells of new trigger queues, unless otherwise specified. */
+    public static volatile int defaultTriggerBudget = 256;
+    
+    /** The maximum number of triggered spells new trigger queues cast per server tick, unless otherwise specified. */
+    public static volatile int defaultTriggersPerTick = 64;
+    
+    /** The trigger queues with triggers left over from a previous tick, waiting to be run on the next tick. */
+    static final Set<SpellTriggerQueue> carriedOver = new LinkedHashSet<SpellTriggerQueue>();
+    
+    /** The number of server ticks that have passed, used to know when a queue's per-tick budget can be reset. */
+    static long currentTick = 0;
+    
+    /** The maximum number of triggers deep the chain can go. */
+    protected final int maxDepth;
+    
+    /** The maximum number of spells the chain can trigger in total. */
+    protected final int triggerBudget;
+    
+    /** The maximum number of triggered spells the chain can cast in a single server tick. */
+    protected final int triggersPerTick;
+    
+    /** The triggers yet to be cast, in the order they were triggered. */
+    protected final Queue<PendingTrigger> pending = new ArrayDeque<PendingTrigger>();
+    
+    /** The number of spells triggered so far in this chain. */
+    protected int triggersUsed = 0;
+    
+    /** The tick on which this queue last cast a triggered spell. */
+    protected long lastTickRun = -1;
+    
+    /** The number of triggered spells this queue has cast on the tick it last ran. */
+    protected int triggersRunThisTick = 0;
+    
+    /** Whether or not the queue is currently casting triggered spells. */
+    protected boolean running = false;
+    
+    /**
+     * Queues up a spell to be cast by the passed caster, as long as doing so wouldn't exceed any of the chain's limits.
+     * @param triggeredBy The spell cast triggering the spell.
+     * @param spell The spell to be cast.
+     * @param caster The caster to cast the spell.
+     * @return True if the spell was queued up, otherwise false.
+     */
+    public synchronized boolean enqueue(SpellCast triggeredBy, Spell spell, SpellCaster caster)
+    {
+        if(triggeredBy.getTriggerDepth() + 1 > maxDepth || triggersUsed >= triggerBudget)
+            return false;
+        
+        // Would loop back round to a cast that led to this one.
+        if(triggeredBy.triggerChain.contains(spell, getCasterKey(caster)))
+            return false;
+        
+        triggersUsed++;
+        pending.add(new PendingTrigger(spell, caster, triggeredBy.triggerChain));
+        
+        // Triggered after the cast that started the chain has finished (e.g. by a projectile hitting something, or
+        // by an aura) so nothing's going to run the queue; picked up on the next server tick instead.
+        if(!running)
+        {
+            synchronized(carriedOver)
+            { carriedOver.add(this); }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Casts the queued triggered spells, including any triggered by those, until either the queue is empty or this
+     * tick's budget has been used up. Any triggers left over are carried over to the next server tick.
+     */
+    public void run()
+    {
+        synchronized(this)
+        {
+            // Triggered casts add to the queue rather than running it themselves; they'll be picked up by the loop
+            // that's already running.
+            if(running)
+                return;
+            
+            running = true;
+        }
+        
+        try
+        {
+            for(PendingTrigger trigger = nextTrigger(); trigger != null; trigger = nextTrigger())
+            {
+                if(trigger.caster instanceof SpellCasterEntity
+                && ((SpellCasterEntity)trigger.caster).getCasterEntity().isDead)
+                    continue;
+                
+                trigger.spell.cast(trigger.caster, this, trigger.triggeredBy);
+            }
+        }
+        finally
+        {
+            boolean hasLeftovers;
+            
+            synchronized(this)
+            {
+                running = false;
+                hasLeftovers = !pending.isEmpty();
+            }
+            
+            synchronized(carriedOver)
+            {
+                if(hasLeftovers)
+                    carriedOver.add(this);
+                else
+                    carriedOver.remove(this);
+            }
+        }
+    }
+    
+    /**
+     * Gets the next trigger to cast, if this tick's budget allows for it.
+     * @return The next trigger to cast, or null if there are none, or none more can be cast this tick.
+     */
+    protected synchronized PendingTrigger nextTrigger()
+    {
+        if(pending.isEmpty())
+            return null;
+        
+        long tick = getCurrentTick();
+        
+        if(lastTickRun != tick)
+        {
+            lastTickRun = tick;
+            triggersRunThisTick = 0;
+        }
+        
+        if(triggersRunThisTick >= triggersPerTick)
+            return null;
+        
+        triggersRunThisTick++;
+        return pending.poll();
+    }
+    
+    /**
+     * Gets whether or not there are any triggered spells still waiting to be cast.
+     * @return True if there are triggers yet to be cast, otherwise false.
+     */
+    public synchronized boolean hasPendingTriggers()
+    { return !pending.isEmpty(); }
+    
+    /**
+     * Moves on to the next server tick, and casts any triggers carried over from previous ticks.
+     */
+    public static void onServerTick()
+    {
+        List<SpellTriggerQueue> queues;
+        
+        synchronized(carriedOver)
+        {
+            currentTick++;
+            queues = new ArrayList<SpellTriggerQueue>(carriedOver);
+        }
+        
+        for(SpellTriggerQueue queue : queues)
+            queue.run();
+    }
+    
+    /**
+     * Drops all triggers carried over from previous ticks. e.g. for when the server is stopping.
+     */
+    public static void clearCarriedOver()
+    {
+        synchronized(carriedOver)
+        { carriedOver.clear(); }
+    }
+    
+    static long getCurrentTick()
+    {
+        synchronized(carriedOver)
+        { return currentTick; }
+    }
+    
+    /**
+     * Gets the object identifying what a caster is, for the purposes of checking whether it's already casting a spell
+     * as part of a trigger chain. Different wrappers of the same entity or block are treated as the same caster, and
+     * entities are identified by their UUIDs, so chains held onto by projectiles and auras don't hold onto them.
+     * @param caster The caster to get the key of.
+     * @return The entity UUID or block location of the caster, or the caster itself if it's neither.
+     */
+    protected static Object getCasterKey(SpellCaster caster)
+    {
+        if(caster instanceof SpellCasterEntity)
+            return ((SpellCasterEntity)caster).getCasterEntity().getUniqueID();
+        
+        if(caster instanceof SpellCasterBlock)
+            return ((SpellCasterBlock)caster).getBlockLocation();
+        
+        return caster;
+    }
+}
@@ -5,5 +5,10 @@ package com.haniitsu.arcanebooks.magic;
  */
 public interface SpellWord
 {
-   // stub 
+    /**
+     * Gets the id of this spell word, as handed out by SpellWordIds. Spell words that are the same word (e.g. a spell
+     * effect and the one that replaced it) have the same id.
+     * @return The spell word's id, or -1 if it isn't registered. (e.g. a spell effect not in any spell effect registry)
+     */
+    int getSpellWordId();
 }
\ No newline at end of file
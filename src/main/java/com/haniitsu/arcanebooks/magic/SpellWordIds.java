@@ -0,0 +1,309 @@
+package com.haniitsu.arcanebooks.magic;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Hands out the ids of spell words. Ids are dense, (starting at 0 and counting up, with ids given up being handed out
+ * again before new ones) so they can be used as indices into arrays.
+ *
+ * Ids go by what the spell word is rather than by the object, (e.g. "effect:Heal", "AOE:targetOnly") so a spell effect
+ * that's replaced (e.g. by reloading the spell effects file) has the same id as the one it replaced. A spell word gets
+ * its id when it's registered, (spell effect modifiers when they're added to their pseudo-enums, spell effects when
+ * they're added to a spell effect registry) and keeps it until everything that registered it has released it.
+ *
+ * Ids aren't saved, and are handed out in the order spell words are registered, so they can differ between runs. The
+ * server sends its ids to players as they join, and the ids of spell effects along with them as they're added, so ids
+ * mean the same spell words on the server and its clients. The client's own ids are put back once it disconnects.
+ */
+public final class SpellWordIds
+{
+    /**
+     * Looks up and holds onto the id of a spell word, for spell words to give as their id. Looks it up again whenever
+     * ids might have been moved around since it was last looked up.
+     */
+    public static final class Id
+    {
+        /**
+         * Creates a holder for the id of the spell word with the passed key. Doesn't register the spell word.
+         * @param key The spell word as a string. (e.g. "effect:Heal", "AOE:targetOnly")
+         */
+        public Id(String key)
+        { this.key = key; }
+        
+        /** The spell word as a string. */
+        final String key;
+        
+        /** The id last looked up, in the low 32 bits, and the generation it was looked up in, in the high 32 bits. */
+        volatile long idAndGeneration = -1;
+        
+        /**
+         * Gets the id of the spell word.
+         * @return The spell word's id, or -1 if it isn't registered.
+         */
+        public int get()
+        {
+            long cached = idAndGeneration;
+            int currentGeneration = generation;
+            
+            if((int)(cached >>> 32) == currentGeneration && (int)cached >= 0)
+                return (int)cached;
+            
+            // Ids not yet handed out aren't remembered, so the spell word gets its id as soon as it's registered.
+            int id = getId(key);
+            idAndGeneration = ((long)currentGeneration << 32) | (id & 0xFFFFFFFFL);
+            return id;
+        }
+        
+        /**
+         * Gets the spell word as a string, which its id is handed out by.
+         * @return The spell word as a string. (e.g. "effect:Heal", "AOE:targetOnly")
+         */
+        public String getKey()
+        { return key; }
+    }
+    
+    private SpellWordIds()
+    {}
+    
+    /** The ids handed out, by the string form of the spell word they're for. (e.g. "effect:Heal", "AOE:targetOnly") */
+    private static final Map<String, Integer> ids = new HashMap<String, Integer>();
+    
+    /** The string forms of the spell words ids have been handed out for, by id. Null where an id isn't in use. */
+    private static final List<String> keys = new ArrayList<String>();
+    
+    /** How many things have registered each spell word and not released it yet, by id. */
+    private static final List<Integer> holdCounts = new ArrayList<Integer>();
+    
+    /** The ids given up, which are handed out again lowest first before any new ones, so ids stay dense. */
+    private static final TreeSet<Integer> freeIds = new TreeSet<Integer>();
+    
+    /**
+     * Goes up whenever a spell word loses its id, or an id's given to a different spell word, so ids looked up before
+     * then are looked up again. Not when spell words are given ids they didn't have before.
+     */
+    private static volatile int generation = 0;
+    
+    /**
+     * The string forms of the spell words ids had been handed out for before they were replaced by the server's with
+     * .setAll, by id, to go back to once disconnected from the server. Null if the ids haven't been replaced.
+     */
+    private static List<String> localKeys = null;
+    
+    /** How many things had registered each spell word before the ids were replaced by the server's, by id. */
+    private static List<Integer> localHoldCounts = null;
+    
+    /**
+     * Gets the string form of the spell effect with the passed name, as its id is handed out by.
+     * @param effectName The name of the spell effect.
+     * @return The spell effect as a string. (e.g. "effect:Heal")
+     */
+    public static String effectKey(String effectName)
+    { return "effect:" + effectName; }
+    
+    /**
+     * Gets the string form of the spell effect modifier with the passed group and name, as its id is handed out by.
+     * @param groupName The name of the modifier's group. (e.g. "AOE")
+     * @param modifierName The name of the modifier within its group.
+     * @return The modifier as a string. (e.g. "AOE:targetOnly")
+     */
+    public static String modifierKey(String groupName, String modifierName)
+    { return groupName + ":" + modifierName; }
+    
+    /**
+     * Registers a spell word, handing out an id for it if it doesn't have one. Every call should be matched by a call
+     * to .release once the spell word's no longer registered with whatever registered it.
+     * @param key The spell word as a string. (e.g. "effect:Heal", "AOE:targetOnly")
+     * @return The spell word's id.
+     */
+    public static synchronized int register(String key)
+    {
+        Integer id = ids.get(key);
+        
+        if(id == null)
+        {
+            id = freeIds.isEmpty() ? keys.size() : freeIds.pollFirst();
+            put(id, key);
+        }
+        
+        holdCounts.set(id, holdCounts.get(id) + 1);
+        return id;
+    }
+    
+    /**
+     * Releases a spell word registered with .register. Once everything that registered it has released it, its id's
+     * given up, to be handed out to the next spell word registered.
+     * @param key The spell word as a string.
+     */
+    public static synchronized void release(String key)
+    {
+        Integer id = ids.get(key);
+        
+        // Ids set by the server aren't held by anything here, and are left for the server to hand out again.
+        if(id == null || holdCounts.get(id) <= 0)
+            return;
+        
+        holdCounts.set(id, holdCounts.get(id) - 1);
+        
+        if(holdCounts.get(id) > 0)
+            return;
+        
+        ids.remove(key);
+        keys.set(id, null);
+        freeIds.add(id);
+        generation++;
+    }
+    
+    /**
+     * Gets the id of a spell word.
+     * @param key The spell word as a string.
+     * @return The spell word's id, or -1 if it isn't registered.
+     */
+    public static synchronized int getId(String key)
+    {
+        Integer id = ids.get(key);
+        return id == null ? -1 : id;
+    }
+    
+    /**
+     * Gets the string form of the spell word with the passed id.
+     * @param id The id of the spell word.
+     * @return The spell word as a string, as it'd appear in the rune designs file, or null if the id isn't in use.
+     */
+    public static synchronized String getKey(int id)
+    { return id >= 0 && id < keys.size() ? keys.get(id) : null; }
+    
+    /**
+     * Gets how many ids there are, in use or not. Every id handed out is less than this.
+     * @return The number of ids.
+     */
+    public static synchronized int count()
+    { return keys.size(); }
+    
+    /**
+     * Gets the current generation of ids, which goes up whenever ids looked up before might have changed.
+     * @return The generation of ids.
+     */
+    public static int getGeneration()
+    { return generation; }
+    
+    /**
+     * Gets all of the ids in use, e.g. for sending to players joining the server.
+     * @return The string forms of the spell words with ids, by id. Null where an id isn't in use.
+     */
+    public static synchronized List<String> getKeys()
+    { return new ArrayList<String>(keys); }
+    
+    /**
+     * Makes an id mean the passed spell word, as it does on the server. Any other spell word with the id, or id the
+     * spell word had, is dropped.
+     * @param id The id.
+     * @param key The spell word as a string.
+     */
+    public static synchronized void set(int id, String key)
+    {
+        if(key.equals(getKey(id)))
+            return;
+        
+        Integer oldId = ids.remove(key);
+        
+        if(oldId != null)
+        {
+            keys.set(oldId, null);
+            holdCounts.set(oldId, 0);
+            freeIds.add(oldId);
+        }
+        
+        put(id, key);
+        generation++;
+    }
+    
+    /**
+     * Replaces all of the ids with the passed ones, as they are on the server. The ids as they were before are kept,
+     * to be put back with .restoreLocal once disconnected from the server.
+     * @param newKeys The string forms of the spell words with ids, by id. Null where an id isn't in use.
+     */
+    public static synchronized void setAll(List<String> newKeys)
+    {
+        // Only the first time, so being sent the server's ids again doesn't lose the client's own.
+        if(localKeys == null)
+        {
+            localKeys       = new ArrayList<String>(keys);
+            localHoldCounts = new ArrayList<Integer>(holdCounts);
+        }
+        
+        replaceAll(newKeys);
+    }
+    
+    /**
+     * Puts back the ids as they were before they were replaced by the server's with .setAll, e.g. once disconnected
+     * from the server. Does nothing if they haven't been replaced.
+     */
+    public static synchronized void restoreLocal()
+    {
+        if(localKeys == null)
+            return;
+        
+        replaceAll(localKeys);
+        
+        for(int i = 0; i < localHoldCounts.size(); i++)
+            holdCounts.set(i, localHoldCounts.get(i));
+        
+        localKeys       = null;
+        localHoldCounts = null;
+    }
+    
+    /**
+     * Replaces all of the ids with the passed ones, with nothing holding any of them.
+     * @param newKeys The string forms of the spell words with ids, by id. Null where an id isn't in use.
+     */
+    private static void replaceAll(List<String> newKeys)
+    {
+        ids.clear();
+        keys.clear();
+        holdCounts.clear();
+        freeIds.clear();
+        
+        for(int i = 0; i < newKeys.size(); i++)
+        {
+            keys.add(null);
+            holdCounts.add(0);
+            freeIds.add(i);
+        }
+        
+        for(int i = 0; i < newKeys.size(); i++)
+            if(newKeys.get(i) != null)
+                put(i, newKeys.get(i));
+        
+        generation++;
+    }
+    
+    /**
+     * Makes an id mean the passed spell word, dropping whatever spell word it meant before, and making the list of ids
+     * long enough to include it.
+     * @param id The id.
+     * @param key The spell word as a string.
+     */
+    private static void put(int id, String key)
+    {
+        while(keys.size() <= id)
+        {
+            freeIds.add(keys.size());
+            keys.add(null);
+            holdCounts.add(0);
+        }
+        
+        String oldKey = keys.get(id);
+        
+        if(oldKey != null)
+            ids.remove(oldKey);
+        
+        freeIds.remove(id);
+        ids.put(key, id);
+        keys.set(id, key);
+        holdCounts.set(id, 0);
+    }
+}
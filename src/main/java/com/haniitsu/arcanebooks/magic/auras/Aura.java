@@ -0,0 +1,182 @@
+package com.haniitsu.arcanebooks.magic.auras;
+
+import com.haniitsu.arcanebooks.magic.Spell.Phrase;
+import com.haniitsu.arcanebooks.magic.Spell.SpellCast;
+import com.haniitsu.arcanebooks.magic.caster.SpellCasterEntity;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.AOE;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.AOEShape;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.AOESize;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.SpellStrength;
+import com.haniitsu.arcanebooks.misc.Direction;
+import com.haniitsu.arcanebooks.misc.Location;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import net.minecraft.entity.Entity;
+
+/**
+ * A spell phrase attached to an entity for a while, affecting entities as they come within its AOE of the entity.
+ * Entities are affected once when they enter the aura, rather than every tick they're in it.
+ */
+public class Aura
+{
+    /**
+     * Creates a new aura.
+     * @param cast The spell cast the aura's phrase was cast as part of.
+     * @param phrase The phrase to apply to entities entering the aura.
+     * @param caster The caster the aura's attached to.
+     * @param aoe Which of the caster and the area around it the aura affects.
+     * @param aoeSize The size of the aura.
+     * @param shape The shape of the aura.
+     * @param strength The strength the phrase is applied at.
+     * @param expiryTick The tick of the aura manager after which the aura ends.
+     * @param updateInterval The number of ticks between checks for entities entering or leaving the aura.
+     */
+    Aura(SpellCast cast, Phrase phrase, SpellCasterEntity caster, AOE aoe, AOESize aoeSize, AOEShape shape,
+         SpellStrength strength, long expiryTick, int updateInterval)
+    {
+        this.cast           = cast;
+        this.phrase         = phrase;
+        this.caster         = caster;
+        this.anchor         = caster.getCasterEntity();
+        this.aoe            = aoe;
+        this.aoeSize        = aoeSize;
+        this.shape          = shape;
+        this.strength       = strength;
+        this.size           = aoeSize.getDistance() * shape.getAOESizeModifier();
+        this.expiryTick     = expiryTick;
+        this.updateInterval = Math.max(updateInterval, 1);
+    }
+    
+    /** The spell cast the aura's phrase was cast as part of. */
+    final SpellCast cast;
+    
+    /** The phrase applied to entities entering the aura. */
+    final Phrase phrase;
+    
+    /** The caster the aura's attached to. */
+    final SpellCasterEntity caster;
+    
+    /** The entity the aura's attached to. */
+    final Entity anchor;
+    
+    /** Which of the caster and the area around it the aura affects. */
+    final AOE aoe;
+    
+    /** The size of the aura. */
+    final AOESize aoeSize;
+    
+    /** The shape of the aura. */
+    final AOEShape shape;
+    
+    /** The strength the phrase is applied at. */
+    final SpellStrength strength;
+    
+    /** The size of the aura in metres, as passed to the shape. */
+    final double size;
+    
+    /** The tick of the aura manager after which the aura ends. */
+    final long expiryTick;
+    
+    /** The number of ticks between checks for entities entering or leaving the aura. */
+    final int updateInterval;
+    
+    /** The entities currently in the aura. */
+    final Set<Entity> members = Collections.newSetFromMap(new IdentityHashMap<Entity, Boolean>());
+    
+    /** The tick of the aura manager the members were last updated on. -1 if they've never been. */
+    long lastUpdateTick = -1;
+    
+    /** Where the anchor was, and which way it was facing, when the members were last updated. */
+    double lastAnchorX, lastAnchorY, lastAnchorZ;
+    float  lastAnchorPitch, lastAnchorYaw;
+    
+    /** Whether the aura's ended. */
+    boolean ended = false;
+    
+    public SpellCast getCast()
+    { return cast; }
+    
+    public Phrase getPhrase()
+    { return phrase; }
+    
+    public SpellCasterEntity getCaster()
+    { return caster; }
+    
+    public AOE getAOE()
+    { return aoe; }
+    
+    public AOESize getAOESize()
+    { return aoeSize; }
+    
+    public AOEShape getShape()
+    { return shape; }
+    
+    public SpellStrength getStrength()
+    { return strength; }
+    
+    public double getSize()
+    { return size; }
+    
+    public boolean isEnded()
+    { return ended; }
+    
+    /**
+     * Gets the entities currently in the aura.
+     * @return A copy of the aura's current members.
+     */
+    public Collection<Entity> getMembers()
+    { return new ArrayList<Entity>(members); }
+    
+    /**
+     * Ends the aura early. Entities in it are counted as leaving it the next time its aura manager ticks.
+     */
+    public void end()
+    { ended = true; }
+    
+    /**
+     * Gets whether the anchor has moved or turned since the members were last updated, meaning every nearby entity
+     * has to be checked again rather than just those that have moved.
+     * @return True if the anchor's moved or turned, otherwise false.
+     */
+    boolean anchorMoved()
+    {
+        return lastUpdateTick < 0
+            || anchor.posX != lastAnchorX || anchor.posY != lastAnchorY || anchor.posZ != lastAnchorZ
+            || anchor.rotationPitch != lastAnchorPitch || anchor.rotationYaw != lastAnchorYaw;
+    }
+    
+    /**
+     * Notes where the anchor is and which way it's facing, as of a members update.
+     * @param tick The tick of the aura manager the update happened on.
+     */
+    void markUpdated(long tick)
+    {
+        lastUpdateTick  = tick;
+        lastAnchorX     = anchor.posX;
+        lastAnchorY     = anchor.posY;
+        lastAnchorZ     = anchor.posZ;
+        lastAnchorPitch = anchor.rotationPitch;
+        lastAnchorYaw   = anchor.rotationYaw;
+    }
+    
+    /**
+     * Gets whether the passed entity is within the aura, as it currently is.
+     * @param entity The entity to check.
+     * @param centre The centre of the aura.
+     * @param direction The direction the aura's facing in.
+     * @return True if the entity's within the aura, otherwise false.
+     */
+    boolean covers(Entity entity, Location centre, Direction direction)
+    {
+        if(entity == anchor)
+            return aoe != AOE.aroundTarget;
+        
+        if(aoe == AOE.targetOnly)
+            return false;
+        
+        return shape.coversLocation(size, centre, direction, new Location(entity.worldObj, entity.posX, entity.posY, entity.posZ));
+    }
+}
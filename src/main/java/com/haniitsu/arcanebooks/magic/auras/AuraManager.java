@@ -0,0 +1,588 @@
+package com.haniitsu.arcanebooks.magic.auras;
+
+import com.haniitsu.arcanebooks.magic.Spell.Phrase;
+import com.haniitsu.arcanebooks.magic.Spell.SpellCast;
+import com.haniitsu.arcanebooks.magic.caster.SpellCasterEntity;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.AOE;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.AOEShape;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.AOESize;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.SpellStrength;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.SpellTarget;
+import com.haniitsu.arcanebooks.misc.Direction;
+import com.haniitsu.arcanebooks.misc.LoadedChunks;
+import com.haniitsu.arcanebooks.misc.Location;
+import com.haniitsu.arcanebooks.misc.UtilMethods;
+import com.haniitsu.arcanebooks.misc.events.BasicEvent;
+import com.haniitsu.arcanebooks.misc.events.Event;
+import com.haniitsu.arcanebooks.misc.events.args.BasicEventArgs;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import net.minecraft.entity.Entity;
+import net.minecraft.world.World;
+
+/**
+ * Keeps track of the auras attached to entities in a single world, and which entities are in each.
+ *
+ * Rather than looking through every entity near every aura each tick, entities in the chunk sections auras reach into
+ * are sorted into a grid of chunk-sized cells. The entities already in a section are only looked through when an aura
+ * first comes to reach into it - after that, entities are picked up or dropped as the world moves them between chunk
+ * sections. (see .entityEnteredSection) On ticks where an aura's due to be updated, the tracked entities that have
+ * moved are noted, and only entities that have moved since an aura's last update are checked against it - unless the
+ * entity it's attached to has moved or turned, in which case everything in the cells it covers is. Entities entering
+ * an aura have its phrase applied to them once, as a new cast each time, (see SpellCast.recast) and entering and
+ * leaving raise events.
+ */
+public class AuraManager
+{
+    /**
+     * Args for when entities enter or leave an aura.
+     */
+    public static class AuraEntitiesArgs extends BasicEventArgs
+    {
+        /**
+         * Creates a new instance of this event args with the passed args.
+         * @param aura The aura entered or left.
+         * @param entities The entities that entered or left it.
+         */
+        public AuraEntitiesArgs(Aura aura, Collection<Entity> entities)
+        {
+            this.aura     = aura;
+            this.entities = entities;
+        }
+        
+        final Aura               aura;
+        final Collection<Entity> entities;
+        
+        public Aura getAura()
+        { return aura; }
+        
+        public Collection<Entity> getEntities()
+        { return Collections.unmodifiableCollection(entities); }
+    }
+    
+    /**
+     * Where an entity was as of the last time tracked entities were brought up to date, and when it last moved.
+     */
+    protected static class Tracked
+    {
+        public Tracked(Entity entity, long cell, long tick)
+        {
+            this.cell          = cell;
+            this.x             = entity.posX;
+            this.y             = entity.posY;
+            this.z             = entity.posZ;
+            this.lastMovedTick = tick;
+        }
+        
+        long   cell;
+        double x, y, z;
+        long   lastMovedTick;
+    }
+    
+    /**
+     * Creates a new aura manager.
+     * @param world The world the auras are in.
+     */
+    public AuraManager(World world)
+    { this.world = world; }
+    
+    /** The aura managers of each world with auras in it. These are dropped when their worlds unload. */
+    static final Map<World, AuraManager> managers = new HashMap<World, AuraManager>();
+    
+    /** The number of ticks auras last for unless otherwise specified. */
+    public static volatile int defaultDurationTicks = 200;
+    
+    /** The number of ticks between checks for entities entering or leaving an aura, unless otherwise specified. */
+    public static volatile int defaultUpdateInterval = 5;
+    
+    /** Raised after entities enter an aura and have its phrase applied to them. */
+    public static final Event<AuraEntitiesArgs> entitiesEntered = new BasicEvent<AuraEntitiesArgs>();
+    
+    /** Raised after entities leave an aura, including when the aura ends. */
+    public static final Event<AuraEntitiesArgs> entitiesLeft = new BasicEvent<AuraEntitiesArgs>();
+    
+    /** The world the auras are in. */
+    final World world;
+    
+    /** The auras in the world that haven't ended. */
+    final List<Aura> auras = new ArrayList<Aura>();
+    
+    /** The entities in the chunk sections auras reach into, and where they were as of the last tick. */
+    final Map<Entity, Tracked> tracked = new IdentityHashMap<Entity, Tracked>();
+    
+    /** The tracked entities in each cell of the grid, by chunk key. */
+    final Map<Long, Set<Entity>> cells = new HashMap<Long, Set<Entity>>();
+    
+    /**
+     * The lowest and highest chunk sections auras reached into in each chunk, by chunk key, as of the last time tracked
+     * entities were brought up to date.
+     */
+    final Map<Long, int[]> watchedSections = new HashMap<Long, int[]>();
+    
+    /** The number of ticks this manager has been advanced. */
+    long currentTick = 0;
+    
+    /**
+     * Gets the aura manager of the passed world, creating it if it doesn't exist yet.
+     * @param world The world to get the aura manager of.
+     * @return The world's aura manager.
+     */
+    public static AuraManager get(World world)
+    {
+        synchronized(managers)
+        {
+            AuraManager manager = managers.get(world);
+            
+            if(manager == null)
+            {
+                manager = new AuraManager(world);
+                managers.put(world, manager);
+            }
+            
+            return manager;
+        }
+    }
+    
+    /**
+     * Gets the aura manager of the passed world, if it has one.
+     * @param world The world to get the aura manager of.
+     * @return The world's aura manager, or null if it doesn't have one.
+     */
+    public static AuraManager getIfPresent(World world)
+    {
+        synchronized(managers)
+        { return managers.get(world); }
+    }
+    
+    /**
+     * Drops the aura manager of the passed world, along with all of its auras.
+     * @param world The world to drop the aura manager of.
+     */
+    public static void release(World world)
+    {
+        synchronized(managers)
+        { managers.remove(world); }
+    }
+    
+    /**
+     * Attaches a spell phrase to an entity as an aura, lasting the default duration.
+     * @param cast The spell cast the phrase is being cast as part of.
+     * @param phrase The phrase to attach.
+     * @param caster The caster to attach the phrase to.
+     * @return The aura created.
+     */
+    public Aura attach(SpellCast cast, Phrase phrase, SpellCasterEntity caster)
+    { return attach(cast, phrase, caster, defaultDurationTicks, defaultUpdateInterval); }
+    
+    /**
+     * Attaches a spell phrase to an entity as an aura. The phrase's AOE, size, shape, and strength are picked now and
+     * stay the same for as long as the aura lasts.
+     * @param cast The spell cast the phrase is being cast as part of.
+     * @param phrase The phrase to attach.
+     * @param caster The caster to attach the phrase to.
+     * @param durationTicks The number of ticks the aura should last for.
+     * @param updateInterval The number of ticks between checks for entities entering or leaving the aura.
+     * @return The aura created.
+     */
+    public synchronized Aura attach(SpellCast cast, Phrase phrase, SpellCasterEntity caster, int durationTicks,
+                                    int updateInterval)
+    {
+        List<AOE>           aoes      = phrase.getPossibleAOEs();
+        List<AOESize>       sizes     = phrase.getPossibleSizes();
+        List<AOEShape>      shapes    = phrase.getPossibleShapes();
+        List<SpellStrength> strengths = phrase.getPossibleStrengths();
+        
+        Aura aura = new Aura(cast, phrase, caster,
+                             aoes     .isEmpty() ? AOE          .defaultValue : UtilMethods.getRandomMember(aoes),
+                             sizes    .isEmpty() ? AOESize      .defaultValue : UtilMethods.getRandomMember(sizes),
+                             shapes   .isEmpty() ? AOEShape     .defaultValue : UtilMethods.getRandomMember(shapes),
+                             strengths.isEmpty() ? SpellStrength.defaultValue : UtilMethods.getRandomMember(strengths),
+                             currentTick + durationTicks, updateInterval);
+        
+        auras.add(aura);
+        return aura;
+    }
+    
+    /**
+     * Gets the auras in the world that haven't ended.
+     * @return A copy of the world's current auras.
+     */
+    public synchronized List<Aura> getAuras()
+    { return new ArrayList<Aura>(auras); }
+    
+    /**
+     * Advances the aura manager by one tick, ending expired auras and updating the members of those due for it.
+     */
+    public void tick()
+    {
+        List<Aura> ended = new ArrayList<Aura>();
+        List<Aura> due   = new ArrayList<Aura>();
+        
+        synchronized(this)
+        {
+            currentTick++;
+            
+            if(auras.isEmpty())
+                return;
+            
+            for(Iterator<Aura> i = auras.iterator(); i.hasNext();)
+            {
+                Aura aura = i.next();
+                
+                if(aura.ended || aura.anchor.isDead || aura.anchor.worldObj != world || currentTick > aura.expiryTick)
+                {
+                    aura.ended = true;
+                    ended.add(aura);
+                    i.remove();
+                }
+                else if(aura.lastUpdateTick < 0 || currentTick - aura.lastUpdateTick >= aura.updateInterval)
+                    due.add(aura);
+            }
+            
+            // Nothing to track entities for anymore.
+            if(auras.isEmpty())
+            {
+                tracked.clear();
+                cells.clear();
+                watchedSections.clear();
+            }
+            // Where entities are only matters to auras being updated, so it's only brought up to date when one is.
+            else if(!due.isEmpty())
+                updateTracking();
+        }
+        
+        // Effects and event listeners are run outside of the lock, since they could attach more auras.
+        for(Aura aura : ended)
+        {
+            if(!aura.members.isEmpty())
+            {
+                List<Entity> left = new ArrayList<Entity>(aura.members);
+                aura.members.clear();
+                entitiesLeft.raise(this, new AuraEntitiesArgs(aura, left));
+            }
+        }
+        
+        for(Aura aura : due)
+            update(aura);
+    }
+    
+    /**
+     * Brings the tracked entities up to date with where the entities near auras now are, noting which have moved and
+     * dropping those that have died, been unloaded, or moved away from every aura. Only the chunk sections auras have
+     * come to reach into since this was last done are looked through; entities moving into sections already reached
+     * into are picked up as they do. (see .entityEnteredSection)
+     */
+    protected void updateTracking()
+    {
+        Map<Long, int[]> sectionsByChunk = getSectionsReached();
+        
+        for(Map.Entry<Long, int[]> entry : sectionsByChunk.entrySet())
+        {
+            int[] sections = entry.getValue();
+            int[] previous = watchedSections.get(entry.getKey());
+            
+            if(previous != null && previous[0] <= sections[0] && previous[1] >= sections[1])
+                continue;
+            
+            int chunkX = LoadedChunks.getChunkX(entry.getKey());
+            int chunkZ = LoadedChunks.getChunkZ(entry.getKey());
+            
+            if(!LoadedChunks.isChunkLoaded(world, chunkX, chunkZ))
+                continue;
+            
+            List[] entityLists = world.getChunkFromChunkCoords(chunkX, chunkZ).entityLists;
+            
+            // Entities outside of the world's height are kept in the top or bottom section.
+            int minSection = Math.max(sections[0], 0);
+            int maxSection = Math.min(sections[1], entityLists.length - 1);
+            
+            for(int section = minSection; section <= maxSection; section++)
+            {
+                // Already watched, so its entities are already being tracked.
+                if(previous != null && section >= previous[0] && section <= previous[1])
+                    continue;
+                
+                for(Object i : entityLists[section])
+                    updateTracked((Entity)i);
+            }
+        }
+        
+        watchedSections.clear();
+        watchedSections.putAll(sectionsByChunk);
+        
+        for(Iterator<Map.Entry<Entity, Tracked>> i = tracked.entrySet().iterator(); i.hasNext();)
+        {
+            Map.Entry<Entity, Tracked> entry  = i.next();
+            Entity                     entity = entry.getKey();
+            
+            if(entity.isDead || entity.worldObj != world || !entity.addedToChunk
+            || !LoadedChunks.isChunkLoaded(world, entity.chunkCoordX, entity.chunkCoordZ)
+            || !isWatched(entity.chunkCoordX, entity.chunkCoordY, entity.chunkCoordZ))
+            {
+                removeFromCell(entity, entry.getValue().cell);
+                i.remove();
+            }
+            else
+                updatePosition(entity, entry.getValue());
+        }
+    }
+    
+    /**
+     * Gets the chunk sections the auras currently reach into.
+     * @return The lowest and highest chunk sections auras reach into in each chunk, by chunk key.
+     */
+    Map<Long, int[]> getSectionsReached()
+    {
+        Map<Long, int[]> sectionsByChunk = new HashMap<Long, int[]>();
+        
+        for(Aura aura : auras)
+        {
+            Entity anchor = aura.anchor;
+            
+            if(anchor.worldObj != world)
+                continue;
+            
+            int minChunkX  = (int)Math.floor(anchor.posX - aura.size) >> 4;
+            int maxChunkX  = (int)Math.floor(anchor.posX + aura.size) >> 4;
+            int minChunkZ  = (int)Math.floor(anchor.posZ - aura.size) >> 4;
+            int maxChunkZ  = (int)Math.floor(anchor.posZ + aura.size) >> 4;
+            int minSection = (int)Math.floor(anchor.posY - aura.size) >> 4;
+            int maxSection = (int)Math.floor(anchor.posY + aura.size) >> 4;
+            
+            for(int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++)
+                for(int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++)
+                {
+                    long  chunkKey = LoadedChunks.getChunkKey(chunkX, chunkZ);
+                    int[] sections = sectionsByChunk.get(chunkKey);
+                    
+                    if(sections == null)
+                        sectionsByChunk.put(chunkKey, new int[] { minSection, maxSection });
+                    else
+                    {
+                        sections[0] = Math.min(sections[0], minSection);
+                        sections[1] = Math.max(sections[1], maxSection);
+                    }
+                }
+        }
+        
+        return sectionsByChunk;
+    }
+    
+    /**
+     * Gets whether auras reached into the passed chunk section as of the last time tracked entities were brought up
+     * to date.
+     * @param chunkX The chunk's X coördinate.
+     * @param section The index of the section in the chunk's entity lists.
+     * @param chunkZ The chunk's Z coördinate.
+     * @return True if an aura reached into the section. Otherwise, false.
+     */
+    boolean isWatched(int chunkX, int section, int chunkZ)
+    {
+        int[] sections = watchedSections.get(LoadedChunks.getChunkKey(chunkX, chunkZ));
+        return sections != null && sections[0] <= section && sections[1] >= section;
+    }
+    
+    /**
+     * Picks up or drops an entity as the world moves it into a different chunk section. Called as the entity's added to
+     * the section, including when it's first spawned or loaded.
+     * @param entity The entity.
+     * @param chunkX The X coördinate of the chunk it's being added to.
+     * @param chunkZ The Z coördinate of the chunk it's being added to.
+     */
+    public synchronized void entityEnteredSection(Entity entity, int chunkX, int chunkZ)
+    {
+        if(watchedSections.isEmpty() || entity.worldObj != world)
+            return;
+        
+        // Entities outside of the world's height are kept in the top or bottom section.
+        int lastSection = world.getChunkFromChunkCoords(chunkX, chunkZ).entityLists.length - 1;
+        int section     = Math.min(Math.max((int)Math.floor(entity.posY) >> 4, 0), lastSection);
+        
+        if(isWatched(chunkX, section, chunkZ))
+            updateTracked(entity);
+        else
+        {
+            Tracked current = tracked.remove(entity);
+            
+            if(current != null)
+                removeFromCell(entity, current.cell);
+        }
+    }
+    
+    /**
+     * Starts tracking an entity if it isn't already, otherwise bringing its tracked position up to date.
+     * @param entity The entity.
+     */
+    protected void updateTracked(Entity entity)
+    {
+        if(entity.isDead)
+            return;
+        
+        Tracked current = tracked.get(entity);
+        
+        if(current != null)
+        {
+            updatePosition(entity, current);
+            return;
+        }
+        
+        long cell = getCell(entity.posX, entity.posZ);
+        tracked.put(entity, new Tracked(entity, cell, currentTick));
+        addToCell(entity, cell);
+    }
+    
+    /**
+     * Brings a tracked entity's position up to date, noting if it's moved.
+     * @param entity The entity.
+     * @param current Where the entity was as of the last time its position was brought up to date.
+     */
+    protected void updatePosition(Entity entity, Tracked current)
+    {
+        if(entity.posX == current.x && entity.posY == current.y && entity.posZ == current.z)
+            return;
+        
+        current.x             = entity.posX;
+        current.y             = entity.posY;
+        current.z             = entity.posZ;
+        current.lastMovedTick = currentTick;
+        
+        long cell = getCell(entity.posX, entity.posZ);
+        
+        if(cell != current.cell)
+        {
+            removeFromCell(entity, current.cell);
+            addToCell(entity, cell);
+            current.cell = cell;
+        }
+    }
+    
+    /**
+     * Works out which entities have entered and left an aura since it was last updated, applying its phrase to those
+     * that entered.
+     * @param aura The aura to update.
+     */
+    protected void update(Aura aura)
+    {
+        List<Entity> entered = new ArrayList<Entity>();
+        List<Entity> left    = new ArrayList<Entity>();
+        
+        synchronized(this)
+        {
+            boolean   anchorMoved = aura.anchorMoved();
+            Location  centre      = aura.caster.getLocation();
+            Direction direction   = aura.caster.getDirection();
+            
+            for(Iterator<Entity> i = aura.members.iterator(); i.hasNext();)
+            {
+                Entity  member  = i.next();
+                Tracked current = tracked.get(member);
+                
+                if(current == null
+                || ((anchorMoved || current.lastMovedTick > aura.lastUpdateTick) && !aura.covers(member, centre, direction)))
+                {
+                    left.add(member);
+                    i.remove();
+                }
+            }
+            
+            if(aura.aoe == AOE.targetOnly)
+            {
+                if(aura.members.isEmpty() && tracked.containsKey(aura.anchor))
+                    entered.add(aura.anchor);
+            }
+            else
+            {
+                int minCellX = (int)Math.floor(aura.anchor.posX - aura.size) >> 4;
+                int maxCellX = (int)Math.floor(aura.anchor.posX + aura.size) >> 4;
+                int minCellZ = (int)Math.floor(aura.anchor.posZ - aura.size) >> 4;
+                int maxCellZ = (int)Math.floor(aura.anchor.posZ + aura.size) >> 4;
+                
+                for(int cellX = minCellX; cellX <= maxCellX; cellX++)
+                {
+                    for(int cellZ = minCellZ; cellZ <= maxCellZ; cellZ++)
+                    {
+                        Set<Entity> cell = cells.get(LoadedChunks.getChunkKey(cellX, cellZ));
+                        
+                        if(cell == null)
+                            continue;
+                        
+                        for(Entity entity : cell)
+                        {
+                            if(aura.members.contains(entity))
+                                continue;
+                            
+                            if(!anchorMoved && tracked.get(entity).lastMovedTick <= aura.lastUpdateTick)
+                                continue;
+                            
+                            if(aura.covers(entity, centre, direction))
+                                entered.add(entity);
+                        }
+                    }
+                }
+            }
+            
+            aura.members.addAll(entered);
+            aura.markUpdated(currentTick);
+        }
+        
+        if(!left.isEmpty())
+            entitiesLeft.raise(this, new AuraEntitiesArgs(aura, left));
+        
+        if(!entered.isEmpty())
+        {
+            // Each time the phrase is applied is its own cast, so the aura doesn't keep adding to the cast that created
+            // it for as long as it lasts, or share one trigger chain's limits between every time it's applied.
+            SpellCast cast = aura.cast.recast();
+            
+            aura.phrase.applyTo(cast, aura.aoe, aura.aoeSize, aura.shape, aura.strength,
+                                aura.caster.getLocation(), aura.caster.getDirection(), SpellTarget.aura, entered);
+            
+            if(cast.getTriggerQueue().hasPendingTriggers())
+                cast.getTriggerQueue().run();
+            
+            entitiesEntered.raise(this, new AuraEntitiesArgs(aura, entered));
+        }
+    }
+    
+    /**
+     * Gets the grid cell containing a position. Cells are the same size as chunks, and share their keys.
+     * @param x The X coördinate of the position.
+     * @param z The Z coördinate of the position.
+     * @return The key of the cell.
+     */
+    static long getCell(double x, double z)
+    { return LoadedChunks.getChunkKey((int)Math.floor(x) >> 4, (int)Math.floor(z) >> 4); }
+    
+    void addToCell(Entity entity, long cell)
+    {
+        Set<Entity> entities = cells.get(cell);
+        
+        if(entities == null)
+        {
+            entities = Collections.newSetFromMap(new IdentityHashMap<Entity, Boolean>());
+            cells.put(cell, entities);
+        }
+        
+        entities.add(entity);
+    }
+    
+    void removeFromCell(Entity entity, long cell)
+    {
+        Set<Entity> entities = cells.get(cell);
+        
+        if(entities == null)
+            return;
+        
+        entities.remove(entity);
+        
+        if(entities.isEmpty())
+            cells.remove(cell);
+    }
+}
@@ -4,8 +4,11 @@ package com.haniitsu.arcanebooks.magic.castcaches;
  * The base class for all CastCaches.
  * 
  * CastCaches are used for saving data in a configured definition so that spell effect definitions don't have to
- * parse the arguments of the configured definition for every single spell cast, only the first that uses that
- * configured definition.
+ * parse the arguments of the configured definition for every single spell cast. They're made by
+ * SpellEffectDefinition.makeCastCache when spell effects are realised, so not even the first cast has to.
+ * 
+ * Cast caches may be read from several threads, so anything in one that changes after it's been made needs to be safe
+ * to share between them.
  */
 public class CastCache
 {
@@ -0,0 +1,21 @@
+package com.haniitsu.arcanebooks.magic.castcaches;
+
+import com.haniitsu.arcanebooks.magic.detection.DetectSelector;
+
+public class DetectCache extends CastCache
+{
+    public DetectCache(String message, DetectSelector selector)
+    {
+        this.message  = message;
+        this.selector = selector;
+    }
+    
+    final protected String         message;
+    final protected DetectSelector selector;
+    
+    public String getMessage()
+    { return message; }
+    
+    public DetectSelector getSelector()
+    { return selector; }
+}
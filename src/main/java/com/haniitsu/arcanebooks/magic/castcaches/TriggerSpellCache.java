@@ -0,0 +1,42 @@
+package com.haniitsu.arcanebooks.magic.castcaches;
+
+import com.haniitsu.arcanebooks.magic.Spell;
+import com.haniitsu.arcanebooks.magic.SpellEffect;
+
+public class TriggerSpellCache extends CastCache
+{
+    public TriggerSpellCache(String spellEffectName)
+    { this.spellEffectName = spellEffectName; }
+    
+    /** The name of the spell effect to trigger, or null to trigger the spell being cast. */
+    protected final String spellEffectName;
+    
+    /**
+     * The spell last triggered, made of just the spell effect to trigger. Kept so that every trigger of it is of the
+     * same spell, which is what trigger queues go by to stop triggers from looping.
+     */
+    protected Spell spell = null;
+    
+    /** The spell effect the spell last triggered was made of. */
+    protected SpellEffect spellEffect = null;
+    
+    public String getSpellEffectName()
+    { return spellEffectName; }
+    
+    /**
+     * Gets the spell to trigger, made of just the passed spell effect. The same spell is given each time, until the
+     * spell effect is replaced. (e.g. by the spell effects file being reloaded)
+     * @param effect The spell effect to trigger, as currently registered under the name to trigger.
+     * @return The spell to trigger.
+     */
+    public synchronized Spell getSpellFor(SpellEffect effect)
+    {
+        if(effect != spellEffect)
+        {
+            spell       = new Spell(new Spell.Phrase(effect));
+            spellEffect = effect;
+        }
+        
+        return spell;
+    }
+}
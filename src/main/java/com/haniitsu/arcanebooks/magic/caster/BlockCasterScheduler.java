@@ -0,0 +1,492 @@
+package com.haniitsu.arcanebooks.magic.caster;
+
+import com.haniitsu.arcanebooks.magic.Spell;
+import com.haniitsu.arcanebooks.misc.BlockLocation;
+import com.haniitsu.arcanebooks.misc.LoadedChunks;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import net.minecraft.world.World;
+
+/**
+ * Casts spells from casting blocks at scheduled times, once or repeatedly, for a single world.
+ *
+ * Scheduled casts are held in a hierarchical timing wheel: a wheel of 64 one-tick slots for casts due in the next 64
+ * ticks, a wheel of 64 64-tick slots for casts due after that, and so on, with casts moving down to the finer wheels as
+ * their time gets closer. Each tick only looks at the slot for that tick, so the cost of a tick depends on how many
+ * casts are due rather than on how many are scheduled - thousands of idle casting blocks cost next to nothing.
+ *
+ * Casts due in chunks that aren't loaded are put aside rather than cast, and picked back up when the chunk loads,
+ * catching up on the casts missed as per their catch-up rule.
+ */
+public class BlockCasterScheduler
+{
+    /**
+     * What a repeating scheduled cast does about the casts it missed while its chunk wasn't loaded.
+     */
+    public static enum CatchUp
+    {
+        /** Missed casts are skipped, and the cast carries on from its next scheduled time. */
+        skip,
+        
+        /** The cast is cast once as soon as its chunk loads, then carries on from its next scheduled time. */
+        once,
+        
+        /** Every missed cast is cast as soon as its chunk loads, up to maxCatchUpCasts. */
+        all
+    }
+    
+    /**
+     * A spell scheduled to be cast from a casting block.
+     */
+    public static class ScheduledCast
+    {
+        /**
+         * Creates a new scheduled cast.
+         * @param scheduler The scheduler the cast is scheduled in.
+         * @param caster The block to cast the spell from.
+         * @param spell The spell to cast.
+         * @param dueTick The tick the spell should next be cast on, as per the scheduler's tick count.
+         * @param interval The number of ticks between casts, or 0 if the spell should only be cast once.
+         * @param catchUp What to do about casts missed while the caster's chunk wasn't loaded.
+         */
+        ScheduledCast(BlockCasterScheduler scheduler, SpellCasterBlock caster, Spell spell, long dueTick, int interval,
+                      CatchUp catchUp)
+        {
+            this.scheduler = scheduler;
+            this.caster    = caster;
+            this.spell     = spell;
+            this.dueTick   = dueTick;
+            this.interval  = interval;
+            this.catchUp   = catchUp;
+            
+            BlockLocation block = caster.getBlockLocation();
+            this.chunkX = block.getX() >> 4;
+            this.chunkZ = block.getZ() >> 4;
+        }
+        
+        /** The scheduler the cast is scheduled in. */
+        final BlockCasterScheduler scheduler;
+        
+        /** The block to cast the spell from. */
+        final SpellCasterBlock caster;
+        
+        /** The spell to cast. */
+        final Spell spell;
+        
+        /** The number of ticks between casts, or 0 if the spell should only be cast once. */
+        final int interval;
+        
+        /** What to do about casts missed while the caster's chunk wasn't loaded. */
+        final CatchUp catchUp;
+        
+        /** The coördinates of the chunk the caster is in. */
+        final int chunkX, chunkZ;
+        
+        /** The tick the spell should next be cast on, as per the scheduler's tick count. */
+        long dueTick;
+        
+        /**
+         * Whether the cast has been cancelled, or was a one-off cast that's been cast. Cancelled casts are dropped the
+         * next time the wheel comes across them.
+         */
+        volatile boolean cancelled = false;
+        
+        /** How many times to cast the spell next time it's due, to catch up on missed casts. 0 if not catching up. */
+        int catchUpCasts = 0;
+        
+        /** The tick to cast the spell on after catching up, so it goes back on its original schedule. */
+        long dueTickAfterCatchUp;
+        
+        /**
+         * Stops the spell from being cast again. Does nothing if it's already been cancelled, or was a one-off cast
+         * that's already been cast.
+         */
+        public void cancel()
+        { scheduler.cancel(this); }
+        
+        public boolean isCancelled()
+        { return cancelled; }
+        
+        public SpellCasterBlock getCaster()
+        { return caster; }
+        
+        public Spell getSpell()
+        { return spell; }
+        
+        public int getInterval()
+        { return interval; }
+        
+        public CatchUp getCatchUp()
+        { return catchUp; }
+    }
+    
+    /**
+     * Creates a new scheduler for the passed world.
+     * @param world The world to schedule casts in.
+     */
+    public BlockCasterScheduler(World world)
+    {
+        this.world = world;
+        
+        for(int i = 0; i < levelCount; i++)
+            for(int j = 0; j < slotsPerLevel; j++)
+                wheels[i][j] = new ArrayList<ScheduledCast>();
+    }
+    
+    /** The schedulers of each world. */
+    static final Map<World, BlockCasterScheduler> schedulers = new HashMap<World, BlockCasterScheduler>();
+    
+    /** The number of bits of the tick count each level of the wheel covers. */
+    static final int bitsPerLevel = 6;
+    
+    /** The number of slots in each level of the wheel. */
+    static final int slotsPerLevel = 1 << bitsPerLevel;
+    
+    /** The number of levels in the wheel. Casts due further off than these cover go in the overflow list. */
+    static final int levelCount = 4;
+    
+    /** The most missed casts a scheduled cast with the "all" catch-up rule is cast to catch up on at once. */
+    public static volatile int maxCatchUpCasts = 20;
+    
+    /** The world casts are scheduled in. */
+    final World world;
+    
+    /** The levels of the wheel, each a ring of slots holding the casts due in the period each slot covers. */
+    @SuppressWarnings("unchecked")
+    final List<ScheduledCast>[][] wheels = new List[levelCount][slotsPerLevel];
+    
+    /** Casts due further off than the wheel covers. */
+    final List<ScheduledCast> overflow = new ArrayList<ScheduledCast>();
+    
+    /** Casts that came due while their chunk wasn't loaded, by chunk key. */
+    final Map<Long, List<ScheduledCast>> suspended = new HashMap<Long, List<ScheduledCast>>();
+    
+    /** The number of ticks this scheduler has been advanced. */
+    long currentTick = 0;
+    
+    /** The number of casts scheduled and not cancelled or finished. */
+    int scheduledCount = 0;
+    
+    /**
+     * Gets the scheduler of the passed world, creating it if it doesn't exist yet.
+     * @param world The world to get the scheduler of.
+     * @return The world's scheduler.
+     */
+    public static BlockCasterScheduler get(World world)
+    {
+        synchronized(schedulers)
+        {
+            BlockCasterScheduler scheduler = schedulers.get(world);
+            
+            if(scheduler == null)
+            {
+                scheduler = new BlockCasterScheduler(world);
+                schedulers.put(world, scheduler);
+            }
+            
+            return scheduler;
+        }
+    }
+    
+    /**
+     * Gets the scheduler of the passed world, if it has one.
+     * @param world The world to get the scheduler of.
+     * @return The world's scheduler, or null if it doesn't have one.
+     */
+    public static BlockCasterScheduler getIfPresent(World world)
+    {
+        synchronized(schedulers)
+        { return schedulers.get(world); }
+    }
+    
+    /**
+     * Drops the scheduler of the passed world, along with all casts scheduled in it.
+     * @param world The world to drop the scheduler of.
+     */
+    public static void release(World world)
+    {
+        synchronized(schedulers)
+        { schedulers.remove(world); }
+    }
+    
+    /**
+     * Schedules a spell to be cast from a casting block.
+     * @param caster The block to cast the spell from.
+     * @param spell The spell to cast.
+     * @param delay The number of ticks from now to first cast the spell. At least 1.
+     * @param interval The number of ticks between casts after that, or 0 to only cast the spell once.
+     * @param catchUp What to do about casts missed while the caster's chunk wasn't loaded.
+     * @return The scheduled cast, which can be used to cancel it.
+     */
+    public synchronized ScheduledCast schedule(SpellCasterBlock caster, Spell spell, int delay, int interval,
+                                               CatchUp catchUp)
+    {
+        if(interval < 0)
+            throw new IllegalArgumentException("The interval between casts can't be negative.");
+        
+        ScheduledCast scheduledCast
+            = new ScheduledCast(this, caster, spell, currentTick + Math.max(delay, 1), interval, catchUp);
+        
+        insert(scheduledCast);
+        scheduledCount++;
+        return scheduledCast;
+    }
+    
+    /**
+     * Gets the number of casts scheduled that haven't been cancelled or finished, including those put aside in
+     * unloaded chunks.
+     * @return The number of scheduled casts.
+     */
+    public synchronized int getScheduledCount()
+    { return scheduledCount; }
+    
+    /**
+     * Moves the wheel on by a tick, and casts the spells due. Should be called once per world tick.
+     */
+    public void tick()
+    {
+        List<ScheduledCast> due = new ArrayList<ScheduledCast>();
+        
+        synchronized(this)
+        {
+            currentTick++;
+            
+            // Moving casts down from the coarser levels first, so ones due this tick end up in this tick's slot.
+            for(int level = levelCount; level > 0; level--)
+            {
+                long levelMask = (1L << (bitsPerLevel * level)) - 1;
+                
+                if((currentTick & levelMask) != 0)
+                    continue;
+                
+                List<ScheduledCast> cascading;
+                
+                if(level == levelCount)
+                {
+                    cascading = new ArrayList<ScheduledCast>(overflow);
+                    overflow.clear();
+                }
+                else
+                {
+                    List<ScheduledCast> slot = wheels[level][getSlot(currentTick, level)];
+                    cascading = new ArrayList<ScheduledCast>(slot);
+                    slot.clear();
+                }
+                
+                // Casts due this tick go into this tick's slot, which is about to be gone through.
+                for(ScheduledCast i : cascading)
+                    if(!i.cancelled)
+                        insert(i, currentTick);
+            }
+            
+            List<ScheduledCast> slot = wheels[0][getSlot(currentTick, 0)];
+            
+            for(ScheduledCast i : slot)
+            {
+                if(i.cancelled)
+                    continue;
+                
+                if(!LoadedChunks.isChunkLoaded(world, i.chunkX, i.chunkZ))
+                {
+                    suspend(i);
+                    continue;
+                }
+                
+                long nextDueTick = currentTick + i.interval;
+                
+                if(i.catchUpCasts > 0)
+                {
+                    for(int j = 0; j < i.catchUpCasts; j++)
+                        due.add(i);
+                    
+                    nextDueTick = i.dueTickAfterCatchUp;
+                    i.catchUpCasts = 0;
+                }
+                else
+                    due.add(i);
+                
+                if(i.interval == 0)
+                    finish(i);
+                else
+                {
+                    i.dueTick = nextDueTick;
+                    insert(i);
+                }
+            }
+            
+            slot.clear();
+        }
+        
+        cast(due);
+    }
+    
+    /**
+     * Picks back up any casts put aside in a chunk that's now loaded, catching up on the casts they missed as per
+     * their catch-up rules. Casts being caught up on are cast next tick rather than straight away, as the chunk's still
+     * being loaded.
+     * @param chunkX The chunk's X coördinate.
+     * @param chunkZ The chunk's Z coördinate.
+     */
+    public synchronized void chunkLoaded(int chunkX, int chunkZ)
+    {
+        List<ScheduledCast> chunkCasts = suspended.remove(LoadedChunks.getChunkKey(chunkX, chunkZ));
+        
+        if(chunkCasts == null)
+            return;
+        
+        long resumeTick = currentTick + 1;
+        
+        for(ScheduledCast i : chunkCasts)
+        {
+            if(i.cancelled)
+                continue;
+            
+            if(i.interval == 0)
+            {
+                if(i.catchUp == CatchUp.skip)
+                    finish(i);
+                else
+                {
+                    i.dueTick = resumeTick;
+                    insert(i);
+                }
+                
+                continue;
+            }
+            
+            long missed = 1 + (resumeTick - i.dueTick) / i.interval;
+            long nextOnSchedule = i.dueTick + missed * i.interval;
+            
+            switch(i.catchUp)
+            {
+                case skip: i.catchUpCasts = 0;                                      break;
+                case once: i.catchUpCasts = 1;                                      break;
+                case all:  i.catchUpCasts = (int)Math.min(missed, maxCatchUpCasts); break;
+            }
+            
+            if(i.catchUpCasts == 0)
+                i.dueTick = nextOnSchedule;
+            else
+            {
+                i.dueTick = resumeTick;
+                i.dueTickAfterCatchUp = nextOnSchedule;
+            }
+            
+            insert(i);
+        }
+    }
+    
+    /**
+     * Cancels a scheduled cast.
+     * @param scheduledCast The scheduled cast to cancel.
+     */
+    synchronized void cancel(ScheduledCast scheduledCast)
+    {
+        if(!scheduledCast.cancelled)
+            finish(scheduledCast);
+    }
+    
+    /**
+     * Marks a scheduled cast as done with, so it's dropped the next time the wheel comes across it.
+     * @param scheduledCast The scheduled cast.
+     */
+    void finish(ScheduledCast scheduledCast)
+    {
+        scheduledCast.cancelled = true;
+        scheduledCount--;
+    }
+    
+    /**
+     * Puts a scheduled cast in the slot of the wheel it's due in. The finest level whose slots don't wrap around before
+     * the cast is due is used. Casts due before next tick are put off until next tick.
+     * @param scheduledCast The scheduled cast.
+     */
+    void insert(ScheduledCast scheduledCast)
+    { insert(scheduledCast, currentTick + 1); }
+    
+    /**
+     * Puts a scheduled cast in the slot of the wheel it's due in. The finest level whose slots don't wrap around before
+     * the cast is due is used.
+     * @param scheduledCast The scheduled cast.
+     * @param earliestTick The earliest tick the cast can be put in the slot of. Casts due before then are put off until
+     * then.
+     */
+    void insert(ScheduledCast scheduledCast, long earliestTick)
+    {
+        if(scheduledCast.dueTick < earliestTick)
+            scheduledCast.dueTick = earliestTick;
+        
+        for(int level = 0; level < levelCount; level++)
+        {
+            int shift = bitsPerLevel * level;
+            
+            if((scheduledCast.dueTick >> shift) - (currentTick >> shift) < slotsPerLevel)
+            {
+                wheels[level][getSlot(scheduledCast.dueTick, level)].add(scheduledCast);
+                return;
+            }
+        }
+        
+        overflow.add(scheduledCast);
+    }
+    
+    /**
+     * Puts a scheduled cast that's come due in a chunk that isn't loaded aside until the chunk loads.
+     * @param scheduledCast The scheduled cast.
+     */
+    void suspend(ScheduledCast scheduledCast)
+    {
+        Long chunkKey = LoadedChunks.getChunkKey(scheduledCast.chunkX, scheduledCast.chunkZ);
+        List<ScheduledCast> chunkCasts = suspended.get(chunkKey);
+        
+        if(chunkCasts == null)
+        {
+            chunkCasts = new ArrayList<ScheduledCast>();
+            suspended.put(chunkKey, chunkCasts);
+        }
+        
+        chunkCasts.add(scheduledCast);
+    }
+    
+    /**
+     * Gets the slot of a level of the wheel that the passed tick falls into.
+     * @param tick The tick.
+     * @param level The level of the wheel.
+     * @return The index of the slot.
+     */
+    static int getSlot(long tick, int level)
+    { return (int)((tick >> (bitsPerLevel * level)) & (slotsPerLevel - 1)); }
+    
+    /**
+     * Casts the spells of the passed scheduled casts, batching casts of the same spell together.
+     * @param due The casts due, with casts to be cast more than once (to catch up) appearing more than once.
+     */
+    void cast(List<ScheduledCast> due)
+    {
+        Map<Spell, List<SpellCaster>> castersBySpell = new LinkedHashMap<Spell, List<SpellCaster>>();
+        
+        for(ScheduledCast i : due)
+        {
+            List<SpellCaster> casters = castersBySpell.get(i.spell);
+            
+            if(casters == null)
+            {
+                casters = new ArrayList<SpellCaster>();
+                castersBySpell.put(i.spell, casters);
+            }
+            
+            casters.add(i.caster);
+        }
+        
+        for(Map.Entry<Spell, List<SpellCaster>> entry : castersBySpell.entrySet())
+        {
+            try
+            { entry.getKey().castAll(entry.getValue()); }
+            catch(RuntimeException exception)
+            { exception.printStackTrace(); } // One broken spell shouldn't stop the rest from being cast.
+        }
+    }
+}
@@ -4,7 +4,6 @@ import com.haniitsu.arcanebooks.magic.Spell;
 import com.haniitsu.arcanebooks.magic.mana.ManaStore;
 import com.haniitsu.arcanebooks.misc.Direction;
 import com.haniitsu.arcanebooks.misc.Location;
-import com.haniitsu.arcanebooks.projectiles.EntitySpellProjectile;
 import java.util.List;
 
 /**
@@ -34,15 +33,15 @@ public interface SpellCaster
      * Launches a spell projectile, which will burst the passed spell phrases, as part of the passed spell cast.
      * @param spellCast The spell cast that the phrases will be burst as part of.
      * @param phrases The spell phrases to be enclosed in the projectile and burst on landing.
-     * @return The projectile entity created.
+     * @return The ID of the projectile launched.
      */
-    EntitySpellProjectile launchSpellPhrases(Spell.SpellCast spellCast, Spell.Phrase... phrases);
+    int launchSpellPhrases(Spell.SpellCast spellCast, Spell.Phrase... phrases);
     
     /**
      * Launches a spell projectile, which will burst the passed spell phrases, as part of the passed spell cast.
      * @param spellCast The spell cast that the phrases will be burst as part of.
      * @param phrases The spell phrases to be enclosed in the projectile and burst on landing.
-     * @return The projectile entity created.
+     * @return The ID of the projectile launched.
      */
-    EntitySpellProjectile launchSpellPhrases(Spell.SpellCast spellCast, List<? extends Spell.Phrase> phrases);
+    int launchSpellPhrases(Spell.SpellCast spellCast, List<? extends Spell.Phrase> phrases);
 }
\ No newline at end of file
@@ -1,7 +1,11 @@
 package com.haniitsu.arcanebooks.magic.caster;
 
+import com.haniitsu.arcanebooks.magic.Spell;
 import com.haniitsu.arcanebooks.misc.BlockLocation;
 import com.haniitsu.arcanebooks.misc.Location;
+import com.haniitsu.arcanebooks.projectiles.SpellProjectileManager;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * A block capable of casting spells.
@@ -28,4 +32,28 @@ public abstract class SpellCasterBlock implements SpellCaster
      */
     public BlockLocation getBlockLocation()
     { return block; }
+    
+    /**
+     * Schedules a spell to be cast from this block, once or repeatedly. Casts come due while the block's chunk isn't
+     * loaded are put off until it loads.
+     * @param spell The spell to cast.
+     * @param delay The number of ticks from now to first cast the spell.
+     * @param interval The number of ticks between casts after that, or 0 to only cast the spell once.
+     * @param catchUp What to do about casts missed while the block's chunk wasn't loaded.
+     * @return The scheduled cast, which can be used to cancel it.
+     */
+    public BlockCasterScheduler.ScheduledCast scheduleCast(Spell spell, int delay, int interval,
+                                                           BlockCasterScheduler.CatchUp catchUp)
+    { return BlockCasterScheduler.get(block.getWorld()).schedule(this, spell, delay, interval, catchUp); }
+    
+    @Override
+    public int launchSpellPhrases(Spell.SpellCast spellCast, Spell.Phrase... phrases)
+    { return launchSpellPhrases(spellCast, Arrays.asList(phrases)); }
+    
+    @Override
+    public int launchSpellPhrases(Spell.SpellCast spellCast, List<? extends Spell.Phrase> phrases)
+    {
+        return SpellProjectileManager.get(block.getWorld())
+                                     .launch(spellCast, null, getLocation(), getDirection(), phrases);
+    }
 }
\ No newline at end of file
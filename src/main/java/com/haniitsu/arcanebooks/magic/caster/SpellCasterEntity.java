@@ -1,10 +1,12 @@
 package com.haniitsu.arcanebooks.magic.caster;
 
+import com.haniitsu.arcanebooks.ArcaneBooks;
 import com.haniitsu.arcanebooks.magic.Spell;
 import com.haniitsu.arcanebooks.magic.mana.ManaStore;
 import com.haniitsu.arcanebooks.misc.Direction;
 import com.haniitsu.arcanebooks.misc.Location;
-import com.haniitsu.arcanebooks.projectiles.EntitySpellProjectile;
+import com.haniitsu.arcanebooks.projectiles.SpellProjectileManager;
+import java.util.Arrays;
 import java.util.List;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.player.EntityPlayer;
@@ -47,9 +49,7 @@ public class SpellCasterEntity implements SpellCaster
 
     @Override
     public ManaStore getMana()
-    {
-        throw new NotImplementedException("To be implemented");
-    }
+    { return ArcaneBooks.instance.manaStores.get(caster); }
     
     @Override
     public Location getLocation()
@@ -60,14 +60,14 @@ public class SpellCasterEntity implements SpellCaster
     { return new Direction(caster.rotationPitch, caster.rotationYaw); }
 
     @Override
-    public EntitySpellProjectile launchSpellPhrases(Spell.SpellCast spellCast, Spell.Phrase... phrases)
-    {
-        throw new NotImplementedException("Not implemented yet.");
-    }
+    public int launchSpellPhrases(Spell.SpellCast spellCast, Spell.Phrase... phrases)
+    { return launchSpellPhrases(spellCast, Arrays.asList(phrases)); }
 
     @Override
-    public EntitySpellProjectile launchSpellPhrases(Spell.SpellCast spellCast, List<? extends Spell.Phrase> phrases)
+    public int launchSpellPhrases(Spell.SpellCast spellCast, List<? extends Spell.Phrase> phrases)
     {
-        throw new NotImplementedException("Not implemented yet.");
+        // Launched from the entity's eyes, rather than its feet.
+        Location from = new Location(caster.dimension, caster.posX, caster.posY + caster.getEyeHeight(), caster.posZ);
+        return SpellProjectileManager.get(caster.worldObj).launch(spellCast, caster, from, getDirection(), phrases);
     }
 }
\ No newline at end of file
@@ -0,0 +1,171 @@
+package com.haniitsu.arcanebooks.magic.detection;
+
+import com.haniitsu.arcanebooks.misc.BlockLocation;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import net.minecraft.block.Block;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.EntityList;
+import net.minecraft.entity.EntityLivingBase;
+
+/**
+ * What a Detect spell effect definition is looking for - any blocks/entities/mobs, or blocks/entities/mobs with
+ * specific names.
+ */
+public class DetectSelector
+{
+    /**
+     * Creates a new selector.
+     * @param allBlocks Whether any block at all should count.
+     * @param allEntities Whether any entity at all should count.
+     * @param allMobs Whether any living entity at all should count.
+     * @param blockNames The names of the blocks that should count, as per .getBlockName.
+     * @param entityNames The names of the entities that should count, as per EntityList.getEntityString.
+     * @param mobNames The names of the living entities that should count, as per EntityList.getEntityString.
+     */
+    public DetectSelector(boolean allBlocks, boolean allEntities, boolean allMobs,
+                          Collection<String> blockNames, Collection<String> entityNames, Collection<String> mobNames)
+    {
+        this.allBlocks   = allBlocks;
+        this.allEntities = allEntities;
+        this.allMobs     = allMobs;
+        this.blockNames  = allBlocks   ? Collections.<String>emptySet() : toLowerCaseSet(blockNames);
+        this.entityNames = allEntities ? Collections.<String>emptySet() : toLowerCaseSet(entityNames);
+        this.mobNames    = allMobs     ? Collections.<String>emptySet() : toLowerCaseSet(mobNames);
+    }
+    
+    /** Whether any block at all counts. */
+    final boolean allBlocks;
+    
+    /** Whether any entity at all counts. */
+    final boolean allEntities;
+    
+    /** Whether any living entity at all counts. */
+    final boolean allMobs;
+    
+    /** The lower-case names of the blocks that count. */
+    final Set<String> blockNames;
+    
+    /** The lower-case names of the entities that count. */
+    final Set<String> entityNames;
+    
+    /** The lower-case names of the living entities that count. */
+    final Set<String> mobNames;
+    
+    private static Set<String> toLowerCaseSet(Collection<String> strings)
+    {
+        Set<String> set = new HashSet<String>();
+        
+        for(String i : strings)
+            set.add(i.toLowerCase());
+        
+        return Collections.unmodifiableSet(set);
+    }
+    
+    /**
+     * Gets the name a block is referred to by in Detect's arguments. That is, its unlocalised name without the "tile."
+     * at the start.
+     * @param block The block to get the name of.
+     * @return The block's name, in lower case.
+     */
+    public static String getBlockName(Block block)
+    { return block.getUnlocalizedName().substring(5).toLowerCase(); }
+    
+    /**
+     * Gets whether or not this selector is looking for any blocks at all.
+     * @return True if some or all blocks would count. Otherwise, false.
+     */
+    public boolean looksForBlocks()
+    { return allBlocks || !blockNames.isEmpty(); }
+    
+    /**
+     * Gets whether or not this selector is looking for any entities at all.
+     * @return True if some or all entities would count. Otherwise, false.
+     */
+    public boolean looksForEntities()
+    { return allEntities || allMobs || !entityNames.isEmpty() || !mobNames.isEmpty(); }
+    
+    /**
+     * Checks whether the passed block counts.
+     * @param block The block to check. 
+     * @return True if it counts. Otherwise, false.
+     */
+    public boolean matchesBlock(Block block)
+    { return allBlocks || (block != null && !blockNames.isEmpty() && blockNames.contains(getBlockName(block))); }
+    
+    /**
+     * Checks whether the passed entity counts.
+     * @param entity The entity to check.
+     * @return True if it counts. Otherwise, false.
+     */
+    public boolean matchesEntity(Entity entity)
+    {
+        if(allEntities || (allMobs && entity instanceof EntityLivingBase))
+            return true;
+        
+        if(entityNames.isEmpty() && mobNames.isEmpty())
+            return false;
+        
+        String name = EntityList.getEntityString(entity); // Null for players.
+        
+        if(name == null)
+            return false;
+        
+        name = name.toLowerCase();
+        return entityNames.contains(name) || (entity instanceof EntityLivingBase && mobNames.contains(name));
+    }
+    
+    /**
+     * Checks whether any of the passed blocks or entities count, by looking at each of them.
+     * @param blocks The blocks to check.
+     * @param entities The entities to check.
+     * @return True if at least one of them counts. Otherwise, false.
+     */
+    public boolean matchesAnyOf(Collection<BlockLocation> blocks, Collection<Entity> entities)
+    {
+        if(allBlocks && !blocks.isEmpty())
+            return true;
+        
+        if(!blockNames.isEmpty())
+            for(BlockLocation block : blocks)
+                if(matchesBlock(block.getBlockAt()))
+                    return true;
+        
+        if(looksForEntities())
+            for(Entity entity : entities)
+                if(matchesEntity(entity))
+                    return true;
+        
+        return false;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int hash = 7;
+        hash = 41 * hash + (this.allBlocks   ? 1 : 0);
+        hash = 41 * hash + (this.allEntities ? 1 : 0);
+        hash = 41 * hash + (this.allMobs     ? 1 : 0);
+        hash = 41 * hash + this.blockNames.hashCode();
+        hash = 41 * hash + this.entityNames.hashCode();
+        hash = 41 * hash + this.mobNames.hashCode();
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if(obj == null)
+            return false;
+        if(getClass() != obj.getClass())
+            return false;
+        final DetectSelector other = (DetectSelector)obj;
+        if(this.allBlocks != other.allBlocks || this.allEntities != other.allEntities || this.allMobs != other.allMobs)
+            return false;
+        return this.blockNames .equals(other.blockNames)
+            && this.entityNames.equals(other.entityNames)
+            && this.mobNames   .equals(other.mobNames);
+    }
+}
@@ -0,0 +1,644 @@
+package com.haniitsu.arcanebooks.magic.detection;
+
+import com.haniitsu.arcanebooks.magic.SpellArgs;
+import com.haniitsu.arcanebooks.magic.caster.SpellCasterBlock;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.AOE;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.AOEShape;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.AOESize;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.SpellTarget;
+import com.haniitsu.arcanebooks.misc.BlockLocation;
+import com.haniitsu.arcanebooks.misc.LoadedChunks;
+import com.haniitsu.arcanebooks.misc.Direction;
+import com.haniitsu.arcanebooks.misc.Location;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import net.minecraft.block.Block;
+import net.minecraft.entity.Entity;
+import net.minecraft.world.World;
+
+/**
+ * Keeps track of the areas covered by Detect spell effect definitions cast by spellcasting blocks, so that a block
+ * repeatedly casting the same detection spell doesn't have to look through every block and entity in the area each
+ * time.
+ * 
+ * The first time a block caster's Detect runs over a given area, the area and what's being looked for are registered
+ * here and looked through once. After that, only blocks reported as changed (by WatchedRegionWorldAccess, which sees
+ * every block change a world sends to clients) are looked at again. Block changes made without telling clients are
+ * caught by looking through the whole area again every so often.
+ * 
+ * Entities in the area are counted at most once per tick, and only when a Detect on the area is run. Forge doesn't
+ * have an event for entities moving, so the entities in the chunk sections the area overlaps are gone through, but
+ * only those that have moved since they were last counted are checked against the area's shape again.
+ * 
+ * Areas are released when the caster's chunk or world unloads, when the caster's block is replaced by another, or when
+ * .release is called for the caster.
+ * 
+ * @note Only to be used from the server thread.
+ */
+public class WatchedRegionIndex
+{
+    /** Everything that determines which blocks and entities a block caster's spell phrase covers. */
+    static class RegionKey
+    {
+        public RegionKey(BlockLocation caster, Direction direction, AOE aoe, AOESize aoeSize, AOEShape aoeShape)
+        {
+            this.caster    = caster;
+            this.direction = direction;
+            this.aoe       = aoe;
+            this.aoeSize   = aoeSize;
+            this.aoeShape  = aoeShape;
+        }
+        
+        final BlockLocation caster;
+        final Direction     direction;
+        final AOE           aoe;
+        final AOESize       aoeSize;
+        final AOEShape      aoeShape;
+
+        @Override
+        public int hashCode()
+        {
+            int hash = 3;
+            hash = 37 * hash + this.caster.hashCode();
+            hash = 37 * hash + (this.direction != null ? this.direction.hashCode() : 0);
+            hash = 37 * hash + System.identityHashCode(this.aoe);
+            hash = 37 * hash + System.identityHashCode(this.aoeSize);
+            hash = 37 * hash + System.identityHashCode(this.aoeShape);
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if(obj == null)
+                return false;
+            if(getClass() != obj.getClass())
+                return false;
+            final RegionKey other = (RegionKey)obj;
+            if(!this.caster.equals(other.caster))
+                return false;
+            if(this.direction == null ? other.direction != null : !this.direction.equals(other.direction))
+                return false;
+            return this.aoe == other.aoe && this.aoeSize == other.aoeSize && this.aoeShape == other.aoeShape;
+        }
+    }
+    
+    /** Where an entity was when it was last checked against a watched region's shape, and whether it was inside. */
+    static class EntityPosition
+    {
+        public EntityPosition(Entity entity, boolean inside)
+        { update(entity, inside); }
+        
+        double  x, y, z;
+        boolean inside;
+        
+        /** The world time at which the entity was last seen in the region's chunk sections. */
+        long lastSeen;
+        
+        /**
+         * Gets whether the passed entity is where it was when last checked.
+         * @param entity The entity.
+         * @return True if it hasn't moved. Otherwise, false.
+         */
+        boolean isAt(Entity entity)
+        { return entity.posX == x && entity.posY == y && entity.posZ == z; }
+        
+        final void update(Entity entity, boolean inside)
+        {
+            this.x      = entity.posX;
+            this.y      = entity.posY;
+            this.z      = entity.posZ;
+            this.inside = inside;
+        }
+    }
+    
+    /** A single thing being looked for in a watched region, with the count of what was found. */
+    static class Watch
+    {
+        public Watch(DetectSelector selector)
+        { this.selector = selector; }
+        
+        final DetectSelector selector;
+        
+        /** The blocks in the region matched by the selector. Not used if the selector matches all blocks. */
+        final Set<BlockLocation> matchingBlocks = new HashSet<BlockLocation>();
+        
+        /** The number of entities in the region matched by the selector, as of the last time they were counted. */
+        int matchingEntities = 0;
+    }
+    
+    /** An area covered by a block caster's spell phrase, along with everything being looked for within it. */
+    static class WatchedRegion
+    {
+        public WatchedRegion(RegionKey key, SpellArgs spellArgs)
+        {
+            this.key            = key;
+            this.burstLocation  = spellArgs.getBurstLocation();
+            this.blocks         = Collections.unmodifiableSet(new HashSet<BlockLocation>(spellArgs.getBlocksAffected()));
+            this.coversEntities = key.aoe != AOE.targetOnly;
+            this.entityRange    = key.aoeSize.getDistance() * key.aoeShape.getAOESizeModifier();
+            this.casterBlock    = key.caster.getBlockAt();
+            
+            this.minChunkX  = (int)Math.floor(burstLocation.getX() - entityRange) >> 4;
+            this.maxChunkX  = (int)Math.floor(burstLocation.getX() + entityRange) >> 4;
+            this.minChunkZ  = (int)Math.floor(burstLocation.getZ() - entityRange) >> 4;
+            this.maxChunkZ  = (int)Math.floor(burstLocation.getZ() + entityRange) >> 4;
+            this.minSection = (int)Math.floor(burstLocation.getY() - entityRange) >> 4;
+            this.maxSection = (int)Math.floor(burstLocation.getY() + entityRange) >> 4;
+            
+            Set<Long> chunks = new HashSet<Long>();
+            
+            for(BlockLocation i : blocks)
+                chunks.add(getChunkKey(i.getX() >> 4, i.getZ() >> 4));
+            
+            this.chunks = Collections.unmodifiableSet(chunks);
+        }
+        
+        final RegionKey          key;
+        final Location           burstLocation;
+        final Set<BlockLocation> blocks;
+        final boolean            coversEntities;
+        final double             entityRange;
+        
+        /** The block at the caster's location when the region was registered. */
+        final Block casterBlock;
+        
+        /** The chunks and 16-block-high chunk sections entities covered by the region could be in. */
+        final int minChunkX, maxChunkX, minChunkZ, maxChunkZ, minSection, maxSection;
+        
+        /** Where the entities in the region's chunk sections were when last checked against the region's shape. */
+        final Map<Entity, EntityPosition> entityPositions = new HashMap<Entity, EntityPosition>();
+        
+        /** The chunks the region's blocks are in, as per .getChunkKey. */
+        final Set<Long> chunks;
+        
+        /** The things being looked for in this region. */
+        final Map<DetectSelector, Watch> watches = new HashMap<DetectSelector, Watch>();
+        
+        /** Blocks in this region that have been reported as changed since the watches were last updated. */
+        final Set<BlockLocation> changedBlocks = new HashSet<BlockLocation>();
+        
+        /** The world time at which all of the blocks in the region were last looked through. */
+        long lastBlockScan = 0;
+        
+        /** The world time at which the entities in the region were last counted. */
+        long lastEntityScan = Long.MIN_VALUE;
+    }
+    
+    /**
+     * Creates a new, empty index.
+     * @param blockRescanInterval How many ticks to go between looking through the whole of a watched region's blocks
+     * again, to catch block changes that weren't reported.
+     */
+    public WatchedRegionIndex(int blockRescanInterval)
+    { this.blockRescanInterval = blockRescanInterval; }
+    
+    /** Creates a new, empty index that looks through whole regions' blocks again every 10 seconds. */
+    public WatchedRegionIndex()
+    { this(200); }
+    
+    /** How many ticks to go between looking through the whole of a watched region's blocks again. */
+    final int blockRescanInterval;
+    
+    /** The regions being watched. */
+    final Map<RegionKey, WatchedRegion> regions = new HashMap<RegionKey, WatchedRegion>();
+    
+    /** The regions being watched for each caster. */
+    final Map<BlockLocation, List<WatchedRegion>> regionsByCaster = new HashMap<BlockLocation, List<WatchedRegion>>();
+    
+    /** The regions being watched, by world ID and then by the chunks they contain blocks in. */
+    final Map<Integer, Map<Long, List<WatchedRegion>>> regionsByChunk = new HashMap<Integer, Map<Long, List<WatchedRegion>>>();
+    
+    /** The casters with regions being watched, by world ID and then by the chunks the casters are in. */
+    final Map<Integer, Map<Long, Set<BlockLocation>>> castersByChunk = new HashMap<Integer, Map<Long, Set<BlockLocation>>>();
+    
+    /**
+     * Gets a single number identifying a chunk from its chunk coördinates.
+     * @param chunkX The chunk's X coördinate.
+     * @param chunkZ The chunk's Z coördinate.
+     * @return The chunk's key.
+     */
+    static long getChunkKey(int chunkX, int chunkZ)
+    { return LoadedChunks.getChunkKey(chunkX, chunkZ); }
+    
+    /**
+     * Checks whether a Detect performed with the passed spell args can be answered by a watched region. That is, if it
+     * was cast by a block on itself, and the affected area hasn't been narrowed down by something like IgnoreBlocks.
+     * @param spellArgs The spell args of the spell phrase cast.
+     * @return True if the affected area is one that can be watched. Otherwise, false.
+     */
+    public static boolean canWatch(SpellArgs spellArgs)
+    {
+        if(!(spellArgs.getCaster() instanceof SpellCasterBlock)
+        || spellArgs.isAffectedAreaFiltered()
+        || spellArgs.getEntityHit() != null
+        || spellArgs.getSpellTarget() == SpellTarget.projectile)
+            return false;
+        
+        return ((SpellCasterBlock)spellArgs.getCaster()).getBlockLocation().equals(spellArgs.getBlockHit());
+    }
+    
+    /**
+     * Checks whether anything matching the passed selector is within the area affected by the passed spell phrase
+     * cast, registering the area and selector if they haven't been already.
+     * @note Only valid where .canWatch(spellArgs) is true.
+     * @param spellArgs The spell args of the spell phrase cast.
+     * @param selector What to look for.
+     * @return True if at least one block or entity in the area matches the selector. Otherwise, false.
+     */
+    public boolean detect(SpellArgs spellArgs, DetectSelector selector)
+    { return getMatchCount(spellArgs, selector) > 0; }
+    
+    /**
+     * Gets the number of blocks and entities matching the passed selector within the area affected by the passed spell
+     * phrase cast, registering the area and selector if they haven't been already.
+     * @note Only valid where .canWatch(spellArgs) is true.
+     * @param spellArgs The spell args of the spell phrase cast.
+     * @param selector What to look for.
+     * @return The number of blocks and entities in the area that match the selector.
+     */
+    public int getMatchCount(SpellArgs spellArgs, DetectSelector selector)
+    {
+        BlockLocation caster = ((SpellCasterBlock)spellArgs.getCaster()).getBlockLocation();
+        World world = caster.getWorld();
+        long now = world.getTotalWorldTime();
+        
+        RegionKey key = new RegionKey(caster, spellArgs.getBurstDirection(),
+                                      spellArgs.getAOE(), spellArgs.getAOESize(), spellArgs.getAOEShape());
+        
+        WatchedRegion region = regions.get(key);
+        
+        if(region == null)
+        {
+            region = addRegion(key, spellArgs);
+            region.lastBlockScan = now; // Its first watch is about to look through all of its blocks anyway.
+        }
+        
+        Watch watch = region.watches.get(selector);
+        
+        if(watch == null)
+        {
+            watch = new Watch(selector);
+            region.watches.put(selector, watch);
+            scanBlocks(region, Collections.singletonList(watch), region.blocks);
+            region.lastEntityScan = Long.MIN_VALUE; // The new watch needs its entities counting.
+        }
+        
+        if(now - region.lastBlockScan >= blockRescanInterval)
+        {
+            region.changedBlocks.clear();
+            scanBlocks(region, region.watches.values(), region.blocks);
+            region.lastBlockScan = now;
+        }
+        else if(!region.changedBlocks.isEmpty())
+        {
+            scanBlocks(region, region.watches.values(), region.changedBlocks);
+            region.changedBlocks.clear();
+        }
+        
+        if(region.lastEntityScan != now)
+        {
+            scanEntities(region, world, now);
+            region.lastEntityScan = now;
+        }
+        
+        int blockCount = selector.allBlocks ? region.blocks.size() : watch.matchingBlocks.size();
+        return blockCount + watch.matchingEntities;
+    }
+    
+    private WatchedRegion addRegion(RegionKey key, SpellArgs spellArgs)
+    {
+        WatchedRegion region = new WatchedRegion(key, spellArgs);
+        regions.put(key, region);
+        
+        List<WatchedRegion> casterRegions = regionsByCaster.get(key.caster);
+        
+        if(casterRegions == null)
+        {
+            casterRegions = new ArrayList<WatchedRegion>();
+            regionsByCaster.put(key.caster, casterRegions);
+            
+            Map<Long, Set<BlockLocation>> worldCasters = castersByChunk.get(key.caster.getWorldId());
+            
+            if(worldCasters == null)
+            {
+                worldCasters = new HashMap<Long, Set<BlockLocation>>();
+                castersByChunk.put(key.caster.getWorldId(), worldCasters);
+            }
+            
+            long casterChunk = getChunkKey(key.caster.getX() >> 4, key.caster.getZ() >> 4);
+            Set<BlockLocation> chunkCasters = worldCasters.get(casterChunk);
+            
+            if(chunkCasters == null)
+            {
+                chunkCasters = new HashSet<BlockLocation>();
+                worldCasters.put(casterChunk, chunkCasters);
+            }
+            
+            chunkCasters.add(key.caster);
+        }
+        
+        casterRegions.add(region);
+        
+        Map<Long, List<WatchedRegion>> worldRegions = regionsByChunk.get(key.caster.getWorldId());
+        
+        if(worldRegions == null)
+        {
+            worldRegions = new HashMap<Long, List<WatchedRegion>>();
+            regionsByChunk.put(key.caster.getWorldId(), worldRegions);
+        }
+        
+        for(Long chunk : region.chunks)
+        {
+            List<WatchedRegion> chunkRegions = worldRegions.get(chunk);
+            
+            if(chunkRegions == null)
+            {
+                chunkRegions = new ArrayList<WatchedRegion>();
+                worldRegions.put(chunk, chunkRegions);
+            }
+            
+            chunkRegions.add(region);
+        }
+        
+        return region;
+    }
+    
+    private void removeRegion(WatchedRegion region)
+    {
+        regions.remove(region.key);
+        Map<Long, List<WatchedRegion>> worldRegions = regionsByChunk.get(region.key.caster.getWorldId());
+        
+        if(worldRegions == null)
+            return;
+        
+        for(Long chunk : region.chunks)
+        {
+            List<WatchedRegion> chunkRegions = worldRegions.get(chunk);
+            
+            if(chunkRegions == null)
+                continue;
+            
+            chunkRegions.remove(region);
+            
+            if(chunkRegions.isEmpty())
+                worldRegions.remove(chunk);
+        }
+        
+        if(worldRegions.isEmpty())
+            regionsByChunk.remove(region.key.caster.getWorldId());
+    }
+    
+    /**
+     * Updates the passed watches' matching blocks for the passed blocks in the passed region.
+     * @param region The region the blocks are in.
+     * @param watches The watches to update.
+     * @param blocks The blocks to look at.
+     */
+    private static void scanBlocks(WatchedRegion region, Collection<Watch> watches, Collection<BlockLocation> blocks)
+    {
+        List<Watch> namedBlockWatches = new ArrayList<Watch>();
+        
+        for(Watch watch : watches)
+            if(!watch.selector.allBlocks && !watch.selector.blockNames.isEmpty())
+                namedBlockWatches.add(watch);
+        
+        if(namedBlockWatches.isEmpty())
+            return;
+        
+        for(BlockLocation location : blocks)
+        {
+            // Parts of the region can unload while the caster stays loaded - those are left as they were.
+            if(!location.isLoaded())
+                continue;
+            
+            Block block = location.getBlockAt();
+            
+            for(Watch watch : namedBlockWatches)
+            {
+                if(watch.selector.matchesBlock(block))
+                    watch.matchingBlocks.add(location);
+                else
+                    watch.matchingBlocks.remove(location);
+            }
+        }
+    }
+    
+    /**
+     * Recounts the entities matching each of the watches in the passed region. Only entities that have moved since the
+     * last count are checked against the region's shape again.
+     * @param region The region to count the entities of.
+     * @param world The world the region is in.
+     * @param now The current world time.
+     */
+    private static void scanEntities(WatchedRegion region, World world, long now)
+    {
+        List<Watch> entityWatches = new ArrayList<Watch>();
+        
+        for(Watch watch : region.watches.values())
+        {
+            watch.matchingEntities = 0;
+            
+            if(watch.selector.looksForEntities())
+                entityWatches.add(watch);
+        }
+        
+        if(entityWatches.isEmpty() || !region.coversEntities)
+        {
+            region.entityPositions.clear();
+            return;
+        }
+        
+        for(int chunkX = region.minChunkX; chunkX <= region.maxChunkX; chunkX++)
+            for(int chunkZ = region.minChunkZ; chunkZ <= region.maxChunkZ; chunkZ++)
+            {
+                if(!LoadedChunks.isChunkLoaded(world, chunkX, chunkZ))
+                    continue;
+                
+                List[] entityLists = world.getChunkFromChunkCoords(chunkX, chunkZ).entityLists;
+                
+                // Entities outside of the world's height are kept in the top or bottom section.
+                int minSection = Math.max(region.minSection, 0);
+                int maxSection = Math.min(region.maxSection, entityLists.length - 1);
+                
+                for(int section = minSection; section <= maxSection; section++)
+                    for(Object i : entityLists[section])
+                        countEntity(region, entityWatches, (Entity)i, now);
+            }
+        
+        // Forgets entities that have left the region's chunk sections.
+        for(Iterator<EntityPosition> i = region.entityPositions.values().iterator(); i.hasNext();)
+            if(i.next().lastSeen != now)
+                i.remove();
+    }
+    
+    /**
+     * Counts an entity in the passed region's chunk sections towards the watches it matches, if it's inside the
+     * region's shape.
+     * @param region The region.
+     * @param entityWatches The region's watches that look for entities.
+     * @param entity The entity.
+     * @param now The current world time.
+     */
+    private static void countEntity(WatchedRegion region, List<Watch> entityWatches, Entity entity, long now)
+    {
+        EntityPosition position = region.entityPositions.get(entity);
+        
+        if(position == null || !position.isAt(entity))
+        {
+            boolean inside = region.key.aoeShape.coversLocation(region.entityRange, region.burstLocation,
+                                                                region.key.direction,
+                                                                new Location(entity.worldObj, entity.posX,
+                                                                             entity.posY, entity.posZ));
+            
+            if(position == null)
+            {
+                position = new EntityPosition(entity, inside);
+                region.entityPositions.put(entity, position);
+            }
+            else
+                position.update(entity, inside);
+        }
+        
+        position.lastSeen = now;
+        
+        if(!position.inside)
+            return;
+        
+        for(Watch watch : entityWatches)
+            if(watch.selector.matchesEntity(entity))
+                watch.matchingEntities++;
+    }
+    
+    /**
+     * Reports that the block at the passed coördinates has (or is about to have) changed, so that any watched regions
+     * containing it look at it again before they're next used.
+     * @param worldId The ID of the world the block is in.
+     * @param x The block's X coördinate.
+     * @param y The block's Y coördinate.
+     * @param z The block's Z coördinate.
+     */
+    public void blockChanged(int worldId, int x, int y, int z)
+    {
+        if(regions.isEmpty())
+            return;
+        
+        BlockLocation block = new BlockLocation(worldId, x, y, z);
+        List<WatchedRegion> casterRegions = regionsByCaster.get(block);
+        
+        // The caster's gone, so nothing's going to use its regions again.
+        if(casterRegions != null && block.isLoaded() && block.getBlockAt() != casterRegions.get(0).casterBlock)
+            release(block);
+        
+        Map<Long, List<WatchedRegion>> worldRegions = regionsByChunk.get(worldId);
+        
+        if(worldRegions == null)
+            return;
+        
+        List<WatchedRegion> chunkRegions = worldRegions.get(getChunkKey(x >> 4, z >> 4));
+        
+        if(chunkRegions == null)
+            return;
+        
+        for(WatchedRegion region : chunkRegions)
+            if(region.blocks.contains(block))
+                region.changedBlocks.add(block);
+    }
+    
+    /**
+     * Reports that the passed block has (or is about to have) changed, so that any watched regions containing it look
+     * at it again before they're next used.
+     * @param block The location of the block.
+     */
+    public void blockChanged(BlockLocation block)
+    { blockChanged(block.getWorldId(), block.getX(), block.getY(), block.getZ()); }
+    
+    /**
+     * Stops watching all regions registered for the passed caster.
+     * @param caster The location of the casting block.
+     */
+    public void release(BlockLocation caster)
+    {
+        List<WatchedRegion> casterRegions = regionsByCaster.remove(caster);
+        
+        if(casterRegions == null)
+            return;
+        
+        for(WatchedRegion region : casterRegions)
+            removeRegion(region);
+        
+        Map<Long, Set<BlockLocation>> worldCasters = castersByChunk.get(caster.getWorldId());
+        long casterChunk = getChunkKey(caster.getX() >> 4, caster.getZ() >> 4);
+        Set<BlockLocation> chunkCasters = worldCasters.get(casterChunk);
+        chunkCasters.remove(caster);
+        
+        if(chunkCasters.isEmpty())
+            worldCasters.remove(casterChunk);
+        
+        if(worldCasters.isEmpty())
+            castersByChunk.remove(caster.getWorldId());
+    }
+    
+    /**
+     * Stops watching all regions registered for the passed caster.
+     * @param caster The casting block.
+     */
+    public void release(SpellCasterBlock caster)
+    { release(caster.getBlockLocation()); }
+    
+    /**
+     * Stops watching all regions registered for casters in the passed chunk.
+     * @param worldId The ID of the world the chunk is in.
+     * @param chunkX The chunk's X coördinate.
+     * @param chunkZ The chunk's Z coördinate.
+     */
+    public void releaseChunk(int worldId, int chunkX, int chunkZ)
+    {
+        Map<Long, Set<BlockLocation>> worldCasters = castersByChunk.get(worldId);
+        
+        if(worldCasters == null)
+            return;
+        
+        Set<BlockLocation> chunkCasters = worldCasters.get(getChunkKey(chunkX, chunkZ));
+        
+        if(chunkCasters != null)
+            for(BlockLocation caster : new ArrayList<BlockLocation>(chunkCasters))
+                release(caster);
+    }
+    
+    /**
+     * Stops watching all regions registered for casters in the passed world.
+     * @param worldId The ID of the world.
+     */
+    public void releaseWorld(int worldId)
+    {
+        Map<Long, Set<BlockLocation>> worldCasters = castersByChunk.get(worldId);
+        
+        if(worldCasters == null)
+            return;
+        
+        List<BlockLocation> toRelease = new ArrayList<BlockLocation>();
+        
+        for(Set<BlockLocation> chunkCasters : worldCasters.values())
+            toRelease.addAll(chunkCasters);
+        
+        for(BlockLocation caster : toRelease)
+            release(caster);
+    }
+    
+    /** Stops watching all regions. */
+    public void clear()
+    {
+        regions.clear();
+        regionsByCaster.clear();
+        regionsByChunk.clear();
+        castersByChunk.clear();
+    }
+}
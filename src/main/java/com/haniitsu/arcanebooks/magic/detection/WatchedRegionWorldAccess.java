@@ -0,0 +1,84 @@
+package com.haniitsu.arcanebooks.magic.detection;
+
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.world.IWorldAccess;
+
+/**
+ * Added to each server world so that every block change in it is reported to a watched region index, whatever made
+ * the change. (e.g. players, pistons, explosions, flowing fluids, other mods) The world calls .markBlockForUpdate
+ * whenever a block is set in a way that's sent to clients, which covers everything that can be seen to change.
+ */
+public class WatchedRegionWorldAccess implements IWorldAccess
+{
+    /**
+     * Creates a new instance.
+     * @param index The index to report block changes to.
+     * @param worldId The ID of the world this is added to.
+     */
+    public WatchedRegionWorldAccess(WatchedRegionIndex index, int worldId)
+    {
+        this.index   = index;
+        this.worldId = worldId;
+    }
+    
+    /** The index block changes are reported to. */
+    final WatchedRegionIndex index;
+    
+    /** The ID of the world this is added to. */
+    final int worldId;
+    
+    @Override
+    public void markBlockForUpdate(int x, int y, int z)
+    { index.blockChanged(worldId, x, y, z); }
+    
+    @Override
+    public void markBlockForRenderUpdate(int x, int y, int z)
+    {}
+    
+    @Override
+    public void markBlockRangeForRenderUpdate(int x1, int y1, int z1, int x2, int y2, int z2)
+    {}
+    
+    @Override
+    public void playSound(String soundName, double x, double y, double z, float volume, float pitch)
+    {}
+    
+    @Override
+    public void playSoundToNearExcept(EntityPlayer player, String soundName, double x, double y, double z,
+                                      float volume, float pitch)
+    {}
+    
+    @Override
+    public void spawnParticle(String particleType, double x, double y, double z,
+                              double velocityX, double velocityY, double velocityZ)
+    {}
+    
+    @Override
+    public void onEntityCreate(Entity entity)
+    {}
+    
+    @Override
+    public void onEntityDestroy(Entity entity)
+    {}
+    
+    @Override
+    public void playRecord(String recordName, int x, int y, int z)
+    {}
+    
+    @Override
+    public void broadcastSound(int soundId, int x, int y, int z, int data)
+    {}
+    
+    @Override
+    public void playAuxSFX(EntityPlayer player, int sfxType, int x, int y, int z, int data)
+    {}
+    
+    @Override
+    public void destroyBlockPartially(int breakerId, int x, int y, int z, int progress)
+    {}
+    
+    @Override
+    public void onStaticEntitiesChanged()
+    {}
+}
@@ -0,0 +1,319 @@
+package com.haniitsu.arcanebooks.magic.fields;
+
+import com.haniitsu.arcanebooks.ArcaneBooks;
+import com.haniitsu.arcanebooks.magic.Spell;
+import com.haniitsu.arcanebooks.magic.Spell.Phrase;
+import com.haniitsu.arcanebooks.magic.SpellEffect;
+import com.haniitsu.arcanebooks.magic.caster.SpellCasterBlock;
+import com.haniitsu.arcanebooks.magic.mana.ManaStore;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.AOE;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.AOEShape;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.AOESize;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.SpellEffectModifier;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.SpellStrength;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.SpellTarget;
+import com.haniitsu.arcanebooks.misc.BlockLocation;
+import com.haniitsu.arcanebooks.misc.Direction;
+import com.haniitsu.arcanebooks.misc.Location;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import net.minecraft.entity.Entity;
+
+/**
+ * A spell phrase left in an area of the world rather than on a caster, (a ward, a slow-fall zone, etc.) applying its
+ * effect to entities within it until it expires. Spell fields are saved with the world, and only do anything while
+ * the chunks they cover are loaded. (see SpellFieldIndex)
+ *
+ * Fields refer to their effects and modifiers by name, so that they can be saved, and are looked up when first used.
+ */
+public class SpellField
+{
+    /**
+     * The block a spell field's effect is applied from. Fields aren't cast by anything once they're in the world, so
+     * this stands in for the caster.
+     */
+    public static class FieldCaster extends SpellCasterBlock
+    {
+        public FieldCaster(BlockLocation block, Direction direction)
+        {
+            super(block);
+            this.direction = direction;
+        }
+        
+        final Direction direction;
+        
+        /**
+         * Fields don't have mana of their own - their cost is paid when they're cast.
+         * @return null.
+         */
+        @Override
+        public ManaStore getMana()
+        { return null; }
+        
+        @Override
+        public Direction getDirection()
+        { return direction; }
+    }
+    
+    /**
+     * Creates a new spell field.
+     * @param id The field's ID, unique within its world.
+     * @param centre The centre of the field.
+     * @param direction The direction the field faces in.
+     * @param effectNames The names of the spell effects the field's phrase could have.
+     * @param aoe The name of the field's AOE.
+     * @param aoeSize The name of the field's AOE size.
+     * @param aoeShape The name of the field's AOE shape.
+     * @param strength The name of the strength the field's effect is applied at.
+     * @param size The size of the field in metres, as passed to its shape.
+     * @param expiryTime The world time the field ends at, or -1 if it never does.
+     */
+    public SpellField(long id, Location centre, Direction direction, List<String> effectNames,
+                      String aoe, String aoeSize, String aoeShape, String strength, double size, long expiryTime)
+    {
+        this.id          = id;
+        this.worldId     = centre.getWorldId();
+        this.x           = centre.getX();
+        this.y           = centre.getY();
+        this.z           = centre.getZ();
+        this.pitch       = direction.getPitch();
+        this.yaw         = direction.getYaw();
+        this.effectNames = Collections.unmodifiableList(new ArrayList<String>(effectNames));
+        this.aoe         = aoe;
+        this.aoeSize     = aoeSize;
+        this.aoeShape    = aoeShape;
+        this.strength    = strength;
+        this.size        = size;
+        this.expiryTime  = expiryTime;
+        
+        this.minX = (int)Math.floor(x - size);
+        this.minY = (int)Math.floor(y - size);
+        this.minZ = (int)Math.floor(z - size);
+        this.maxX = (int)Math.floor(x + size);
+        this.maxY = (int)Math.floor(y + size);
+        this.maxZ = (int)Math.floor(z + size);
+    }
+    
+    /** The field's ID, unique within its world. */
+    final long id;
+    
+    /** The ID of the world the field's in. */
+    final int worldId;
+    
+    /** The centre of the field. */
+    final double x, y, z;
+    
+    /** The direction the field faces in. */
+    final double pitch, yaw;
+    
+    /** The names of the spell effects the field's phrase could have. */
+    final List<String> effectNames;
+    
+    /** The names of the field's modifiers. */
+    final String aoe, aoeSize, aoeShape, strength;
+    
+    /** The size of the field in metres, as passed to its shape. */
+    final double size;
+    
+    /** The world time the field ends at, or -1 if it never does. */
+    final long expiryTime;
+    
+    /** The blocks the field could reach, inclusive. */
+    final int minX, minY, minZ, maxX, maxY, maxZ;
+    
+    /** The number of loaded chunks the field covers. The field's only applied while this is above 0. */
+    int loadedChunkCount = 0;
+    
+    /** The field's phrase, looked up from its names the first time it's needed. */
+    Phrase phrase = null;
+    
+    /** The spell cast the field's phrase is applied as part of. */
+    Spell.SpellCast cast = null;
+    
+    /** The field's modifiers, looked up from their names along with the phrase. */
+    AOE           resolvedAOE;
+    AOESize       resolvedAOESize;
+    AOEShape      resolvedAOEShape;
+    SpellStrength resolvedStrength;
+    
+    public long getId()
+    { return id; }
+    
+    public int getWorldId()
+    { return worldId; }
+    
+    public Location getCentre()
+    { return new Location(worldId, x, y, z); }
+    
+    public Direction getDirection()
+    { return new Direction(pitch, yaw); }
+    
+    public List<String> getEffectNames()
+    { return effectNames; }
+    
+    public double getSize()
+    { return size; }
+    
+    public long getExpiryTime()
+    { return expiryTime; }
+    
+    /**
+     * Gets whether the field has run out as of the passed world time.
+     * @param worldTime The world's total time.
+     * @return True if the field has expired, otherwise false.
+     */
+    public boolean hasExpired(long worldTime)
+    { return expiryTime >= 0 && worldTime >= expiryTime; }
+    
+    /**
+     * Gets whether the passed position is within the block bounds of the field.
+     * @param px The X coördinate of the position.
+     * @param py The Y coördinate of the position.
+     * @param pz The Z coördinate of the position.
+     * @return True if the position's within the field's bounds, otherwise false.
+     */
+    public boolean boundsContain(double px, double py, double pz)
+    {
+        return px >= minX && px < maxX + 1
+            && py >= minY && py < maxY + 1
+            && pz >= minZ && pz < maxZ + 1;
+    }
+    
+    /**
+     * Gets whether the passed entity is within the field.
+     * @param entity The entity to check.
+     * @return True if the entity's within the field, otherwise false. Also false if the field's phrase can't be found.
+     */
+    public boolean covers(Entity entity)
+    {
+        if(!boundsContain(entity.posX, entity.posY, entity.posZ) || !resolve())
+            return false;
+        
+        return resolvedAOEShape.coversLocation(size, getCentre(), getDirection(),
+                                               new Location(entity.worldObj, entity.posX, entity.posY, entity.posZ));
+    }
+    
+    /**
+     * Applies the field's phrase to the passed entities.
+     * @param entities The entities within the field.
+     */
+    public void applyTo(Collection<? extends Entity> entities)
+    {
+        if(entities.isEmpty() || !resolve())
+            return;
+        
+        phrase.applyTo(cast, resolvedAOE, resolvedAOESize, resolvedAOEShape, resolvedStrength,
+                       getCentre(), getDirection(), SpellTarget.field, entities);
+    }
+    
+    /**
+     * Looks up the field's phrase and modifiers from their names, if they haven't been already.
+     * @return True if the field's phrase could be looked up, otherwise false. (e.g. none of its effects exist)
+     */
+    boolean resolve()
+    {
+        if(phrase != null)
+            return true;
+        
+        if(ArcaneBooks.instance == null || ArcaneBooks.instance.registries.spellEffects == null)
+            return false;
+        
+        List<SpellEffect> effects = new ArrayList<SpellEffect>();
+        
+        for(String effectName : effectNames)
+        {
+            SpellEffect effect = ArcaneBooks.instance.registries.spellEffects.getEffect(effectName);
+            
+            if(effect != null)
+                effects.add(effect);
+        }
+        
+        if(effects.isEmpty())
+            return false;
+        
+        resolvedAOE      = getByName(AOE          .getValues(), aoe,      AOE          .defaultValue);
+        resolvedAOESize  = getByName(AOESize      .getValues(), aoeSize,  AOESize      .defaultValue);
+        resolvedAOEShape = getByName(AOEShape     .getValues(), aoeShape, AOEShape     .defaultValue);
+        resolvedStrength = getByName(SpellStrength.getValues(), strength, SpellStrength.defaultValue);
+        
+        phrase = new Phrase(effects, resolvedAOE, resolvedAOESize, resolvedAOEShape, resolvedStrength, SpellTarget.field);
+        
+        BlockLocation centreBlock = new BlockLocation(worldId, (int)Math.floor(x), (int)Math.floor(y), (int)Math.floor(z));
+        cast = new Spell.SpellCast(new Spell(phrase), new FieldCaster(centreBlock, getDirection()), getCentre(), getDirection());
+        return true;
+    }
+    
+    static <T extends SpellEffectModifier> T getByName(Collection<T> values, String name, T defaultValue)
+    {
+        for(T value : values)
+            if(value.getModifierName().equalsIgnoreCase(name))
+                return value;
+        
+        return defaultValue;
+    }
+    
+    /**
+     * Writes the field out, as read by .read.
+     * @param output The output to write the field to.
+     * @throws IOException If the output can't be written to.
+     */
+    public void write(DataOutput output) throws IOException
+    {
+        output.writeLong(id);
+        output.writeInt(worldId);
+        output.writeDouble(x);
+        output.writeDouble(y);
+        output.writeDouble(z);
+        output.writeDouble(pitch);
+        output.writeDouble(yaw);
+        output.writeInt(effectNames.size());
+        
+        for(String effectName : effectNames)
+            output.writeUTF(effectName);
+        
+        output.writeUTF(aoe);
+        output.writeUTF(aoeSize);
+        output.writeUTF(aoeShape);
+        output.writeUTF(strength);
+        output.writeDouble(size);
+        output.writeLong(expiryTime);
+    }
+    
+    /**
+     * Reads a field written out by .write.
+     * @param input The input to read the field from.
+     * @return The field read.
+     * @throws IOException If the input can't be read from.
+     */
+    public static SpellField read(DataInput input) throws IOException
+    {
+        long   id      = input.readLong();
+        int    worldId = input.readInt();
+        double x       = input.readDouble();
+        double y       = input.readDouble();
+        double z       = input.readDouble();
+        double pitch   = input.readDouble();
+        double yaw     = input.readDouble();
+        
+        int effectCount = input.readInt();
+        List<String> effectNames = new ArrayList<String>(effectCount);
+        
+        for(int i = 0; i < effectCount; i++)
+            effectNames.add(input.readUTF());
+        
+        String aoe        = input.readUTF();
+        String aoeSize    = input.readUTF();
+        String aoeShape   = input.readUTF();
+        String strength   = input.readUTF();
+        double size       = input.readDouble();
+        long   expiryTime = input.readLong();
+        
+        return new SpellField(id, new Location(worldId, x, y, z), new Direction(pitch, yaw), effectNames,
+                              aoe, aoeSize, aoeShape, strength, size, expiryTime);
+    }
+}
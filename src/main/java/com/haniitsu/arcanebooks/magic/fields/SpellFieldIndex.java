@@ -0,0 +1,940 @@
+package com.haniitsu.arcanebooks.magic.fields;
+
+import com.haniitsu.arcanebooks.magic.Spell.Phrase;
+import com.haniitsu.arcanebooks.magic.SpellEffect;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.AOE;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.AOEShape;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.AOESize;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.SpellStrength;
+import com.haniitsu.arcanebooks.misc.Direction;
+import com.haniitsu.arcanebooks.misc.LoadedChunks;
+import com.haniitsu.arcanebooks.misc.Location;
+import com.haniitsu.arcanebooks.misc.UtilMethods;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import net.minecraft.entity.Entity;
+import net.minecraft.world.World;
+
+/**
+ * Keeps track of the spell fields in a single world, and saves them with it.
+ *
+ * Fields are saved in region files of 32 by 32 chunks, in the world's ArcaneBooks directory, (next to RuneDesigns.dat)
+ * under each chunk they cover. A region file is only read when one of its chunks loads, and only the fields covering
+ * loaded chunks are indexed and applied - fields elsewhere cost nothing. Each loaded chunk with fields in it has an
+ * interval tree of them, (see SpellFieldTree) so finding the fields at a point is a map lookup and a tree search.
+ *
+ * Region files are read and written on a background thread, so loading chunks doesn't wait on the disk. A region's
+ * fields are indexed on the first tick after its file's been read. Every so often, the region files not in memory are
+ * gone through on the background thread for expired fields, so fields in places no-one goes back to don't pile up.
+ *
+ * @note Only to be used from the server thread.
+ */
+public class SpellFieldIndex
+{
+    /**
+     * The fields saved in a single region file.
+     */
+    protected static class Region
+    {
+        /** The fields covering each chunk in the region, by chunk key. */
+        final Map<Long, List<SpellField>> fields = new HashMap<Long, List<SpellField>>();
+        
+        /** The chunks in the region that are loaded, by chunk key. */
+        final Set<Long> loadedChunks = new HashSet<Long>();
+        
+        /** Whether the region's fields have changed since it was last saved. */
+        boolean dirty = false;
+        
+        /** The fields being read from the region's file in the background, by chunk key, or null once they're in. */
+        Future<Map<Long, List<SpellField>>> pendingRead = null;
+        
+        /** The IDs of fields removed from the region while its file was being read, so they aren't put back from it. */
+        final Set<Long> removedWhileReading = new HashSet<Long>();
+        
+        /**
+         * Whether the region's file couldn't be read. These regions are never saved, so the file's left as it is
+         * rather than being overwritten with only the fields added since.
+         */
+        boolean unreadable = false;
+    }
+    
+    /**
+     * Creates a new spell field index for the passed world.
+     * @param world The world the fields are in.
+     */
+    public SpellFieldIndex(World world)
+    {
+        this.world     = world;
+        this.worldId   = world.provider.dimensionId;
+        this.directory = world.getSaveHandler() == null ? null
+                       : new File(world.getSaveHandler().getWorldDirectory(), "ArcaneBooks/SpellFields/DIM" + worldId);
+    }
+    
+    /** The spell field indices of each world. These are saved and dropped when their worlds unload. */
+    static final Map<World, SpellFieldIndex> indices = new HashMap<World, SpellFieldIndex>();
+    
+    /** The number of ticks fields last for unless otherwise specified. */
+    public static volatile int defaultDurationTicks = 6000;
+    
+    /** The number of ticks between applications of fields to the entities within them. */
+    public static volatile int updateInterval = 10;
+    
+    /** The largest size a field can be, in metres, so that fields don't reach into too many chunks. */
+    public static volatile double maxFieldSize = 32;
+    
+    /** The number of ticks between going through the region files not in memory for expired fields. */
+    public static volatile int expiredFieldSweepInterval = 6000;
+    
+    /** The number of chunks along each side of a region file. */
+    static final int regionChunkBits = 5;
+    
+    /** The version of the region file format, written at the start of each region file. */
+    static final int fileFormatVersion = 1;
+    
+    /** Used to pick field IDs. */
+    static final Random random = new Random();
+    
+    /**
+     * The thread region files are read and written on. Only the one, so that reads and writes of a file happen in the
+     * order they were asked for.
+     */
+    static final ExecutorService ioThread = Executors.newSingleThreadExecutor(new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "ArcaneBooks spell field IO");
+            thread.setDaemon(true); // So it doesn't keep the game open. Writes are waited on when worlds unload.
+            return thread;
+        }
+    });
+    
+    /** The world the fields are in. */
+    final World world;
+    
+    /** The ID of the world the fields are in. */
+    final int worldId;
+    
+    /** The directory the world's region files are in, or null if the world isn't saved. */
+    final File directory;
+    
+    /** The regions read so far, by region key. */
+    final Map<Long, Region> regions = new HashMap<Long, Region>();
+    
+    /** The fields in the regions read so far, by ID. */
+    final Map<Long, SpellField> fieldsById = new HashMap<Long, SpellField>();
+    
+    /** The trees of fields covering each loaded chunk with fields in it, by chunk key. */
+    final Map<Long, SpellFieldTree> loadedChunkTrees = new HashMap<Long, SpellFieldTree>();
+    
+    /** The fields covering at least one loaded chunk. */
+    final Set<SpellField> activeFields = new HashSet<SpellField>();
+    
+    /** The keys of the regions whose files are being read in the background. */
+    final List<Long> readingRegionKeys = new ArrayList<Long>();
+    
+    /** The number of ticks this index has been advanced. */
+    long currentTick = 0;
+    
+    /**
+     * Gets the spell field index of the passed world, creating it if it doesn't exist yet.
+     * @param world The world to get the spell field index of.
+     * @return The world's spell field index.
+     */
+    public static SpellFieldIndex get(World world)
+    {
+        synchronized(indices)
+        {
+            SpellFieldIndex index = indices.get(world);
+            
+            if(index == null)
+            {
+                index = new SpellFieldIndex(world);
+                indices.put(world, index);
+            }
+            
+            return index;
+        }
+    }
+    
+    /**
+     * Gets the spell field index of the passed world, if it has one.
+     * @param world The world to get the spell field index of.
+     * @return The world's spell field index, or null if it doesn't have one.
+     */
+    public static SpellFieldIndex getIfPresent(World world)
+    {
+        synchronized(indices)
+        { return indices.get(world); }
+    }
+    
+    /**
+     * Saves and drops the spell field index of the passed world.
+     * @param world The world to drop the spell field index of.
+     */
+    public static void release(World world)
+    {
+        SpellFieldIndex index;
+        
+        synchronized(indices)
+        { index = indices.remove(world); }
+        
+        if(index != null)
+        {
+            index.finishReads(true);
+            index.save();
+            waitForIO();
+        }
+    }
+    
+    /**
+     * Creates a spell field from a spell phrase, centred on the passed location. The phrase's AOE, size, shape, and
+     * strength are picked now and stay the same for as long as the field lasts.
+     * @param phrase The phrase to make a field of.
+     * @param centre The centre of the field.
+     * @param direction The direction the field faces in.
+     * @return The field created.
+     */
+    public SpellField createField(Phrase phrase, Location centre, Direction direction)
+    {
+        List<String> effectNames = new ArrayList<String>();
+        
+        for(SpellEffect effect : phrase.getPossibleSpellEffect())
+            effectNames.add(effect.getName());
+        
+        List<AOE>           aoes      = phrase.getPossibleAOEs();
+        List<AOESize>       sizes     = phrase.getPossibleSizes();
+        List<AOEShape>      shapes    = phrase.getPossibleShapes();
+        List<SpellStrength> strengths = phrase.getPossibleStrengths();
+        
+        AOE           aoe      = aoes     .isEmpty() ? AOE          .defaultValue : UtilMethods.getRandomMember(aoes);
+        AOESize       aoeSize  = sizes    .isEmpty() ? AOESize      .defaultValue : UtilMethods.getRandomMember(sizes);
+        AOEShape      aoeShape = shapes   .isEmpty() ? AOEShape     .defaultValue : UtilMethods.getRandomMember(shapes);
+        SpellStrength strength = strengths.isEmpty() ? SpellStrength.defaultValue : UtilMethods.getRandomMember(strengths);
+        
+        double size = Math.min(aoeSize.getDistance() * aoeShape.getAOESizeModifier(), maxFieldSize);
+        
+        SpellField field = new SpellField(random.nextLong(), centre, direction, effectNames,
+                                          aoe.getModifierName(), aoeSize.getModifierName(),
+                                          aoeShape.getModifierName(), strength.getModifierName(),
+                                          size, world.getTotalWorldTime() + defaultDurationTicks);
+        
+        addField(field);
+        return field;
+    }
+    
+    /**
+     * Adds a spell field to the world. Region files the field reaches into are read if they haven't been already.
+     * @param field The field to add.
+     */
+    public void addField(SpellField field)
+    {
+        fieldsById.put(field.id, field);
+        
+        for(int chunkX = field.minX >> 4; chunkX <= field.maxX >> 4; chunkX++)
+        {
+            for(int chunkZ = field.minZ >> 4; chunkZ <= field.maxZ >> 4; chunkZ++)
+            {
+                long   chunkKey = LoadedChunks.getChunkKey(chunkX, chunkZ);
+                Region region   = getRegion(chunkX, chunkZ);
+                List<SpellField> chunkFields = region.fields.get(chunkKey);
+                
+                if(chunkFields == null)
+                {
+                    chunkFields = new ArrayList<SpellField>();
+                    region.fields.put(chunkKey, chunkFields);
+                }
+                
+                chunkFields.add(field);
+                region.dirty = true;
+                
+                if(region.loadedChunks.contains(chunkKey))
+                {
+                    loadedChunkTrees.put(chunkKey, new SpellFieldTree(chunkFields));
+                    field.loadedChunkCount++;
+                }
+            }
+        }
+        
+        if(field.loadedChunkCount > 0)
+            activeFields.add(field);
+    }
+    
+    /**
+     * Removes a spell field from the world.
+     * @param field The field to remove.
+     */
+    public void removeField(SpellField field)
+    {
+        activeFields.remove(field);
+        field.loadedChunkCount = 0;
+        
+        for(int chunkX = field.minX >> 4; chunkX <= field.maxX >> 4; chunkX++)
+        {
+            for(int chunkZ = field.minZ >> 4; chunkZ <= field.maxZ >> 4; chunkZ++)
+            {
+                long   chunkKey = LoadedChunks.getChunkKey(chunkX, chunkZ);
+                Region region   = getRegion(chunkX, chunkZ);
+                List<SpellField> chunkFields = region.fields.get(chunkKey);
+                
+                if(region.pendingRead != null)
+                    region.removedWhileReading.add(field.id);
+                
+                if(chunkFields == null || !chunkFields.remove(field))
+                    continue;
+                
+                region.dirty = true;
+                
+                if(chunkFields.isEmpty())
+                    region.fields.remove(chunkKey);
+                
+                if(region.loadedChunks.contains(chunkKey))
+                {
+                    if(chunkFields.isEmpty())
+                        loadedChunkTrees.remove(chunkKey);
+                    else
+                        loadedChunkTrees.put(chunkKey, new SpellFieldTree(chunkFields));
+                }
+            }
+        }
+        
+        fieldsById.remove(field.id);
+    }
+    
+    /**
+     * Gets the spell fields whose bounds contain the passed point. Only fields in loaded chunks are looked at.
+     * @param x The X coördinate of the point.
+     * @param y The Y coördinate of the point.
+     * @param z The Z coördinate of the point.
+     * @return The fields found.
+     */
+    public List<SpellField> getFieldsAt(double x, double y, double z)
+    {
+        List<SpellField> result = new ArrayList<SpellField>();
+        SpellFieldTree   tree   = loadedChunkTrees.get(LoadedChunks.getChunkKey((int)Math.floor(x) >> 4,
+                                                                                (int)Math.floor(z) >> 4));
+        
+        if(tree != null)
+            tree.getFieldsAt(x, y, z, result);
+        
+        return result;
+    }
+    
+    /**
+     * Gets the spell fields covering at least one loaded chunk.
+     * @return A copy of the active fields.
+     */
+    public Collection<SpellField> getActiveFields()
+    { return new ArrayList<SpellField>(activeFields); }
+    
+    /**
+     * Indexes the fields covering a chunk that's just loaded, reading its region file in the background if it hasn't
+     * been already. Fields only in the file are indexed once it's been read.
+     * @param chunkX The chunk's X coördinate.
+     * @param chunkZ The chunk's Z coördinate.
+     */
+    public void chunkLoaded(int chunkX, int chunkZ)
+    {
+        long   chunkKey = LoadedChunks.getChunkKey(chunkX, chunkZ);
+        Region region   = getRegion(chunkX, chunkZ);
+        
+        if(!region.loadedChunks.add(chunkKey))
+            return;
+        
+        List<SpellField> chunkFields = region.fields.get(chunkKey);
+        
+        if(chunkFields == null)
+            return;
+        
+        loadedChunkTrees.put(chunkKey, new SpellFieldTree(chunkFields));
+        
+        for(SpellField field : chunkFields)
+            if(field.loadedChunkCount++ == 0)
+                activeFields.add(field);
+    }
+    
+    /**
+     * Stops indexing the fields covering a chunk that's unloading. Regions with no chunks left loaded are saved (if
+     * they've changed) and dropped.
+     * @param chunkX The chunk's X coördinate.
+     * @param chunkZ The chunk's Z coördinate.
+     */
+    public void chunkUnloaded(int chunkX, int chunkZ)
+    {
+        long   chunkKey  = LoadedChunks.getChunkKey(chunkX, chunkZ);
+        long   regionKey = LoadedChunks.getChunkKey(chunkX >> regionChunkBits, chunkZ >> regionChunkBits);
+        Region region    = regions.get(regionKey);
+        
+        if(region == null || !region.loadedChunks.remove(chunkKey))
+            return;
+        
+        loadedChunkTrees.remove(chunkKey);
+        List<SpellField> chunkFields = region.fields.get(chunkKey);
+        
+        if(chunkFields != null)
+            for(SpellField field : chunkFields)
+                if(--field.loadedChunkCount == 0)
+                    activeFields.remove(field);
+        
+        // Regions still being read are dropped once they've been read, as what's read has to be saved with them.
+        if(region.loadedChunks.isEmpty() && region.pendingRead == null)
+        {
+            if(region.dirty)
+                saveRegion(regionKey, region);
+            
+            regions.remove(regionKey);
+            forgetFieldsOf(region);
+        }
+    }
+    
+    /**
+     * Advances the index by one tick, applying active fields to the entities within them every so often and removing
+     * fields that have expired.
+     */
+    public void tick()
+    {
+        currentTick++;
+        finishReads(false);
+        
+        if(currentTick % expiredFieldSweepInterval == 0)
+            sweepRegionFiles();
+        
+        if(currentTick % updateInterval != 0 || activeFields.isEmpty())
+            return;
+        
+        long worldTime = world.getTotalWorldTime();
+        
+        for(SpellField field : new ArrayList<SpellField>(activeFields))
+            if(field.hasExpired(worldTime))
+                removeField(field);
+        
+        if(loadedChunkTrees.isEmpty())
+            return;
+        
+        Map<SpellField, List<Entity>> entitiesInFields = new IdentityHashMap<SpellField, List<Entity>>();
+        List<SpellField> fieldsAt = new ArrayList<SpellField>();
+        
+        // Only the entities in the chunk sections fields reach into are looked at, rather than every entity in the world.
+        for(Map.Entry<Long, SpellFieldTree> entry : loadedChunkTrees.entrySet())
+        {
+            int            chunkX = LoadedChunks.getChunkX(entry.getKey());
+            int            chunkZ = LoadedChunks.getChunkZ(entry.getKey());
+            SpellFieldTree tree   = entry.getValue();
+            
+            if(!LoadedChunks.isChunkLoaded(world, chunkX, chunkZ))
+                continue;
+            
+            List[] entityLists = world.getChunkFromChunkCoords(chunkX, chunkZ).entityLists;
+            
+            // Entities outside of the world's height are kept in the top or bottom section.
+            int minSection = Math.max(tree.getMinY() >> 4, 0);
+            int maxSection = Math.min(tree.getMaxY() >> 4, entityLists.length - 1);
+            
+            for(int section = minSection; section <= maxSection; section++)
+            {
+                for(Object i : entityLists[section])
+                {
+                    Entity entity = (Entity)i;
+                    
+                    if(entity.isDead)
+                        continue;
+                    
+                    fieldsAt.clear();
+                    tree.getFieldsAt(entity.posX, entity.posY, entity.posZ, fieldsAt);
+                    
+                    for(SpellField field : fieldsAt)
+                    {
+                        if(!field.covers(entity))
+                            continue;
+                        
+                        List<Entity> entities = entitiesInFields.get(field);
+                        
+                        if(entities == null)
+                        {
+                            entities = new ArrayList<Entity>();
+                            entitiesInFields.put(field, entities);
+                        }
+                        
+                        entities.add(entity);
+                    }
+                }
+            }
+        }
+        
+        for(Map.Entry<SpellField, List<Entity>> entry : entitiesInFields.entrySet())
+            entry.getKey().applyTo(entry.getValue());
+    }
+    
+    /**
+     * Saves every region whose fields have changed since it was last saved, and drops regions with no chunks loaded.
+     * Regions still being read are left until they've been read. Region files are written in the background.
+     */
+    public void save()
+    {
+        for(Iterator<Map.Entry<Long, Region>> i = regions.entrySet().iterator(); i.hasNext();)
+        {
+            Map.Entry<Long, Region> entry = i.next();
+            
+            if(entry.getValue().pendingRead != null)
+                continue;
+            
+            if(entry.getValue().dirty)
+                saveRegion(entry.getKey(), entry.getValue());
+            
+            if(entry.getValue().loadedChunks.isEmpty())
+            {
+                i.remove();
+                forgetFieldsOf(entry.getValue());
+            }
+        }
+    }
+    
+    /**
+     * Gets the region containing a chunk, starting to read it from its file in the background if it hasn't been
+     * already. Until it's been read, it only has the fields added to it since.
+     * @param chunkX The chunk's X coördinate.
+     * @param chunkZ The chunk's Z coördinate.
+     * @return The region.
+     */
+    protected Region getRegion(int chunkX, int chunkZ)
+    {
+        long   regionKey = LoadedChunks.getChunkKey(chunkX >> regionChunkBits, chunkZ >> regionChunkBits);
+        Region region    = regions.get(regionKey);
+        
+        if(region == null)
+        {
+            region = new Region();
+            regions.put(regionKey, region);
+            final File file = getRegionFile(regionKey);
+            
+            if(file != null)
+            {
+                region.pendingRead = ioThread.submit(new Callable<Map<Long, List<SpellField>>>()
+                {
+                    @Override
+                    public Map<Long, List<SpellField>> call() throws IOException
+                    { return readRegionFile(file); }
+                });
+                
+                readingRegionKeys.add(regionKey);
+            }
+        }
+        
+        return region;
+    }
+    
+    /**
+     * Indexes the fields of regions whose files have been read in the background.
+     * @param wait Whether to wait for regions still being read, rather than leaving them for later.
+     */
+    protected void finishReads(boolean wait)
+    {
+        for(Iterator<Long> i = readingRegionKeys.iterator(); i.hasNext();)
+        {
+            long   regionKey = i.next();
+            Region region    = regions.get(regionKey);
+            
+            if(!wait && !region.pendingRead.isDone())
+                continue;
+            
+            Map<Long, List<SpellField>> read;
+            
+            try
+            { read = region.pendingRead.get(); }
+            catch(InterruptedException exception)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch(ExecutionException exception)
+            {
+                System.out.println("Spell field region file " + getRegionFile(regionKey) + " couldn't be read. Its "
+                                   + "fields won't be applied, and it won't be saved over until the world's loaded "
+                                   + "again.");
+                exception.printStackTrace();
+                region.unreadable = true;
+                read = new HashMap<Long, List<SpellField>>();
+            }
+            
+            i.remove();
+            region.pendingRead = null;
+            addFieldsRead(regionKey, region, read);
+        }
+    }
+    
+    /**
+     * Adds the fields read from a region's file to the region, and indexes those in loaded chunks. Expired fields and
+     * fields removed while the file was being read are left out, and the region saved without them. Regions with no
+     * chunks loaded any more are saved and dropped.
+     * @param regionKey The region's key.
+     * @param region The region.
+     * @param read The fields read from the region's file, by chunk key.
+     */
+    protected void addFieldsRead(long regionKey, Region region, Map<Long, List<SpellField>> read)
+    {
+        long worldTime = world.getTotalWorldTime();
+        
+        for(Map.Entry<Long, List<SpellField>> entry : read.entrySet())
+        {
+            long             chunkKey    = entry.getKey();
+            boolean          chunkLoaded = region.loadedChunks.contains(chunkKey);
+            boolean          added       = false;
+            List<SpellField> chunkFields = region.fields.get(chunkKey);
+            
+            for(SpellField field : entry.getValue())
+            {
+                if(field.hasExpired(worldTime) || region.removedWhileReading.contains(field.id))
+                {
+                    region.dirty = true;
+                    continue;
+                }
+                
+                // Fields reaching into more than one region are saved in each, but should be the one object.
+                SpellField existing = fieldsById.get(field.id);
+                
+                if(existing != null)
+                    field = existing;
+                else
+                    fieldsById.put(field.id, field);
+                
+                if(chunkFields == null)
+                {
+                    chunkFields = new ArrayList<SpellField>();
+                    region.fields.put(chunkKey, chunkFields);
+                }
+                else if(chunkFields.contains(field))
+                    continue;
+                
+                chunkFields.add(field);
+                added = true;
+                
+                if(chunkLoaded && field.loadedChunkCount++ == 0)
+                    activeFields.add(field);
+            }
+            
+            if(added && chunkLoaded)
+                loadedChunkTrees.put(chunkKey, new SpellFieldTree(chunkFields));
+        }
+        
+        region.removedWhileReading.clear();
+        
+        if(region.loadedChunks.isEmpty())
+        {
+            if(region.dirty)
+                saveRegion(regionKey, region);
+            
+            regions.remove(regionKey);
+            forgetFieldsOf(region);
+        }
+    }
+    
+    /**
+     * Drops the fields of a region that's been dropped, unless they reach into another region that's still held.
+     * @param region The region dropped.
+     */
+    protected void forgetFieldsOf(Region region)
+    {
+        for(List<SpellField> chunkFields : region.fields.values())
+        {
+            for(SpellField field : chunkFields)
+            {
+                boolean stillHeld = false;
+                
+                for(int regionX = field.minX >> (4 + regionChunkBits); regionX <= field.maxX >> (4 + regionChunkBits) && !stillHeld; regionX++)
+                    for(int regionZ = field.minZ >> (4 + regionChunkBits); regionZ <= field.maxZ >> (4 + regionChunkBits) && !stillHeld; regionZ++)
+                        stillHeld = regions.containsKey(LoadedChunks.getChunkKey(regionX, regionZ));
+                
+                if(!stillHeld)
+                    fieldsById.remove(field.id);
+            }
+        }
+    }
+    
+    /**
+     * Gets the file a region's fields are saved in.
+     * @param regionKey The region's key.
+     * @return The region's file, or null if the world isn't saved.
+     */
+    protected File getRegionFile(long regionKey)
+    {
+        if(directory == null)
+            return null;
+        
+        return new File(directory, "r." + LoadedChunks.getChunkX(regionKey) + "." + LoadedChunks.getChunkZ(regionKey) + ".dat");
+    }
+    
+    /**
+     * Reads the fields in a region file. Fields covering more than one chunk of the region are read as the one object.
+     * Doesn't touch the index, so can be called from the background thread.
+     * @param file The region file.
+     * @return The fields read, by chunk key. Empty if there's no file.
+     * @throws IOException If the file couldn't be read, or is of an unknown version.
+     */
+    static Map<Long, List<SpellField>> readRegionFile(File file) throws IOException
+    {
+        Map<Long, List<SpellField>> fields = new HashMap<Long, List<SpellField>>();
+        
+        if(!file.exists())
+            return fields;
+        
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        
+        try
+        {
+            if(input.readInt() != fileFormatVersion)
+                throw new IOException("Spell field region file " + file + " is of an unknown version.");
+            
+            Map<Long, SpellField> fieldsRead = new HashMap<Long, SpellField>();
+            int chunkCount = input.readInt();
+            
+            for(int i = 0; i < chunkCount; i++)
+            {
+                long chunkKey   = input.readLong();
+                int  fieldCount = input.readInt();
+                List<SpellField> chunkFields = new ArrayList<SpellField>(fieldCount);
+                
+                for(int j = 0; j < fieldCount; j++)
+                {
+                    SpellField field    = SpellField.read(input);
+                    SpellField existing = fieldsRead.get(field.id);
+                    
+                    if(existing != null)
+                        field = existing;
+                    else
+                        fieldsRead.put(field.id, field);
+                    
+                    chunkFields.add(field);
+                }
+                
+                fields.put(chunkKey, chunkFields);
+            }
+        }
+        finally
+        { input.close(); }
+        
+        return fields;
+    }
+    
+    /**
+     * Saves a region's fields to its file, in the background. The fields are written to a separate file first and then
+     * moved over the old one, so that a crash part-way through doesn't lose the region. Regions whose files couldn't
+     * be read aren't saved.
+     * @param regionKey The region's key.
+     * @param region The region to save.
+     */
+    protected void saveRegion(long regionKey, Region region)
+    {
+        final File file = getRegionFile(regionKey);
+        
+        if(file == null || region.unreadable)
+            return;
+        
+        try
+        {
+            // Written out now, as the fields can change before the background thread gets to them.
+            final byte[] contents = region.fields.isEmpty() ? null : encodeRegion(region.fields);
+            
+            ioThread.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                { writeRegionFile(file, contents); }
+            });
+            
+            region.dirty = false;
+        }
+        catch(IOException exception)
+        { exception.printStackTrace(); }
+    }
+    
+    /**
+     * Has the region files not in memory gone through in the background, and the expired fields in them removed.
+     */
+    protected void sweepRegionFiles()
+    {
+        if(directory == null)
+            return;
+        
+        final Set<File> heldFiles = new HashSet<File>();
+        final long      worldTime = world.getTotalWorldTime();
+        
+        for(Long regionKey : regions.keySet())
+            heldFiles.add(getRegionFile(regionKey));
+        
+        ioThread.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            { removeExpiredFields(directory, heldFiles, worldTime); }
+        });
+    }
+    
+    /**
+     * Removes the expired fields from the region files in a directory, deleting files left with no fields. Regions
+     * read after this see the files without them, as files are only read and written on the background thread.
+     * @param directory The directory the region files are in.
+     * @param heldFiles The files of the regions in memory, which are left alone, as they're saved from memory.
+     * @param worldTime The world's current time.
+     */
+    static void removeExpiredFields(File directory, Set<File> heldFiles, long worldTime)
+    {
+        File[] files = directory.listFiles();
+        
+        if(files == null)
+            return;
+        
+        for(File file : files)
+        {
+            if(!file.getName().startsWith("r.") || !file.getName().endsWith(".dat") || heldFiles.contains(file))
+                continue;
+            
+            Map<Long, List<SpellField>> fields;
+            
+            // Left as it is, to be reported when something's in the region again.
+            try
+            { fields = readRegionFile(file); }
+            catch(IOException exception)
+            { continue; }
+            
+            boolean removedAny = false;
+            
+            for(Iterator<List<SpellField>> i = fields.values().iterator(); i.hasNext();)
+            {
+                List<SpellField> chunkFields = i.next();
+                
+                for(Iterator<SpellField> j = chunkFields.iterator(); j.hasNext();)
+                {
+                    if(j.next().hasExpired(worldTime))
+                    {
+                        j.remove();
+                        removedAny = true;
+                    }
+                }
+                
+                if(chunkFields.isEmpty())
+                    i.remove();
+            }
+            
+            if(!removedAny)
+                continue;
+            
+            try
+            { writeRegionFile(file, fields.isEmpty() ? null : encodeRegion(fields)); }
+            catch(IOException exception)
+            { exception.printStackTrace(); }
+        }
+    }
+    
+    /**
+     * Writes out the fields of a region as they're saved in its file.
+     * @param fields The region's fields, by chunk key.
+     * @return The contents of the region's file.
+     * @throws IOException If a field couldn't be written out.
+     */
+    static byte[] encodeRegion(Map<Long, List<SpellField>> fields) throws IOException
+    {
+        ByteArrayOutputStream bytes  = new ByteArrayOutputStream();
+        DataOutputStream      output = new DataOutputStream(bytes);
+        
+        output.writeInt(fileFormatVersion);
+        output.writeInt(fields.size());
+        
+        for(Map.Entry<Long, List<SpellField>> entry : fields.entrySet())
+        {
+            output.writeLong(entry.getKey());
+            output.writeInt(entry.getValue().size());
+            
+            for(SpellField field : entry.getValue())
+                field.write(output);
+        }
+        
+        output.close();
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * Writes a region file, by writing a temporary file next to it and moving that over it. Should only be called from
+     * the background thread.
+     * @param file The region file.
+     * @param contents The contents to write, or null to delete the file, for regions with no fields.
+     */
+    static void writeRegionFile(File file, byte[] contents)
+    {
+        try
+        {
+            if(contents == null)
+            {
+                Files.deleteIfExists(file.toPath());
+                return;
+            }
+            
+            file.getParentFile().mkdirs();
+            File tempFile = new File(file.getPath() + ".tmp");
+            FileOutputStream output = new FileOutputStream(tempFile);
+            
+            try
+            {
+                output.write(contents);
+                output.getFD().sync(); // So the move can't reach the disk before the contents do.
+            }
+            finally
+            { output.close(); }
+            
+            try
+            {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                                                             StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch(AtomicMoveNotSupportedException exception)
+            { Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING); }
+        }
+        catch(IOException exception)
+        {
+            System.out.println("Spell field region file " + file + " couldn't be saved.");
+            exception.printStackTrace();
+        }
+    }
+    
+    /** Waits for the region files asked to be read and written so far to have been. */
+    static void waitForIO()
+    {
+        try
+        {
+            ioThread.submit(new Runnable()
+            {
+                @Override
+                public void run()
+                { }
+            }).get();
+        }
+        catch(InterruptedException exception)
+        { Thread.currentThread().interrupt(); }
+        catch(ExecutionException exception)
+        { exception.printStackTrace(); }
+    }
+}
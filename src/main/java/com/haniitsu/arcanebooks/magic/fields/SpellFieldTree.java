@@ -0,0 +1,131 @@
+package com.haniitsu.arcanebooks.magic.fields;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An interval tree of the spell fields covering a single chunk, by their Y ranges, for finding the fields at a point.
+ *
+ * The fields are held sorted by the bottom of their Y range, and treated as a balanced binary tree with each range's
+ * middle field at the root of that range. Each node also holds the highest top of any field in its subtree, so whole
+ * subtrees lying below the point can be skipped. Finding the fields at a point takes O(log n + k) for k fields found,
+ * as the X and Z ranges of the fields found are then checked directly.
+ *
+ * Trees can't be changed once made; a chunk's tree is rebuilt when fields are added to or removed from it.
+ */
+public class SpellFieldTree
+{
+    /**
+     * Creates a new tree of the passed fields.
+     * @param fields The fields covering the chunk.
+     */
+    public SpellFieldTree(Collection<SpellField> fields)
+    {
+        List<SpellField> sorted = new ArrayList<SpellField>(fields);
+        
+        Collections.sort(sorted, new Comparator<SpellField>()
+        {
+            @Override
+            public int compare(SpellField first, SpellField second)
+            { return first.minY < second.minY ? -1 : (first.minY == second.minY ? 0 : 1); }
+        });
+        
+        this.fields = sorted.toArray(new SpellField[sorted.size()]);
+        this.maxYs  = new int[this.fields.length];
+        buildMaxYs(0, this.fields.length);
+    }
+    
+    /** The fields in the tree, sorted by the bottom of their Y range. */
+    final SpellField[] fields;
+    
+    /** The highest top of any field in the subtree rooted at each field. */
+    final int[] maxYs;
+    
+    /**
+     * Works out the highest top of any field in the subtree covering the passed range of fields.
+     * @param start The index of the first field in the range.
+     * @param end The index after the last field in the range.
+     * @return The highest top in the range, or Integer.MIN_VALUE if the range is empty.
+     */
+    private int buildMaxYs(int start, int end)
+    {
+        if(start >= end)
+            return Integer.MIN_VALUE;
+        
+        int middle = (start + end) >>> 1;
+        int maxY   = Math.max(fields[middle].maxY, Math.max(buildMaxYs(start, middle), buildMaxYs(middle + 1, end)));
+        maxYs[middle] = maxY;
+        return maxY;
+    }
+    
+    /**
+     * Gets the number of fields in the tree.
+     * @return The number of fields.
+     */
+    public int size()
+    { return fields.length; }
+    
+    /**
+     * Gets the lowest Y coördinate covered by any field in the tree.
+     * @return The bottom of the lowest field, or Integer.MAX_VALUE if the tree's empty.
+     */
+    public int getMinY()
+    { return fields.length == 0 ? Integer.MAX_VALUE : fields[0].minY; }
+    
+    /**
+     * Gets the highest Y coördinate covered by any field in the tree.
+     * @return The top of the highest field, or Integer.MIN_VALUE if the tree's empty.
+     */
+    public int getMaxY()
+    { return fields.length == 0 ? Integer.MIN_VALUE : maxYs[fields.length >>> 1]; }
+    
+    /**
+     * Gets the fields in the tree.
+     * @return A list of the fields in the tree.
+     */
+    public List<SpellField> getFields()
+    {
+        List<SpellField> result = new ArrayList<SpellField>(fields.length);
+        Collections.addAll(result, fields);
+        return result;
+    }
+    
+    /**
+     * Finds the fields whose block bounds contain the passed point.
+     * @param x The X coördinate of the point.
+     * @param y The Y coördinate of the point.
+     * @param z The Z coördinate of the point.
+     * @param result The collection to add the fields found to.
+     */
+    public void getFieldsAt(double x, double y, double z, Collection<SpellField> result)
+    {
+        if(fields.length > 0)
+            getFieldsAt(0, fields.length, x, y, z, (int)Math.floor(y), result);
+    }
+    
+    private void getFieldsAt(int start, int end, double x, double y, double z, int blockY, Collection<SpellField> result)
+    {
+        while(start < end)
+        {
+            int middle = (start + end) >>> 1;
+            
+            // Nothing in this subtree reaches up as far as the point.
+            if(maxYs[middle] < blockY)
+                return;
+            
+            getFieldsAt(start, middle, x, y, z, blockY, result);
+            
+            // Everything from here on starts above the point.
+            if(fields[middle].minY > blockY)
+                return;
+            
+            if(fields[middle].boundsContain(x, y, z))
+                result.add(fields[middle]);
+            
+            start = middle + 1;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.haniitsu.arcanebooks.magic.mana;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.nbt.NBTTagCompound;
+
+/**
+ * Holds the mana stores of entities, loading them from the entities' NBT data when first needed and saving them back
+ * in batches when they've changed, and always when they're let go of, so mana regenerated since isn't lost.
+ *
+ * Stores are held by the entities' UUIDs, which stay the same when an entity's object is replaced, (e.g. when a player
+ * respawns, or an entity moves to another dimension) so a store isn't loaded twice or lost with an old object.
+ * Stores are let go of as entities die, their chunks unload, (see ManaStoreListener) or players log out.
+ */
+public class EntityManaStores
+{
+    /** A loaded mana store, and the latest object of the entity it belongs to, to save it to. */
+    protected static class HeldStore
+    {
+        /**
+         * Creates the held store.
+         * @param entity The entity the store belongs to.
+         * @param store The entity's mana store.
+         */
+        public HeldStore(Entity entity, ManaStore store)
+        {
+            this.entity = entity;
+            this.store  = store;
+        }
+        
+        /** The latest object of the entity the store belongs to. */
+        protected Entity entity;
+        
+        /** The entity's mana store. */
+        protected final ManaStore store;
+    }
+    
+    /** The name of the NBT tag mana stores are saved to on entities. */
+    public static final String nbtTagName = "ArcaneBooksMana";
+    
+    /** The number of ticks between saving changed mana stores to their entities. */
+    public static volatile int ticksBetweenSaves = 100;
+    
+    /** The loaded mana stores, by the UUIDs of their entities. */
+    protected final Map<UUID, HeldStore> stores = new HashMap<UUID, HeldStore>();
+    
+    /** The number of ticks since changed mana stores were last saved. */
+    protected int ticksSinceSave = 0;
+    
+    /**
+     * Gets the mana store of the passed entity, loading it from the entity's NBT data if it hasn't been yet.
+     * @param entity The entity to get the mana store of.
+     * @return The entity's mana store. If the entity hasn't had one before, a new, full one.
+     */
+    public ManaStore get(Entity entity)
+    {
+        synchronized(stores)
+        {
+            HeldStore held = stores.get(entity.getUniqueID());
+            
+            if(held == null)
+            {
+                NBTTagCompound data = getDataCompound(entity);
+                
+                ManaStore store = data.hasKey(nbtTagName) ? ManaStore.readFromNBT(data.getCompoundTag(nbtTagName))
+                                                          : new ManaStore();
+                
+                held = new HeldStore(entity, store);
+                stores.put(entity.getUniqueID(), held);
+            }
+            else
+                held.entity = entity; // So it's saved to the entity as it is now, rather than a replaced object.
+            
+            return held.store;
+        }
+    }
+    
+    /**
+     * Counts a tick towards the next save, and saves any changed mana stores if it's time to.
+     */
+    public void onServerTick()
+    {
+        if(++ticksSinceSave < ticksBetweenSaves)
+            return;
+        
+        ticksSinceSave = 0;
+        saveChanged();
+    }
+    
+    /**
+     * Saves all mana stores that have changed since they were last saved to their entities, and lets go of the stores
+     * of entities that have died. Players' stores are held onto until they log out, as they keep them through death.
+     */
+    public void saveChanged()
+    {
+        List<HeldStore> held = new ArrayList<HeldStore>();
+        
+        synchronized(stores)
+        {
+            for(Iterator<HeldStore> i = stores.values().iterator(); i.hasNext();)
+            {
+                HeldStore current = i.next();
+                held.add(current);
+                
+                if(current.entity.isDead && !(current.entity instanceof EntityPlayer))
+                    i.remove();
+            }
+        }
+        
+        for(HeldStore current : held)
+            if(current.store.clearDirty())
+                save(current.entity, current.store);
+    }
+    
+    /**
+     * Saves the mana store of the passed entity, and stops holding onto it. e.g. for when a player logs out. It's saved
+     * whether or not it's been marked as changed, as mana regenerated since it was last saved doesn't mark it.
+     * @param entity The entity to release the mana store of.
+     */
+    public void release(Entity entity)
+    {
+        HeldStore held;
+        
+        synchronized(stores)
+        { held = stores.remove(entity.getUniqueID()); }
+        
+        if(held == null)
+            return;
+        
+        held.store.clearDirty();
+        save(entity, held.store);
+    }
+    
+    /**
+     * Writes a mana store to its entity's NBT data.
+     * @param entity The entity to write the mana store to.
+     * @param store The entity's mana store.
+     */
+    protected void save(Entity entity, ManaStore store)
+    {
+        NBTTagCompound nbt = new NBTTagCompound();
+        store.writeToNBT(nbt);
+        getDataCompound(entity).setTag(nbtTagName, nbt);
+    }
+    
+    /**
+     * Gets the NBT compound mana stores are kept in for the passed entity. For players, this is the part of their data
+     * that's kept when they die.
+     * @param entity The entity to get the compound of.
+     * @return The compound to keep the entity's mana store in.
+     */
+    protected static NBTTagCompound getDataCompound(Entity entity)
+    {
+        NBTTagCompound data = entity.getEntityData();
+        
+        if(!(entity instanceof EntityPlayer))
+            return data;
+        
+        if(!data.hasKey(EntityPlayer.PERSISTED_NBT_TAG))
+            data.setTag(EntityPlayer.PERSISTED_NBT_TAG, new NBTTagCompound());
+        
+        return data.getCompoundTag(EntityPlayer.PERSISTED_NBT_TAG);
+    }
+}
@@ -1,12 +1,262 @@
 package com.haniitsu.arcanebooks.magic.mana;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.server.MinecraftServer;
+
 /**
  * Storage class for mana, used by spellcasters in casting spells.
+ *
+ * Mana regenerates over time, but isn't updated every tick. Instead, the store holds how much mana it had as of the
+ * last tick it was changed, and works out how much it has now from how many ticks have passed since then. The state
+ * is swapped out as a whole whenever it changes, so mana can be spent from any thread without locking.
  */
 public class ManaStore
 {
+    /**
+     * The state of a mana store as of a specific tick. Immutable.
+     */
+    protected static class State
+    {
+        /**
+         * Creates a new state.
+         * @param amount The amount of mana as of the passed tick.
+         * @param lastUpdateTick The tick the amount of mana is as of.
+         * @param regenRate How much mana regenerates per tick.
+         * @param max The most mana that can be held.
+         */
+        public State(double amount, long lastUpdateTick, double regenRate, double max)
+        {
+            this.amount         = amount;
+            this.lastUpdateTick = lastUpdateTick;
+            this.regenRate      = regenRate;
+            this.max            = max;
+        }
+
+        final double amount;
+        final long   lastUpdateTick;
+        final double regenRate;
+        final double max;
+
+        /**
+         * Gets the amount of mana held as of the passed tick, including what's regenerated since the last update.
+         * @param tick The tick to get the amount of mana as of.
+         * @return The amount of mana held.
+         */
+        public double getAmountAt(long tick)
+        {
+            if(amount >= max)
+                return max;
+
+            long ticksPassed = Math.max(tick - lastUpdateTick, 0);
+            return Math.min(max, amount + ticksPassed * regenRate);
+        }
+    }
+
+    /**
+     * Creates the store, full, with the default maximum and regeneration rate.
+     */
+    public ManaStore()
+    { this(defaultMax, defaultRegenRate); }
+
+    /**
+     * Creates the store, full.
+     * @param max The most mana that can be held.
+     * @param regenRate How much mana regenerates per tick.
+     */
+    public ManaStore(double max, double regenRate)
+    { this(max, max, regenRate); }
+
     /**
      * Creates the store.
+     * @param amount The amount of mana to start with.
+     * @param max The most mana that can be held.
+     * @param regenRate How much mana regenerates per tick.
+     */
+    public ManaStore(double amount, double max, double regenRate)
+    { state = new AtomicReference<State>(new State(Math.min(amount, max), getCurrentTick(), regenRate, max)); }
+
+    /** The most mana mana stores can hold, unless otherwise specified. */
+    public static volatile double defaultMax = 100;
+
+    /** How much mana mana stores regenerate per tick, unless otherwise specified. (1 per second) */
+    public static volatile double defaultRegenRate = 0.05;
+
+    /** The current state of the store. Replaced as a whole whenever anything changes. */
+    protected final AtomicReference<State> state;
+
+    /** Whether or not the store has changed since it was last saved. */
+    protected final AtomicBoolean dirty = new AtomicBoolean(false);
+
+    /**
+     * Gets the current tick, which mana regeneration is measured in.
+     * @return The number of ticks the server's been running for, or 0 if there's no server.
+     */
+    public static long getCurrentTick()
+    {
+        MinecraftServer server = MinecraftServer.getServer();
+        return server == null ? 0 : server.getTickCounter();
+    }
+
+    /**
+     * Gets the amount of mana currently held.
+     * @return The amount of mana held.
+     */
+    public double getAmount()
+    { return state.get().getAmountAt(getCurrentTick()); }
+
+    /**
+     * Gets the most mana that can be held.
+     * @return The maximum amount of mana.
+     */
+    public double getMax()
+    { return state.get().max; }
+
+    /**
+     * Gets how much mana regenerates per tick.
+     * @return The regeneration rate.
+     */
+    public double getRegenRate()
+    { return state.get().regenRate; }
+
+    /**
+     * Spends the passed amount of mana, if there's enough. The check and the spending happen as one, so two threads
+     * can't both spend the same mana.
+     * @param cost The amount of mana to spend.
+     * @return True if the mana was spent, or false if there wasn't enough.
+     */
+    public boolean trySpend(double cost)
+    {
+        long tick = getCurrentTick();
+
+        for(;;)
+        {
+            State current = state.get();
+            double amount = current.getAmountAt(tick);
+
+            if(amount < cost)
+                return false;
+
+            if(state.compareAndSet(current, new State(amount - cost, tick, current.regenRate, current.max)))
+            {
+                dirty.set(true);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gives back mana previously spent. e.g. where mana was reserved for a cast that didn't go ahead. This can't take
+     * the store over its maximum.
+     * @param amount The amount of mana to give back.
+     */
+    public void refund(double amount)
+    {
+        long tick = getCurrentTick();
+
+        for(;;)
+        {
+            State current = state.get();
+            double newAmount = Math.min(current.max, current.getAmountAt(tick) + amount);
+
+            if(state.compareAndSet(current, new State(newAmount, tick, current.regenRate, current.max)))
+                break;
+        }
+
+        dirty.set(true);
+    }
+
+    /**
+     * Sets the amount of mana currently held.
+     * @param amount The new amount of mana. This is capped at the store's maximum.
+     */
+    public void setAmount(double amount)
+    {
+        for(;;)
+        {
+            State current = state.get();
+
+            if(state.compareAndSet(current, new State(Math.min(amount, current.max), getCurrentTick(),
+                                                      current.regenRate, current.max)))
+                break;
+        }
+
+        dirty.set(true);
+    }
+
+    /**
+     * Sets the most mana that can be held. If the store holds more than the new maximum, it's reduced to it.
+     * @param max The new maximum amount of mana.
+     */
+    public void setMax(double max)
+    {
+        long tick = getCurrentTick();
+
+        for(;;)
+        {
+            State current = state.get();
+            double amount = Math.min(current.getAmountAt(tick), max);
+
+            if(state.compareAndSet(current, new State(amount, tick, current.regenRate, max)))
+                break;
+        }
+
+        dirty.set(true);
+    }
+
+    /**
+     * Sets how much mana regenerates per tick. Mana regenerated up until now is regenerated at the old rate.
+     * @param regenRate The new regeneration rate.
+     */
+    public void setRegenRate(double regenRate)
+    {
+        long tick = getCurrentTick();
+
+        for(;;)
+        {
+            State current = state.get();
+
+            if(state.compareAndSet(current, new State(current.getAmountAt(tick), tick, regenRate, current.max)))
+                break;
+        }
+
+        dirty.set(true);
+    }
+
+    /**
+     * Gets whether or not the store has changed since it was last saved. Regenerating mana doesn't count as a change.
+     * @return True if the store has unsaved changes, otherwise false.
+     */
+    public boolean isDirty()
+    { return dirty.get(); }
+
+    /**
+     * Marks the store as saved, and gets whether it had unsaved changes.
+     * @return True if the store had unsaved changes, otherwise false.
+     */
+    public boolean clearDirty()
+    { return dirty.getAndSet(false); }
+
+    /**
+     * Writes the store to NBT.
+     * @param nbt The compound to write the store to.
+     */
+    public void writeToNBT(NBTTagCompound nbt)
+    {
+        State current = state.get();
+
+        // Ticks don't carry over between server runs, so the amount is saved as of now rather than alongside a tick.
+        nbt.setDouble("Amount",    current.getAmountAt(getCurrentTick()));
+        nbt.setDouble("Max",       current.max);
+        nbt.setDouble("RegenRate", current.regenRate);
+    }
+
+    /**
+     * Reads a store from NBT.
+     * @param nbt The compound the store was written to.
+     * @return The store read.
      */
-    public ManaStore() {}
-}
\ No newline at end of file
+    public static ManaStore readFromNBT(NBTTagCompound nbt)
+    { return new ManaStore(nbt.getDouble("Amount"), nbt.getDouble("Max"), nbt.getDouble("RegenRate")); }
+}
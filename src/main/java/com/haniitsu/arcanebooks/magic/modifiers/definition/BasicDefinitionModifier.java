@@ -24,8 +24,14 @@ public class BasicDefinitionModifier implements SpellEffectDefinitionModifier
         this.value = value;
         List<SpellEffectDefinitionModifier> args = new ArrayList<SpellEffectDefinitionModifier>(arguments);
         
+        // The passed arguments will already contain the value modifier if they came from a copy - don't add it twice.
         if(value != null)
-            args.add(new ModifierValueDefinitionModifier(value));
+        {
+            ModifierValueDefinitionModifier valueModifier = new ModifierValueDefinitionModifier(value);
+            
+            if(!args.contains(valueModifier))
+                args.add(valueModifier);
+        }
         
         this.arguments = Collections.unmodifiableList(args);
     }
@@ -107,6 +113,31 @@ public class BasicDefinitionModifier implements SpellEffectDefinitionModifier
     public BasicDefinitionModifier getCopyWithNewModifiers(List<SpellEffectDefinitionModifier> newModifiers)
     { return new BasicDefinitionModifier(name, value, newModifiers); }
     
+    @Override
+    public int hashCode()
+    {
+        int hash = 5;
+        hash = 59 * hash + this.name.hashCode();
+        hash = 59 * hash + (this.value != null ? this.value.hashCode() : 0);
+        hash = 59 * hash + this.arguments.hashCode();
+        return hash;
+    }
+    
+    @Override
+    public boolean equals(Object obj)
+    {
+        if(obj == null)
+            return false;
+        if(getClass() != obj.getClass())
+            return false;
+        final BasicDefinitionModifier other = (BasicDefinitionModifier)obj;
+        if(!this.name.equals(other.name))
+            return false;
+        if(this.value == null ? other.value != null : !this.value.equals(other.value))
+            return false;
+        return this.arguments.equals(other.arguments);
+    }
+    
     @Override
     public String toString()
     {
@@ -70,6 +70,21 @@ public class LogicalCheckDefinitionModifier implements SpellEffectDefinitionModi
     public LogicalCheckDefinitionModifier getCopyWithNewModifiers(List<SpellEffectDefinitionModifier> newModifiers)
     { return new LogicalCheckDefinitionModifier(name); }
     
+    @Override
+    public int hashCode()
+    { return name.hashCode(); }
+    
+    @Override
+    public boolean equals(Object obj)
+    {
+        if(obj == null)
+            return false;
+        if(getClass() != obj.getClass())
+            return false;
+        
+        return ((LogicalCheckDefinitionModifier)obj).name.equals(this.name);
+    }
+    
     /**
      * Gets the name of the modifier as a string.
      * @return This as a string.
@@ -85,6 +85,21 @@ public class NumericDefinitionModifier implements SpellEffectDefinitionModifier
     public NumericDefinitionModifier getCopyWithNewModifiers(List<SpellEffectDefinitionModifier> newModifiers)
     { return new NumericDefinitionModifier(name); }
     
+    @Override
+    public int hashCode()
+    { return (int)(Double.doubleToLongBits(this.name) ^ (Double.doubleToLongBits(this.name) >>> 32)); }
+    
+    @Override
+    public boolean equals(Object obj)
+    {
+        if(obj == null)
+            return false;
+        if(getClass() != obj.getClass())
+            return false;
+        
+        return Double.doubleToLongBits(((NumericDefinitionModifier)obj).name) == Double.doubleToLongBits(this.name);
+    }
+    
     /**
      * Gets the value (name) of the modifier as a string.
      * @return This as a string.
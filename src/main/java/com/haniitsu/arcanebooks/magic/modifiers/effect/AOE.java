@@ -1,5 +1,6 @@
 package com.haniitsu.arcanebooks.magic.modifiers.effect;
 
+import com.haniitsu.arcanebooks.magic.SpellWordIds;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -16,12 +17,19 @@ public class AOE implements SpellEffectModifier
      * Creates a new AOE.
      * @param name The name of the AOE.
      */
-    public AOE(String name) { this.name = name; }
+    public AOE(String name)
+    {
+        this.name   = name;
+        spellWordId = new SpellWordIds.Id(SpellWordIds.modifierKey(groupName, name));
+    }
     
     final protected String name;
     
     final static protected String groupName = "AOE";
     
+    /** Looks up the spell word id of this modifier. */
+    private final SpellWordIds.Id spellWordId;
+    
     /** Targets only the entity/block the spell burst at. */
     public static final AOE targetOnly;
     
@@ -50,17 +58,21 @@ public class AOE implements SpellEffectModifier
         // Should be a set that checks reference equality rather than .equals equality.
         values = Collections.newSetFromMap(new IdentityHashMap<AOE, Boolean>());
         
-        values.add(targetOnly);
-        values.add(aroundTarget);
-        values.add(targetAndAroundTarget);
+        addValue(targetOnly);
+        addValue(aroundTarget);
+        addValue(targetAndAroundTarget);
     }
     
     /**
      * Adds a new AOE value to the pseudo-enum, such that it's included in calls to .getValues().
+     * Gives it its spell word id.
      * @param aoe The AOE value to add.
      */
     public static void addValue(AOE aoe)
-    { values.add(aoe); }
+    {
+        if(values.add(aoe))
+            SpellWordIds.register(aoe.spellWordId.getKey());
+    }
     
     /**
      * Gets all possible AOE values, including ones added by third parties.
@@ -76,4 +88,8 @@ public class AOE implements SpellEffectModifier
     @Override
     public String getModifierGroupName()
     { return groupName; }
+    
+    @Override
+    public int getSpellWordId()
+    { return spellWordId.get(); }
 }
\ No newline at end of file
@@ -1,9 +1,12 @@
 package com.haniitsu.arcanebooks.magic.modifiers.effect;
 
+import com.haniitsu.arcanebooks.magic.SpellWordIds;
 import com.haniitsu.arcanebooks.misc.BlockLocation;
 import com.haniitsu.arcanebooks.misc.Direction;
+import com.haniitsu.arcanebooks.misc.LoadedChunks;
 import com.haniitsu.arcanebooks.misc.Location;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -32,7 +35,11 @@ public abstract class AOEShape implements SpellEffectModifier
      * @param AOESizeModifier The AOE size multiplier of the shape, where 1.0 is no change.
      */
     public AOEShape(String name, double AOESizeModifier)
-    { this.AOESizeModifier = AOESizeModifier; this.name = name;}
+    {
+        this.AOESizeModifier = AOESizeModifier;
+        this.name            = name;
+        spellWordId          = new SpellWordIds.Id(SpellWordIds.modifierKey(groupName, name));
+    }
     
     /** The size multiplier for this AOE shape. */
     protected final double AOESizeModifier;
@@ -41,6 +48,9 @@ public abstract class AOEShape implements SpellEffectModifier
     
     final static protected String groupName = "AOEShape";
     
+    /** Looks up the spell word id of this modifier. */
+    private final SpellWordIds.Id spellWordId;
+    
     /** Targets entities and blocks in a sphere, with the target location at the centre. */
     public static final AOEShape around;
     
@@ -61,15 +71,19 @@ public abstract class AOEShape implements SpellEffectModifier
         // Should be a set that checks reference equality rather than .equals equality.
         values = Collections.newSetFromMap(new IdentityHashMap<AOEShape, Boolean>());
         
-        values.add(around);
+        addValue(around);
     }
     
     /**
      * Adds a new AOE shape to the pseudo-enum, such that it's included in calls to .getValues().
+     * Gives it its spell word id.
      * @param shape The AOE shape to add.
      */
     public static void addValue(AOEShape shape)
-    { values.add(shape); }
+    {
+        if(values.add(shape))
+            SpellWordIds.register(shape.spellWordId.getKey());
+    }
     
     @Override
     public String getModifierName()
@@ -79,6 +93,10 @@ public abstract class AOEShape implements SpellEffectModifier
     public String getModifierGroupName()
     { return groupName; }
     
+    @Override
+    public int getSpellWordId()
+    { return spellWordId.get(); }
+    
     /**
      * Gets all possible AOE shapes, including ones added by third parties.
      * @return A collection of all possible AOE shapes.
@@ -103,13 +121,37 @@ public abstract class AOEShape implements SpellEffectModifier
                 double distanceX = checkLocation.getX() - burstLocation.getX();
                 double distanceY = checkLocation.getY() - burstLocation.getY();
                 double distanceZ = checkLocation.getZ() - burstLocation.getZ();
-
+                
                 // Squaring that extra time is cheaper than square-rooting the XYZ distance.
                 return ((distanceX * distanceX) + (distanceY * distanceY) + (distanceZ * distanceZ)) <= (AOESize * AOESize);
             }
+            
+            @Override
+            public boolean isTranslationInvariant()
+            { return true; }
+            
+            @Override
+            public long getMaxBlocksCovered(double AOESize)
+            {
+                // Each block covered has its centre within AOESize of the burst location, so the whole block is within
+                // AOESize + half a block's diagonal of it. The blocks don't overlap, so can't take up more than that ball.
+                double radius = AOESize + (Math.sqrt(3) / 2);
+                long   inBall = (long)Math.floor((4.0 / 3.0) * Math.PI * radius * radius * radius);
+                return Math.min(inBall, super.getMaxBlocksCovered(AOESize));
+            }
         };
     }
     
+    /**
+     * Gets whether this AOE shape covers the same blocks relative to the burst location wherever it's burst, as long as
+     * it's burst at the same point within a block. If so, the blocks it covers can be worked out once and moved around
+     * rather than worked out again for each burst. (see BurstGeometryCache) Shapes that depend on where in the world
+     * they are, (e.g. that stop at sea level) should leave this as false.
+     * @return True if coversLocation only depends on the check location's position relative to the burst location.
+     */
+    public boolean isTranslationInvariant()
+    { return false; }
+    
     /**
      * Gets the size multiplier for this AOE shape.
      * @return The size multiplier.
@@ -120,6 +162,7 @@ public abstract class AOEShape implements SpellEffectModifier
     /**
      * Gets all entities within the shape (of the passed size) of the AOE with the passed burst location at the centre.
      * @note Limits search to relevant chunks, and checks all entities in those chunks to see if they're within the AOE.
+     * Chunks that aren't loaded are skipped rather than loaded.
      * @param AOESize The size of the AOE in metres.
      * @param burstLocation The centre-point of the AOE shape; the place where the spell effect was burst.
      * @param burstDirection The direction the spell burst was facing in.
@@ -127,41 +170,87 @@ public abstract class AOEShape implements SpellEffectModifier
      * passed location. with the passed size and direction.
      */
     public Collection<Entity> getEntitiesInRange(double AOESize, Location burstLocation, Direction burstDirection)
+    { return getEntitiesInRange(AOESize, burstLocation, burstDirection, null); }
+    
+    /**
+     * Gets all entities within the shape (of the passed size) of the AOE with the passed burst location at the centre.
+     * @note Limits search to relevant chunks, and checks all entities in those chunks to see if they're within the AOE.
+     * Chunks that aren't loaded are skipped rather than loaded.
+     * @param AOESize The size of the AOE in metres.
+     * @param burstLocation The centre-point of the AOE shape; the place where the spell effect was burst.
+     * @param burstDirection The direction the spell burst was facing in.
+     * @param skippedChunks The collection to add the keys (as per LoadedChunks.getChunkKey) of any chunks skipped for
+     * not being loaded to, or null if they don't need to be known.
+     * @return A collection of all the entities that should be affected by a spell cast with this AOE shape, at the
+     * passed location. with the passed size and direction.
+     */
+    public Collection<Entity> getEntitiesInRange(double AOESize, Location burstLocation, Direction burstDirection,
+                                                 Collection<Long> skippedChunks)
     {
         Collection<Entity> entitiesInRange = new HashSet<Entity>();
         Collection<Chunk> affectedChunks = new HashSet<Chunk>();
-        int chunkSize = 16;
         
         BlockLocation burstBlockLocation = burstLocation.toBlockLocation();
         World world = burstBlockLocation.getWorld();
         
+        if(world == null)
+            return entitiesInRange;
+        
         // Y isn't used, so I've 0'd it. These are only used in determining relevant chunks.
         BlockLocation minAffectedBlock = new Location(burstLocation.getX() - AOESize, 0, burstLocation.getZ() - AOESize).toBlockLocation();
         BlockLocation maxAffectedBlock = new Location(burstLocation.getX() + AOESize, 0, burstLocation.getZ() + AOESize).toBlockLocation();
-        int xDistance = maxAffectedBlock.getX() - minAffectedBlock.getX();
-        int zDistance = maxAffectedBlock.getZ() - maxAffectedBlock.getZ();
         
-        for(int xAdjustment = 0; xAdjustment <= xDistance; xAdjustment += chunkSize)
-            for(int zAdjustment = 0; zAdjustment <= zDistance; zAdjustment += chunkSize)
-                affectedChunks.add(world.getChunkFromBlockCoords(minAffectedBlock.getX() + xAdjustment, minAffectedBlock.getZ() + zAdjustment));
-        
-        Collection<Entity> possibleEntities = new HashSet<Entity>();
+        // Going by chunk coördinates rather than stepping 16 blocks at a time, which could miss the last chunk.
+        for(int chunkX = minAffectedBlock.getX() >> 4; chunkX <= maxAffectedBlock.getX() >> 4; chunkX++)
+            for(int chunkZ = minAffectedBlock.getZ() >> 4; chunkZ <= maxAffectedBlock.getZ() >> 4; chunkZ++)
+            {
+                if(LoadedChunks.isChunkLoaded(world, chunkX, chunkZ))
+                    affectedChunks.add(world.getChunkFromChunkCoords(chunkX, chunkZ));
+                else if(skippedChunks != null)
+                    skippedChunks.add(LoadedChunks.getChunkKey(chunkX, chunkZ));
+            }
         
-        // The following code is written under the assumption that lists in the array returned by chunk.entityLists may
-        // only be populated by instances of Entity. Please tell me if I'm wrong about this, but I don't think i am?
         for(Chunk chunk : affectedChunks)
-            for(List list : chunk.entityLists)
-                possibleEntities.addAll(list);
-        
-        for(Entity entity : possibleEntities)
-            if(coversLocation(AOESize, burstLocation, burstDirection, new Location(world, entity.posX, entity.posY, entity.posZ)))
-                entitiesInRange.add(entity);
+            addEntitiesInChunk(AOESize, burstLocation, burstDirection, chunk, entitiesInRange);
         
         return entitiesInRange;
     }
     
+    /**
+     * Gets the entities within the shape (of the passed size) of the AOE that are in a single chunk. This doesn't check
+     * whether the chunk is loaded - that should be done first.
+     * @param AOESize The size of the AOE in metres.
+     * @param burstLocation The centre-point of the AOE shape; the place where the spell effect was burst.
+     * @param burstDirection The direction the spell burst was facing in.
+     * @param chunk The chunk.
+     * @return The entities in the chunk that should be affected by a spell cast with this AOE shape.
+     */
+    public Collection<Entity> getEntitiesInRangeInChunk(double AOESize, Location burstLocation,
+                                                        Direction burstDirection, Chunk chunk)
+    {
+        Collection<Entity> entitiesInRange = new HashSet<Entity>();
+        addEntitiesInChunk(AOESize, burstLocation, burstDirection, chunk, entitiesInRange);
+        return entitiesInRange;
+    }
+    
+    private void addEntitiesInChunk(double AOESize, Location burstLocation, Direction burstDirection, Chunk chunk,
+                                    Collection<Entity> entitiesInRange)
+    {
+        // The following code is written under the assumption that lists in the array returned by chunk.entityLists may
+        // only be populated by instances of Entity. Please tell me if I'm wrong about this, but I don't think i am?
+        for(List list : chunk.entityLists)
+            for(Object i : list)
+            {
+                Entity entity = (Entity)i;
+                
+                if(coversLocation(AOESize, burstLocation, burstDirection, new Location(chunk.worldObj, entity.posX, entity.posY, entity.posZ)))
+                    entitiesInRange.add(entity);
+            }
+    }
+    
     /**
      * Gets all blocks within the shape (of the passed size) of the AOE with the passed burst location at the centre.
+     * Blocks in chunks that aren't loaded are left out.
      * @param AOESize The size of the AOE in metres.
      * @param burstLocation The centre-point of the AOE shape; the place where the spell effect was burst.
      * @param burstDirection The direction the spell burst was facing in.
@@ -169,6 +258,21 @@ public abstract class AOEShape implements SpellEffectModifier
      * a spell cast with this AOE shape, at the passed location, with the passed size and direction.
      */
     public Collection<BlockLocation> getBlocksInRange(double AOESize, Location burstLocation, Direction burstDirection)
+    { return getBlocksInRange(AOESize, burstLocation, burstDirection, null); }
+    
+    /**
+     * Gets all blocks within the shape (of the passed size) of the AOE with the passed burst location at the centre.
+     * Blocks in chunks that aren't loaded are left out.
+     * @param AOESize The size of the AOE in metres.
+     * @param burstLocation The centre-point of the AOE shape; the place where the spell effect was burst.
+     * @param burstDirection The direction the spell burst was facing in.
+     * @param skippedChunks The collection to add the keys (as per LoadedChunks.getChunkKey) of any chunks skipped for
+     * not being loaded to, or null if they don't need to be known.
+     * @return A collection of BlockLocations representing all of the blocks in the world that should be affected by
+     * a spell cast with this AOE shape, at the passed location, with the passed size and direction.
+     */
+    public Collection<BlockLocation> getBlocksInRange(double AOESize, Location burstLocation, Direction burstDirection,
+                                                      Collection<Long> skippedChunks)
     {
         BlockLocation min = new Location(burstLocation.getX() - AOESize,
                                          burstLocation.getY() - AOESize,
@@ -179,15 +283,112 @@ public abstract class AOEShape implements SpellEffectModifier
                                          burstLocation.getZ() + AOESize).toBlockLocation();
         
         Collection<BlockLocation> blocks = new HashSet<BlockLocation>();
+        World world = burstLocation.getWorld();
+        
+        // Chunk by chunk, so whether each chunk's loaded is only checked once, and unloaded chunks can be skipped whole.
+        for(int chunkX = min.getX() >> 4; chunkX <= max.getX() >> 4; chunkX++)
+            for(int chunkZ = min.getZ() >> 4; chunkZ <= max.getZ() >> 4; chunkZ++)
+            {
+                if(LoadedChunks.isChunkLoaded(world, chunkX, chunkZ))
+                    addBlocksInChunk(AOESize, burstLocation, burstDirection, chunkX, chunkZ, min, max, blocks);
+                else if(skippedChunks != null)
+                    skippedChunks.add(LoadedChunks.getChunkKey(chunkX, chunkZ));
+            }
+        
+        return blocks;
+    }
+    
+    /**
+     * Gets the blocks within the shape (of the passed size) of the AOE that are in a single chunk. This doesn't check
+     * whether the chunk is loaded - that should be done first.
+     * @param AOESize The size of the AOE in metres.
+     * @param burstLocation The centre-point of the AOE shape; the place where the spell effect was burst.
+     * @param burstDirection The direction the spell burst was facing in.
+     * @param chunkX The X coördinate of the chunk.
+     * @param chunkZ The Z coördinate of the chunk.
+     * @return The blocks in the chunk that should be affected by a spell cast with this AOE shape.
+     */
+    public Collection<BlockLocation> getBlocksInRangeInChunk(double AOESize, Location burstLocation,
+                                                             Direction burstDirection, int chunkX, int chunkZ)
+    {
+        BlockLocation min = new Location(burstLocation.getX() - AOESize,
+                                         burstLocation.getY() - AOESize,
+                                         burstLocation.getZ() - AOESize).toBlockLocation();
+        
+        BlockLocation max = new Location(burstLocation.getX() + AOESize,
+                                         burstLocation.getY() + AOESize,
+                                         burstLocation.getZ() + AOESize).toBlockLocation();
+        
+        Collection<BlockLocation> blocks = new HashSet<BlockLocation>();
+        addBlocksInChunk(AOESize, burstLocation, burstDirection, chunkX, chunkZ, min, max, blocks);
+        return blocks;
+    }
+    
+    private void addBlocksInChunk(double AOESize, Location burstLocation, Direction burstDirection, int chunkX,
+                                  int chunkZ, BlockLocation min, BlockLocation max, Collection<BlockLocation> blocks)
+    {
         int worldId = burstLocation.getWorldId();
+        int minX = Math.max(min.getX(), chunkX << 4), maxX = Math.min(max.getX(), (chunkX << 4) + 15);
+        int minZ = Math.max(min.getZ(), chunkZ << 4), maxZ = Math.min(max.getZ(), (chunkZ << 4) + 15);
         
-        for(int x = min.getX(); x <= max.getX(); x++)
+        for(int x = minX; x <= maxX; x++)
             for(int y = min.getY(); y <= max.getY(); y++)
-                for(int z = min.getZ(); z <= max.getZ(); z++)
+                for(int z = minZ; z <= maxZ; z++)
                     if(coversLocation(AOESize, burstLocation, burstDirection, new Location(worldId, 0.5 + x, 0.5 + y, 0.5 + z)))
                         blocks.add(new BlockLocation(worldId, x, y, z));
+    }
+    
+    /**
+     * Gets the blocks within the shape (of the passed size) of the AOE, relative to the block the burst location is in.
+     * This doesn't look at the world at all, so doesn't care whether any chunks are loaded.
+     * @param AOESize The size of the AOE in metres.
+     * @param burstLocation The centre-point of the AOE shape; the place where the spell effect was burst.
+     * @param burstDirection The direction the spell burst was facing in.
+     * @return The X, Y and Z offsets of each block covered from the burst location's block, one after the other.
+     */
+    public int[] getBlockOffsetsInRange(double AOESize, Location burstLocation, Direction burstDirection)
+    {
+        int burstX = (int)Math.floor(burstLocation.getX());
+        int burstY = (int)Math.floor(burstLocation.getY());
+        int burstZ = (int)Math.floor(burstLocation.getZ());
         
-        return blocks;
+        int minX = (int)Math.floor(burstLocation.getX() - AOESize), maxX = (int)Math.floor(burstLocation.getX() + AOESize);
+        int minY = (int)Math.floor(burstLocation.getY() - AOESize), maxY = (int)Math.floor(burstLocation.getY() + AOESize);
+        int minZ = (int)Math.floor(burstLocation.getZ() - AOESize), maxZ = (int)Math.floor(burstLocation.getZ() + AOESize);
+        
+        int[] offsets = new int[24];
+        int count = 0;
+        
+        for(int x = minX; x <= maxX; x++)
+            for(int y = minY; y <= maxY; y++)
+                for(int z = minZ; z <= maxZ; z++)
+                    if(coversLocation(AOESize, burstLocation, burstDirection, new Location(0.5 + x, 0.5 + y, 0.5 + z)))
+                    {
+                        if(count + 3 > offsets.length)
+                            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                        
+                        offsets[count++] = x - burstX;
+                        offsets[count++] = y - burstY;
+                        offsets[count++] = z - burstZ;
+                    }
+        
+        return Arrays.copyOf(offsets, count);
+    }
+    
+    /**
+     * Gets the most blocks this AOE shape of the passed size could cover, wherever it's burst and whichever direction
+     * it's facing in. Only blocks within the AOE size of the burst location on each axis are ever checked, (see
+     * getBlocksInRange) so this is the number of blocks in that box, which holds for any shape. Shapes that cover less
+     * than their box can override this with a tighter bound, as long as it still holds for every burst location and
+     * direction.
+     * @param AOESize The size of the AOE in metres.
+     * @return The most blocks the AOE shape covers.
+     */
+    public long getMaxBlocksCovered(double AOESize)
+    {
+        // A span of 2 * AOESize can touch at most floor(2 * AOESize) + 2 blocks along an axis.
+        long blocksPerAxis = (long)Math.floor(2 * AOESize) + 2;
+        return blocksPerAxis * blocksPerAxis * blocksPerAxis;
     }
     
     /**
@@ -1,5 +1,6 @@
 package com.haniitsu.arcanebooks.magic.modifiers.effect;
 
+import com.haniitsu.arcanebooks.magic.SpellWordIds;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -17,7 +18,11 @@ public class AOESize implements SpellEffectModifier
      * @param distanceEffective How far away from the centre point this AOE size should be able to affect, in metres.
      */
     public AOESize(String name, int distanceEffective)
-    { distance = distanceEffective; this.name = name;}
+    {
+        distance    = distanceEffective;
+        this.name   = name;
+        spellWordId = new SpellWordIds.Id(SpellWordIds.modifierKey(groupName, name));
+    }
     
     /** How far away from the centre point this AOE size should be able to affect, in metres */
     protected final double distance;
@@ -26,6 +31,9 @@ public class AOESize implements SpellEffectModifier
     
     final static protected String groupName = "AOESize";
     
+    /** Looks up the spell word id of this modifier. */
+    private final SpellWordIds.Id spellWordId;
+    
     /** The smallest possible distance affectable. */
     public static final AOESize tiny;
     
@@ -62,19 +70,23 @@ public class AOESize implements SpellEffectModifier
         // Should be a set that checks reference equality rather than .equals equality.
         values = Collections.newSetFromMap(new IdentityHashMap<AOESize, Boolean>());
         
-        values.add(tiny);
-        values.add(small);
-        values.add(normal);
-        values.add(big);
-        values.add(huge);
+        addValue(tiny);
+        addValue(small);
+        addValue(normal);
+        addValue(big);
+        addValue(huge);
     }
     
     /**
      * Adds a new AOE size to the pseudo-enum, such that it's included in calls to .getValues().
+     * Gives it its spell word id.
      * @param size The AOE size to add.
      */
     public static void addValue(AOESize size)
-    { values.add(size); }
+    {
+        if(values.add(size))
+            SpellWordIds.register(size.spellWordId.getKey());
+    }
     
     /**
      * Gets all possible AOE sizes, including ones added by third parties.
@@ -98,4 +110,8 @@ public class AOESize implements SpellEffectModifier
     @Override
     public String getModifierGroupName()
     { return groupName; }
+    
+    @Override
+    public int getSpellWordId()
+    { return spellWordId.get(); }
 }
\ No newline at end of file
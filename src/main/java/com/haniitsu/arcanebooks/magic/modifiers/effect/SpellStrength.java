@@ -1,5 +1,6 @@
 package com.haniitsu.arcanebooks.magic.modifiers.effect;
 
+import com.haniitsu.arcanebooks.magic.SpellWordIds;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -17,7 +18,11 @@ public class SpellStrength implements SpellEffectModifier
      * @param strengthModifier Abstract multiplier determining how weak or strong any spell effect should be.
      */
     public SpellStrength(String name, double strengthModifier)
-    { this.strengthModifier = strengthModifier; this.name = name; }
+    {
+        this.strengthModifier = strengthModifier;
+        this.name             = name;
+        spellWordId           = new SpellWordIds.Id(SpellWordIds.modifierKey(groupName, name));
+    }
     
     /** Abstract multiplier determining how weak or strong any spell effect should be. */
     protected final double strengthModifier;
@@ -26,6 +31,9 @@ public class SpellStrength implements SpellEffectModifier
     
     final static protected String groupName = "SpellStrength";
     
+    /** Looks up the spell word id of this modifier. */
+    private final SpellWordIds.Id spellWordId;
+    
     /** The weakest possible spell strength. */
     public static final SpellStrength veryWeak;
     
@@ -62,19 +70,23 @@ public class SpellStrength implements SpellEffectModifier
         // Should be a set that checks reference equality rather than .equals equality.
         values = Collections.newSetFromMap(new IdentityHashMap<SpellStrength, Boolean>());
         
-        values.add(veryWeak);
-        values.add(weak);
-        values.add(normal);
-        values.add(strong);
-        values.add(veryStrong);
+        addValue(veryWeak);
+        addValue(weak);
+        addValue(normal);
+        addValue(strong);
+        addValue(veryStrong);
     }
     
     /**
      * Adds a new spell strength to the pseudo-enum, such that it's included in calls to .getValues().
+     * Gives it its spell word id.
      * @param strength The spell strength to add.
      */
     public static void addValue(SpellStrength strength)
-    { values.add(strength); }
+    {
+        if(values.add(strength))
+            SpellWordIds.register(strength.spellWordId.getKey());
+    }
     
     /**
      * Gets all possible spell strengths, including ones added by third parties.
@@ -97,4 +109,8 @@ public class SpellStrength implements SpellEffectModifier
     @Override
     public String getModifierGroupName()
     { return groupName; }
+    
+    @Override
+    public int getSpellWordId()
+    { return spellWordId.get(); }
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package com.haniitsu.arcanebooks.magic.modifiers.effect;
 
+import com.haniitsu.arcanebooks.magic.SpellWordIds;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -17,18 +18,36 @@ public class SpellTarget implements SpellEffectModifier
      * @param name The modifier name.
      */
     public SpellTarget(String name)
-    { this.name = name; }
+    {
+        this.name   = name;
+        spellWordId = new SpellWordIds.Id(SpellWordIds.modifierKey(groupName, name));
+    }
     
     protected final String name;
     
     final static protected String groupName = "SpellTarget";
     
+    /** Looks up the spell word id of this modifier. */
+    private final SpellWordIds.Id spellWordId;
+    
     /** Targets the person who cast the spell. */
     public static final SpellTarget self;
     
     /** Encloses the spell in a projectile, and targets the block/entity/location the projectile hits. */
     public static final SpellTarget projectile;
     
+    /**
+     * Attaches the spell to the caster for a while as an aura, affecting entities as they come near the caster. (see
+     * AuraManager)
+     */
+    public static final SpellTarget aura;
+    
+    /**
+     * Leaves the spell in the area around the caster for a while as a field, affecting entities within it. (see
+     * SpellFieldIndex)
+     */
+    public static final SpellTarget field;
+    
     /** The spell targeting mechanism used when none is specified. */
     public static final SpellTarget defaultValue;
     
@@ -41,21 +60,29 @@ public class SpellTarget implements SpellEffectModifier
         // Has to be down here rather than at the top of the class to avoid illegal forward references.
         self       = new SpellTarget("self");
         projectile = new SpellTarget("projectile");
+        aura       = new SpellTarget("aura");
+        field      = new SpellTarget("field");
         
         defaultValue = self;
         
         // Should be a set that checks reference equality rather than .equals equality.
         values = Collections.newSetFromMap(new IdentityHashMap<SpellTarget, Boolean>());
         
-        values.add(self);
-        values.add(projectile);
+        addValue(self);
+        addValue(projectile);
+        addValue(aura);
+        addValue(field);
     }
     /**
      * Adds a new spell targeting mechanism to the pseudo-enum, such that it's included in calls to .getValues().
+     * Gives it its spell word id.
      * @param target The SpellTarget to add.
      */
     public static void addValue(SpellTarget target)
-    { values.add(target); }
+    {
+        if(values.add(target))
+            SpellWordIds.register(target.spellWordId.getKey());
+    }
     
     /**
      * Gets all possible spell targeting mechanisms, including ones added by third parties.
@@ -71,4 +98,8 @@ public class SpellTarget implements SpellEffectModifier
     @Override
     public String getModifierGroupName()
     { return groupName; }
+    
+    @Override
+    public int getSpellWordId()
+    { return spellWordId.get(); }
 }
\ No newline at end of file
@@ -84,6 +84,14 @@ public class BlockLocation
     public World getWorld()
     { return DimensionManager.getWorld(worldId); }
     
+    /**
+     * Gets whether the chunk the block this represents is in is loaded. Getting or setting the block when it isn't
+     * will load the chunk, so this should be checked first wherever the block could be outside of the loaded world.
+     * @return True if the block's chunk is loaded, otherwise false.
+     */
+    public boolean isLoaded()
+    { return LoadedChunks.isBlockLoaded(getWorld(), x, z); }
+    
     /**
      * Gets the X coördinate of the block this represents.
      * @return The block's X coördinate.
@@ -244,6 +252,7 @@ public class BlockLocation
     {
         int hash = 7;
         hash = 13 * hash + this.worldId;
+        hash = 13 * hash + this.x;
         hash = 13 * hash + this.y;
         hash = 13 * hash + this.z;
         return hash;
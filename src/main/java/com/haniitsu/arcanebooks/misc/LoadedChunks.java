@@ -0,0 +1,67 @@
+package com.haniitsu.arcanebooks.misc;
+
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.IChunkProvider;
+
+/**
+ * Checks for whether chunks are loaded, without loading them. Calling world.getBlock, world.getChunkFromBlockCoords,
+ * etc. on a chunk that isn't loaded loads it there and then (or generates it, if it's never been generated) which
+ * can stall the server for a while - so anything looking through an area that might reach into unloaded chunks (like
+ * a spell burst's AOE) should check with this first.
+ */
+public final class LoadedChunks
+{
+    private LoadedChunks()
+    { }
+    
+    /**
+     * Gets a single number identifying a chunk from its chunk coördinates.
+     * @param chunkX The chunk's X coördinate.
+     * @param chunkZ The chunk's Z coördinate.
+     * @return The chunk's key.
+     */
+    public static long getChunkKey(int chunkX, int chunkZ)
+    { return ((long)chunkX << 32) | (chunkZ & 0xFFFFFFFFL); }
+    
+    /**
+     * Gets the X coördinate of a chunk from its key.
+     * @param chunkKey The chunk's key, as per getChunkKey.
+     * @return The chunk's X coördinate.
+     */
+    public static int getChunkX(long chunkKey)
+    { return (int)(chunkKey >> 32); }
+    
+    /**
+     * Gets the Z coördinate of a chunk from its key.
+     * @param chunkKey The chunk's key, as per getChunkKey.
+     * @return The chunk's Z coördinate.
+     */
+    public static int getChunkZ(long chunkKey)
+    { return (int)chunkKey; }
+    
+    /**
+     * Checks whether a chunk is loaded, without loading it.
+     * @param world The world the chunk is in.
+     * @param chunkX The chunk's X coördinate.
+     * @param chunkZ The chunk's Z coördinate.
+     * @return True if the chunk is loaded, otherwise false. Also false if the world is null.
+     */
+    public static boolean isChunkLoaded(World world, int chunkX, int chunkZ)
+    {
+        if(world == null)
+            return false;
+        
+        IChunkProvider chunkProvider = world.getChunkProvider();
+        return chunkProvider != null && chunkProvider.chunkExists(chunkX, chunkZ);
+    }
+    
+    /**
+     * Checks whether the chunk containing a block is loaded, without loading it.
+     * @param world The world the block is in.
+     * @param x The block's X coördinate.
+     * @param z The block's Z coördinate.
+     * @return True if the block's chunk is loaded, otherwise false. Also false if the world is null.
+     */
+    public static boolean isBlockLoaded(World world, int x, int z)
+    { return isChunkLoaded(world, x >> 4, z >> 4); }
+}
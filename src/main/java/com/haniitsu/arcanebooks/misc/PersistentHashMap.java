@@ -0,0 +1,548 @@
+package com.haniitsu.arcanebooks.misc;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * An unchangeable hash map, where "changing" it gives a new map sharing everything but the changed path with the old
+ * one. (A hash array mapped trie - each level of the trie takes 5 more bits of the key's hash.) Adding or removing a
+ * key costs O(log32 n) new nodes rather than a copy of the whole map, so keeping old versions around is cheap, and
+ * two versions descended from each other can be compared in time proportional to what's different between them.
+ *
+ * Keys can't be null.
+ * @param <K> The type of the keys.
+ * @param <V> The type of the values.
+ */
+public final class PersistentHashMap<K, V> implements Iterable<Map.Entry<K, V>>
+{
+    /**
+     * The differences between two versions of a map, as given by .differencesTo.
+     * @param <K> The type of the keys.
+     * @param <V> The type of the values.
+     */
+    public static final class Difference<K, V>
+    {
+        Difference()
+        {}
+        
+        /** The entries in the newer map but not the older one. */
+        final Map<K, V> added = new HashMap<K, V>();
+        
+        /** The entries in the older map but not the newer one, with their old values. */
+        final Map<K, V> removed = new HashMap<K, V>();
+        
+        /** The keys in both maps but with different values, with their new values. */
+        final Map<K, V> changed = new HashMap<K, V>();
+        
+        public Map<K, V> getAdded()
+        { return Collections.unmodifiableMap(added); }
+        
+        public Map<K, V> getRemoved()
+        { return Collections.unmodifiableMap(removed); }
+        
+        public Map<K, V> getChanged()
+        { return Collections.unmodifiableMap(changed); }
+        
+        /**
+         * Gets whether there were no differences.
+         * @return True if the two maps had the same contents, otherwise false.
+         */
+        public boolean isEmpty()
+        { return added.isEmpty() && removed.isEmpty() && changed.isEmpty(); }
+    }
+    
+    /**
+     * A node of the trie. Holds up to 32 slots, one for each value of the 5 bits of the hash at its level, each of
+     * which is either an entry (a key and its value) or a node of the next level down (a null key and the node).
+     * Collision nodes hold entries whose keys' hashes are exactly the same, in no particular order.
+     */
+    private static final class Node
+    {
+        Node(int bitmap, Object[] slots, boolean collision)
+        {
+            this.bitmap    = bitmap;
+            this.slots     = slots;
+            this.collision = collision;
+        }
+        
+        /** Which of the 32 slots are filled. Unused in collision nodes. */
+        final int bitmap;
+        
+        /** Alternating keys and values of the filled slots, in order. A null key means the value is a Node. */
+        final Object[] slots;
+        
+        /** Whether this is a collision node. */
+        final boolean collision;
+        
+        /**
+         * Gets the number of filled slots.
+         * @return The number of entries and nodes directly in this node.
+         */
+        int slotCount()
+        { return slots.length / 2; }
+    }
+    
+    private PersistentHashMap(Node root, int size)
+    {
+        this.root = root;
+        this.size = size;
+    }
+    
+    /** The empty map. Shared, as it can't be changed. */
+    private static final PersistentHashMap<Object, Object> empty = new PersistentHashMap<Object, Object>(null, 0);
+    
+    /** Returned by .find when there's no value for a key, as the value could be null. */
+    private static final Object notFound = new Object();
+    
+    /** The top node of the trie, or null if the map is empty. */
+    private final Node root;
+    
+    /** The number of entries in the map. */
+    private final int size;
+    
+    /**
+     * Gets the empty map.
+     * @return A map with no entries.
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty()
+    { return (PersistentHashMap<K, V>)empty; }
+    
+    public int size()
+    { return size; }
+    
+    public boolean isEmpty()
+    { return size == 0; }
+    
+    /**
+     * Gets the value associated with the passed key.
+     * @param key The key to look up.
+     * @return The value associated with the key, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(Object key)
+    {
+        Object value = find(key);
+        return value == notFound ? null : (V)value;
+    }
+    
+    public boolean containsKey(Object key)
+    { return find(key) != notFound; }
+    
+    /**
+     * Finds the value associated with the passed key.
+     * @param key The key to look up.
+     * @return The value associated with the key, or notFound if there is none.
+     */
+    private Object find(Object key)
+    {
+        if(key == null)
+            return notFound;
+        
+        Node node = root;
+        int hash = hash(key);
+        
+        for(int shift = 0; node != null; shift += 5)
+        {
+            if(node.collision)
+            {
+                for(int i = 0; i < node.slots.length; i += 2)
+                    if(node.slots[i].equals(key))
+                        return node.slots[i + 1];
+                
+                return notFound;
+            }
+            
+            int bit = bitFor(hash, shift);
+            
+            if((node.bitmap & bit) == 0)
+                return notFound;
+            
+            int index = indexOf(node.bitmap, bit);
+            Object slotKey = node.slots[index];
+            
+            if(slotKey == null)
+                node = (Node)node.slots[index + 1];
+            else
+                return slotKey.equals(key) ? node.slots[index + 1] : notFound;
+        }
+        
+        return notFound;
+    }
+    
+    /**
+     * Gets a map with the passed key associated with the passed value, in addition to everything in this one.
+     * @param key The key.
+     * @param value The value to associate with the key.
+     * @return The new map, or this one if it already associates that exact value with the key.
+     */
+    public PersistentHashMap<K, V> plus(K key, V value)
+    {
+        if(key == null)
+            throw new NullPointerException("Keys can't be null.");
+        
+        if(root == null)
+            return new PersistentHashMap<K, V>(new Node(bitFor(hash(key), 0), new Object[] { key, value }, false), 1);
+        
+        boolean[] added = { false };
+        Node newRoot = plus(root, hash(key), key, value, 0, added);
+        return newRoot == root ? this : new PersistentHashMap<K, V>(newRoot, added[0] ? size + 1 : size);
+    }
+    
+    /**
+     * Gets a map with everything in this one but the passed key.
+     * @param key The key to not have.
+     * @return The new map, or this one if it doesn't have the key.
+     */
+    public PersistentHashMap<K, V> minus(Object key)
+    {
+        if(root == null || key == null)
+            return this;
+        
+        Node newRoot = minus(root, hash(key), key, 0);
+        
+        if(newRoot == root)
+            return this;
+        
+        return newRoot == null ? PersistentHashMap.<K, V>empty() : new PersistentHashMap<K, V>(newRoot, size - 1);
+    }
+    
+    /**
+     * Works out what's different in the passed map compared to this one. Parts of the two maps that are shared (as
+     * they are when one was made from the other) are skipped without being looked at.
+     * @param newer The map to compare this one to.
+     * @return The entries added, removed, and changed going from this map to the passed one.
+     */
+    public Difference<K, V> differencesTo(PersistentHashMap<K, V> newer)
+    {
+        Difference<K, V> difference = new Difference<K, V>();
+        compare(root, newer.root, difference);
+        return difference;
+    }
+    
+    @Override
+    public Iterator<Map.Entry<K, V>> iterator()
+    { return new EntryIterator<K, V>(root); }
+    
+    //<editor-fold defaultstate="collapsed" desc="Trie operations">
+    private static int hash(Object key)
+    {
+        int hash = key.hashCode();
+        return hash ^ (hash >>> 16); // So keys differing only in their high bits don't all share a path.
+    }
+    
+    private static int bitFor(int hash, int shift)
+    { return 1 << ((hash >>> shift) & 31); }
+    
+    /**
+     * Gets the index in a node's slots array of the key of the slot for the passed bit.
+     * @param bitmap The node's bitmap.
+     * @param bit The bit of the slot.
+     * @return The index of the slot's key in the slots array.
+     */
+    private static int indexOf(int bitmap, int bit)
+    { return Integer.bitCount(bitmap & (bit - 1)) * 2; }
+    
+    private static Node plus(Node node, int hash, Object key, Object value, int shift, boolean[] added)
+    {
+        if(node.collision)
+        {
+            for(int i = 0; i < node.slots.length; i += 2)
+                if(node.slots[i].equals(key))
+                    return node.slots[i + 1] == value ? node : new Node(0, replaced(node.slots, i + 1, value), true);
+            
+            added[0] = true;
+            return new Node(0, inserted(node.slots, node.slots.length, key, value), true);
+        }
+        
+        int bit   = bitFor(hash, shift);
+        int index = indexOf(node.bitmap, bit);
+        
+        if((node.bitmap & bit) == 0)
+        {
+            added[0] = true;
+            return new Node(node.bitmap | bit, inserted(node.slots, index, key, value), false);
+        }
+        
+        Object slotKey   = node.slots[index];
+        Object slotValue = node.slots[index + 1];
+        
+        if(slotKey == null)
+        {
+            Node child    = (Node)slotValue;
+            Node newChild = plus(child, hash, key, value, shift + 5, added);
+            return newChild == child ? node : new Node(node.bitmap, replaced(node.slots, index + 1, newChild), false);
+        }
+        
+        if(slotKey.equals(key))
+            return slotValue == value ? node : new Node(node.bitmap, replaced(node.slots, index + 1, value), false);
+        
+        added[0] = true;
+        Node child = pair(slotKey, slotValue, hash(slotKey), key, value, hash, shift + 5);
+        Object[] slots = node.slots.clone();
+        slots[index]     = null;
+        slots[index + 1] = child;
+        return new Node(node.bitmap, slots, false);
+    }
+    
+    /**
+     * Makes a node holding two entries whose hashes have been the same up to the passed level.
+     * @return The node holding both entries.
+     */
+    private static Node pair(Object key1, Object value1, int hash1, Object key2, Object value2, int hash2, int shift)
+    {
+        if(shift >= 32)
+            return new Node(0, new Object[] { key1, value1, key2, value2 }, true);
+        
+        int bit1 = bitFor(hash1, shift);
+        int bit2 = bitFor(hash2, shift);
+        
+        if(bit1 == bit2)
+            return new Node(bit1, new Object[] { null, pair(key1, value1, hash1, key2, value2, hash2, shift + 5) }, false);
+        
+        // Compared as unsigned, as the bit for the last slot is the sign bit.
+        return (bit1 - 1 & bit2) == 0 ? new Node(bit1 | bit2, new Object[] { key1, value1, key2, value2 }, false)
+                                      : new Node(bit1 | bit2, new Object[] { key2, value2, key1, value1 }, false);
+    }
+    
+    private static Node minus(Node node, int hash, Object key, int shift)
+    {
+        if(node.collision)
+        {
+            for(int i = 0; i < node.slots.length; i += 2)
+                if(node.slots[i].equals(key))
+                    return node.slots.length == 2 ? null : new Node(0, removed(node.slots, i), true);
+            
+            return node;
+        }
+        
+        int bit = bitFor(hash, shift);
+        
+        if((node.bitmap & bit) == 0)
+            return node;
+        
+        int index = indexOf(node.bitmap, bit);
+        Object slotKey = node.slots[index];
+        
+        if(slotKey == null)
+        {
+            Node child    = (Node)node.slots[index + 1];
+            Node newChild = minus(child, hash, key, shift + 5);
+            
+            if(newChild == child)
+                return node;
+            
+            if(newChild == null)
+                return withoutSlot(node, bit, index);
+            
+            // A node down to a single entry is folded into its parent, so the trie stays as shallow as it can.
+            if(newChild.slotCount() == 1 && newChild.slots[0] != null)
+            {
+                Object[] slots = node.slots.clone();
+                slots[index]     = newChild.slots[0];
+                slots[index + 1] = newChild.slots[1];
+                return new Node(node.bitmap, slots, false);
+            }
+            
+            return new Node(node.bitmap, replaced(node.slots, index + 1, newChild), false);
+        }
+        
+        return slotKey.equals(key) ? withoutSlot(node, bit, index) : node;
+    }
+    
+    private static Node withoutSlot(Node node, int bit, int index)
+    { return node.bitmap == bit ? null : new Node(node.bitmap & ~bit, removed(node.slots, index), false); }
+    
+    private static Object[] replaced(Object[] slots, int index, Object value)
+    {
+        Object[] result = slots.clone();
+        result[index] = value;
+        return result;
+    }
+    
+    private static Object[] inserted(Object[] slots, int index, Object key, Object value)
+    {
+        Object[] result = new Object[slots.length + 2];
+        System.arraycopy(slots, 0, result, 0, index);
+        result[index]     = key;
+        result[index + 1] = value;
+        System.arraycopy(slots, index, result, index + 2, slots.length - index);
+        return result;
+    }
+    
+    private static Object[] removed(Object[] slots, int index)
+    {
+        Object[] result = new Object[slots.length - 2];
+        System.arraycopy(slots, 0, result, 0, index);
+        System.arraycopy(slots, index + 2, result, index, slots.length - index - 2);
+        return result;
+    }
+    //</editor-fold>
+    
+    //<editor-fold defaultstate="collapsed" desc="Comparison">
+    @SuppressWarnings("unchecked")
+    private static <K, V> void compare(Node older, Node newer, Difference<K, V> difference)
+    {
+        if(older == newer)
+            return;
+        
+        if(older == null || newer == null || older.collision || newer.collision)
+        {
+            compareEntries(entriesOf(older), entriesOf(newer), difference);
+            return;
+        }
+        
+        for(int bits = older.bitmap | newer.bitmap; bits != 0; bits &= bits - 1)
+        {
+            int bit = Integer.lowestOneBit(bits);
+            Object[] olderSlot = slotOf(older, bit);
+            Object[] newerSlot = slotOf(newer, bit);
+            
+            if(olderSlot != null && newerSlot != null && olderSlot[0] == null && newerSlot[0] == null)
+                compare((Node)olderSlot[1], (Node)newerSlot[1], difference);
+            else if(olderSlot == null || newerSlot == null || olderSlot[0] != newerSlot[0] || olderSlot[1] != newerSlot[1])
+                compareEntries(entriesOf(olderSlot), entriesOf(newerSlot), difference);
+        }
+    }
+    
+    /**
+     * Gets the key and value (or null and node) in the slot of the passed node for the passed bit.
+     * @return The slot's contents as a two-element array, or null if the slot's empty.
+     */
+    private static Object[] slotOf(Node node, int bit)
+    {
+        if((node.bitmap & bit) == 0)
+            return null;
+        
+        int index = indexOf(node.bitmap, bit);
+        return new Object[] { node.slots[index], node.slots[index + 1] };
+    }
+    
+    private static Map<Object, Object> entriesOf(Object[] slot)
+    {
+        if(slot == null)
+            return Collections.emptyMap();
+        
+        if(slot[0] == null)
+            return entriesOf((Node)slot[1]);
+        
+        return Collections.singletonMap(slot[0], slot[1]);
+    }
+    
+    private static Map<Object, Object> entriesOf(Node node)
+    {
+        Map<Object, Object> entries = new HashMap<Object, Object>();
+        
+        for(Iterator<Map.Entry<Object, Object>> i = new EntryIterator<Object, Object>(node); i.hasNext();)
+        {
+            Map.Entry<Object, Object> entry = i.next();
+            entries.put(entry.getKey(), entry.getValue());
+        }
+        
+        return entries;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static <K, V> void compareEntries(Map<Object, Object> older, Map<Object, Object> newer,
+                                              Difference<K, V> difference)
+    {
+        for(Map.Entry<Object, Object> i : older.entrySet())
+        {
+            if(!newer.containsKey(i.getKey()))
+                difference.removed.put((K)i.getKey(), (V)i.getValue());
+            else
+            {
+                Object newValue = newer.get(i.getKey());
+                
+                if(newValue != i.getValue() && (newValue == null || !newValue.equals(i.getValue())))
+                    difference.changed.put((K)i.getKey(), (V)newValue);
+            }
+        }
+        
+        for(Map.Entry<Object, Object> i : newer.entrySet())
+            if(!older.containsKey(i.getKey()))
+                difference.added.put((K)i.getKey(), (V)i.getValue());
+    }
+    //</editor-fold>
+    
+    /** Goes through the entries of a trie, depth-first. */
+    private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>>
+    {
+        EntryIterator(Node root)
+        {
+            if(root != null)
+            {
+                nodes.add(root);
+                positions.add(0);
+            }
+            
+            advance();
+        }
+        
+        /** The nodes from the root down to the one being gone through. */
+        final List<Node> nodes = new ArrayList<Node>();
+        
+        /** The index of the next slot to look at in each node in nodes. */
+        final List<Integer> positions = new ArrayList<Integer>();
+        
+        /** The next entry to return, or null if there are no more. */
+        Map.Entry<K, V> next = null;
+        
+        @SuppressWarnings("unchecked")
+        private void advance()
+        {
+            next = null;
+            
+            while(!nodes.isEmpty())
+            {
+                int  last     = nodes.size() - 1;
+                Node node     = nodes.get(last);
+                int  position = positions.get(last);
+                
+                if(position >= node.slots.length)
+                {
+                    nodes.remove(last);
+                    positions.remove(last);
+                    continue;
+                }
+                
+                positions.set(last, position + 2);
+                
+                if(node.slots[position] == null)
+                {
+                    nodes.add((Node)node.slots[position + 1]);
+                    positions.add(0);
+                    continue;
+                }
+                
+                next = new AbstractMap.SimpleImmutableEntry<K, V>((K)node.slots[position], (V)node.slots[position + 1]);
+                return;
+            }
+        }
+        
+        @Override
+        public boolean hasNext()
+        { return next != null; }
+        
+        @Override
+        public Map.Entry<K, V> next()
+        {
+            if(next == null)
+                throw new NoSuchElementException();
+            
+            Map.Entry<K, V> result = next;
+            advance();
+            return result;
+        }
+        
+        @Override
+        public void remove()
+        { throw new UnsupportedOperationException("Persistent maps can't be changed."); }
+    }
+}
@@ -0,0 +1,125 @@
+package com.haniitsu.arcanebooks.misc;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A changeable map backed by a PersistentHashMap. Changes replace the backing map rather than altering it, so the
+ * contents as of any point can be taken with .getVersion, and a copy made with .setVersion, both without copying
+ * anything. Versions taken from the same map share everything they have in common, and can be compared cheaply.
+ *
+ * Like HashMap, this isn't safe to change from several threads at once; versions taken from it are, though, as they
+ * never change.
+ * @param <K> The type of the keys. Keys can't be null.
+ * @param <V> The type of the values.
+ */
+public class VersionedHashMap<K, V> extends AbstractMap<K, V>
+{
+    /** Creates a new, empty map. */
+    public VersionedHashMap()
+    {}
+    
+    /**
+     * Creates a new map with the contents of the passed version.
+     * @param version The contents to start with.
+     */
+    public VersionedHashMap(PersistentHashMap<K, V> version)
+    { this.version = version; }
+    
+    /** The current contents of the map. */
+    protected volatile PersistentHashMap<K, V> version = PersistentHashMap.empty();
+    
+    /**
+     * Gets the current contents of the map, which won't change as the map does.
+     * @return The current version of the map.
+     */
+    public PersistentHashMap<K, V> getVersion()
+    { return version; }
+    
+    /**
+     * Replaces the contents of the map with the passed version.
+     * @param version The new contents of the map.
+     */
+    public void setVersion(PersistentHashMap<K, V> version)
+    { this.version = version; }
+    
+    @Override
+    public int size()
+    { return version.size(); }
+    
+    @Override
+    public boolean isEmpty()
+    { return version.isEmpty(); }
+    
+    @Override
+    public V get(Object key)
+    { return version.get(key); }
+    
+    @Override
+    public boolean containsKey(Object key)
+    { return version.containsKey(key); }
+    
+    @Override
+    public V put(K key, V value)
+    {
+        V previous = version.get(key);
+        version = version.plus(key, value);
+        return previous;
+    }
+    
+    @Override
+    public V remove(Object key)
+    {
+        V previous = version.get(key);
+        version = version.minus(key);
+        return previous;
+    }
+    
+    @Override
+    public void clear()
+    { version = PersistentHashMap.empty(); }
+    
+    @Override
+    public Set<Map.Entry<K, V>> entrySet()
+    {
+        return new AbstractSet<Map.Entry<K, V>>()
+        {
+            @Override
+            public int size()
+            { return version.size(); }
+            
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator()
+            {
+                // Goes through the version as of starting, so removing entries part-way through is fine.
+                final Iterator<Map.Entry<K, V>> entries = version.iterator();
+                
+                return new Iterator<Map.Entry<K, V>>()
+                {
+                    Map.Entry<K, V> last = null;
+                    
+                    @Override
+                    public boolean hasNext()
+                    { return entries.hasNext(); }
+                    
+                    @Override
+                    public Map.Entry<K, V> next()
+                    { return last = entries.next(); }
+                    
+                    @Override
+                    public void remove()
+                    {
+                        if(last == null)
+                            throw new IllegalStateException();
+                        
+                        VersionedHashMap.this.remove(last.getKey());
+                        last = null;
+                    }
+                };
+            }
+        };
+    }
+}
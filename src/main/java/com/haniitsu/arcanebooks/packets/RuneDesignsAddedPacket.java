@@ -1,12 +1,23 @@
 package com.haniitsu.arcanebooks.packets;
 
 import com.haniitsu.arcanebooks.ArcaneBooks;
+import com.haniitsu.arcanebooks.magic.SpellEffect;
+import com.haniitsu.arcanebooks.magic.SpellWord;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.SpellEffectModifier;
+import com.haniitsu.arcanebooks.runes.RuneDesign;
 import cpw.mods.fml.common.network.ByteBufUtils;
 import cpw.mods.fml.common.network.simpleimpl.IMessage;
 import cpw.mods.fml.common.network.simpleimpl.IMessageHandler;
 import cpw.mods.fml.common.network.simpleimpl.MessageContext;
 import io.netty.buffer.ByteBuf;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.commons.lang3.NotImplementedException;
 
+/**
+ * Packet sent to players when rune designs are added on the server, naming the spell words they're for by id where
+ * they have one.
+ */
 public class RuneDesignsAddedPacket implements IMessage
 {
     public static class Handler implements IMessageHandler<RuneDesignsAddedPacket, IMessage>
@@ -14,7 +25,7 @@ public class RuneDesignsAddedPacket implements IMessage
         @Override
         public IMessage onMessage(RuneDesignsAddedPacket message, MessageContext ctx)
         {
-            ArcaneBooks.instance.registries.runeDesigns.registerFromString(message.unparsedRuneDesigns);
+            ArcaneBooks.instance.registries.runeDesigns.registerWithIds(message.designsById, message.designsByString);
             return null;
         }
         
@@ -31,7 +42,7 @@ public class RuneDesignsAddedPacket implements IMessage
             {
                 @Override
                 public void run()
-                { ArcaneBooks.instance.registries.runeDesigns.addFromString(message.unparsedRuneDesigns); }
+                { ArcaneBooks.instance.registries.runeDesigns.registerWithIds(message.designsById, message.designsByString); }
             });
             return null;
         }
@@ -39,19 +50,97 @@ public class RuneDesignsAddedPacket implements IMessage
         */
     }
     
-    public RuneDesignsAddedPacket(String unparsedRuneDesigns)
-    { this.unparsedRuneDesigns = unparsedRuneDesigns; }
+    /**
+     * Creates the packet for the passed rune designs, taking the ids of their spell words as they are now.
+     * @param added The rune designs added, by the spell words they're for.
+     * @param backlogged The rune designs added for backlogged spell effects, by the names of the spell effects.
+     */
+    public RuneDesignsAddedPacket(Map<SpellWord, RuneDesign> added, Map<String, RuneDesign> backlogged)
+    {
+        for(Map.Entry<SpellWord, RuneDesign> entry : added.entrySet())
+        {
+            int id = entry.getKey().getSpellWordId();
+            
+            if(id >= 0)
+                designsById.put(id, entry.getValue());
+            else
+                designsByString.put(spellWordToString(entry.getKey()), entry.getValue());
+        }
+        
+        for(Map.Entry<String, RuneDesign> entry : backlogged.entrySet())
+            designsByString.put("effect:" + entry.getKey(), entry.getValue());
+    }
     
     public RuneDesignsAddedPacket()
-    { this(null); }
+    { }
+    
+    /** The rune designs added, by the ids of the spell words they're for. */
+    final Map<Integer, RuneDesign> designsById = new HashMap<Integer, RuneDesign>();
     
-    String unparsedRuneDesigns;
+    /** The rune designs added for spell words without ids, by the spell words as strings. (e.g. "effect:Heal") */
+    final Map<String, RuneDesign> designsByString = new HashMap<String, RuneDesign>();
     
     @Override
     public void fromBytes(ByteBuf buf)
-    { unparsedRuneDesigns = ByteBufUtils.readUTF8String(buf); }
-
+    {
+        int idCount = buf.readInt();
+        
+        for(int i = 0; i < idCount; i++)
+        {
+            int id = buf.readInt();
+            RuneDesign design = RuneDesign.fromString(ByteBufUtils.readUTF8String(buf));
+            
+            if(design != null)
+                designsById.put(id, design);
+        }
+        
+        int stringCount = buf.readInt();
+        
+        for(int i = 0; i < stringCount; i++)
+        {
+            String spellWordString = ByteBufUtils.readUTF8String(buf);
+            RuneDesign design = RuneDesign.fromString(ByteBufUtils.readUTF8String(buf));
+            
+            if(design != null)
+                designsByString.put(spellWordString, design);
+        }
+    }
+    
     @Override
     public void toBytes(ByteBuf buf)
-    { ByteBufUtils.writeUTF8String(buf, unparsedRuneDesigns); }
+    {
+        buf.writeInt(designsById.size());
+        
+        for(Map.Entry<Integer, RuneDesign> entry : designsById.entrySet())
+        {
+            buf.writeInt(entry.getKey());
+            ByteBufUtils.writeUTF8String(buf, entry.getValue().toString());
+        }
+        
+        buf.writeInt(designsByString.size());
+        
+        for(Map.Entry<String, RuneDesign> entry : designsByString.entrySet())
+        {
+            ByteBufUtils.writeUTF8String(buf, entry.getKey());
+            ByteBufUtils.writeUTF8String(buf, entry.getValue().toString());
+        }
+    }
+    
+    /**
+     * Gets a spell word as it'd appear in the rune designs file.
+     * @param word The spell word.
+     * @return The spell word as a string. (e.g. "effect:Heal", "AOE:targetOnly")
+     */
+    static String spellWordToString(SpellWord word)
+    {
+        if(word instanceof SpellEffect)
+            return "effect:" + ((SpellEffect)word).getName();
+        
+        if(word instanceof SpellEffectModifier)
+            return ((SpellEffectModifier)word).getModifierGroupName() + ":"
+                   + ((SpellEffectModifier)word).getModifierName();
+        
+        throw new NotImplementedException("Support for SpellWord not implemented in RuneDesignsAddedPacket: \n"
+                                          + word.getClass().toString());
+    }
 }
@@ -1,17 +1,20 @@
 package com.haniitsu.arcanebooks.packets;
 
 import com.haniitsu.arcanebooks.ArcaneBooks;
+import com.haniitsu.arcanebooks.magic.SpellWord;
 import cpw.mods.fml.common.network.ByteBufUtils;
 import cpw.mods.fml.common.network.simpleimpl.IMessage;
 import cpw.mods.fml.common.network.simpleimpl.IMessageHandler;
 import cpw.mods.fml.common.network.simpleimpl.MessageContext;
 import io.netty.buffer.ByteBuf;
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
+/**
+ * Packet sent to players when rune designs are removed on the server, naming the spell words they were for by id where
+ * they have one.
+ */
 public class RuneDesignsRemovedPacket implements IMessage
 {
     public static class Handler implements IMessageHandler<RuneDesignsRemovedPacket, IMessage>
@@ -19,25 +22,7 @@ public class RuneDesignsRemovedPacket implements IMessage
         @Override
         public IMessage onMessage(RuneDesignsRemovedPacket message, MessageContext ctx)
         {
-            BufferedReader reader = new BufferedReader(new StringReader(message.removedRuneDesignSpellwordNames));
-            List<String> runeDesignsToRemove = new ArrayList<String>();
-            
-            try
-            {
-                for(String line = ""; line != null; line = reader.readLine())
-                {
-                    line = line.trim();
-                    
-                    if(line.length() <= 0)
-                        continue;
-                        
-                    runeDesignsToRemove.add(line.trim());
-                }
-            }
-            catch(IOException e)
-            { throw new RuntimeException("IOException not currently handled. It shouldn't be thrown here anyway.", e); }
-            
-            ArcaneBooks.instance.registries.runeDesigns.deregisterByStrings(runeDesignsToRemove);
+            ArcaneBooks.instance.registries.runeDesigns.deregisterWithIds(message.ids, message.spellWordStrings);
             return null;
         }
         
@@ -49,29 +34,12 @@ public class RuneDesignsRemovedPacket implements IMessage
         public IMessage onMessage(RuneDesignsRemovedPacket message, MessageContext ctx)
         {
             IThreadListener mainThread = Minecraft.getMinecraft();
-            BufferedReader reader = new BufferedReader(new StringReader(message.removedRuneDesignSpellwordNames));
-            final List<String> runeDesignsToRemove = new ArrayList<String>();
-            
-            try
-            {
-                for(String line = ""; line != null; line = reader.readLine())
-                {
-                    line = line.trim();
-                    
-                    if(line.length() <= 0)
-                        continue;
-                        
-                    runeDesignsToRemove.add(line.trim());
-                }
-            }
-            catch(IOException e)
-            { throw new RuntimeException("IOException not currently handled. It shouldn't be thrown here anyway.", e); }
             
             mainThread.addScheduledTask(new Runnable()
             {
                 @Override
                 public void run()
-                { ArcaneBooks.instance.registries.runeDesigns.deregisterWithSpellWordStrings(runeDesignsToRemove); }
+                { ArcaneBooks.instance.registries.runeDesigns.deregisterWithIds(message.ids, message.spellWordStrings); }
             });
             return null;
         }
@@ -79,19 +47,61 @@ public class RuneDesignsRemovedPacket implements IMessage
         */
     }
     
-    public RuneDesignsRemovedPacket(String removedRuneDesignSpellwordNames)
-    { this.removedRuneDesignSpellwordNames = removedRuneDesignSpellwordNames; }
+    /**
+     * Creates the packet for the passed spell words, taking their ids as they are now.
+     * @param removed The spell words whose rune designs were removed.
+     * @param backlogRemoved The names of the backlogged spell effects whose rune designs were removed.
+     */
+    public RuneDesignsRemovedPacket(Collection<SpellWord> removed, Collection<String> backlogRemoved)
+    {
+        for(SpellWord word : removed)
+        {
+            int id = word.getSpellWordId();
+            
+            if(id >= 0)
+                ids.add(id);
+            else
+                spellWordStrings.add(RuneDesignsAddedPacket.spellWordToString(word));
+        }
+        
+        for(String effectName : backlogRemoved)
+            spellWordStrings.add("effect:" + effectName);
+    }
     
     public RuneDesignsRemovedPacket()
-    { this(null); }
+    { }
+    
+    /** The ids of the spell words whose rune designs were removed. */
+    final List<Integer> ids = new ArrayList<Integer>();
     
-    String removedRuneDesignSpellwordNames;
+    /** The spell words without ids whose rune designs were removed, as strings. (e.g. "effect:Heal") */
+    final List<String> spellWordStrings = new ArrayList<String>();
     
     @Override
     public void fromBytes(ByteBuf buf)
-    { removedRuneDesignSpellwordNames = ByteBufUtils.readUTF8String(buf); }
-
+    {
+        int idCount = buf.readInt();
+        
+        for(int i = 0; i < idCount; i++)
+            ids.add(buf.readInt());
+        
+        int stringCount = buf.readInt();
+        
+        for(int i = 0; i < stringCount; i++)
+            spellWordStrings.add(ByteBufUtils.readUTF8String(buf));
+    }
+    
     @Override
     public void toBytes(ByteBuf buf)
-    { ByteBufUtils.writeUTF8String(buf, removedRuneDesignSpellwordNames); }
-}
\ No newline at end of file
+    {
+        buf.writeInt(ids.size());
+        
+        for(int id : ids)
+            buf.writeInt(id);
+        
+        buf.writeInt(spellWordStrings.size());
+        
+        for(String spellWordString : spellWordStrings)
+            ByteBufUtils.writeUTF8String(buf, spellWordString);
+    }
+}
@@ -1,12 +1,20 @@
 package com.haniitsu.arcanebooks.packets;
 
 import com.haniitsu.arcanebooks.ArcaneBooks;
+import com.haniitsu.arcanebooks.magic.SpellWordIds;
 import cpw.mods.fml.common.network.ByteBufUtils;
 import cpw.mods.fml.common.network.simpleimpl.IMessage;
 import cpw.mods.fml.common.network.simpleimpl.IMessageHandler;
 import cpw.mods.fml.common.network.simpleimpl.MessageContext;
 import io.netty.buffer.ByteBuf;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
+/**
+ * Packet sent to players when spell effects are added on the server, with the ids the server gave them, so the client
+ * gives them the same ids.
+ */
 public class SpellEffectsAddedPacket implements IMessage
 {
     public static class Handler implements IMessageHandler<SpellEffectsAddedPacket, IMessage>
@@ -14,7 +22,22 @@ public class SpellEffectsAddedPacket implements IMessage
         @Override
         public IMessage onMessage(SpellEffectsAddedPacket message, MessageContext ctx)
         {
-            ArcaneBooks.instance.registries.spellEffects.addFromString(message.unparsedNewEffects);
+            StringBuilder combinedString = new StringBuilder();
+            
+            for(int i = 0; i < message.effectStrings.size(); i++)
+            {
+                String effectString = message.effectStrings.get(i);
+                
+                if(message.ids.get(i) >= 0)
+                    SpellWordIds.set(message.ids.get(i), SpellWordIds.effectKey(effectString.split(":", 2)[0]));
+                
+                if(i > 0)
+                    combinedString.append('\n');
+                
+                combinedString.append(effectString);
+            }
+            
+            ArcaneBooks.instance.registries.spellEffects.addFromString(combinedString.toString());
             return null;
         }
         
@@ -31,7 +54,9 @@ public class SpellEffectsAddedPacket implements IMessage
             {
                 @Override
                 public void run()
-                { ArcaneBooks.instance.registries.spellEffects.addFromString(message.unparsedNewEffects); }
+                {
+                    // As above, setting the ids then adding the spell effects.
+                }
             });
             return null;
         }
@@ -39,19 +64,49 @@ public class SpellEffectsAddedPacket implements IMessage
         */
     }
     
-    public SpellEffectsAddedPacket(String unparsedNewEffects)
-    { this.unparsedNewEffects = unparsedNewEffects; }
+    /**
+     * Creates the packet for the passed spell effects, taking their ids as they are now.
+     * @param effectStrings The spell effects added, as they'd appear in the spell effects file.
+     */
+    public SpellEffectsAddedPacket(Collection<String> effectStrings)
+    {
+        for(String effectString : effectStrings)
+        {
+            this.effectStrings.add(effectString);
+            ids.add(SpellWordIds.getId(SpellWordIds.effectKey(effectString.split(":", 2)[0])));
+        }
+    }
     
     public SpellEffectsAddedPacket()
-    { this(null); }
+    { }
+    
+    /** The spell effects added, as they'd appear in the spell effects file. */
+    final List<String> effectStrings = new ArrayList<String>();
     
-    String unparsedNewEffects;
+    /** The ids of the spell effects added, in the same order, or -1 where one doesn't have an id. */
+    final List<Integer> ids = new ArrayList<Integer>();
     
     @Override
     public void fromBytes(ByteBuf buf)
-    { unparsedNewEffects = ByteBufUtils.readUTF8String(buf); }
-
+    {
+        int count = buf.readInt();
+        
+        for(int i = 0; i < count; i++)
+        {
+            ids.add(buf.readInt());
+            effectStrings.add(ByteBufUtils.readUTF8String(buf));
+        }
+    }
+    
     @Override
     public void toBytes(ByteBuf buf)
-    { ByteBufUtils.writeUTF8String(buf, unparsedNewEffects); }
-}
\ No newline at end of file
+    {
+        buf.writeInt(effectStrings.size());
+        
+        for(int i = 0; i < effectStrings.size(); i++)
+        {
+            buf.writeInt(ids.get(i));
+            ByteBufUtils.writeUTF8String(buf, effectStrings.get(i));
+        }
+    }
+}
@@ -1,17 +1,19 @@
 package com.haniitsu.arcanebooks.packets;
 
 import com.haniitsu.arcanebooks.ArcaneBooks;
+import com.haniitsu.arcanebooks.magic.SpellWordIds;
 import cpw.mods.fml.common.network.ByteBufUtils;
 import cpw.mods.fml.common.network.simpleimpl.IMessage;
 import cpw.mods.fml.common.network.simpleimpl.IMessageHandler;
 import cpw.mods.fml.common.network.simpleimpl.MessageContext;
 import io.netty.buffer.ByteBuf;
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
+/**
+ * Packet sent to players when spell effects are removed on the server, naming them by id where they have one.
+ */
 public class SpellEffectsRemovedPacket implements IMessage
 {
     public static class Handler implements IMessageHandler<SpellEffectsRemovedPacket, IMessage>
@@ -19,23 +21,15 @@ public class SpellEffectsRemovedPacket implements IMessage
         @Override
         public IMessage onMessage(SpellEffectsRemovedPacket message, MessageContext ctx)
         {
-            BufferedReader reader = new BufferedReader(new StringReader(message.removedEffectNamesList));
-            List<String> effectNamesToRemove = new ArrayList<String>();
+            List<String> effectNamesToRemove = new ArrayList<String>(message.effectNames);
             
-            try
+            for(int id : message.ids)
             {
-                for(String line = ""; line != null; line = reader.readLine())
-                {
-                    line = line.trim();
-                    
-                    if(line.length() <= 0)
-                        continue;
-                        
-                    effectNamesToRemove.add(line.trim());
-                }
+                String key = SpellWordIds.getKey(id);
+                
+                if(key != null && key.startsWith("effect:"))
+                    effectNamesToRemove.add(key.substring(7)); // "effect:".length()
             }
-            catch(IOException e)
-            { throw new RuntimeException("IOException not currently handled. It shouldn't be thrown here anyway.", e); }
             
             ArcaneBooks.instance.registries.spellEffects.deregisterWithNames(effectNamesToRemove);
             return null;
@@ -49,29 +43,14 @@ public class SpellEffectsRemovedPacket implements IMessage
         public IMessage onMessage(SpellEffectsRemovedPacket message, MessageContext ctx)
         {
             IThreadListener mainThread = Minecraft.getMinecraft();
-            BufferedReader reader = new BufferedReader(new StringReader(message.removedEffectNamesList));
-            final List<String> effectNamesToRemove = new ArrayList<String>();
-            
-            try
-            {
-                for(String line = ""; line != null; line = reader.readLine())
-                {
-                    line = line.trim();
-                    
-                    if(line.length() <= 0)
-                        continue;
-                        
-                    effectNamesToRemove.add(line.trim());
-                }
-            }
-            catch(IOException e)
-            { throw new RuntimeException("IOException not currently handled. It shouldn't be thrown here anyway.", e); }
             
             mainThread.addScheduledTask(new Runnable()
             {
                 @Override
                 public void run()
-                { ArcaneBooks.instance.registries.spellEffects.deregisterWithNames(effectNamesToRemove); }
+                {
+                    // As above, getting the names of the spell effects from their ids then deregistering them.
+                }
             });
             return null;
         }
@@ -79,19 +58,57 @@ public class SpellEffectsRemovedPacket implements IMessage
         */
     }
     
-    public SpellEffectsRemovedPacket(String removedEffectNamesList)
-    { this.removedEffectNamesList = removedEffectNamesList; }
+    /**
+     * Creates the packet for the spell effects with the passed names, taking their ids as they are now.
+     * @param removedEffectNames The names of the spell effects removed.
+     */
+    public SpellEffectsRemovedPacket(Collection<String> removedEffectNames)
+    {
+        for(String effectName : removedEffectNames)
+        {
+            int id = SpellWordIds.getId(SpellWordIds.effectKey(effectName));
+            
+            if(id >= 0)
+                ids.add(id);
+            else
+                effectNames.add(effectName);
+        }
+    }
     
     public SpellEffectsRemovedPacket()
-    { this(null); }
+    { }
     
-    String removedEffectNamesList;
+    /** The ids of the spell effects removed. */
+    final List<Integer> ids = new ArrayList<Integer>();
+    
+    /** The names of the spell effects removed that don't have ids. */
+    final List<String> effectNames = new ArrayList<String>();
     
     @Override
     public void fromBytes(ByteBuf buf)
-    { removedEffectNamesList = ByteBufUtils.readUTF8String(buf); }
-
+    {
+        int idCount = buf.readInt();
+        
+        for(int i = 0; i < idCount; i++)
+            ids.add(buf.readInt());
+        
+        int nameCount = buf.readInt();
+        
+        for(int i = 0; i < nameCount; i++)
+            effectNames.add(ByteBufUtils.readUTF8String(buf));
+    }
+    
     @Override
     public void toBytes(ByteBuf buf)
-    { ByteBufUtils.writeUTF8String(buf, removedEffectNamesList); }
-}
\ No newline at end of file
+    {
+        buf.writeInt(ids.size());
+        
+        for(int id : ids)
+            buf.writeInt(id);
+        
+        buf.writeInt(effectNames.size());
+        
+        for(String effectName : effectNames)
+            ByteBufUtils.writeUTF8String(buf, effectName);
+    }
+}
@@ -0,0 +1,179 @@
+package com.haniitsu.arcanebooks.packets;
+
+import com.haniitsu.arcanebooks.projectiles.SpellProjectileManager;
+import cpw.mods.fml.common.network.simpleimpl.IMessage;
+import cpw.mods.fml.common.network.simpleimpl.IMessageHandler;
+import cpw.mods.fml.common.network.simpleimpl.MessageContext;
+import io.netty.buffer.ByteBuf;
+import java.util.Arrays;
+import net.minecraft.client.Minecraft;
+import net.minecraft.world.World;
+
+/**
+ * A batch of spell projectiles come into range of a player and removed (or gone out of range) in a world, for the
+ * player's client to mirror. Projectiles are sent as their position, velocity and lifetime left as of being sent rather
+ * than being updated every tick, as clients can work out where they go from there until told they've been removed.
+ */
+public class SpellProjectilesPacket implements IMessage
+{
+    public static class Handler implements IMessageHandler<SpellProjectilesPacket, IMessage>
+    {
+        @Override
+        public IMessage onMessage(SpellProjectilesPacket message, MessageContext ctx)
+        {
+            World world = Minecraft.getMinecraft().theWorld;
+            
+            if(world != null)
+                SpellProjectileManager.get(world).applyPacket(message);
+            
+            return null;
+        }
+    }
+    
+    public SpellProjectilesPacket()
+    { }
+    
+    /** The most launches or removals a single packet should hold, to keep packets well under the size limit. */
+    public static final int maxEntries = 512;
+    
+    /** The number of values stored in launchPositions per launch. (x, y, z, velocity x, velocity y, velocity z) */
+    static final int valuesPerLaunch = 6;
+    
+    int     launchCount     = 0;
+    int[]   launchIds       = new int[8];
+    float[] launchPositions = new float[8 * valuesPerLaunch];
+    short[] launchLifetimes = new short[8];
+    
+    int   removalCount = 0;
+    int[] removedIds   = new int[8];
+    
+    /**
+     * Adds a launched projectile to this packet.
+     * @param id The ID of the projectile.
+     * @param x The X coördinate the projectile was launched from.
+     * @param y The Y coördinate the projectile was launched from.
+     * @param z The Z coördinate the projectile was launched from.
+     * @param velocityX The projectile's velocity along the X axis, in blocks per tick.
+     * @param velocityY The projectile's velocity along the Y axis, in blocks per tick.
+     * @param velocityZ The projectile's velocity along the Z axis, in blocks per tick.
+     * @param lifetime The number of ticks the projectile can fly for before fizzling out.
+     */
+    public void addLaunch(int id, double x, double y, double z,
+                          double velocityX, double velocityY, double velocityZ, int lifetime)
+    {
+        if(launchCount == launchIds.length)
+        {
+            launchIds       = Arrays.copyOf(launchIds,       launchCount * 2);
+            launchPositions = Arrays.copyOf(launchPositions, launchCount * 2 * valuesPerLaunch);
+            launchLifetimes = Arrays.copyOf(launchLifetimes, launchCount * 2);
+        }
+        
+        int offset = launchCount * valuesPerLaunch;
+        launchIds[launchCount] = id;
+        launchPositions[offset    ] = (float)x;
+        launchPositions[offset + 1] = (float)y;
+        launchPositions[offset + 2] = (float)z;
+        launchPositions[offset + 3] = (float)velocityX;
+        launchPositions[offset + 4] = (float)velocityY;
+        launchPositions[offset + 5] = (float)velocityZ;
+        launchLifetimes[launchCount] = (short)Math.min(lifetime, Short.MAX_VALUE);
+        launchCount++;
+    }
+    
+    /**
+     * Adds a removed projectile to this packet. (e.g. one that hit something)
+     * @param id The ID of the projectile.
+     */
+    public void addRemoval(int id)
+    {
+        if(removalCount == removedIds.length)
+            removedIds = Arrays.copyOf(removedIds, removalCount * 2);
+        
+        removedIds[removalCount++] = id;
+    }
+    
+    /**
+     * Gets whether or not this packet has anything in it.
+     * @return True if there are no launches or removals in this packet, otherwise false.
+     */
+    public boolean isEmpty()
+    { return launchCount == 0 && removalCount == 0; }
+    
+    /**
+     * Gets whether or not this packet is holding as many launches or removals as it should.
+     * @return True if no more launches or removals should be added, otherwise false.
+     */
+    public boolean isFull()
+    { return launchCount >= maxEntries || removalCount >= maxEntries; }
+    
+    public int getLaunchCount()
+    { return launchCount; }
+    
+    public int getLaunchId(int index)
+    { return launchIds[index]; }
+    
+    /**
+     * Gets one of the position or velocity values of a launch in this packet.
+     * @param index The index of the launch.
+     * @param value Which value to get. 0, 1 and 2 are the X, Y and Z coördinates, 3, 4 and 5 are the X, Y and Z
+     * velocities.
+     * @return The value.
+     */
+    public float getLaunchValue(int index, int value)
+    { return launchPositions[index * valuesPerLaunch + value]; }
+    
+    public int getLaunchLifetime(int index)
+    { return launchLifetimes[index]; }
+    
+    public int getRemovalCount()
+    { return removalCount; }
+    
+    public int getRemovedId(int index)
+    { return removedIds[index]; }
+    
+    @Override
+    public void fromBytes(ByteBuf buf)
+    {
+        launchCount     = buf.readShort();
+        launchIds       = new int[Math.max(launchCount, 1)];
+        launchPositions = new float[Math.max(launchCount, 1) * valuesPerLaunch];
+        launchLifetimes = new short[Math.max(launchCount, 1)];
+        
+        for(int i = 0; i < launchCount; i++)
+        {
+            launchIds[i] = buf.readInt();
+            
+            for(int j = 0; j < valuesPerLaunch; j++)
+                launchPositions[i * valuesPerLaunch + j] = buf.readFloat();
+            
+            launchLifetimes[i] = buf.readShort();
+        }
+        
+        removalCount = buf.readShort();
+        removedIds   = new int[Math.max(removalCount, 1)];
+        
+        for(int i = 0; i < removalCount; i++)
+            removedIds[i] = buf.readInt();
+    }
+    
+    @Override
+    public void toBytes(ByteBuf buf)
+    {
+        buf.writeShort(launchCount);
+        
+        for(int i = 0; i < launchCount; i++)
+        {
+            buf.writeInt(launchIds[i]);
+            
+            for(int j = 0; j < valuesPerLaunch; j++)
+                buf.writeFloat(launchPositions[i * valuesPerLaunch + j]);
+            
+            buf.writeShort(launchLifetimes[i]);
+        }
+        
+        buf.writeShort(removalCount);
+        
+        for(int i = 0; i < removalCount; i++)
+            buf.writeInt(removedIds[i]);
+    }
+}
@@ -0,0 +1,58 @@
+package com.haniitsu.arcanebooks.packets;
+
+import com.haniitsu.arcanebooks.magic.SpellWordIds;
+import cpw.mods.fml.common.network.ByteBufUtils;
+import cpw.mods.fml.common.network.simpleimpl.IMessage;
+import cpw.mods.fml.common.network.simpleimpl.IMessageHandler;
+import cpw.mods.fml.common.network.simpleimpl.MessageContext;
+import io.netty.buffer.ByteBuf;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packet sent to players upon joining the server, before the spell effects and rune designs, for making the ids of
+ * spell words on the client the same as they are on the server. Packets sent after it can then name spell words by id.
+ */
+public class SpellWordIdsSyncPacket implements IMessage
+{
+    public static class Handler implements IMessageHandler<SpellWordIdsSyncPacket, IMessage>
+    {
+        @Override
+        public IMessage onMessage(SpellWordIdsSyncPacket message, MessageContext ctx)
+        {
+            SpellWordIds.setAll(message.keys);
+            return null;
+        }
+    }
+    
+    public SpellWordIdsSyncPacket()
+    { }
+    
+    /** The spell words with ids as strings, by id. Null where an id isn't in use. */
+    List<String> keys = null;
+    
+    @Override
+    public void fromBytes(ByteBuf buf)
+    {
+        int count = buf.readInt();
+        keys = new ArrayList<String>(count);
+        
+        for(int i = 0; i < count; i++)
+            keys.add(buf.readBoolean() ? ByteBufUtils.readUTF8String(buf) : null);
+    }
+    
+    @Override
+    public void toBytes(ByteBuf buf)
+    {
+        List<String> currentKeys = SpellWordIds.getKeys();
+        buf.writeInt(currentKeys.size());
+        
+        for(String key : currentKeys)
+        {
+            buf.writeBoolean(key != null);
+            
+            if(key != null)
+                ByteBufUtils.writeUTF8String(buf, key);
+        }
+    }
+}
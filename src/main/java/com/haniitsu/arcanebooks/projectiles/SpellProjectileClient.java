@@ -4,6 +4,7 @@ import cpw.mods.fml.client.registry.RenderingRegistry;
 import net.minecraft.client.renderer.entity.RenderSnowball;
 import net.minecraft.item.Item;
 import net.minecraft.item.ItemSnowball;
+import net.minecraftforge.common.MinecraftForge;
 
 // TO DO: Write, then document.
 
@@ -18,6 +19,9 @@ public class SpellProjectileClient extends SpellProjectileCommon
         // TO DO: make this actually fire properly...
         RenderingRegistry.registerEntityRenderingHandler(EntitySpellProjectile.class, new RenderSnowball(itemSnowball));
         //RenderingRegistry.registerEntityRenderingHandler(EntitySpellProjectile.class, new RenderItem().);
+        
+        // Projectiles fired through SpellProjectileManager aren't entities, so they're drawn separately.
+        MinecraftForge.EVENT_BUS.register(new SpellProjectileRenderer());
     }
     
     @Override
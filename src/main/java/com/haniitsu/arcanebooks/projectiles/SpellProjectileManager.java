@@ -0,0 +1,895 @@
+package com.haniitsu.arcanebooks.projectiles;
+
+import com.haniitsu.arcanebooks.ArcaneBooks;
+import com.haniitsu.arcanebooks.magic.Spell.Phrase;
+import com.haniitsu.arcanebooks.magic.Spell.SpellCast;
+import com.haniitsu.arcanebooks.magic.modifiers.effect.SpellTarget;
+import com.haniitsu.arcanebooks.misc.BlockLocation;
+import com.haniitsu.arcanebooks.misc.Direction;
+import com.haniitsu.arcanebooks.misc.Location;
+import com.haniitsu.arcanebooks.misc.LoadedChunks;
+import com.haniitsu.arcanebooks.packets.SpellProjectilesPacket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import net.minecraft.block.Block;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.util.AxisAlignedBB;
+import net.minecraft.world.World;
+
+/**
+ * Simulates all of the spell projectiles in a world, without making an entity for each one.
+ *
+ * Projectiles are stored as parallel arrays (one entry per projectile in each) and moved once per tick. Each tick, a
+ * projectile is swept through the blocks between where it is and where it's going one block at a time, and checked
+ * against the entities near its path, which are sorted into a grid at the start of the tick. When a projectile hits
+ * something, its spell phrases are burst as part of the spell cast that launched it.
+ *
+ * On the server, each player is sent the projectiles that come within tracking range of them, and told when ones
+ * they've been sent are removed or go out of range, in batches once per tick. Players arriving in the world (e.g. by
+ * logging in, respawning or changing dimension) are sent the projectiles already flying around them the same way. On
+ * clients, projectiles just fly along their trajectories until the server says they've been removed, so they can be
+ * drawn.
+ */
+public class SpellProjectileManager
+{
+    /**
+     * A spell projectile having hit something, waiting for its phrases to be burst.
+     */
+    protected static class Impact
+    {
+        public Impact(SpellCast cast,         Phrase[] phrases,    BlockLocation blockHit, Entity entityHit,
+                      Location burstLocation, Direction burstDirection)
+        {
+            this.cast           = cast;
+            this.phrases        = phrases;
+            this.blockHit       = blockHit;
+            this.entityHit      = entityHit;
+            this.burstLocation  = burstLocation;
+            this.burstDirection = burstDirection;
+        }
+        
+        final SpellCast     cast;
+        final Phrase[]      phrases;
+        final BlockLocation blockHit;
+        final Entity        entityHit;
+        final Location      burstLocation;
+        final Direction     burstDirection;
+        
+        /**
+         * Bursts the projectile's phrases where it hit.
+         */
+        public void burst()
+        {
+            for(Phrase phrase : phrases)
+                phrase.burst(cast, blockHit, entityHit, burstLocation, burstDirection, SpellTarget.projectile);
+        }
+    }
+    
+    /**
+     * Creates a new projectile manager.
+     * @param world The world the projectiles will be flying around in.
+     */
+    public SpellProjectileManager(World world)
+    {
+        this.world   = world;
+        this.worldId = world.provider.dimensionId;
+        this.remote  = world.isRemote;
+    }
+    
+    /** The projectile managers of each world with projectiles in it. These are dropped when their worlds unload. */
+    static final Map<World, SpellProjectileManager> managers = new HashMap<World, SpellProjectileManager>();
+    
+    /** The speed spell projectiles are launched at unless otherwise specified, in blocks per tick. */
+    public static volatile double defaultSpeed = 1.5;
+    
+    /** The number of ticks spell projectiles fly for before fizzling out, unless otherwise specified. */
+    public static volatile int defaultLifetime = 200;
+    
+    /** How much spell projectiles fall each tick, in blocks per tick. Same as thrown items. */
+    public static final double gravity = 0.03;
+    
+    /** What spell projectiles' velocities are multiplied by each tick. Same as thrown items. */
+    public static final double drag = 0.99;
+    
+    /** How far from a player, horizontally, projectiles are sent to them, in blocks. Same as arrows. */
+    public static volatile double trackingRange = 64;
+    
+    /** How far out from an entity's bounding box a projectile can pass and still hit it. */
+    public static final double hitMargin = 0.3;
+    
+    /**
+     * How far an entity's bounding box can reach outside of the chunk section it's kept in, as assumed by
+     * World.getEntitiesWithinAABB.
+     */
+    protected static final double maxEntityRadius = 2;
+    
+    /** The number of ticks after being launched before a projectile can hit the entity that launched it. */
+    static final int shooterGracePeriod = 5;
+    
+    /** The size of entity grid cells, as a power of 2. (i.e. cells are 4x4 blocks) */
+    static final int cellShift = 2;
+    
+    /** The value returned by sweepBlocks when no block was hit. */
+    static final double noHit = Double.POSITIVE_INFINITY;
+    
+    /** The world the projectiles are flying around in. */
+    protected final World world;
+    
+    /** The ID of the world the projectiles are flying around in. */
+    protected final int worldId;
+    
+    /** Whether or not this is a client's mirror of the server's projectiles. */
+    protected final boolean remote;
+    
+    /** The number of projectiles currently flying. Projectiles are stored at the indices below this. */
+    protected int count = 0;
+    
+    /** The ID to be given to the next projectile launched. */
+    protected int nextId = 0;
+    
+    // Projectiles, one entry per projectile in each.
+    protected int[]       ids       = new int      [16];
+    protected double[]    posX      = new double   [16];
+    protected double[]    posY      = new double   [16];
+    protected double[]    posZ      = new double   [16];
+    protected double[]    prevX     = new double   [16];
+    protected double[]    prevY     = new double   [16];
+    protected double[]    prevZ     = new double   [16];
+    protected double[]    velX      = new double   [16];
+    protected double[]    velY      = new double   [16];
+    protected double[]    velZ      = new double   [16];
+    protected int[]       ticksLeft = new int      [16];
+    protected int[]       age       = new int      [16];
+    protected SpellCast[] casts     = new SpellCast[16];
+    protected Phrase[][]  phrases   = new Phrase   [16][];
+    protected Entity[]    shooters  = new Entity   [16];
+    
+    /** The entities that could be hit this tick, by the grid cell (column) their bounding box is in. */
+    protected final Map<Long, List<Entity>> entityGrid = new HashMap<Long, List<Entity>>();
+    
+    /** The IDs of the projectiles removed since players were last sent updates. */
+    protected final List<Integer> pendingRemovals = new ArrayList<Integer>();
+    
+    /** The IDs of the projectiles each player in the world has been sent, and not yet told are gone. */
+    protected final Map<EntityPlayerMP, Set<Integer>> idsSentTo = new HashMap<EntityPlayerMP, Set<Integer>>();
+    
+    // Results of the last sweep.
+    private boolean sweptIntoUnloadedBlock;
+    private int     blockHitX, blockHitY, blockHitZ;
+    private double  entityHitTime;
+    
+    /**
+     * Gets the projectile manager of the passed world, creating it if it doesn't already exist.
+     * @param world The world to get the projectile manager of.
+     * @return The world's projectile manager.
+     */
+    public static SpellProjectileManager get(World world)
+    {
+        synchronized(managers)
+        {
+            SpellProjectileManager manager = managers.get(world);
+            
+            if(manager == null)
+            {
+                manager = new SpellProjectileManager(world);
+                managers.put(world, manager);
+            }
+            
+            return manager;
+        }
+    }
+    
+    /**
+     * Gets the projectile manager of the passed world, if one exists.
+     * @param world The world to get the projectile manager of.
+     * @return The world's projectile manager, or null if there isn't one.
+     */
+    public static SpellProjectileManager getIfPresent(World world)
+    {
+        synchronized(managers)
+        { return managers.get(world); }
+    }
+    
+    /**
+     * Drops the projectile manager of the passed world, along with all projectiles still flying in it.
+     * @param world The world to drop the projectile manager of.
+     */
+    public static void release(World world)
+    {
+        synchronized(managers)
+        { managers.remove(world); }
+    }
+    
+    /**
+     * Launches a spell projectile in the passed direction at the default speed.
+     * @param cast The spell cast the projectile's phrases are being burst as part of.
+     * @param shooter The entity launching the projectile, or null if it's not being launched by an entity.
+     * @param from Where to launch the projectile from.
+     * @param direction The direction to launch the projectile in.
+     * @param phrases The phrases to burst when the projectile hits something.
+     * @return The ID of the projectile launched.
+     */
+    public int launch(SpellCast cast, Entity shooter, Location from, Direction direction,
+                      List<? extends Phrase> phrases)
+    {
+        double pitch      = Math.toRadians(direction.getPitch());
+        double yaw        = Math.toRadians(direction.getYaw());
+        double horizontal = Math.cos(pitch);
+        double speed      = defaultSpeed;
+        
+        return launch(cast, shooter, from.getX(), from.getY(), from.getZ(),
+                      -Math.sin(yaw) * horizontal * speed, -Math.sin(pitch) * speed, Math.cos(yaw) * horizontal * speed,
+                      defaultLifetime, phrases.toArray(new Phrase[phrases.size()]));
+    }
+    
+    /**
+     * Launches a spell projectile.
+     * @param cast The spell cast the projectile's phrases are being burst as part of.
+     * @param shooter The entity launching the projectile, or null if it's not being launched by an entity.
+     * @param x The X coördinate to launch the projectile from.
+     * @param y The Y coördinate to launch the projectile from.
+     * @param z The Z coördinate to launch the projectile from.
+     * @param velocityX The projectile's velocity along the X axis, in blocks per tick.
+     * @param velocityY The projectile's velocity along the Y axis, in blocks per tick.
+     * @param velocityZ The projectile's velocity along the Z axis, in blocks per tick.
+     * @param lifetime The number of ticks the projectile can fly for before fizzling out.
+     * @param phrases The phrases to burst when the projectile hits something.
+     * @return The ID of the projectile launched.
+     */
+    public synchronized int launch(SpellCast cast, Entity shooter, double x, double y, double z,
+                                   double velocityX, double velocityY, double velocityZ, int lifetime,
+                                   Phrase[] phrases)
+    {
+        int id = nextId++;
+        add(id, cast, shooter, x, y, z, velocityX, velocityY, velocityZ, lifetime, phrases);
+        return id;
+    }
+    
+    /**
+     * Adds the launches and removals of a packet from the server to this client-side mirror. Launches replace any
+     * projectile already here with the same ID, as the server sends projectiles again to players coming back into range
+     * of them.
+     * @param packet The packet sent by the server.
+     */
+    public synchronized void applyPacket(SpellProjectilesPacket packet)
+    {
+        if(packet.getRemovalCount() > 0 || packet.getLaunchCount() > 0)
+        {
+            Set<Integer> removedIds = new HashSet<Integer>();
+            
+            for(int i = 0; i < packet.getRemovalCount(); i++)
+                removedIds.add(packet.getRemovedId(i));
+            
+            for(int i = 0; i < packet.getLaunchCount(); i++)
+                removedIds.add(packet.getLaunchId(i));
+            
+            for(int i = 0; i < count;)
+            {
+                if(removedIds.contains(ids[i]))
+                    remove(i);
+                else
+                    i++;
+            }
+        }
+        
+        for(int i = 0; i < packet.getLaunchCount(); i++)
+            add(packet.getLaunchId(i), null, null,
+                packet.getLaunchValue(i, 0), packet.getLaunchValue(i, 1), packet.getLaunchValue(i, 2),
+                packet.getLaunchValue(i, 3), packet.getLaunchValue(i, 4), packet.getLaunchValue(i, 5),
+                packet.getLaunchLifetime(i), null);
+    }
+    
+    /**
+     * Moves all projectiles along by a tick, bursting the phrases of any that hit something, and sends players any
+     * changes to the projectiles around them since the last tick.
+     */
+    public void tick()
+    {
+        List<Impact> impacts = moveProjectiles();
+        
+        // Phrases are burst after all of the projectiles have moved, so that anything bursting them does (such as
+        // launching more projectiles) can't get in the way.
+        for(Impact impact : impacts)
+        {
+            try
+            { impact.burst(); }
+            catch(RuntimeException e)
+            {
+                System.out.println("Spell projectile phrases failed to burst:");
+                e.printStackTrace();
+            }
+        }
+    }
+    
+    /**
+     * Moves all projectiles along by a tick, and removes any that hit something or ran out of time.
+     * @return The impacts of the projectiles that hit something.
+     */
+    protected synchronized List<Impact> moveProjectiles()
+    {
+        List<Impact> impacts = new ArrayList<Impact>();
+        
+        if(count > 0 && !remote)
+            buildEntityGrid();
+        
+        for(int i = 0; i < count;)
+        {
+            if(moveProjectile(i, impacts))
+                i++;
+            else
+                remove(i);
+        }
+        
+        if(!remote)
+            sendUpdates();
+        
+        return impacts;
+    }
+    
+    /**
+     * Moves a single projectile along by a tick.
+     * @param i The index of the projectile.
+     * @param impacts The list to add the projectile's impact to, if it hits something.
+     * @return True if the projectile is still flying, or false if it should be removed.
+     */
+    protected boolean moveProjectile(int i, List<Impact> impacts)
+    {
+        age[i]++;
+        
+        // Clients are told when projectiles are removed, but they're also removed here in case that gets lost.
+        if(--ticksLeft[i] < 0)
+        {
+            if(!remote)
+                pendingRemovals.add(ids[i]);
+            
+            return false;
+        }
+        
+        double x  = posX[i], y  = posY[i], z  = posZ[i];
+        double dx = velX[i], dy = velY[i], dz = velZ[i];
+        
+        // Clients don't work out what projectiles hit; they're told when they're gone.
+        if(!remote)
+        {
+            double blockTime = sweepBlocks(x, y, z, dx, dy, dz);
+            Entity entityHit = sweepEntities(i, x, y, z, dx, dy, dz, Math.min(blockTime, 1));
+            
+            if(entityHit != null || blockTime != noHit)
+            {
+                pendingRemovals.add(ids[i]);
+                
+                // Projectiles flying into unloaded chunks just fizzle out.
+                if(entityHit == null && sweptIntoUnloadedBlock)
+                    return false;
+                
+                double time = entityHit != null ? entityHitTime : blockTime;
+                BlockLocation blockHit = entityHit != null ? null
+                                                           : new BlockLocation(worldId, blockHitX, blockHitY, blockHitZ);
+                
+                Location burstLocation = new Location(worldId, x + dx * time, y + dy * time, z + dz * time);
+                Direction burstDirection = new Direction(Math.toDegrees(-Math.atan2(dy, Math.sqrt(dx * dx + dz * dz))),
+                                                         Math.toDegrees(Math.atan2(-dx, dz)));
+                
+                impacts.add(new Impact(casts[i], phrases[i], blockHit, entityHit, burstLocation, burstDirection));
+                return false;
+            }
+        }
+        
+        prevX[i] = x;
+        prevY[i] = y;
+        prevZ[i] = z;
+        posX[i] = x + dx;
+        posY[i] = y + dy;
+        posZ[i] = z + dz;
+        velX[i] = dx * drag;
+        velY[i] = dy * drag - gravity;
+        velZ[i] = dz * drag;
+        return true;
+    }
+    
+    /**
+     * Steps through the blocks along a projectile's path this tick, until it hits one that can be collided with.
+     * (voxel DDA) The block the projectile starts in isn't checked, as it was either checked on the previous tick, or
+     * is the block the projectile was launched from.
+     * @param x The X coördinate the projectile is at.
+     * @param y The Y coördinate the projectile is at.
+     * @param z The Z coördinate the projectile is at.
+     * @param dx The distance along the X axis the projectile will travel this tick.
+     * @param dy The distance along the Y axis the projectile will travel this tick.
+     * @param dz The distance along the Z axis the projectile will travel this tick.
+     * @return How far through the tick the projectile is (from 0 to 1) when it hits a block, or noHit if it doesn't.
+     * The block hit is left in blockHitX/Y/Z, and whether it's in an unloaded chunk in sweptIntoUnloadedBlock.
+     */
+    protected double sweepBlocks(double x, double y, double z, double dx, double dy, double dz)
+    {
+        sweptIntoUnloadedBlock = false;
+        
+        int blockX = (int)Math.floor(x);
+        int blockY = (int)Math.floor(y);
+        int blockZ = (int)Math.floor(z);
+        
+        int stepX = dx > 0 ? 1 : dx < 0 ? -1 : 0;
+        int stepY = dy > 0 ? 1 : dy < 0 ? -1 : 0;
+        int stepZ = dz > 0 ? 1 : dz < 0 ? -1 : 0;
+        
+        // How far through the tick it takes to cross a whole block along each axis.
+        double timePerBlockX = stepX != 0 ? Math.abs(1 / dx) : noHit;
+        double timePerBlockY = stepY != 0 ? Math.abs(1 / dy) : noHit;
+        double timePerBlockZ = stepZ != 0 ? Math.abs(1 / dz) : noHit;
+        
+        // How far through the tick the projectile crosses into the next block along each axis.
+        double nextTimeX = stepX > 0 ? (blockX + 1 - x) / dx : stepX < 0 ? (x - blockX) / -dx : noHit;
+        double nextTimeY = stepY > 0 ? (blockY + 1 - y) / dy : stepY < 0 ? (y - blockY) / -dy : noHit;
+        double nextTimeZ = stepZ > 0 ? (blockZ + 1 - z) / dz : stepZ < 0 ? (z - blockZ) / -dz : noHit;
+        
+        for(;;)
+        {
+            double time;
+            
+            if(nextTimeX <= nextTimeY && nextTimeX <= nextTimeZ)
+            {
+                time       =  nextTimeX;
+                blockX     += stepX;
+                nextTimeX  += timePerBlockX;
+            }
+            else if(nextTimeY <= nextTimeZ)
+            {
+                time       =  nextTimeY;
+                blockY     += stepY;
+                nextTimeY  += timePerBlockY;
+            }
+            else
+            {
+                time       =  nextTimeZ;
+                blockZ     += stepZ;
+                nextTimeZ  += timePerBlockZ;
+            }
+            
+            if(time > 1)
+                return noHit;
+            
+            // Nothing to hit above or below the world.
+            if(blockY < 0 || blockY >= 256)
+                continue;
+            
+            if(!world.blockExists(blockX, blockY, blockZ))
+            {
+                sweptIntoUnloadedBlock = true;
+                return time;
+            }
+            
+            Block block = world.getBlock(blockX, blockY, blockZ);
+            
+            if(block.getCollisionBoundingBoxFromPool(world, blockX, blockY, blockZ) != null)
+            {
+                blockHitX = blockX;
+                blockHitY = blockY;
+                blockHitZ = blockZ;
+                return time;
+            }
+        }
+    }
+    
+    /**
+     * Finds the first entity along a projectile's path this tick, using the entity grid.
+     * @param i The index of the projectile.
+     * @param x The X coördinate the projectile is at.
+     * @param y The Y coördinate the projectile is at.
+     * @param z The Z coördinate the projectile is at.
+     * @param dx The distance along the X axis the projectile will travel this tick.
+     * @param dy The distance along the Y axis the projectile will travel this tick.
+     * @param dz The distance along the Z axis the projectile will travel this tick.
+     * @param maxTime How far through the tick to check, from 0 to 1. e.g. up until the projectile hits a block.
+     * @return The first entity hit, or null if none were. How far through the tick it was hit is left in
+     * entityHitTime.
+     */
+    protected Entity sweepEntities(int i, double x, double y, double z, double dx, double dy, double dz, double maxTime)
+    {
+        if(entityGrid.isEmpty())
+            return null;
+        
+        int minCellX = (int)Math.floor(Math.min(x, x + dx * maxTime) - hitMargin) >> cellShift;
+        int maxCellX = (int)Math.floor(Math.max(x, x + dx * maxTime) + hitMargin) >> cellShift;
+        int minCellZ = (int)Math.floor(Math.min(z, z + dz * maxTime) - hitMargin) >> cellShift;
+        int maxCellZ = (int)Math.floor(Math.max(z, z + dz * maxTime) + hitMargin) >> cellShift;
+        
+        Entity closest     = null;
+        double closestTime = maxTime;
+        
+        for(int cellX = minCellX; cellX <= maxCellX; cellX++)
+            for(int cellZ = minCellZ; cellZ <= maxCellZ; cellZ++)
+            {
+                List<Entity> cell = entityGrid.get(getCellKey(cellX, cellZ));
+                
+                if(cell == null)
+                    continue;
+                
+                for(Entity entity : cell)
+                {
+                    if(entity == closest || (entity == shooters[i] && age[i] <= shooterGracePeriod))
+                        continue;
+                    
+                    double time = getTimeOfHit(entity.boundingBox, x, y, z, dx, dy, dz, closestTime);
+                    
+                    if(time >= 0)
+                    {
+                        closest     = entity;
+                        closestTime = time;
+                    }
+                }
+            }
+        
+        entityHitTime = closestTime;
+        return closest;
+    }
+    
+    /**
+     * Gets how far through the tick a projectile's path passes within the hit margin of a bounding box.
+     * @param box The bounding box.
+     * @param x The X coördinate the projectile is at.
+     * @param y The Y coördinate the projectile is at.
+     * @param z The Z coördinate the projectile is at.
+     * @param dx The distance along the X axis the projectile will travel this tick.
+     * @param dy The distance along the Y axis the projectile will travel this tick.
+     * @param dz The distance along the Z axis the projectile will travel this tick.
+     * @param maxTime How far through the tick to check, from 0 to 1.
+     * @return How far through the tick the box is hit, or -1 if it isn't hit before maxTime.
+     */
+    protected static double getTimeOfHit(AxisAlignedBB box, double x,  double y,  double z,
+                                                            double dx, double dy, double dz, double maxTime)
+    {
+        double enter = 0;
+        double leave = maxTime;
+        
+        if(dx == 0)
+        {
+            if(x < box.minX - hitMargin || x > box.maxX + hitMargin)
+                return -1;
+        }
+        else
+        {
+            double first  = (box.minX - hitMargin - x) / dx;
+            double second = (box.maxX + hitMargin - x) / dx;
+            enter = Math.max(enter, Math.min(first, second));
+            leave = Math.min(leave, Math.max(first, second));
+        }
+        
+        if(dy == 0)
+        {
+            if(y < box.minY - hitMargin || y > box.maxY + hitMargin)
+                return -1;
+        }
+        else
+        {
+            double first  = (box.minY - hitMargin - y) / dy;
+            double second = (box.maxY + hitMargin - y) / dy;
+            enter = Math.max(enter, Math.min(first, second));
+            leave = Math.min(leave, Math.max(first, second));
+        }
+        
+        if(dz == 0)
+        {
+            if(z < box.minZ - hitMargin || z > box.maxZ + hitMargin)
+                return -1;
+        }
+        else
+        {
+            double first  = (box.minZ - hitMargin - z) / dz;
+            double second = (box.maxZ + hitMargin - z) / dz;
+            enter = Math.max(enter, Math.min(first, second));
+            leave = Math.min(leave, Math.max(first, second));
+        }
+        
+        return enter <= leave && enter < maxTime ? enter : -1;
+    }
+    
+    /**
+     * Sorts the entities that could be hit this tick into grid cells, by the columns of blocks their bounding boxes
+     * are in. Only the entities in the chunk sections the projectiles' paths this tick pass near are looked at, rather
+     * than every entity in the world.
+     */
+    protected void buildEntityGrid()
+    {
+        for(List<Entity> cell : entityGrid.values())
+            cell.clear();
+        
+        // The lowest and highest chunk sections to look through in each chunk near a projectile's path.
+        Map<Long, int[]> sectionsByChunk = new HashMap<Long, int[]>();
+        
+        for(int i = 0; i < count; i++)
+        {
+            double reach = hitMargin + maxEntityRadius;
+            
+            int minChunkX  = (int)Math.floor(Math.min(posX[i], posX[i] + velX[i]) - reach) >> 4;
+            int maxChunkX  = (int)Math.floor(Math.max(posX[i], posX[i] + velX[i]) + reach) >> 4;
+            int minChunkZ  = (int)Math.floor(Math.min(posZ[i], posZ[i] + velZ[i]) - reach) >> 4;
+            int maxChunkZ  = (int)Math.floor(Math.max(posZ[i], posZ[i] + velZ[i]) + reach) >> 4;
+            int minSection = (int)Math.floor(Math.min(posY[i], posY[i] + velY[i]) - reach) >> 4;
+            int maxSection = (int)Math.floor(Math.max(posY[i], posY[i] + velY[i]) + reach) >> 4;
+            
+            for(int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++)
+                for(int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++)
+                {
+                    Long key = LoadedChunks.getChunkKey(chunkX, chunkZ);
+                    int[] sections = sectionsByChunk.get(key);
+                    
+                    if(sections == null)
+                        sectionsByChunk.put(key, new int[] { minSection, maxSection });
+                    else
+                    {
+                        sections[0] = Math.min(sections[0], minSection);
+                        sections[1] = Math.max(sections[1], maxSection);
+                    }
+                }
+        }
+        
+        for(Map.Entry<Long, int[]> entry : sectionsByChunk.entrySet())
+        {
+            int chunkX = LoadedChunks.getChunkX(entry.getKey());
+            int chunkZ = LoadedChunks.getChunkZ(entry.getKey());
+            
+            // Projectiles flying into unloaded chunks fizzle out, so there's nothing to hit there.
+            if(!LoadedChunks.isChunkLoaded(world, chunkX, chunkZ))
+                continue;
+            
+            List[] entityLists = world.getChunkFromChunkCoords(chunkX, chunkZ).entityLists;
+            
+            // Entities outside of the world's height are kept in the top or bottom section.
+            int minSection = Math.max(entry.getValue()[0], 0);
+            int maxSection = Math.min(entry.getValue()[1], entityLists.length - 1);
+            
+            for(int section = minSection; section <= maxSection; section++)
+                for(Object i : entityLists[section])
+                    addToEntityGrid((Entity)i);
+        }
+        
+        // Cells are kept between ticks so their lists can be reused, but not once nothing's in them.
+        for(Iterator<List<Entity>> i = entityGrid.values().iterator(); i.hasNext();)
+            if(i.next().isEmpty())
+                i.remove();
+    }
+    
+    /**
+     * Adds an entity to the grid cells its bounding box is in, if it can be hit.
+     * @param entity The entity to add.
+     */
+    protected void addToEntityGrid(Entity entity)
+    {
+        AxisAlignedBB box = entity.boundingBox;
+        
+        if(entity.isDead || box == null || !entity.canBeCollidedWith())
+            return;
+        
+        int minCellX = (int)Math.floor(box.minX - hitMargin) >> cellShift;
+        int maxCellX = (int)Math.floor(box.maxX + hitMargin) >> cellShift;
+        int minCellZ = (int)Math.floor(box.minZ - hitMargin) >> cellShift;
+        int maxCellZ = (int)Math.floor(box.maxZ + hitMargin) >> cellShift;
+        
+        for(int cellX = minCellX; cellX <= maxCellX; cellX++)
+            for(int cellZ = minCellZ; cellZ <= maxCellZ; cellZ++)
+            {
+                Long key = getCellKey(cellX, cellZ);
+                List<Entity> cell = entityGrid.get(key);
+                
+                if(cell == null)
+                {
+                    cell = new ArrayList<Entity>();
+                    entityGrid.put(key, cell);
+                }
+                
+                cell.add(entity);
+            }
+    }
+    
+    static long getCellKey(int cellX, int cellZ)
+    { return ((long)cellX << 32) | (cellZ & 0xFFFFFFFFL); }
+    
+    /**
+     * Gets the packet that launches and removals being sent to a player should currently be added to.
+     * @param packets The packets being sent to the player. The last one is the one being filled.
+     * @return The packet being filled.
+     */
+    protected static SpellProjectilesPacket getPacketToFill(List<SpellProjectilesPacket> packets)
+    {
+        SpellProjectilesPacket packet = packets.isEmpty() ? null : packets.get(packets.size() - 1);
+        
+        if(packet == null || packet.isFull())
+        {
+            packet = new SpellProjectilesPacket();
+            packets.add(packet);
+        }
+        
+        return packet;
+    }
+    
+    /**
+     * Sends each player in this world the projectiles that have come within tracking range of them, and tells them
+     * about the ones they've been sent that have since been removed or gone out of range.
+     */
+    protected void sendUpdates()
+    {
+        List<EntityPlayerMP> players = new ArrayList<EntityPlayerMP>();
+        
+        for(Object player : world.playerEntities)
+            if(player instanceof EntityPlayerMP)
+                players.add((EntityPlayerMP)player);
+        
+        // Players no longer in the world are forgotten, so they're sent everything around them again if they return.
+        idsSentTo.keySet().retainAll(players);
+        
+        double rangeSquared = trackingRange * trackingRange;
+        List<SpellProjectilesPacket> packets = new ArrayList<SpellProjectilesPacket>();
+        
+        for(EntityPlayerMP player : players)
+        {
+            Set<Integer> sent = idsSentTo.get(player);
+            
+            if(sent == null)
+            {
+                sent = new HashSet<Integer>();
+                idsSentTo.put(player, sent);
+            }
+            
+            for(Integer id : pendingRemovals)
+                if(sent.remove(id))
+                    getPacketToFill(packets).addRemoval(id);
+            
+            for(int i = 0; i < count; i++)
+            {
+                double  dx      = posX[i] - player.posX;
+                double  dz      = posZ[i] - player.posZ;
+                boolean inRange = dx * dx + dz * dz <= rangeSquared;
+                
+                // Sent as they are now rather than as they were launched, so a player coming into range of one
+                // part-way through its flight sees it where it is.
+                if(inRange && sent.add(ids[i]))
+                    getPacketToFill(packets).addLaunch(ids[i], posX[i], posY[i], posZ[i], velX[i], velY[i], velZ[i],
+                                                       ticksLeft[i]);
+                else if(!inRange && sent.remove(ids[i]))
+                    getPacketToFill(packets).addRemoval(ids[i]);
+            }
+            
+            if(ArcaneBooks.instance != null && ArcaneBooks.instance.packetChannel != null)
+                for(SpellProjectilesPacket packet : packets)
+                    ArcaneBooks.instance.packetChannel.sendTo(packet, player);
+            
+            packets.clear();
+        }
+        
+        pendingRemovals.clear();
+    }
+    
+    /**
+     * Adds a projectile to the end of the arrays, making room for it if needed.
+     */
+    protected void add(int id, SpellCast cast, Entity shooter, double x, double y, double z,
+                       double velocityX, double velocityY, double velocityZ, int lifetime, Phrase[] phrases)
+    {
+        if(count == ids.length)
+        {
+            int capacity = count * 2;
+            
+            ids       = Arrays.copyOf(ids,       capacity);
+            posX      = Arrays.copyOf(posX,      capacity);
+            posY      = Arrays.copyOf(posY,      capacity);
+            posZ      = Arrays.copyOf(posZ,      capacity);
+            prevX     = Arrays.copyOf(prevX,     capacity);
+            prevY     = Arrays.copyOf(prevY,     capacity);
+            prevZ     = Arrays.copyOf(prevZ,     capacity);
+            velX      = Arrays.copyOf(velX,      capacity);
+            velY      = Arrays.copyOf(velY,      capacity);
+            velZ      = Arrays.copyOf(velZ,      capacity);
+            ticksLeft = Arrays.copyOf(ticksLeft, capacity);
+            age       = Arrays.copyOf(age,       capacity);
+            casts     = Arrays.copyOf(casts,     capacity);
+            this.phrases = Arrays.copyOf(this.phrases, capacity);
+            shooters  = Arrays.copyOf(shooters,  capacity);
+        }
+        
+        int i = count++;
+        ids[i]       = id;
+        posX[i]      = x;
+        posY[i]      = y;
+        posZ[i]      = z;
+        prevX[i]     = x;
+        prevY[i]     = y;
+        prevZ[i]     = z;
+        velX[i]      = velocityX;
+        velY[i]      = velocityY;
+        velZ[i]      = velocityZ;
+        ticksLeft[i] = lifetime;
+        age[i]       = 0;
+        casts[i]     = cast;
+        this.phrases[i] = phrases;
+        shooters[i]  = shooter;
+    }
+    
+    /**
+     * Removes the projectile at the passed index, by moving the last projectile into its place.
+     * @param i The index of the projectile to remove.
+     */
+    protected void remove(int i)
+    {
+        int last = --count;
+        
+        if(i != last)
+        {
+            ids[i]       = ids[last];
+            posX[i]      = posX[last];
+            posY[i]      = posY[last];
+            posZ[i]      = posZ[last];
+            prevX[i]     = prevX[last];
+            prevY[i]     = prevY[last];
+            prevZ[i]     = prevZ[last];
+            velX[i]      = velX[last];
+            velY[i]      = velY[last];
+            velZ[i]      = velZ[last];
+            ticksLeft[i] = ticksLeft[last];
+            age[i]       = age[last];
+            casts[i]     = casts[last];
+            phrases[i]   = phrases[last];
+            shooters[i]  = shooters[last];
+        }
+        
+        casts[last]    = null;
+        phrases[last]  = null;
+        shooters[last] = null;
+    }
+    
+    /**
+     * Gets the number of projectiles currently flying.
+     * @return The number of projectiles.
+     */
+    public synchronized int getProjectileCount()
+    { return count; }
+    
+    /**
+     * Copies the positions of all projectiles currently flying into the passed array, as x, y and z for each. e.g. for
+     * drawing them.
+     * @param positions The array to copy the positions into, or null to create a new one.
+     * @return The array of positions. If the passed array wasn't big enough, this will be a new one.
+     */
+    public synchronized double[] getPositions(double[] positions)
+    {
+        if(positions == null || positions.length < count * 3)
+            positions = new double[count * 3];
+        
+        for(int i = 0; i < count; i++)
+        {
+            positions[i * 3    ] = posX[i];
+            positions[i * 3 + 1] = posY[i];
+            positions[i * 3 + 2] = posZ[i];
+        }
+        
+        return positions;
+    }
+    
+    /**
+     * Copies the positions of all projectiles currently flying into the passed array, as x, y and z for each, part-way
+     * between where they were on the last tick and where they are now. e.g. for drawing them smoothly between ticks.
+     * @param positions The array to copy the positions into, or null to create a new one.
+     * @param partialTicks How far through the current tick it is, from 0 to 1.
+     * @return The array of positions. If the passed array wasn't big enough, this will be a new one.
+     */
+    public synchronized double[] getPositions(double[] positions, float partialTicks)
+    {
+        if(positions == null || positions.length < count * 3)
+            positions = new double[count * 3];
+        
+        for(int i = 0; i < count; i++)
+        {
+            positions[i * 3    ] = prevX[i] + (posX[i] - prevX[i]) * partialTicks;
+            positions[i * 3 + 1] = prevY[i] + (posY[i] - prevY[i]) * partialTicks;
+            positions[i * 3 + 2] = prevZ[i] + (posZ[i] - prevZ[i]) * partialTicks;
+        }
+        
+        return positions;
+    }
+}
@@ -0,0 +1,82 @@
+package com.haniitsu.arcanebooks.projectiles;
+
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.renderer.Tessellator;
+import net.minecraft.client.renderer.entity.RenderManager;
+import net.minecraft.client.renderer.texture.TextureMap;
+import net.minecraft.init.Items;
+import net.minecraft.util.IIcon;
+import net.minecraft.world.World;
+import net.minecraftforge.client.event.RenderWorldLastEvent;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL12;
+
+/**
+ * Draws the client's mirror of the spell projectiles in the world it's in, since they aren't entities and don't get
+ * drawn by an entity renderer.
+ *
+ * Each projectile is drawn as an item sprite facing the player, the same way as thrown snowballs, at a position
+ * part-way between where it was on the last tick and where it is now so they move smoothly between ticks.
+ */
+public class SpellProjectileRenderer
+{
+    @SubscribeEvent
+    public void onRenderWorldLast(RenderWorldLastEvent event)
+    {
+        World world = Minecraft.getMinecraft().theWorld;
+        
+        if(world == null)
+            return;
+        
+        SpellProjectileManager manager = SpellProjectileManager.getIfPresent(world);
+        
+        if(manager == null)
+            return;
+        
+        int count;
+        
+        synchronized(manager)
+        {
+            positions = manager.getPositions(positions, event.partialTicks);
+            count = manager.getProjectileCount();
+        }
+        
+        if(count == 0)
+            return;
+        
+        // TO DO: Make it not look like a fire charge.
+        IIcon icon = Items.fire_charge.getIconFromDamage(0);
+        RenderManager renderManager = RenderManager.instance;
+        Tessellator tessellator = Tessellator.instance;
+        
+        Minecraft.getMinecraft().getTextureManager().bindTexture(TextureMap.locationItemsTexture);
+        GL11.glEnable(GL12.GL_RESCALE_NORMAL);
+        
+        for(int i = 0; i < count; i++)
+        {
+            GL11.glPushMatrix();
+            GL11.glTranslatef((float)(positions[i * 3    ] - RenderManager.renderPosX),
+                              (float)(positions[i * 3 + 1] - RenderManager.renderPosY),
+                              (float)(positions[i * 3 + 2] - RenderManager.renderPosZ));
+            GL11.glScalef(0.5F, 0.5F, 0.5F);
+            GL11.glRotatef(180.0F - renderManager.playerViewY, 0.0F, 1.0F, 0.0F);
+            GL11.glRotatef(-renderManager.playerViewX, 1.0F, 0.0F, 0.0F);
+            
+            tessellator.startDrawingQuads();
+            tessellator.setNormal(0.0F, 1.0F, 0.0F);
+            tessellator.addVertexWithUV(-0.5, -0.25, 0, icon.getMinU(), icon.getMaxV());
+            tessellator.addVertexWithUV( 0.5, -0.25, 0, icon.getMaxU(), icon.getMaxV());
+            tessellator.addVertexWithUV( 0.5,  0.75, 0, icon.getMaxU(), icon.getMinV());
+            tessellator.addVertexWithUV(-0.5,  0.75, 0, icon.getMinU(), icon.getMinV());
+            tessellator.draw();
+            
+            GL11.glPopMatrix();
+        }
+        
+        GL11.glDisable(GL12.GL_RESCALE_NORMAL);
+    }
+    
+    /** The array projectiles' positions are copied into each frame, kept so a new one isn't made every frame. */
+    protected double[] positions = null;
+}
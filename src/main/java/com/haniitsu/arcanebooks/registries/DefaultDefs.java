@@ -2,14 +2,24 @@ package com.haniitsu.arcanebooks.registries;
 
 import com.google.common.primitives.Doubles;
 import com.google.common.primitives.Ints;
+import com.haniitsu.arcanebooks.ArcaneBooks;
 import com.haniitsu.arcanebooks.magic.ConfiguredDefinition;
+import com.haniitsu.arcanebooks.magic.Spell;
 import com.haniitsu.arcanebooks.magic.SpellArgs;
+import com.haniitsu.arcanebooks.magic.SpellEffect;
 import com.haniitsu.arcanebooks.magic.SpellEffectDefinition;
 import com.haniitsu.arcanebooks.magic.castcaches.BreakBlockCache;
+import com.haniitsu.arcanebooks.magic.castcaches.CastCache;
 import com.haniitsu.arcanebooks.magic.castcaches.DamageCache;
+import com.haniitsu.arcanebooks.magic.castcaches.DetectCache;
 import com.haniitsu.arcanebooks.magic.castcaches.GivePotionEffectCache;
 import com.haniitsu.arcanebooks.magic.castcaches.HealCache;
+import com.haniitsu.arcanebooks.magic.castcaches.TriggerSpellCache;
+import com.haniitsu.arcanebooks.magic.caster.SpellCaster;
 import com.haniitsu.arcanebooks.magic.caster.SpellCasterEntity;
+import com.haniitsu.arcanebooks.magic.caster.SpellCasterPlayer;
+import com.haniitsu.arcanebooks.magic.detection.DetectSelector;
+import com.haniitsu.arcanebooks.magic.detection.WatchedRegionIndex;
 import com.haniitsu.arcanebooks.magic.modifiers.definition.BasicDefinitionModifier;
 import com.haniitsu.arcanebooks.magic.modifiers.definition.LogicalCheckDefinitionModifier;
 import com.haniitsu.arcanebooks.magic.modifiers.definition.ModifierValueDefinitionModifier;
@@ -17,7 +27,6 @@ import com.haniitsu.arcanebooks.magic.modifiers.definition.NumericDefinitionModi
 import com.haniitsu.arcanebooks.magic.modifiers.definition.SpellEffectDefinitionModifier;
 import com.haniitsu.arcanebooks.magic.modifiers.effect.SpellTarget;
 import com.haniitsu.arcanebooks.misc.BlockLocation;
-import com.haniitsu.arcanebooks.misc.Location;
 import com.haniitsu.arcanebooks.util.ArcaneSpellEntityDamageSource;
 import com.haniitsu.arcanebooks.util.ArcaneSpellGeneralDamageSource;
 import java.util.ArrayList;
@@ -27,6 +36,7 @@ import net.minecraft.entity.Entity;
 import net.minecraft.entity.EntityList;
 import net.minecraft.entity.EntityLivingBase;
 import net.minecraft.entity.item.EntityItem;
+import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.item.ItemStack;
 import net.minecraft.potion.Potion;
 import net.minecraft.potion.PotionEffect;
@@ -102,9 +112,11 @@ class DefaultDefs
         {
             if(def.getLogicalModifiers().isEmpty())
             {
+                SpellArgs newArgs = spellArgs.withAffectedEntities(new ArrayList<Entity>());
+                
                 for(SpellEffectDefinitionModifier toCall : def.getModifiers())
                     if(toCall instanceof ConfiguredDefinition)
-                        ((ConfiguredDefinition)toCall).PerformEffect(spellArgs.withAffectedEntities(new ArrayList<Entity>()));
+                        ((ConfiguredDefinition)toCall).PerformEffect(newArgs);
                 
                 return;
             }
@@ -121,9 +133,11 @@ class DefaultDefs
                 affectedEntities.add(entity);
             }
             
+            SpellArgs newArgs = spellArgs.withAffectedEntities(affectedEntities);
+            
             for(SpellEffectDefinitionModifier toCall : def.getModifiers())
                 if(toCall instanceof ConfiguredDefinition)
-                    ((ConfiguredDefinition)toCall).PerformEffect(spellArgs.withAffectedEntities(affectedEntities));
+                    ((ConfiguredDefinition)toCall).PerformEffect(newArgs);
         }
     };
     
@@ -142,9 +156,11 @@ class DefaultDefs
                         break; // stop checking if the current entity is specified. It is.
                     }
             
+            SpellArgs newArgs = spellArgs.withAffectedEntities(affectedEntities);
+            
             for(SpellEffectDefinitionModifier toCall : def.getModifiers())
                 if(toCall instanceof ConfiguredDefinition)
-                    ((ConfiguredDefinition)toCall).PerformEffect(spellArgs.withAffectedEntities(affectedEntities));
+                    ((ConfiguredDefinition)toCall).PerformEffect(newArgs);
         }
     };
     
@@ -155,9 +171,11 @@ class DefaultDefs
         {
             if(def.getLogicalModifiers().isEmpty())
             {
+                SpellArgs newArgs = spellArgs.withAffectedBlocks(new ArrayList<BlockLocation>());
+                
                 for(SpellEffectDefinitionModifier toCall : def.getModifiers())
                     if(toCall instanceof ConfiguredDefinition)
-                        ((ConfiguredDefinition)toCall).PerformEffect(spellArgs.withAffectedBlocks(new ArrayList<BlockLocation>()));
+                        ((ConfiguredDefinition)toCall).PerformEffect(newArgs);
                 
                 return;
             }
@@ -183,9 +201,11 @@ class DefaultDefs
                 affectedBlocks.add(block);
             }
             
+            SpellArgs newArgs = spellArgs.withAffectedBlocks(affectedBlocks);
+            
             for(SpellEffectDefinitionModifier toCall : def.getModifiers())
                 if(toCall instanceof ConfiguredDefinition)
-                    ((ConfiguredDefinition)toCall).PerformEffect(spellArgs.withAffectedBlocks(affectedBlocks));
+                    ((ConfiguredDefinition)toCall).PerformEffect(newArgs);
         }
     };
     
@@ -210,9 +230,11 @@ class DefaultDefs
                         }
                     }
             
+            SpellArgs newArgs = spellArgs.withAffectedBlocks(affectedBlocks);
+            
             for(SpellEffectDefinitionModifier toCall : def.getModifiers())
                 if(toCall instanceof ConfiguredDefinition)
-                    ((ConfiguredDefinition)toCall).PerformEffect(spellArgs.withAffectedBlocks(affectedBlocks));
+                    ((ConfiguredDefinition)toCall).PerformEffect(newArgs);
         }
     };
     
@@ -228,6 +250,10 @@ class DefaultDefs
         // I need to find out how to set a strong or weak redstone signal on a block without creating a block that
         // passes a redstone signal in order to do this.
         
+        @Override
+        public long getMaxWorldWrites(long blocksAffected, long entitiesAffected)
+        { return blocksAffected; }
+        
         @Override
         public void performEffect(SpellArgs spellArgs, ConfiguredDefinition def)
         { throw new NotImplementedException("Not implemented yet."); }
@@ -251,62 +277,66 @@ class DefaultDefs
     static final SpellEffectDefinition breakBlock = new SpellEffectDefinition("BreakBlock")
     {
         @Override
-        public void performEffect(SpellArgs spellArgs, ConfiguredDefinition def)
+        public long getMaxWorldWrites(long blocksAffected, long entitiesAffected)
+        { return blocksAffected; }
+        
+        @Override
+        public CastCache makeCastCache(ConfiguredDefinition def)
         {
-            BreakBlockCache cache = (BreakBlockCache)def.getCastCache();
-            
-            if(cache == null)
+            boolean stopNormalDrops = false;
+            boolean dropExactItem = false;
+            boolean silkTouch = false;
+            int fortuneLevel = 0;
+
+            for(SpellEffectDefinitionModifier i : def.getModifiers())
             {
-                boolean stopNormalDrops = false;
-                boolean dropExactItem = false;
-                boolean silkTouch = false;
-                int fortuneLevel = 0;
+                if(!(i instanceof BasicDefinitionModifier))
+                    continue;
 
-                for(SpellEffectDefinitionModifier i : def.getModifiers())
+                if(i.getName().equalsIgnoreCase("stopnormaldrops"))
                 {
-                    if(!(i instanceof BasicDefinitionModifier))
-                        continue;
-
-                    if(i.getName().equalsIgnoreCase("stopnormaldrops"))
-                    {
-                        stopNormalDrops = true;
-                        break;
-                    }
-                    else if(i.getName().equalsIgnoreCase("dropexactitem")
-                         || i.getName().equalsIgnoreCase("drop exact item")
-                         || i.getName().equalsIgnoreCase("dropexact")
-                         || i.getName().equalsIgnoreCase("drop exact"))
-                    {
-                        dropExactItem = true;
-                        break;
-                    }
-                    else if(i.getName().equalsIgnoreCase("silktouch")
-                         || i.getName().equalsIgnoreCase("silk touch")
-                         || i.getName().equalsIgnoreCase("silk"))
+                    stopNormalDrops = true;
+                    break;
+                }
+                else if(i.getName().equalsIgnoreCase("dropexactitem")
+                     || i.getName().equalsIgnoreCase("drop exact item")
+                     || i.getName().equalsIgnoreCase("dropexact")
+                     || i.getName().equalsIgnoreCase("drop exact"))
+                {
+                    dropExactItem = true;
+                    break;
+                }
+                else if(i.getName().equalsIgnoreCase("silktouch")
+                     || i.getName().equalsIgnoreCase("silk touch")
+                     || i.getName().equalsIgnoreCase("silk"))
+                {
+                    silkTouch = true;
+                    break;
+                }
+                else if(i.getName().equalsIgnoreCase("fortune"))
+                {
+                    Integer level = Ints.tryParse(i.getValue());
+                    
+                    if(level != null)
                     {
-                        silkTouch = true;
-                        break;
+                        fortuneLevel = level;
+                        continue;
                     }
-                    else if(i.getName().equalsIgnoreCase("fortune"))
-                    {
-                        Integer level = Ints.tryParse(i.getValue());
-                        
-                        if(level != null)
-                        {
-                            fortuneLevel = level;
-                            continue;
-                        }
 
-                        for(SpellEffectDefinitionModifier j : i.getSubModifiers())
-                            if(j instanceof NumericDefinitionModifier)
-                                fortuneLevel = ((NumericDefinitionModifier)j).asInt();
-                    }
+                    for(SpellEffectDefinitionModifier j : i.getSubModifiers())
+                        if(j instanceof NumericDefinitionModifier)
+                            fortuneLevel = ((NumericDefinitionModifier)j).asInt();
                 }
-                
-                cache = new BreakBlockCache(stopNormalDrops, dropExactItem, silkTouch, fortuneLevel);
-                def.setCastCache(cache);
             }
             
+            return new BreakBlockCache(stopNormalDrops, dropExactItem, silkTouch, fortuneLevel);
+        }
+        
+        @Override
+        public void performEffect(SpellArgs spellArgs, ConfiguredDefinition def)
+        {
+            BreakBlockCache cache = (BreakBlockCache)def.getCastCache();
+            
             for(BlockLocation block : spellArgs.getBlocksAffected())
             {
                 if(cache.stopNormalDrops()) 
@@ -334,6 +364,10 @@ class DefaultDefs
      */
     static final SpellEffectDefinition clearPotionEffects = new SpellEffectDefinition("ClearPotionEffects")
     {
+        @Override
+        public long getMaxWorldWrites(long blocksAffected, long entitiesAffected)
+        { return entitiesAffected; }
+        
         @Override
         public void performEffect(SpellArgs spellArgs, ConfiguredDefinition def)
         {
@@ -401,83 +435,88 @@ class DefaultDefs
     static final SpellEffectDefinition damage = new SpellEffectDefinition("Damage")
     {
         @Override
-        public void performEffect(SpellArgs spellArgs, ConfiguredDefinition def)
+        public long getMaxWorldWrites(long blocksAffected, long entitiesAffected)
+        { return entitiesAffected; }
+        
+        @Override
+        public CastCache makeCastCache(ConfiguredDefinition def)
         {
-            DamageCache cache = (DamageCache)def.getCastCache();
-            
-            if(cache == null)
-            {
-                double baseDamage = 1;
-                double percentOfDamageAtEdge = 1; // i.e. as a percent, how much damage is taken by those at the max distance.
+            double baseDamage = 1;
+            double percentOfDamageAtEdge = 1; // i.e. as a percent, how much damage is taken by those at the max distance.
 
-                boolean ignoreArmour = false;
-                boolean ignoreBuffs = false;
-                boolean ignoreSpellStrength = false;
+            boolean ignoreArmour = false;
+            boolean ignoreBuffs = false;
+            boolean ignoreSpellStrength = false;
 
-                boolean isFireDamage = false;
-                boolean isMagicDamage = true;
-                boolean isExplosionDamage = false;
-                Boolean isProjectile = null;
+            boolean isFireDamage = false;
+            boolean isMagicDamage = true;
+            boolean isExplosionDamage = false;
+            Boolean isProjectile = null;
 
-                for(SpellEffectDefinitionModifier modifier : def.getModifiers())
+            for(SpellEffectDefinitionModifier modifier : def.getModifiers())
+            {
+                if(modifier instanceof NumericDefinitionModifier)
+                    baseDamage = ((NumericDefinitionModifier)modifier).asDouble();
+                else if(modifier instanceof ModifierValueDefinitionModifier)
                 {
-                    if(modifier instanceof NumericDefinitionModifier)
-                        baseDamage = ((NumericDefinitionModifier)modifier).asDouble();
-                    else if(modifier instanceof ModifierValueDefinitionModifier)
-                    {
-                        Double newDamage = Doubles.tryParse(modifier.getName());
+                    Double newDamage = Doubles.tryParse(modifier.getName());
 
-                        if(newDamage != null)
-                            baseDamage = newDamage;
-                    }
-                    else if(modifier instanceof BasicDefinitionModifier)
+                    if(newDamage != null)
+                        baseDamage = newDamage;
+                }
+                else if(modifier instanceof BasicDefinitionModifier)
+                {
+                    if(modifier.getName().equalsIgnoreCase("ignorearmour")
+                    || modifier.getName().equalsIgnoreCase("ignore armour"))
+                    { ignoreArmour = true; }
+                    else if(modifier.getName().equalsIgnoreCase("ignorebuffs")
+                         || modifier.getName().equalsIgnoreCase("ignore buffs")
+                         || modifier.getName().equalsIgnoreCase("absolute"))
+                    { ignoreBuffs = true; }
+                    else if(modifier.getName().equalsIgnoreCase("ignorespellstrength")
+                         || modifier.getName().equalsIgnoreCase("ignore spell strength")
+                         || modifier.getName().equalsIgnoreCase("ignorestrength")
+                         || modifier.getName().equalsIgnoreCase("ignore strength"))
+                    { ignoreSpellStrength = true; }
+                    else if(modifier.getName().equalsIgnoreCase("fire"))
+                    { isFireDamage = true; }
+                    else if(modifier.getName().equalsIgnoreCase("explosion"))
+                    { isExplosionDamage = true; }
+                    else if(modifier.getName().equalsIgnoreCase("notmagic")
+                         || modifier.getName().equalsIgnoreCase("not magic"))
+                    { isMagicDamage = false; }
+                    else if(modifier.getName().equalsIgnoreCase("projectile"))
+                    { isProjectile = true; }
+                    else if(modifier.getName().equalsIgnoreCase("notprojectile")
+                         || modifier.getName().equalsIgnoreCase("not projectile"))
+                    { isProjectile = false; }
+                    else if(modifier.getName().equalsIgnoreCase("distancemultiplier")
+                         || modifier.getName().equalsIgnoreCase("distance multiplier"))
                     {
-                        if(modifier.getName().equalsIgnoreCase("ignorearmour")
-                        || modifier.getName().equalsIgnoreCase("ignore armour"))
-                        { ignoreArmour = true; }
-                        else if(modifier.getName().equalsIgnoreCase("ignorebuffs")
-                             || modifier.getName().equalsIgnoreCase("ignore buffs")
-                             || modifier.getName().equalsIgnoreCase("absolute"))
-                        { ignoreBuffs = true; }
-                        else if(modifier.getName().equalsIgnoreCase("ignorespellstrength")
-                             || modifier.getName().equalsIgnoreCase("ignore spell strength")
-                             || modifier.getName().equalsIgnoreCase("ignorestrength")
-                             || modifier.getName().equalsIgnoreCase("ignore strength"))
-                        { ignoreSpellStrength = true; }
-                        else if(modifier.getName().equalsIgnoreCase("fire"))
-                        { isFireDamage = true; }
-                        else if(modifier.getName().equalsIgnoreCase("explosion"))
-                        { isExplosionDamage = true; }
-                        else if(modifier.getName().equalsIgnoreCase("notmagic")
-                             || modifier.getName().equalsIgnoreCase("not magic"))
-                        { isMagicDamage = false; }
-                        else if(modifier.getName().equalsIgnoreCase("projectile"))
-                        { isProjectile = true; }
-                        else if(modifier.getName().equalsIgnoreCase("notprojectile")
-                             || modifier.getName().equalsIgnoreCase("not projectile"))
-                        { isProjectile = false; }
-                        else if(modifier.getName().equalsIgnoreCase("distancemultiplier")
-                             || modifier.getName().equalsIgnoreCase("distance multiplier"))
-                        {
-                            Double newMultiplier = Doubles.tryParse(modifier.getValue());
+                        Double newMultiplier = Doubles.tryParse(modifier.getValue());
 
-                            if(newMultiplier != null)
-                                percentOfDamageAtEdge = newMultiplier;
-                        }
+                        if(newMultiplier != null)
+                            percentOfDamageAtEdge = newMultiplier;
                     }
                 }
-                
-                cache = new DamageCache(baseDamage, percentOfDamageAtEdge,
-                                        ignoreArmour, ignoreBuffs, ignoreSpellStrength,
-                                        isFireDamage, isMagicDamage, isExplosionDamage, isProjectile);
-                def.setCastCache(cache);
             }
             
+            return new DamageCache(baseDamage, percentOfDamageAtEdge,
+                                    ignoreArmour, ignoreBuffs, ignoreSpellStrength,
+                                    isFireDamage, isMagicDamage, isExplosionDamage, isProjectile);
+        }
+        
+        @Override
+        public void performEffect(SpellArgs spellArgs, ConfiguredDefinition def)
+        {
+            DamageCache cache = (DamageCache)def.getCastCache();
+            
             double damage = cache.getBaseDamage();
             boolean isActuallyProjectile = cache.isProjectile() != null
                                            ? cache.isProjectile()
                                            : spellArgs.getSpellTarget() == SpellTarget.projectile;
             
+            // One damage source for the whole burst, shared by every entity it damages.
             DamageSource dmgSrc = spellArgs.getCaster() instanceof SpellCasterEntity
                                   ? cache.getEntityDamageSource(spellArgs, isActuallyProjectile)
                                   : cache.getGeneralDamageSource(spellArgs, isActuallyProjectile);
@@ -485,8 +524,9 @@ class DefaultDefs
             if(!cache.ignoreSpellStrength())
                 damage = damage * spellArgs.getSpellStrength().getStrengthModifier();
             
-            for(Entity entity : spellArgs.getEntitiesAffected())
+            for(SpellArgs.EntityInRange<Entity> inRange : spellArgs.getEntitiesInRange())
             {
+                Entity entity = inRange.getEntity();
                 double damageToTake;
                 
                 // The below if statement shouldn't actually be necessary - it'll work fine without it, it just saves
@@ -495,7 +535,7 @@ class DefaultDefs
                     damageToTake = damage;
                 else
                 {
-                    double actualDistance = spellArgs.getBurstLocation().getDistanceFrom(new Location(entity.posX, entity.posY, entity.posZ));
+                    double actualDistance = Math.sqrt(inRange.getDistanceSquared());
                     double distanceAsPercentOfMax = actualDistance / spellArgs.getAOESize().getDistance();
                     double percentageOfDamageToTake = cache.getPercentOfDamageAtEdge() + ((1.0 - distanceAsPercentOfMax) * (1.0 - cache.getPercentOfDamageAtEdge()));
                     damageToTake = damage * percentageOfDamageToTake;
@@ -513,22 +553,17 @@ class DefaultDefs
     static final SpellEffectDefinition detect = new SpellEffectDefinition("Detect")
     {
         @Override
-        public void performEffect(SpellArgs spellArgs, ConfiguredDefinition def)
+        public CastCache makeCastCache(ConfiguredDefinition def)
         {
-            if(spellArgs.getBlocksAffected().size() <= 0 || spellArgs.getEntitiesAffected().size() <= 0)
-                return;
-            
             String message = "detected";
             
             boolean allBlocks   = false;
             boolean allEntities = false;
             boolean allMobs     = false;
             
-            List<SpellEffectDefinitionModifier> blocksToCheckFor   = new ArrayList<SpellEffectDefinitionModifier>();
-            List<SpellEffectDefinitionModifier> entitiesToCheckFor = new ArrayList<SpellEffectDefinitionModifier>();
-            List<SpellEffectDefinitionModifier> mobsToCheckFor     = new ArrayList<SpellEffectDefinitionModifier>();
-            
-            boolean detected = false;
+            List<String> blocksToCheckFor   = new ArrayList<String>();
+            List<String> entitiesToCheckFor = new ArrayList<String>();
+            List<String> mobsToCheckFor     = new ArrayList<String>();
             
             for(SpellEffectDefinitionModifier i : def.getModifiers())
             {
@@ -539,78 +574,51 @@ class DefaultDefs
                 }
                 else if(i.getName().equalsIgnoreCase("block") || i.getName().equalsIgnoreCase("blocks"))
                 {
-                    if(allBlocks) continue;
-                    
                     if(i.getSubModifiers().isEmpty())
-                    {
                         allBlocks = true;
-                        blocksToCheckFor.clear();
-                    }
                     else
-                        blocksToCheckFor.addAll(i.getSubModifiers());
+                        for(SpellEffectDefinitionModifier j : i.getSubModifiers())
+                            blocksToCheckFor.add(j.getName());
                 }
-                else if(i.getName().equalsIgnoreCase("entities") || i.getName().equalsIgnoreCase("entities"))
+                else if(i.getName().equalsIgnoreCase("entity") || i.getName().equalsIgnoreCase("entities"))
                 {
-                    if(allEntities) continue;
-                    
                     if(i.getSubModifiers().isEmpty())
-                    {
                         allEntities = true;
-                        entitiesToCheckFor.clear();
-                    }
                     else
-                        entitiesToCheckFor.addAll(i.getSubModifiers());
+                        for(SpellEffectDefinitionModifier j : i.getSubModifiers())
+                            entitiesToCheckFor.add(j.getName());
                 }
                 else if(i.getName().equalsIgnoreCase("mob") || i.getName().equalsIgnoreCase("mobs"))
                 {
-                    if(allMobs) continue;
-                    
                     if(i.getSubModifiers().isEmpty())
-                    {
                         allMobs = true;
-                        mobsToCheckFor.clear();
-                    }
                     else
-                        mobsToCheckFor.addAll(i.getSubModifiers());
+                        for(SpellEffectDefinitionModifier j : i.getSubModifiers())
+                            mobsToCheckFor.add(j.getName());
                 }
             }
             
-            detected = allBlocks && !spellArgs.getBlocksAffected()    .isEmpty()
-                    || allEntities && !spellArgs.getEntitiesAffected().isEmpty()
-                    || allMobs && !spellArgs.getMobsAffected()        .isEmpty();
-            
-            if(!detected)
-                iLoop:
-                for(SpellEffectDefinitionModifier i : blocksToCheckFor)
-                    for(BlockLocation block : spellArgs.getBlocksAffected())
-                        if(block.getBlockAt().getUnlocalizedName().substring(5).equalsIgnoreCase(i.getName()))
-                        {
-                            detected = true;
-                            break iLoop;
-                        }
-
-            if(!detected)
-                iLoop:
-                for(SpellEffectDefinitionModifier i : entitiesToCheckFor)
-                    for(Entity entity : spellArgs.getEntitiesAffected())
-                        if(EntityList.getEntityString(entity).equalsIgnoreCase(i.getName()))
-                        {
-                            detected = true;
-                            break iLoop;
-                        }
-
-            if(!detected)
-                iLoop:
-                for(SpellEffectDefinitionModifier i : entitiesToCheckFor)
-                    for(Entity entity : spellArgs.getEntitiesAffected())
-                        if(entity instanceof EntityLivingBase && EntityList.getEntityString(entity).equalsIgnoreCase(i.getName()))
-                        {
-                            detected = true;
-                            break iLoop;
-                        }
+            return new DetectCache(message, new DetectSelector(allBlocks, allEntities, allMobs,
+                                                               blocksToCheckFor, entitiesToCheckFor, mobsToCheckFor));
+        }
+        
+        @Override
+        public void performEffect(SpellArgs spellArgs, ConfiguredDefinition def)
+        {
+            DetectCache cache = (DetectCache)def.getCastCache();
+            boolean detected;
+            
+            // Blocks casting the same detection spell over and over can have the area watched instead of looked
+            // through every time.
+            if(ArcaneBooks.instance != null && ArcaneBooks.instance.watchedRegions != null
+            && WatchedRegionIndex.canWatch(spellArgs))
+                detected = ArcaneBooks.instance.watchedRegions.detect(spellArgs, cache.getSelector());
+            else
+                detected = cache.getSelector().matchesAnyOf(spellArgs.getBlocksAffected(),
+                                                            spellArgs.getEntitiesAffected());
             
             if(detected)
-                spellArgs.passMessage(message);
+                spellArgs.passMessage(cache.getMessage());
         }
     };
     
@@ -620,84 +628,88 @@ class DefaultDefs
     static final SpellEffectDefinition givePotionEffect = new SpellEffectDefinition("GivePotionEffect")
     {
         @Override
-        public void performEffect(SpellArgs spellArgs, ConfiguredDefinition def)
+        public long getMaxWorldWrites(long blocksAffected, long entitiesAffected)
+        { return entitiesAffected; }
+        
+        @Override
+        public CastCache makeCastCache(ConfiguredDefinition def)
         {
-            GivePotionEffectCache cache = (GivePotionEffectCache)def.getCastCache();
-            
-            if(cache == null)
-            {
-                List<PotionEffect> potionEffects = new ArrayList<PotionEffect>();
+            List<PotionEffect> potionEffects = new ArrayList<PotionEffect>();
 
-                for(SpellEffectDefinitionModifier modifier : def.getModifiers())
-                {
-                    Potion potionEffectType = null;
-                    int duration = 0;
-                    int amplifier = -1;
-                    boolean ambient = false;
+            for(SpellEffectDefinitionModifier modifier : def.getModifiers())
+            {
+                Potion potionEffectType = null;
+                int duration = 0;
+                int amplifier = -1;
+                boolean ambient = false;
 
-                    for(Potion i : Potion.potionTypes)
-                        if(i.getName().equalsIgnoreCase(modifier.getName()))
-                        {
-                            potionEffectType = i;
-                            break;
-                        }
+                for(Potion i : Potion.potionTypes)
+                    if(i != null && i.getName().equalsIgnoreCase(modifier.getName()))
+                    {
+                        potionEffectType = i;
+                        break;
+                    }
 
-                    if(potionEffectType == null)
-                        continue;
+                if(potionEffectType == null)
+                    continue;
 
-                    for(SpellEffectDefinitionModifier potionArg : modifier.getSubModifiers())
+                for(SpellEffectDefinitionModifier potionArg : modifier.getSubModifiers())
+                {
+                    if(potionArg.getName().equalsIgnoreCase("duration")
+                    || potionArg.getName().equalsIgnoreCase("time")
+                    || potionArg.getName().equalsIgnoreCase("ticks"))
                     {
-                        if(potionArg.getName().equalsIgnoreCase("duration")
-                        || potionArg.getName().equalsIgnoreCase("time")
-                        || potionArg.getName().equalsIgnoreCase("ticks"))
-                        {
-                            Integer ticks = Ints.tryParse(potionArg.getValue());
+                        Integer ticks = Ints.tryParse(potionArg.getValue());
 
-                            if(ticks != null)
-                                duration += ticks;
-                        }
-                        else if(potionArg.getName().equalsIgnoreCase("seconds"))
-                        {
-                            Integer seconds = Ints.tryParse(potionArg.getValue());
+                        if(ticks != null)
+                            duration += ticks;
+                    }
+                    else if(potionArg.getName().equalsIgnoreCase("seconds"))
+                    {
+                        Integer seconds = Ints.tryParse(potionArg.getValue());
 
-                            if(seconds != null)
-                                duration += seconds * 20;
-                        }
-                        else if(potionArg.getName().equalsIgnoreCase("minutes"))
-                        {
-                            Integer minutes = Ints.tryParse(potionArg.getValue());
+                        if(seconds != null)
+                            duration += seconds * 20;
+                    }
+                    else if(potionArg.getName().equalsIgnoreCase("minutes"))
+                    {
+                        Integer minutes = Ints.tryParse(potionArg.getValue());
 
-                            if(minutes != null)
-                                duration += minutes * 1200;
-                        }
-                        else if(potionArg.getName().equalsIgnoreCase("amplifier")
-                             || potionArg.getName().equalsIgnoreCase("level"))
-                        {
-                            if(amplifier >= 0)
-                                continue;
+                        if(minutes != null)
+                            duration += minutes * 1200;
+                    }
+                    else if(potionArg.getName().equalsIgnoreCase("amplifier")
+                         || potionArg.getName().equalsIgnoreCase("level"))
+                    {
+                        if(amplifier >= 0)
+                            continue;
 
-                            Integer lvl = Ints.tryParse(potionArg.getValue());
+                        Integer lvl = Ints.tryParse(potionArg.getValue());
 
-                            if(lvl != null)
-                                amplifier = lvl;
-                        }
-                        else if(potionArg.getName().equalsIgnoreCase("ambient"))
-                            ambient = true;
+                        if(lvl != null)
+                            amplifier = lvl;
                     }
+                    else if(potionArg.getName().equalsIgnoreCase("ambient"))
+                        ambient = true;
+                }
 
-                    if(duration <= 0)
-                        duration = 200; // 10 seconds.
+                if(duration <= 0)
+                    duration = 200; // 10 seconds.
 
-                    if(amplifier <= 0)
-                        amplifier = 1;
+                if(amplifier <= 0)
+                    amplifier = 1;
 
-                    potionEffects.add(new PotionEffect(potionEffectType.getId(), duration, amplifier, ambient));
-                }
-                
-                cache = new GivePotionEffectCache(potionEffects);
-                def.setCastCache(cache);
+                potionEffects.add(new PotionEffect(potionEffectType.getId(), duration, amplifier, ambient));
             }
             
+            return new GivePotionEffectCache(potionEffects);
+        }
+        
+        @Override
+        public void performEffect(SpellArgs spellArgs, ConfiguredDefinition def)
+        {
+            GivePotionEffectCache cache = (GivePotionEffectCache)def.getCastCache();
+            
             for(EntityLivingBase mob : spellArgs.getMobsAffected())
                 for(PotionEffect pEffect : cache.getFreshPotionEffects())
                     mob.addPotionEffect(pEffect);
@@ -710,37 +722,41 @@ class DefaultDefs
     static final SpellEffectDefinition heal = new SpellEffectDefinition("Heal")
     {
         @Override
-        public void performEffect(SpellArgs spellArgs, ConfiguredDefinition def)
+        public long getMaxWorldWrites(long blocksAffected, long entitiesAffected)
+        { return entitiesAffected; }
+        
+        @Override
+        public CastCache makeCastCache(ConfiguredDefinition def)
         {
-            HealCache cache = (HealCache)def.getCastCache();
+            double amountToHeal = -1;
             
-            if(cache == null)
+            for(SpellEffectDefinitionModifier i : def.getModifiers())
             {
-                double amountToHeal = -1;
-                
-                for(SpellEffectDefinitionModifier i : def.getModifiers())
+                if(i instanceof NumericDefinitionModifier)
                 {
-                    if(i instanceof NumericDefinitionModifier)
+                    amountToHeal = ((NumericDefinitionModifier)i).asDouble();
+                    break;
+                }
+                else if(i instanceof ModifierValueDefinitionModifier)
+                {
+                    Double amount = Doubles.tryParse(i.getName());
+                    
+                    if(amount != null)
                     {
-                        amountToHeal = ((NumericDefinitionModifier)i).asDouble();
+                        amountToHeal = amount;
                         break;
                     }
-                    else if(i instanceof ModifierValueDefinitionModifier)
-                    {
-                        Double amount = Doubles.tryParse(i.getName());
-                        
-                        if(amount != null)
-                        {
-                            amountToHeal = amount;
-                            break;
-                        }
-                    }
                 }
-                
-                cache = new HealCache(amountToHeal);
-                def.setCastCache(cache);
             }
             
+            return new HealCache(amountToHeal);
+        }
+        
+        @Override
+        public void performEffect(SpellArgs spellArgs, ConfiguredDefinition def)
+        {
+            HealCache cache = (HealCache)def.getCastCache();
+            
             for(EntityLivingBase i : spellArgs.getMobsAffected())
                 i.heal((float)cache.getAmountToHeal());
         }
@@ -751,6 +767,10 @@ class DefaultDefs
      */
     static final SpellEffectDefinition modifyMana = new SpellEffectDefinition("ModifyMana")
     {
+        @Override
+        public long getMaxWorldWrites(long blocksAffected, long entitiesAffected)
+        { return entitiesAffected; }
+        
         @Override
         public void performEffect(SpellArgs spellArgs, ConfiguredDefinition def)
         { throw new NotImplementedException("Not implemented yet."); }
@@ -782,6 +802,10 @@ class DefaultDefs
      */
     static final SpellEffectDefinition replaceBlock = new SpellEffectDefinition("ReplaceBlock")
     {
+        @Override
+        public long getMaxWorldWrites(long blocksAffected, long entitiesAffected)
+        { return blocksAffected; }
+        
         @Override
         public void performEffect(SpellArgs spellArgs, ConfiguredDefinition def)
         { throw new NotImplementedException("Not implemented yet."); }
@@ -792,6 +816,10 @@ class DefaultDefs
      */
     static final SpellEffectDefinition replaceItem = new SpellEffectDefinition("ReplaceItem")
     {
+        @Override
+        public long getMaxWorldWrites(long blocksAffected, long entitiesAffected)
+        { return entitiesAffected; }
+        
         @Override
         public void performEffect(SpellArgs spellArgs, ConfiguredDefinition def)
         { throw new NotImplementedException("Not implemented yet."); }
@@ -802,6 +830,10 @@ class DefaultDefs
      */
     static final SpellEffectDefinition setMana = new SpellEffectDefinition("Mana")
     {
+        @Override
+        public long getMaxWorldWrites(long blocksAffected, long entitiesAffected)
+        { return entitiesAffected; }
+        
         @Override
         public void performEffect(SpellArgs spellArgs, ConfiguredDefinition def)
         { throw new NotImplementedException("Not implemented yet."); }
@@ -824,8 +856,54 @@ class DefaultDefs
      */
     static final SpellEffectDefinition triggerSpell = new SpellEffectDefinition("TriggerSpell")
     {
+        @Override
+        public CastCache makeCastCache(ConfiguredDefinition def)
+        {
+            String spellEffectName = null;
+            
+            for(SpellEffectDefinitionModifier i : def.getModifiers())
+            {
+                if(i.getName().equalsIgnoreCase("spell") || i.getName().equalsIgnoreCase("effect"))
+                {
+                    if(i.getValue() != null)
+                        spellEffectName = i.getValue();
+                }
+                else if(i instanceof BasicDefinitionModifier && i.getValue() == null && spellEffectName == null)
+                    spellEffectName = i.getName();
+            }
+            
+            return new TriggerSpellCache(spellEffectName);
+        }
+        
         @Override
         public void performEffect(SpellArgs spellArgs, ConfiguredDefinition def)
-        { throw new NotImplementedException("Not implemented yet."); }
+        {
+            TriggerSpellCache cache = (TriggerSpellCache)def.getCastCache();
+            Spell spell;
+            
+            // There's no such thing as an equipped spell yet, so without a specified spell effect, affected casters
+            // cast the spell doing the triggering.
+            if(cache.getSpellEffectName() == null)
+                spell = spellArgs.getCast().getSpell();
+            else
+            {
+                SpellEffectRegistry.EffectsSnapshot spellEffects = spellArgs.getCast().getSpellEffects();
+                SpellEffect effect = spellEffects == null ? null : spellEffects.getEffect(cache.getSpellEffectName());
+                
+                if(effect == null)
+                    return;
+                
+                spell = cache.getSpellFor(effect);
+            }
+            
+            // Triggered spells are queued up on the spell cast and cast after it's finished, rather than here.
+            for(EntityLivingBase mob : spellArgs.getMobsAffected())
+            {
+                SpellCaster caster = mob instanceof EntityPlayer ? new SpellCasterPlayer((EntityPlayer)mob)
+                                                                 : new SpellCasterEntity(mob);
+                
+                spellArgs.getCast().triggerSpell(spell, caster);
+            }
+        }
     };
 }
\ No newline at end of file
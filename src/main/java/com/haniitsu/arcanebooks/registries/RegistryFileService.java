@@ -0,0 +1,140 @@
+package com.haniitsu.arcanebooks.registries;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads and writes registry files on a background thread, so the server thread doesn't wait on the disk when worlds
+ * load and save.
+ *
+ * Files are written to a temporary file first and then moved over the old one, (see .writeAtomically) so a crash
+ * part-way through saving never leaves a half-written file.
+ */
+public class RegistryFileService
+{
+    /** Creates the service. Its thread isn't started until it's first given something to do. */
+    public RegistryFileService()
+    {
+        ioThread = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "ArcaneBooks registry file IO");
+                thread.setDaemon(true); // So it doesn't keep the game open. Writes are waited on when worlds unload.
+                return thread;
+            }
+        });
+    }
+    
+    /**
+     * The thread files are read and written on. Only the one, so that reads and writes of a file happen in the order
+     * they were asked for.
+     */
+    final ScheduledExecutorService ioThread;
+    
+    /**
+     * Runs a task on the background thread, after any reads and writes already asked for.
+     * @param task The task to run.
+     */
+    public void execute(Runnable task)
+    { ioThread.execute(task); }
+    
+    /**
+     * Runs a task on the background thread after a delay, after any reads and writes asked for before then.
+     * @param task The task to run.
+     * @param delayInMilliseconds How long to wait before running the task.
+     */
+    public void executeLater(Runnable task, long delayInMilliseconds)
+    { ioThread.schedule(task, delayInMilliseconds, TimeUnit.MILLISECONDS); }
+    
+    /**
+     * Reads a file, on the calling thread.
+     * @param file The file to read.
+     * @return The contents of the file, or null if it doesn't exist.
+     */
+    public String read(File file)
+    {
+        if(!file.exists())
+            return null;
+        
+        try
+        { return new String(Files.readAllBytes(file.toPath())); }
+        catch(IOException exception)
+        { throw new RuntimeException("IO Exceptions not currently handled.", exception); }
+    }
+    
+    /** Waits for the reads, writes, and other tasks asked for so far to finish. */
+    public void flush()
+    {
+        Future<?> flushed = ioThread.submit(new Runnable()
+        {
+            @Override
+            public void run()
+            { }
+        });
+        
+        try
+        { flushed.get(); }
+        catch(InterruptedException exception)
+        { Thread.currentThread().interrupt(); }
+        catch(ExecutionException exception)
+        { exception.printStackTrace(); }
+    }
+    
+    /**
+     * Writes a file by writing a temporary file next to it, then moving that over it, so that the file's always
+     * either its old contents or its new contents, even if the game crashes part-way through.
+     * @param file The file to write.
+     * @param contents The contents to write to the file.
+     * @throws IOException If the file couldn't be written.
+     */
+    static void writeAtomically(File file, String contents) throws IOException
+    {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        File tempFile = new File(file.getPath() + ".tmp");
+        FileOutputStream output = new FileOutputStream(tempFile);
+        
+        try
+        {
+            Writer writer = new OutputStreamWriter(output);
+            writer.write(contents);
+            writer.flush();
+            output.getFD().sync(); // So the move can't reach the disk before the contents do.
+        }
+        finally
+        { output.close(); }
+        
+        moveOver(tempFile, file);
+    }
+    
+    /**
+     * Moves a file written next to another over it in one step where the file system allows, so the other file's never
+     * missing or part-written.
+     * @param tempFile The file written, which should already have been synced to the disk.
+     * @param file The file to replace.
+     * @throws IOException If the file couldn't be moved.
+     */
+    static void moveOver(File tempFile, File file) throws IOException
+    {
+        try
+        {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                                                         StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch(AtomicMoveNotSupportedException exception)
+        { Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING); }
+    }
+}
@@ -0,0 +1,478 @@
+package com.haniitsu.arcanebooks.registries;
+
+import com.haniitsu.arcanebooks.misc.Getter;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps a rune designs file up to date by appending each change to a journal next to it, rather than writing the whole
+ * file again every time the world's saved. (e.g. "RuneDesigns.dat.journal" next to "RuneDesigns.dat")
+ *
+ * The rune designs file acts as a checkpoint; the rune designs are what's in it, with every change in the journal made
+ * to them in order. Once the journal's grown big enough, the current rune designs are written out as a new checkpoint
+ * and the journal's started again. Each change is written to the journal in the background as soon as it's made, and
+ * synced to the disk within the sync interval, so if the game crashes, at most the changes made since the last sync
+ * are lost.
+ *
+ * Every change in the journal gives the rune designs spell words have outright, rather than relative to what they were
+ * before, so going through a journal again on top of the checkpoint it was compacted into does no harm. That way, the
+ * checkpoint and journal never need to be written together.
+ *
+ * All reading and writing happens on the background thread of the passed registry file service.
+ */
+public class RuneDesignJournal
+{
+    /**
+     * Creates a journal for the passed rune designs file. Nothing's read or written until .load is called.
+     * @param checkpointFile The rune designs file.
+     * @param files The service to read and write the files with.
+     * @param syncIntervalInMilliseconds How long a change can be left unsynced to the disk for. If 0, every change is
+     * synced as it's written.
+     */
+    public RuneDesignJournal(File checkpointFile, RegistryFileService files, long syncIntervalInMilliseconds)
+    {
+        this.checkpointFile             = checkpointFile;
+        this.journalFile                = new File(checkpointFile.getPath() + ".journal");
+        this.files                      = files;
+        this.syncIntervalInMilliseconds = syncIntervalInMilliseconds;
+    }
+    
+    /** The rune designs file, holding the rune designs as of when the journal was last started again. */
+    final File checkpointFile;
+    
+    /** The journal file, holding the changes made since the checkpoint was written. */
+    final File journalFile;
+    
+    /** The service the files are read and written with. */
+    final RegistryFileService files;
+    
+    /** How long a change can be left unsynced to the disk for. If 0, every change is synced as it's written. */
+    final long syncIntervalInMilliseconds;
+    
+    /** How many bytes of changes have been recorded since the checkpoint. Only accessed while synchronised on this. */
+    long bytesSinceCheckpoint = 0;
+    
+    /** The stream changes are appended to the journal with, or null if not open. Only used on the background thread. */
+    FileOutputStream journalOutput = null;
+    
+    /** Whether changes have been written to the journal but not synced to the disk. Only used on the background thread. */
+    boolean unsynced = false;
+    
+    /** Whether a sync is waiting to happen. Only used on the background thread. */
+    boolean syncScheduled = false;
+    
+    /** How long changes are left unsynced to the disk for by default. */
+    public static final long defaultSyncIntervalInMilliseconds = 1000;
+    
+    /** How big the journal can grow before the rune designs are written to a new checkpoint. */
+    static final long compactionThresholdInBytes = 64 * 1024;
+    
+    /** Written at the start of journals, to tell them apart from files that aren't. ("ABJ" and a format version of 1) */
+    static final int journalHeader = 0x41424A01;
+    
+    /**
+     * Reads the rune designs from the checkpoint with the changes in the journal made to them, and readies the journal
+     * for new changes. If the journal ends part-way through a change, (the game crashed while it was being written)
+     * that change is dropped. Should be called on the background thread of the registry file service, before anything
+     * else.
+     * @return The rune designs, in the same form as the rune designs file.
+     */
+    public String load()
+    {
+        Map<String, String> lines = new LinkedHashMap<String, String>();
+        String checkpoint = files.read(checkpointFile);
+        
+        if(checkpoint != null)
+            for(String line : checkpoint.split("\n"))
+                if(line.trim().length() > 0)
+                    lines.put(getSpellWordKey(line), line.trim());
+        
+        long journalLength;
+        
+        try
+        {
+            journalLength = replayJournal(lines);
+            openJournal(journalLength);
+        }
+        catch(IOException exception)
+        { throw new RuntimeException("IO Exceptions not currently handled.", exception); }
+        
+        StringBuilder sb = new StringBuilder();
+        
+        for(String line : lines.values())
+        {
+            if(sb.length() > 0)
+                sb.append('\n');
+            
+            sb.append(line);
+        }
+        
+        String contents = sb.toString();
+        
+        if(journalLength >= compactionThresholdInBytes)
+        {
+            writeCheckpoint(contents);
+            journalLength = 0;
+        }
+        
+        synchronized(this)
+        { bytesSinceCheckpoint = journalLength; }
+        
+        return contents;
+    }
+    
+    /**
+     * Gets the rune designs file this is the journal of.
+     * @return The rune designs file.
+     */
+    public File getCheckpointFile()
+    { return checkpointFile; }
+    
+    /**
+     * Records a change to the rune designs, writing it to the journal in the background. Changes are written in the
+     * order they're recorded, so they should be recorded while holding the lock they were made under.
+     * @param removed The spell words that no longer have rune designs, as strings. (e.g. "effect:Heal")
+     * @param added The spell words that now have rune designs, as strings, and their rune designs as strings.
+     * @return True if the journal's grown big enough that the rune designs should be written out with .compact, after
+     * recording this change and before recording any more. Otherwise, false.
+     */
+    public synchronized boolean record(Collection<String> removed, Map<String, String> added)
+    {
+        final byte[] change;
+        
+        try
+        { change = encodeChange(removed, added); }
+        catch(IOException exception)
+        { throw new RuntimeException("Could not encode rune design change.", exception); }
+        
+        files.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            { append(change); }
+        });
+        
+        bytesSinceCheckpoint += change.length;
+        
+        if(bytesSinceCheckpoint < compactionThresholdInBytes)
+            return false;
+        
+        bytesSinceCheckpoint = 0;
+        return true;
+    }
+    
+    /**
+     * Writes the rune designs to a new checkpoint in the background, and starts the journal again.
+     * @param contents Gets the rune designs as of the last change recorded, in the same form as the rune designs file.
+     * Called on the background thread, so it should take an unchanging snapshot of them.
+     */
+    public void compact(final Getter<String> contents)
+    {
+        files.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            { writeCheckpoint(contents.get()); }
+        });
+    }
+    
+    /** Syncs any changes written to the journal to the disk in the background, without waiting for the sync interval. */
+    public void sync()
+    {
+        files.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            { syncJournal(); }
+        });
+    }
+    
+    /** Syncs any changes written to the journal to the disk in the background, and closes it. */
+    public void close()
+    {
+        files.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                syncJournal();
+                
+                if(journalOutput == null)
+                    return;
+                
+                try
+                { journalOutput.close(); }
+                catch(IOException exception)
+                { exception.printStackTrace(); }
+                
+                journalOutput = null;
+            }
+        });
+    }
+    
+    /**
+     * Makes the changes in the journal to the passed rune designs, stopping at the first change that wasn't fully
+     * written.
+     * @param lines The rune designs, as lines of the rune designs file by the spell word keys of the lines.
+     * @return The length of the journal up to the end of the last change that was fully written, or 0 if there isn't a
+     * journal.
+     * @throws IOException If the journal couldn't be read.
+     */
+    private long replayJournal(Map<String, String> lines) throws IOException
+    {
+        if(!journalFile.exists())
+            return 0;
+        
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+        long validLength = 0;
+        
+        try
+        {
+            if(input.readInt() != journalHeader)
+            {
+                System.out.println(journalFile.getName() + " isn't a rune design journal, so is being ignored.");
+                return 0;
+            }
+            
+            validLength = 4;
+            CRC32 crc = new CRC32();
+            
+            for(;;)
+            {
+                int length;
+                
+                try
+                { length = input.readInt(); }
+                catch(EOFException exception)
+                { return validLength; } // Ended cleanly, after the last change.
+                
+                int checksum = input.readInt();
+                
+                if(length < 0 || length > journalFile.length() - validLength - 8)
+                    break;
+                
+                byte[] change = new byte[length];
+                input.readFully(change);
+                crc.reset();
+                crc.update(change);
+                
+                if((int)crc.getValue() != checksum)
+                    break;
+                
+                applyChange(lines, change);
+                validLength += 8 + length;
+            }
+        }
+        catch(EOFException exception)
+        {} // Ended part-way through a change.
+        finally
+        { input.close(); }
+        
+        System.out.println("The last change in " + journalFile.getName() + " wasn't fully written, so is being "
+                         + "dropped.");
+        
+        return validLength;
+    }
+    
+    /**
+     * Cuts the journal down to the passed length, dropping anything not fully written after it, and opens it for
+     * appending changes to.
+     * @param length The length of the journal up to the end of the last change that was fully written.
+     * @throws IOException If the journal couldn't be opened.
+     */
+    private void openJournal(long length) throws IOException
+    {
+        journalFile.getAbsoluteFile().getParentFile().mkdirs();
+        RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+        
+        try
+        {
+            if(length <= 0)
+            {
+                file.setLength(0);
+                file.writeInt(journalHeader);
+            }
+            else
+                file.setLength(length);
+            
+            file.getFD().sync();
+        }
+        finally
+        { file.close(); }
+        
+        journalOutput = new FileOutputStream(journalFile, true);
+    }
+    
+    /**
+     * Appends a change to the journal, and syncs it to the disk now or after the sync interval.
+     * @param change The change, as encoded by .encodeChange.
+     */
+    private void append(byte[] change)
+    {
+        if(journalOutput == null)
+            return;
+        
+        try
+        { journalOutput.write(change); }
+        catch(IOException exception)
+        {
+            System.out.println("Could not write rune design change to " + journalFile.getName() + ".");
+            exception.printStackTrace();
+            return;
+        }
+        
+        unsynced = true;
+        
+        if(syncIntervalInMilliseconds <= 0)
+            syncJournal();
+        else if(!syncScheduled)
+        {
+            syncScheduled = true;
+            
+            files.executeLater(new Runnable()
+            {
+                @Override
+                public void run()
+                { syncJournal(); }
+            }, syncIntervalInMilliseconds);
+        }
+    }
+    
+    /** Syncs anything written to the journal to the disk, if it hasn't been already. */
+    private void syncJournal()
+    {
+        syncScheduled = false;
+        
+        if(!unsynced || journalOutput == null)
+            return;
+        
+        try
+        { journalOutput.getFD().sync(); }
+        catch(IOException exception)
+        {
+            System.out.println("Could not sync " + journalFile.getName() + " to the disk.");
+            exception.printStackTrace();
+            return;
+        }
+        
+        unsynced = false;
+    }
+    
+    /**
+     * Writes the rune designs to a new checkpoint, then starts the journal again. If the game crashes in between, the
+     * old journal's gone through again on top of the new checkpoint, which gives the same rune designs.
+     * @param contents The rune designs, in the same form as the rune designs file.
+     */
+    private void writeCheckpoint(String contents)
+    {
+        try
+        {
+            RegistryFileService.writeAtomically(checkpointFile, contents);
+            
+            if(journalOutput != null)
+                journalOutput.close();
+            
+            openJournal(0);
+            unsynced = false;
+        }
+        catch(IOException exception)
+        {
+            System.out.println("Could not compact " + journalFile.getName() + " into " + checkpointFile.getName() + ".");
+            exception.printStackTrace();
+        }
+    }
+    
+    /**
+     * Encodes a change as it's written to the journal: the length of the change, a checksum of it, then the number of
+     * spell words removed and each of them, then the number of spell words added and each of them with its rune design.
+     * @param removed The spell words that no longer have rune designs, as strings.
+     * @param added The spell words that now have rune designs, as strings, and their rune designs as strings.
+     * @return The encoded change.
+     * @throws IOException Never, as it's only written to memory.
+     */
+    private static byte[] encodeChange(Collection<String> removed, Map<String, String> added) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        
+        output.writeInt(removed.size());
+        
+        for(String spellWord : removed)
+            output.writeUTF(spellWord);
+        
+        output.writeInt(added.size());
+        
+        for(Map.Entry<String, String> entry : added.entrySet())
+        {
+            output.writeUTF(entry.getKey());
+            output.writeUTF(entry.getValue());
+        }
+        
+        output.flush();
+        byte[] change = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(change);
+        
+        ByteArrayOutputStream framedBytes = new ByteArrayOutputStream(change.length + 8);
+        DataOutputStream framed = new DataOutputStream(framedBytes);
+        framed.writeInt(change.length);
+        framed.writeInt((int)crc.getValue());
+        framed.write(change);
+        framed.flush();
+        return framedBytes.toByteArray();
+    }
+    
+    /**
+     * Makes a change read from the journal to the passed rune designs.
+     * @param lines The rune designs, as lines of the rune designs file by the spell word keys of the lines.
+     * @param change The change, without its length and checksum.
+     * @throws IOException If the change couldn't be decoded.
+     */
+    private static void applyChange(Map<String, String> lines, byte[] change) throws IOException
+    {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(change));
+        
+        for(int i = input.readInt(); i > 0; i--)
+            lines.remove(getSpellWordKey(input.readUTF()));
+        
+        for(int i = input.readInt(); i > 0; i--)
+        {
+            String spellWord = input.readUTF();
+            String runeDesign = input.readUTF();
+            lines.put(getSpellWordKey(spellWord), spellWord + "=" + runeDesign);
+        }
+    }
+    
+    /**
+     * Gets the key identifying the spell word in a line of the rune designs file, matching the spell word however it's
+     * written, the same way RuneDesignRegistry does when parsing the file.
+     * @param line The line, or just the spell word part of it. (e.g. "AOE:targetOnly=2,3>3,1" or "effect:Heal")
+     * @return The key identifying the spell word. (e.g. "AOE:targetonly", "effect:Heal")
+     */
+    private static String getSpellWordKey(String line)
+    {
+        String spellWord = line.split("=")[0];
+        String[] parts = spellWord.split(":");
+        
+        if(parts.length < 2)
+            return line.trim(); // Not valid, but kept as it is so RuneDesignRegistry can say so.
+        
+        if(parts[0].trim().equalsIgnoreCase("effect"))
+            return "effect:" + parts[1].trim();
+        
+        return parts[0].trim() + ":" + parts[1].trim().toLowerCase();
+    }
+}
@@ -3,6 +3,7 @@ package com.haniitsu.arcanebooks.registries;
 import com.google.common.collect.ImmutableMap;
 import com.haniitsu.arcanebooks.magic.SpellEffect;
 import com.haniitsu.arcanebooks.magic.SpellWord;
+import com.haniitsu.arcanebooks.magic.SpellWordIds;
 import com.haniitsu.arcanebooks.magic.modifiers.effect.AOE;
 import com.haniitsu.arcanebooks.magic.modifiers.effect.AOEShape;
 import com.haniitsu.arcanebooks.magic.modifiers.effect.AOESize;
@@ -10,8 +11,11 @@ import com.haniitsu.arcanebooks.magic.modifiers.effect.SpellEffectModifier;
 import com.haniitsu.arcanebooks.magic.modifiers.effect.SpellStrength;
 import com.haniitsu.arcanebooks.magic.modifiers.effect.SpellTarget;
 import com.haniitsu.arcanebooks.misc.Getter;
+import com.haniitsu.arcanebooks.misc.PersistentHashMap;
+import com.haniitsu.arcanebooks.misc.VersionedHashMap;
 import com.haniitsu.arcanebooks.misc.events.BasicEvent;
 import com.haniitsu.arcanebooks.misc.events.Event;
+import com.haniitsu.arcanebooks.misc.events.EventListener;
 import com.haniitsu.arcanebooks.misc.events.args.BasicEventArgs;
 import com.haniitsu.arcanebooks.runes.RuneDesign;
 import com.haniitsu.arcanebooks.runes.RuneDesignBuilder;
@@ -19,16 +23,19 @@ import java.io.BufferedReader;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 // TO DO: Add a way of ensuring that different rune designs used here don't have the same node-connections/lines, but
 //        in a different order.
@@ -246,6 +253,10 @@ public class RuneDesignRegistry
          */
         public String getName()
         { return name; }
+        
+        @Override
+        public int getSpellWordId()
+        { return SpellWordIds.getId(SpellWordIds.effectKey(name)); }
     }
     
     /** Pair combining a SpellWord and a RuneDesign in a single object, without using a generic tuple. */
@@ -293,6 +304,10 @@ public class RuneDesignRegistry
     {
         sourceEffectRegistry = spellEffectRegistry;
         addDefaultModifierGetters();
+        
+        // Weakly, so the spell effect registry doesn't keep every rune design registry ever linked to it alive.
+        sourceEffectRegistry.backlogClearedForRuneDesigns.registerListenerWeakly(effectBacklogClearedListener);
+        sourceEffectRegistry.effectsReplacedForRuneDesigns.registerListenerWeakly(effectsReplacedListener);
     }
     
     /**
@@ -311,7 +326,27 @@ public class RuneDesignRegistry
     
     //<editor-fold defaultstate="collapsed" desc="Variables">
     /** The rune designs for all spell words. (e.g. spell effects, spell effect modifiers) */
-    protected final Map<SpellWord, RuneDesign> runeDesigns = new HashMap<SpellWord, RuneDesign>();
+    protected final VersionedHashMap<SpellWord, RuneDesign> runeDesigns = new VersionedHashMap<SpellWord, RuneDesign>();
+    
+    /**
+     * An unchanging copy of runeDesigns, replaced whenever it changes. Read without locking, so looking rune designs
+     * up never waits on the registry being changed.
+     */
+    protected volatile PersistentHashMap<SpellWord, RuneDesign> runeDesignsSnapshot = PersistentHashMap.empty();
+    
+    /**
+     * The spell words in runeDesigns and their rune designs, by the spell words' ids. Kept up to date along with
+     * runeDesignsSnapshot, so looking up a rune design is just reading from an array. Replaced with a bigger array when
+     * a spell word's id doesn't fit.
+     */
+    protected volatile AtomicReferenceArray<SpellWordRuneDesignPair> runeDesignsById
+        = new AtomicReferenceArray<SpellWordRuneDesignPair>(0);
+    
+    /**
+     * The generation of spell word ids runeDesignsById was last brought up to date in. When ids have been moved around
+     * since, it's rebuilt rather than updated. Only accessed while holding the lock on runeDesigns.
+     */
+    protected int runeDesignsByIdGeneration = -1;
     
     /** The rune designs made for spell effects that aren't yet accessible from the referenced spell effect registry. */
     protected final Map<String, RuneDesign> backloggedSpellEffectRuneDesigns = new HashMap<String, RuneDesign>();
@@ -319,9 +354,49 @@ public class RuneDesignRegistry
     /** The spell effect registry this registry is linked to. */
     protected final SpellEffectRegistry sourceEffectRegistry;
     
+    /** The journal changes to the rune designs are recorded in, or null if they're not being recorded. */
+    protected RuneDesignJournal journal = null;
+    
+    /**
+     * The names of the spell effects whose backlogged rune designs have been added, replaced or removed since the last
+     * change recorded in the journal. Only kept while there's a journal, and only accessed while holding the lock on
+     * runeDesigns.
+     */
+    protected final Set<String> backlogChangedSinceJournalled = new HashSet<String>();
+    
     /** The getters for getting what should be all possible spell effect modifiers. */
     protected final Map<String, Getter<Collection<SpellEffectModifier>>> modifierGetters = new HashMap<String, Getter<Collection<SpellEffectModifier>>>();
     
+    /**
+     * Activates the backlogged rune designs of spell effects as they're realised. Held here as it's only weakly
+     * registered with the spell effect registry.
+     */
+    protected final EventListener<SpellEffectRegistry.BacklogClearedArgs> effectBacklogClearedListener
+        = new EventListener<SpellEffectRegistry.BacklogClearedArgs>()
+    {
+        @Override
+        public void onEvent(Object sender, SpellEffectRegistry.BacklogClearedArgs args)
+        {
+            if(!args.getEffectNames().isEmpty())
+                updateBackloggedDesigns(args.getEffectNames());
+        }
+    };
+    
+    /**
+     * Moves the rune designs of spell effects over to the spell effects replacing them. Held here as it's only weakly
+     * registered with the spell effect registry.
+     */
+    protected final EventListener<SpellEffectRegistry.EffectsReplacedArgs> effectsReplacedListener
+        = new EventListener<SpellEffectRegistry.EffectsReplacedArgs>()
+    {
+        @Override
+        public void onEvent(Object sender, SpellEffectRegistry.EffectsReplacedArgs args)
+        {
+            updateDesignsOfReplacedEffects(args.getEffectNames());
+            updateBackloggedDesigns(args.getEffectNames()); // For spell effects that were backlogged before.
+        }
+    };
+    
     
     //<editor-fold defaultstate="collapsed" desc="Constants">
     /** The width of rune designs in points. */
@@ -351,7 +426,56 @@ public class RuneDesignRegistry
      * @return The rune design for the given spell word.
      */
     public RuneDesign getRuneDesignFor(SpellWord spellWord)
-    { synchronized(runeDesigns) { return runeDesigns.get(spellWord); } }
+    {
+        SpellWordRuneDesignPair pair = getPairWithId(spellWord.getSpellWordId());
+        
+        // Checks it's for the same object, as a spell effect and the one it replaced have the same id.
+        if(pair != null && pair.getWord() == spellWord)
+            return pair.getDesign();
+        
+        // Not in the array if it has no id, or ids have been moved around since the array was last updated.
+        return runeDesignsSnapshot.get(spellWord);
+    }
+    
+    /**
+     * Gets the rune design registered for the spell word with the passed id.
+     * @param spellWordId The id of the spell word, as handed out by SpellWordIds.
+     * @return The rune design for the spell word, or null if there is none.
+     */
+    public RuneDesign getRuneDesignWithId(int spellWordId)
+    {
+        SpellWordRuneDesignPair pair = getPairWithId(spellWordId);
+        
+        if(pair != null)
+            return pair.getDesign();
+        
+        SpellWord word = lookUpSpellWordWithId(spellWordId);
+        return word == null ? null : runeDesignsSnapshot.get(word);
+    }
+    
+    /**
+     * Gets the spell word with the passed id that has a rune design registered.
+     * @param spellWordId The id of the spell word, as handed out by SpellWordIds.
+     * @return The spell word, or null if there's no rune design registered for a spell word with that id.
+     */
+    public SpellWord getSpellWordWithId(int spellWordId)
+    {
+        SpellWordRuneDesignPair pair = getPairWithId(spellWordId);
+        
+        if(pair != null)
+            return pair.getWord();
+        
+        SpellWord word = lookUpSpellWordWithId(spellWordId);
+        return word != null && runeDesignsSnapshot.containsKey(word) ? word : null;
+    }
+    
+    /**
+     * Gets all of the rune designs registered, as of the last change to the registry. Two of these can be compared
+     * with .differencesTo to find what changed between them.
+     * @return A map of spell words to their rune designs. Doesn't change as the registry does.
+     */
+    public PersistentHashMap<SpellWord, RuneDesign> getRuneDesigns()
+    { return runeDesignsSnapshot; }
     //</editor-fold>
     
     //<editor-fold defaultstate="collapsed" desc="Mutators">
@@ -360,12 +484,87 @@ public class RuneDesignRegistry
         synchronized(runeDesigns)
         {
             for(Map.Entry<String, SpellEffect> entry : (sourceEffectRegistry.getActiveSpellEffectsWithNames(backloggedSpellEffectRuneDesigns.keySet())).entrySet())
-                runeDesigns.put(entry.getValue(), backloggedSpellEffectRuneDesigns.remove(entry.getKey()));
+                runeDesigns.put(entry.getValue(), removeFromBacklog(entry.getKey()));
+            
+            runeDesignsChanged();
         }
         
         this.backlogCleared.raise(this, new RuneDesignsBacklogClearedArgs());
     }
     
+    /**
+     * Activates the backlogged rune designs of the named spell effects, where they've been realised. Only looks at
+     * the backlog entries for those names, rather than checking every backlogged rune design.
+     * @param effectNames The names of the spell effects that have been realised.
+     */
+    public void updateBackloggedDesigns(Collection<String> effectNames)
+    {
+        boolean backlogUpdated = false;
+        
+        synchronized(runeDesigns)
+        {
+            Collection<String> waitingNames = new ArrayList<String>();
+            
+            for(String name : effectNames)
+                if(backloggedSpellEffectRuneDesigns.containsKey(name))
+                    waitingNames.add(name);
+            
+            if(waitingNames.isEmpty())
+                return;
+            
+            for(Map.Entry<String, SpellEffect> entry : (sourceEffectRegistry.getActiveSpellEffectsWithNames(waitingNames)).entrySet())
+            {
+                runeDesigns.put(entry.getValue(), removeFromBacklog(entry.getKey()));
+                backlogUpdated = true;
+            }
+            
+            runeDesignsChanged();
+        }
+        
+        if(backlogUpdated)
+            this.backlogCleared.raise(this, new RuneDesignsBacklogClearedArgs());
+    }
+    
+    /**
+     * Moves the rune designs of the named spell effects from the spell effects they were registered for to the ones
+     * that have since replaced them in the spell effect registry, so that changing a spell effect keeps its design.
+     * Designs of spell effects replaced by backlogged ones are backlogged until they're realised.
+     * @param effectNames The names of the spell effects that have been replaced.
+     */
+    public void updateDesignsOfReplacedEffects(Collection<String> effectNames)
+    {
+        synchronized(runeDesigns)
+        {
+            Set<String> names = new HashSet<String>(effectNames);
+            Map<SpellWord, RuneDesign> replacedDesigns = new HashMap<SpellWord, RuneDesign>();
+            
+            for(Map.Entry<SpellWord, RuneDesign> entry : runeDesigns.entrySet())
+                if(entry.getKey() instanceof SpellEffect && names.contains(((SpellEffect)entry.getKey()).getName()))
+                    replacedDesigns.put(entry.getKey(), entry.getValue());
+            
+            if(replacedDesigns.isEmpty())
+                return;
+            
+            for(Map.Entry<SpellWord, RuneDesign> entry : replacedDesigns.entrySet())
+            {
+                String effectName = ((SpellEffect)entry.getKey()).getName();
+                SpellEffect replacement = sourceEffectRegistry.getEffect(effectName);
+                
+                if(replacement == entry.getKey())
+                    continue;
+                
+                runeDesigns.remove(entry.getKey());
+                
+                if(replacement != null)
+                    runeDesigns.put(replacement, entry.getValue());
+                else
+                    putInBacklog(effectName, entry.getValue());
+            }
+            
+            runeDesignsChanged();
+        }
+    }
+    
     //<editor-fold defaultstate="collapsed" desc="Registration">
     /**
      * Associates a spell word with the passed rune design.
@@ -378,15 +577,75 @@ public class RuneDesignRegistry
         RuneDesign previous;
         
         synchronized(runeDesigns)
-        { previous = runeDesigns.put(spellWord, rune); }
+        {
+            previous = runeDesigns.put(spellWord, rune);
+            runeDesignsChanged();
+        }
         
         itemsAdded.raise(this, new RuneDesignsAddedArgs(spellWord, rune));
         return previous;
     }
     
+    /**
+     * Associates multiple spell words with the passed rune designs. The rune designs read by getRuneDesignFor, etc.
+     * are only replaced, and the event only raised, once for all of them, so this should be used over calling register
+     * for each when registering many.
+     * @param designs The spell words and the rune designs to associate with them.
+     */
+    public void register(Map<? extends SpellWord, ? extends RuneDesign> designs)
+    {
+        if(designs.isEmpty())
+            return;
+        
+        synchronized(runeDesigns)
+        {
+            runeDesigns.putAll(designs);
+            runeDesignsChanged();
+        }
+        
+        itemsAdded.raise(this, new RuneDesignsAddedArgs(new HashMap<SpellWord, RuneDesign>(designs)));
+    }
+    
     public void registerFromString(String s)
     { registerFromString(s, false); }
     
+    /**
+     * Associates spell words with rune designs as sent by the server, which sends spell words by their ids where they
+     * have them.
+     * @param designsById The rune designs, by the ids of the spell words they're for.
+     * @param designsByString The rune designs of spell words without ids (e.g. backlogged spell effects) by the spell
+     * words as strings. (e.g. "effect:Heal")
+     */
+    public void registerWithIds(Map<Integer, RuneDesign> designsById, Map<String, RuneDesign> designsByString)
+    {
+        List<SpellWordRuneDesignPair> pairs = new ArrayList<SpellWordRuneDesignPair>();
+        Map<String, SpellEffectModifier> modifiersByString = getModifiersByString();
+        
+        for(Map.Entry<Integer, RuneDesign> entry : designsById.entrySet())
+        {
+            SpellWord word = getSpellWordFromString(SpellWordIds.getKey(entry.getKey()), modifiersByString);
+            
+            if(word == null)
+                System.out.println("No spell word has the id of a rune design passed to registerWithIds: "
+                                   + entry.getKey());
+            else
+                pairs.add(new SpellWordRuneDesignPair(word, entry.getValue()));
+        }
+        
+        for(Map.Entry<String, RuneDesign> entry : designsByString.entrySet())
+        {
+            SpellWord word = getSpellWordFromString(entry.getKey(), modifiersByString);
+            
+            if(word == null)
+                System.out.println("The spell word of a rune design passed to registerWithIds could not be identified: "
+                                   + entry.getKey());
+            else
+                pairs.add(new SpellWordRuneDesignPair(word, entry.getValue()));
+        }
+        
+        registerPairs(pairs, false);
+    }
+    
     public void setFromString(String s)
     { registerFromString(s, true); }
     
@@ -407,15 +666,38 @@ public class RuneDesignRegistry
      * @return The random rune design assigned to the passed spell word.
      */
     public RuneDesign randomlyAssign(SpellWord spellWord)
+    { return randomlyAssign(Arrays.asList(spellWord)).get(spellWord); }
+    
+    /**
+     * Randomly assigns unique rune designs to the passed spell words. The rune designs read by getRuneDesignFor, etc.
+     * are only replaced, and the event only raised, once for all of them.
+     * @param spellWords The spell words to assign rune designs to.
+     * @return The random rune designs assigned, by the spell words they were assigned to.
+     */
+    public Map<SpellWord, RuneDesign> randomlyAssign(Collection<? extends SpellWord> spellWords)
     {
-        RuneDesign rune = spellWord instanceof SpellEffect ? generateUniqueRuneDesignForSpellEffect()
-                          : generateUniqueRuneDesignForSpellEffectModifier();
+        Map<SpellWord, RuneDesign> added = new HashMap<SpellWord, RuneDesign>();
         
         synchronized(runeDesigns)
-        { runeDesigns.put(spellWord, rune); }
+        {
+            Set<RuneDesign> usedDesigns = new HashSet<RuneDesign>(runeDesigns.values());
+            
+            for(SpellWord spellWord : spellWords)
+            {
+                RuneDesign rune = spellWord instanceof SpellEffect ? generateUniqueRuneDesignForSpellEffect(usedDesigns)
+                                  : generateUniqueRuneDesignForSpellEffectModifier(usedDesigns);
+                
+                added.put(spellWord, rune);
+                runeDesigns.put(spellWord, rune);
+            }
+            
+            runeDesignsChanged();
+        }
         
-        itemsAdded.raise(this, new RuneDesignsAddedArgs(spellWord, rune));
-        return rune;
+        if(!added.isEmpty())
+            itemsAdded.raise(this, new RuneDesignsAddedArgs(added));
+        
+        return added;
     }
     
     /**
@@ -444,7 +726,10 @@ public class RuneDesignRegistry
         RuneDesign previous;
         
         synchronized(runeDesigns)
-        { previous = runeDesigns.remove(spellWord); }
+        {
+            previous = runeDesigns.remove(spellWord);
+            runeDesignsChanged();
+        }
         
         itemsRemoved.raise(this, new RuneDesignsRemovedArgs(spellWord, previous));
         return previous;
@@ -466,6 +751,7 @@ public class RuneDesignRegistry
             }
             
             cleared = runeDesigns.isEmpty() && backloggedSpellEffectRuneDesigns.isEmpty();
+            runeDesignsChanged();
         }
         
         if(!removed.isEmpty())
@@ -486,7 +772,7 @@ public class RuneDesignRegistry
                 {
                     i = i.substring(7); // "effect:".length()
                     
-                    RuneDesign match = backloggedSpellEffectRuneDesigns.remove(i);
+                    RuneDesign match = removeFromBacklog(i);
                     
                     if(match != null)
                     {
@@ -545,12 +831,40 @@ public class RuneDesignRegistry
                       && !backlogRemoved.isEmpty()
                       && runeDesigns.isEmpty()
                       && backloggedSpellEffectRuneDesigns.isEmpty();
+            
+            runeDesignsChanged();
         }
         
         if(!(removed.isEmpty() && backlogRemoved.isEmpty()))
             this.itemsRemoved.raise(this, new RuneDesignsRemovedArgs(removed, backlogRemoved, cleared));
     }
     
+    /**
+     * Disassociates rune designs from spell words as sent by the server, which sends spell words by their ids where
+     * they have them.
+     * @param spellWordIds The ids of the spell words to disassociate rune designs from.
+     * @param spellWordStrings The spell words without ids (e.g. backlogged spell effects) to disassociate rune designs
+     * from, as strings. (e.g. "effect:Heal")
+     */
+    public void deregisterWithIds(Collection<Integer> spellWordIds, Collection<String> spellWordStrings)
+    {
+        List<SpellWord> spellWords = new ArrayList<SpellWord>();
+        
+        for(int id : spellWordIds)
+        {
+            SpellWord word = getSpellWordWithId(id);
+            
+            if(word != null)
+                spellWords.add(word);
+        }
+        
+        if(!spellWords.isEmpty())
+            deregister(spellWords);
+        
+        if(!spellWordStrings.isEmpty())
+            deregisterByStrings(spellWordStrings);
+    }
+    
     /** Disassociates all rune designs from all spell effects and spell effect modifiers. */
     public void clear()
     {
@@ -563,7 +877,8 @@ public class RuneDesignRegistry
                     true);
             
             runeDesigns.clear();
-            backloggedSpellEffectRuneDesigns.clear();
+            clearBacklog();
+            runeDesignsChanged();
         }
         
         itemsRemoved.raise(this, args);
@@ -613,60 +928,76 @@ public class RuneDesignRegistry
     public void saveToFile(File file)
     {
         try
-        {
-            file.mkdirs();
-            
-            if(file.exists())
-                file.delete();
-            
-            file.createNewFile();
-            
-            FileWriter fw = new FileWriter(file, true);
-            PrintWriter pw = new PrintWriter(fw);
-            
-            pw.print(this.toString());
-            
-            pw.flush();
-            pw.close();
-            fw.close();
-        }
+        { RegistryFileService.writeAtomically(file, toString()); }
         catch(IOException exception)
         { exception.printStackTrace(); }
     }
+    
+    /**
+     * Starts recording every change to the rune designs in the passed journal, from the rune designs as they are now.
+     * The journal should have been loaded, and the registry set to what it gave, first.
+     * @param journal The journal to record changes in, or null to stop recording them.
+     */
+    public void setJournal(RuneDesignJournal journal)
+    {
+        synchronized(runeDesigns)
+        {
+            this.journal = journal;
+            backlogChangedSinceJournalled.clear();
+        }
+    }
     //</editor-fold>
     
     //<editor-fold defaultstate="collapsed" desc="To methods">
     @Override
     public String toString()
+    {
+        PersistentHashMap<SpellWord, RuneDesign> designs;
+        Map<String, RuneDesign> backloggedDesigns;
+        
+        // Only takes copies while holding the lock, and turns them into text after.
+        synchronized(runeDesigns)
+        {
+            designs = runeDesigns.getVersion();
+            backloggedDesigns = new HashMap<String, RuneDesign>(backloggedSpellEffectRuneDesigns);
+        }
+        
+        return toString(designs, backloggedDesigns);
+    }
+    
+    /**
+     * Gets the passed rune designs as a string, in the same form as the rune designs file.
+     * @param designs The rune designs of spell words.
+     * @param backloggedDesigns The rune designs of backlogged spell effects, by the spell effects' names.
+     * @return The rune designs as a string.
+     */
+    protected static String toString(PersistentHashMap<SpellWord, RuneDesign> designs,
+                                     Map<String, RuneDesign> backloggedDesigns)
     {
         // Example line:
         // effect:heal=2,3>3,1_0,0>1,2_3,0>2,1
         
         StringBuilder sb = new StringBuilder();
+        boolean first = true;
         
-        synchronized(runeDesigns)
+        for(Map.Entry<SpellWord, RuneDesign> i : designs)
         {
-            boolean first = true;
+            if(first) first = false;
+            else      sb.append('\n');
             
-            for(Map.Entry<SpellWord, RuneDesign> i : runeDesigns.entrySet())
-            {
-                if(first) first = false;
-                else      sb.append('\n');
-                
-                sb.append(spellwordToString(i.getKey()));
-                sb.append('=');
-                sb.append(i.getValue().toString());
-            }
+            sb.append(spellwordToString(i.getKey()));
+            sb.append('=');
+            sb.append(i.getValue().toString());
+        }
+        
+        for(Map.Entry<String, RuneDesign> i : backloggedDesigns.entrySet())
+        {
+            if(first) first = false;
+            else      sb.append('\n');
             
-            for(Map.Entry<String, RuneDesign> i : backloggedSpellEffectRuneDesigns.entrySet())
-            {
-                if(first) first = false;
-                else      sb.append('\n');
-                
-                sb.append(backloggedEffectToString(i.getKey()));
-                sb.append('=');
-                sb.append(i.getValue().toString());
-            }
+            sb.append(backloggedEffectToString(i.getKey()));
+            sb.append('=');
+            sb.append(i.getValue().toString());
         }
         
         return sb.toString();
@@ -678,67 +1009,82 @@ public class RuneDesignRegistry
     protected void registerFromString(String s, boolean clearFirst)
     {
         BufferedReader reader = new BufferedReader(new StringReader(s));
+        List<SpellWordRuneDesignPair> pairs = new ArrayList<SpellWordRuneDesignPair>();
+        Map<String, SpellEffectModifier> modifiersByString = getModifiersByString();
+        
+        try
+        {
+            for(String line = ""; line != null; line = reader.readLine())
+            {
+                SpellWordRuneDesignPair pair = parseLine(line, modifiersByString);
+                
+                if(pair != null)
+                    pairs.add(pair);
+            }
+        }
+        catch(IOException e)
+        { throw new RuntimeException("IOException not currently handled. It shouldn't be thrown here anyway.", e); }
+        
+        registerPairs(pairs, clearFirst);
+    }
+    
+    /**
+     * Associates each of the passed spell words with its rune design, moving rune designs of spell effects out of the
+     * backlog where there are any, clearing all rune design associations first if clearFirst is true.
+     * @param pairs The spell words and their rune designs.
+     * @param clearFirst Whether or not to clear all existing rune design associations first.
+     */
+    protected void registerPairs(Collection<SpellWordRuneDesignPair> pairs, boolean clearFirst)
+    {
         Map<SpellWord, RuneDesign> designs = new HashMap<SpellWord, RuneDesign>();
-        Map<String, Getter<Collection<SpellEffectModifier>>> modifGetters;
         Map<String, RuneDesign> backloggedDesigns = new HashMap<String, RuneDesign>();
         boolean backlogUpdated = false;
         
-        RuneDesignsAddedArgs addedArgs;
         RuneDesignsRemovedArgs removedArgs = null;
         
-        try
+        synchronized(runeDesigns)
         {
-            synchronized(runeDesigns)
+            if(clearFirst)
             {
-                modifGetters = new HashMap<String, Getter<Collection<SpellEffectModifier>>>(this.modifierGetters);
-                
-                if(clearFirst)
+                removedArgs = new RuneDesignsRemovedArgs(runeDesigns, backloggedSpellEffectRuneDesigns, true);
+                runeDesigns.clear();
+                clearBacklog();
+            }
+            
+            for(SpellWordRuneDesignPair pair : pairs)
+            {
+                if(pair.getWord() instanceof BackloggedSpellEffect)
                 {
-                    removedArgs = new RuneDesignsRemovedArgs(runeDesigns, backloggedSpellEffectRuneDesigns, true);
-                    runeDesigns.clear();
-                    backloggedSpellEffectRuneDesigns.clear();
+                    String effectName = ((BackloggedSpellEffect)pair.getWord()).getName();
+                    
+                    if(!clearFirst && backloggedSpellEffectRuneDesigns.containsKey(effectName))
+                    {
+                        backloggedDesigns.put(effectName, pair.getDesign());
+                        putInBacklog(effectName, pair.getDesign());
+                    }
                 }
-                
-                for(String line = ""; line != null; line = reader.readLine())
+                else
                 {
-                    SpellWordRuneDesignPair pair = parseLine(line, modifGetters);
+                    RuneDesign preExistingRune = null;
                     
-                    if(pair == null)
-                        continue;
+                    if(!clearFirst && pair.getWord() instanceof SpellEffect)
+                        preExistingRune = removeFromBacklog(((SpellEffect)pair.getWord()).getName());
                     
-                    if(pair.getWord() instanceof BackloggedSpellEffect)
+                    if(preExistingRune == null)
                     {
-                        String effectName = ((BackloggedSpellEffect)pair.getWord()).getName();
-                        
-                        if(!clearFirst && backloggedSpellEffectRuneDesigns.containsKey(effectName))
-                        {
-                            backloggedDesigns.put(effectName, pair.getDesign());
-                            backloggedSpellEffectRuneDesigns.put(effectName, pair.getDesign());
-                        }
+                        designs.put(pair.getWord(), pair.getDesign());
+                        runeDesigns.put(pair.getWord(), pair.getDesign());
                     }
                     else
                     {
-                        RuneDesign preExistingRune = null;
-                        
-                        if(!clearFirst && pair.getWord() instanceof SpellEffect)
-                            preExistingRune = backloggedSpellEffectRuneDesigns.remove(((SpellEffect)pair.getWord()).getName());
-                        
-                        if(preExistingRune == null)
-                        {
-                            designs.put(pair.getWord(), pair.getDesign());
-                            runeDesigns.put(pair.getWord(), pair.getDesign());
-                        }
-                        else
-                        {
-                            runeDesigns.put(pair.getWord(), preExistingRune);
-                            backlogUpdated = true;
-                        }
+                        runeDesigns.put(pair.getWord(), preExistingRune);
+                        backlogUpdated = true;
                     }
                 }
             }
+            
+            runeDesignsChanged();
         }
-        catch(IOException e)
-        { throw new RuntimeException("IOException not currently handled. It shouldn't be thrown here anyway.", e); }
         
         if(backlogUpdated)
             this.backlogCleared.raise(this, new RuneDesignsBacklogClearedArgs());
@@ -772,16 +1118,18 @@ public class RuneDesignRegistry
             {
                 removedArgs = new RuneDesignsRemovedArgs(runeDesigns, backloggedSpellEffectRuneDesigns, true);
                 runeDesigns.clear();
-                backloggedSpellEffectRuneDesigns.clear();
+                clearBacklog();
             }
             
+            Set<RuneDesign> usedDesigns = new HashSet<RuneDesign>(runeDesigns.values());
+            
             for(SpellEffect effect : sourceEffectRegistry.getEffects())
                 if(!runeDesigns.containsKey(effect))
                 {
-                    RuneDesign rune = backloggedSpellEffectRuneDesigns.remove(effect.getName());
+                    RuneDesign rune = removeFromBacklog(effect.getName());
                     
                     if(rune == null)
-                        rune = generateUniqueRuneDesignForSpellEffect();
+                        rune = generateUniqueRuneDesignForSpellEffect(usedDesigns);
                     else
                         backlogUpdated = true;
                     
@@ -797,6 +1145,8 @@ public class RuneDesignRegistry
                         added.put(modifier, rune);
                         runeDesigns.put(modifier, rune);
                     }
+            
+            runeDesignsChanged();
         }
         
         if(backlogUpdated)
@@ -867,42 +1217,256 @@ public class RuneDesignRegistry
     { return new RuneDesignBuilder(runeGridWidth, runeGridHeight).addRandomLines(3).make(); }
     
     /**
-     * Randomly generates a rune design for a spell effect that isn't currently used.
-     * @return A random, unique rune design for a spell effect.
+     * Backlogs a rune design for the named spell effect, noting the change for the journal. Should only be called
+     * while holding the lock on runeDesigns.
+     * @param effectName The name of the spell effect.
+     * @param design The rune design.
      */
-    private RuneDesign generateUniqueRuneDesignForSpellEffect()
+    private void putInBacklog(String effectName, RuneDesign design)
     {
-        RuneDesign rune;
+        backloggedSpellEffectRuneDesigns.put(effectName, design);
         
-        synchronized(runeDesigns)
+        if(journal != null)
+            backlogChangedSinceJournalled.add(effectName);
+    }
+    
+    /**
+     * Removes the named spell effect's rune design from the backlog, noting the change for the journal. Should only
+     * be called while holding the lock on runeDesigns.
+     * @param effectName The name of the spell effect.
+     * @return The rune design removed, or null if there wasn't one.
+     */
+    private RuneDesign removeFromBacklog(String effectName)
+    {
+        RuneDesign removed = backloggedSpellEffectRuneDesigns.remove(effectName);
+        
+        if(removed != null && journal != null)
+            backlogChangedSinceJournalled.add(effectName);
+        
+        return removed;
+    }
+    
+    /**
+     * Removes all rune designs from the backlog, noting the changes for the journal. Should only be called while
+     * holding the lock on runeDesigns.
+     */
+    private void clearBacklog()
+    {
+        if(journal != null)
+            backlogChangedSinceJournalled.addAll(backloggedSpellEffectRuneDesigns.keySet());
+        
+        backloggedSpellEffectRuneDesigns.clear();
+    }
+    
+    /**
+     * Replaces the snapshot of the rune designs read by getRuneDesignFor. Should be called after changing runeDesigns,
+     * while still holding the lock on it.
+     */
+    protected void runeDesignsChanged()
+    {
+        PersistentHashMap<SpellWord, RuneDesign> current = runeDesigns.getVersion();
+        PersistentHashMap.Difference<SpellWord, RuneDesign> changes = runeDesignsSnapshot.differencesTo(current);
+        int idGeneration = SpellWordIds.getGeneration();
+        AtomicReferenceArray<SpellWordRuneDesignPair> byId;
+        
+        if(idGeneration != runeDesignsByIdGeneration)
+        {
+            // Ids have been given up or moved since the array was last updated, so entries in it could be at ids their
+            // spell words no longer have.
+            byId = new AtomicReferenceArray<SpellWordRuneDesignPair>(SpellWordIds.count());
+            
+            for(Map.Entry<SpellWord, RuneDesign> entry : current)
+            {
+                int id = entry.getKey().getSpellWordId();
+                
+                if(id >= 0 && id < byId.length())
+                    byId.set(id, new SpellWordRuneDesignPair(entry.getKey(), entry.getValue()));
+            }
+            
+            runeDesignsByIdGeneration = idGeneration;
+        }
+        else
+            byId = updatedRuneDesignsById(changes);
+        
+        runeDesignsById     = byId;
+        runeDesignsSnapshot = current;
+        
+        if(journal != null)
+            recordChanges(changes, current);
+    }
+    
+    /**
+     * Gets runeDesignsById with the passed changes made to it, copied into a bigger array first if any of the spell
+     * words added have ids past the end of it. Should only be called from runeDesignsChanged.
+     * @param changes The changes to the rune designs of spell words.
+     * @return The array of rune designs by id, with the changes made.
+     */
+    private AtomicReferenceArray<SpellWordRuneDesignPair> updatedRuneDesignsById(
+            PersistentHashMap.Difference<SpellWord, RuneDesign> changes)
+    {
+        AtomicReferenceArray<SpellWordRuneDesignPair> byId = runeDesignsById;
+        int neededLength = 0;
+        
+        // Spell effects get their ids as they're added to the spell effect registry, which can be after the array was
+        // last made.
+        for(SpellWord word : changes.getAdded().keySet())
+            neededLength = Math.max(neededLength, word.getSpellWordId() + 1);
+        
+        if(byId.length() < neededLength)
+        {
+            AtomicReferenceArray<SpellWordRuneDesignPair> bigger
+                = new AtomicReferenceArray<SpellWordRuneDesignPair>(Math.max(neededLength, byId.length() * 2));
+            
+            for(int i = 0; i < byId.length(); i++)
+                bigger.set(i, byId.get(i));
+            
+            byId = bigger;
+        }
+        
+        // Removals first, as a spell word removed and one added in the same change can have the same id.
+        for(SpellWord word : changes.getRemoved().keySet())
         {
-            do rune = generateRuneDesignForSpellEffect();
-            while(runeDesigns.containsValue(rune));
+            int id = word.getSpellWordId();
+            SpellWordRuneDesignPair pair = id >= 0 ? byId.get(id) : null;
+            
+            if(pair != null && pair.getWord() == word)
+                byId.set(id, null);
+        }
+        
+        for(Map.Entry<SpellWord, RuneDesign> entry : changes.getAdded().entrySet())
+            if(entry.getKey().getSpellWordId() >= 0)
+                byId.set(entry.getKey().getSpellWordId(), new SpellWordRuneDesignPair(entry.getKey(), entry.getValue()));
+        
+        for(Map.Entry<SpellWord, RuneDesign> entry : changes.getChanged().entrySet())
+            if(entry.getKey().getSpellWordId() >= 0)
+                byId.set(entry.getKey().getSpellWordId(), new SpellWordRuneDesignPair(entry.getKey(), entry.getValue()));
+        
+        return byId;
+    }
+    
+    /**
+     * Records a change to the rune designs in the journal, and has the journal compacted if it's due. Should be called
+     * from runeDesignsChanged.
+     * @param changes The changes to the rune designs of spell words.
+     * @param current The rune designs of spell words after the changes.
+     */
+    private void recordChanges(PersistentHashMap.Difference<SpellWord, RuneDesign> changes,
+                               final PersistentHashMap<SpellWord, RuneDesign> current)
+    {
+        Set<String> removed = new HashSet<String>();
+        Map<String, String> added = new HashMap<String, String>();
+        
+        for(SpellWord word : changes.getRemoved().keySet())
+            removed.add(spellwordToString(word));
+        
+        for(Map.Entry<SpellWord, RuneDesign> entry : changes.getAdded().entrySet())
+            added.put(spellwordToString(entry.getKey()), entry.getValue().toString());
+        
+        for(Map.Entry<SpellWord, RuneDesign> entry : changes.getChanged().entrySet())
+            added.put(spellwordToString(entry.getKey()), entry.getValue().toString());
+        
+        for(String effectName : backlogChangedSinceJournalled)
+        {
+            RuneDesign design = backloggedSpellEffectRuneDesigns.get(effectName);
+            
+            if(design == null)
+                removed.add(backloggedEffectToString(effectName));
+            else
+                added.put(backloggedEffectToString(effectName), design.toString());
+        }
+        
+        backlogChangedSinceJournalled.clear();
+        
+        // A spell effect moving into or out of the backlog, or being replaced, is removed and added under the same name.
+        removed.removeAll(added.keySet());
+        
+        if(removed.isEmpty() && added.isEmpty())
+            return;
+        
+        if(journal.record(removed, added))
+        {
+            // Only copied when the journal's compacted, which is already a write of everything.
+            final Map<String, RuneDesign> backloggedDesigns
+                = new HashMap<String, RuneDesign>(backloggedSpellEffectRuneDesigns);
+            
+            journal.compact(new Getter<String>()
+            {
+                @Override
+                public String get()
+                { return RuneDesignRegistry.toString(current, backloggedDesigns); }
+            });
         }
+    }
+    
+    /**
+     * Gets the spell word with the passed id and its rune design, without locking.
+     * @param spellWordId The id of the spell word.
+     * @return The spell word and its rune design, or null if there's no rune design for a spell word with that id.
+     */
+    private SpellWordRuneDesignPair getPairWithId(int spellWordId)
+    {
+        AtomicReferenceArray<SpellWordRuneDesignPair> byId = runeDesignsById;
+        
+        if(spellWordId < 0 || spellWordId >= byId.length())
+            return null;
+        
+        SpellWordRuneDesignPair pair = byId.get(spellWordId);
+        
+        // The spell word at an id could since have been given a different one, if ids have been moved around.
+        return pair != null && pair.getWord().getSpellWordId() == spellWordId ? pair : null;
+    }
+    
+    /**
+     * Gets the spell word with the passed id by what it is as a string, for when it can't be found in runeDesignsById.
+     * @param spellWordId The id of the spell word.
+     * @return The spell word with that id, or null if the id isn't in use or isn't for a spell word that exists.
+     */
+    private SpellWord lookUpSpellWordWithId(int spellWordId)
+    {
+        String key = SpellWordIds.getKey(spellWordId);
+        
+        if(key == null)
+            return null;
+        
+        SpellWord word = getSpellWordFromString(key, getModifiersByString());
+        return word instanceof BackloggedSpellEffect ? null : word;
+    }
+    
+    /**
+     * Randomly generates a rune design for a spell effect that isn't currently used, and adds it to the designs used.
+     * @param usedDesigns The rune designs currently used, taken once for a batch of rune designs generated, rather
+     * than searching the registry's rune designs for each one. Should be taken while holding the lock on runeDesigns.
+     * @return A random, unique rune design for a spell effect.
+     */
+    private RuneDesign generateUniqueRuneDesignForSpellEffect(Set<RuneDesign> usedDesigns)
+    {
+        RuneDesign rune;
+        
+        do rune = generateRuneDesignForSpellEffect();
+        while(!usedDesigns.add(rune));
         
         return rune;
     }
     
     /**
-     * Randomly generates a rune design for a spell effect modifier that isn't currently used.
+     * Randomly generates a rune design for a spell effect modifier that isn't currently used, and adds it to the designs used.
+     * @param usedDesigns The rune designs currently used, taken once for a batch of rune designs generated, rather
+     * than searching the registry's rune designs for each one. Should be taken while holding the lock on runeDesigns.
      * @return A random, unique rune design for a spell effect modifier.
      */
-    private RuneDesign generateUniqueRuneDesignForSpellEffectModifier()
+    private RuneDesign generateUniqueRuneDesignForSpellEffectModifier(Set<RuneDesign> usedDesigns)
     {
         RuneDesign rune;
         
-        synchronized(runeDesigns)
-        {
-            do rune = generateRuneDesignForSpellEffectModifier();
-            while(runeDesigns.containsValue(rune));
-        }
+        do rune = generateRuneDesignForSpellEffectModifier();
+        while(!usedDesigns.add(rune));
         
         return rune;
     }
     //</editor-fold>
     
     //<editor-fold defaultstate="collapsed" desc="Parsing">
-    private SpellWordRuneDesignPair parseLine(String s, Map<String, Getter<Collection<SpellEffectModifier>>> modifierGetters)
+    private SpellWordRuneDesignPair parseLine(String s, Map<String, SpellEffectModifier> modifiersByString)
     {
         // Example line:
         // effect:heal=2,3>3,1_0,0>1,2_3,0>2,1
@@ -922,7 +1486,7 @@ public class RuneDesignRegistry
             return null;
         }
         
-        SpellWord spellWord = getSpellWordFromString(sParts[0], modifierGetters);
+        SpellWord spellWord = getSpellWordFromString(sParts[0], modifiersByString);
         
         if(spellWord == null)
         {
@@ -942,7 +1506,7 @@ public class RuneDesignRegistry
         return new SpellWordRuneDesignPair(spellWord, runeDesign);
     }
     
-    private SpellWord getSpellWordFromString(String s, Map<String, Getter<Collection<SpellEffectModifier>>> modifierGetters)
+    private SpellWord getSpellWordFromString(String s, Map<String, SpellEffectModifier> modifiersByString)
     {
         if(s == null)
             return null;
@@ -958,13 +1522,32 @@ public class RuneDesignRegistry
             return effect != null ? effect : new BackloggedSpellEffect(sParts[1].trim());
         }
         
-        Getter<Collection<SpellEffectModifier>> getter = modifierGetters.get(sParts[0].trim());
+        return modifiersByString.get(sParts[0].trim() + ":" + sParts[1].trim().toLowerCase());
+    }
+    
+    /**
+     * Gets all of the spell effect modifiers the modifier getters give, so they can be looked up by string without
+     * going through each getter's values every time. Doesn't hold onto them, as getters can give new ones later.
+     * @return The modifiers, by their group name, a colon, and their name in lower case. (e.g. "AOE:targetonly")
+     */
+    private Map<String, SpellEffectModifier> getModifiersByString()
+    {
+        Map<String, SpellEffectModifier> modifiersByString = new HashMap<String, SpellEffectModifier>();
         
-        for(SpellEffectModifier modifier : getter.get())
-            if(modifier.getModifierName().equalsIgnoreCase(sParts[1].trim()))
-                return modifier;
+        synchronized(modifierGetters)
+        {
+            for(Map.Entry<String, Getter<Collection<SpellEffectModifier>>> getter : modifierGetters.entrySet())
+                for(SpellEffectModifier modifier : getter.getValue().get())
+                {
+                    String key = getter.getKey() + ":" + modifier.getModifierName().toLowerCase();
+                    
+                    // The first match was the one found when going through the values one at a time.
+                    if(!modifiersByString.containsKey(key))
+                        modifiersByString.put(key, modifier);
+                }
+        }
         
-        return null;
+        return modifiersByString;
     }
     //</editor-fold>
     
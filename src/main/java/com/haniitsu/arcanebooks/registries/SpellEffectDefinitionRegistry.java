@@ -1,19 +1,49 @@
 package com.haniitsu.arcanebooks.registries;
 
 import com.haniitsu.arcanebooks.magic.SpellEffectDefinition;
+import com.haniitsu.arcanebooks.misc.events.BasicEvent;
+import com.haniitsu.arcanebooks.misc.events.Event;
+import com.haniitsu.arcanebooks.misc.events.args.BasicEventArgs;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
 /** Registry of all spell effect definitions, the actual hard-coded component of every spell. */
 public class SpellEffectDefinitionRegistry
 {
+    /** Event-args for when spell effect definitions are registered. */
+    public static class DefinitionsRegisteredArgs extends BasicEventArgs
+    {
+        /**
+         * Creates a new instance of this event args with the passed args.
+         * @param definitionNames The names of the spell effect definitions registered.
+         */
+        public DefinitionsRegisteredArgs(Collection<String> definitionNames)
+        { this.definitionNames = Collections.unmodifiableCollection(new ArrayList<String>(definitionNames)); }
+        
+        /** The names of the spell effect definitions registered. */
+        Collection<String> definitionNames;
+        
+        /**
+         * Gets the names of the spell effect definitions registered.
+         * @return The names of the spell effect definitions registered.
+         */
+        public Collection<String> getDefinitionNames()
+        { return definitionNames; }
+    }
+    
     /** Creates the spell effect definition registry. */
     public SpellEffectDefinitionRegistry() {}
     
     /** The spell effect definitions. */
     final protected Map<String, SpellEffectDefinition> definitions = new HashMap<String, SpellEffectDefinition>();
     
+    /** When spell effect definitions are registered. Raised without holding the lock on the registry. */
+    final public Event<DefinitionsRegisteredArgs> definitionsRegistered = new BasicEvent<DefinitionsRegisteredArgs>();
+    
     /**
      * Gets a spell effect definition with the given name.
      * @param name The name of the spell effect definition to get.
@@ -22,6 +52,13 @@ public class SpellEffectDefinitionRegistry
     public SpellEffectDefinition getByName(String name)
     { synchronized(definitions) { return definitions.get(name); } }
     
+    /**
+     * Gets the names of all registered spell effect definitions.
+     * @return A copy of the names of the registered spell effect definitions.
+     */
+    public Collection<String> getNames()
+    { synchronized(definitions) { return new ArrayList<String>(definitions.keySet()); } }
+    
     /**
      * Registers the passed spell effect definition.
      * @note This overwrites any other registered spell effect definition with the same name. *DO NOT USE THE SAME NAME
@@ -30,7 +67,15 @@ public class SpellEffectDefinitionRegistry
      * @return The spell effect definition previously registered with the same name, or null if there was none.
      */
     public SpellEffectDefinition register(SpellEffectDefinition definition)
-    { synchronized(definitions) { return definitions.put(definition.getName(), definition); } }
+    {
+        SpellEffectDefinition previous;
+        
+        synchronized(definitions)
+        { previous = definitions.put(definition.getName(), definition); }
+        
+        definitionsRegistered.raise(this, new DefinitionsRegisteredArgs(Collections.singletonList(definition.getName())));
+        return previous;
+    }
     
     /** Deregisters all spell effect definitions. */
     public void clear()
@@ -43,23 +88,34 @@ public class SpellEffectDefinitionRegistry
         {
             definitions.clear();
             
-            register(DefaultDefs.logicalIf);
+            registerWithoutRaising(DefaultDefs.logicalIf);
             
-            register(DefaultDefs.activateRedstone);
-            register(DefaultDefs.breakBlock);
-            register(DefaultDefs.clearPotionEffects);
-            register(DefaultDefs.damage);
-            register(DefaultDefs.detect);
-            register(DefaultDefs.givePotionEffect);
-            register(DefaultDefs.heal);
-            register(DefaultDefs.modifyMana);
-            register(DefaultDefs.particle);
-            register(DefaultDefs.projectile);
-            register(DefaultDefs.replaceBlock);
-            register(DefaultDefs.replaceItem);
-            register(DefaultDefs.setMana);
-            register(DefaultDefs.shader);
-            register(DefaultDefs.triggerSpell);
+            registerWithoutRaising(DefaultDefs.activateRedstone);
+            registerWithoutRaising(DefaultDefs.breakBlock);
+            registerWithoutRaising(DefaultDefs.clearPotionEffects);
+            registerWithoutRaising(DefaultDefs.damage);
+            registerWithoutRaising(DefaultDefs.detect);
+            registerWithoutRaising(DefaultDefs.givePotionEffect);
+            registerWithoutRaising(DefaultDefs.heal);
+            registerWithoutRaising(DefaultDefs.modifyMana);
+            registerWithoutRaising(DefaultDefs.particle);
+            registerWithoutRaising(DefaultDefs.projectile);
+            registerWithoutRaising(DefaultDefs.replaceBlock);
+            registerWithoutRaising(DefaultDefs.replaceItem);
+            registerWithoutRaising(DefaultDefs.setMana);
+            registerWithoutRaising(DefaultDefs.shader);
+            registerWithoutRaising(DefaultDefs.triggerSpell);
         }
+        
+        // Raised once for all of them rather than for each.
+        definitionsRegistered.raise(this, new DefinitionsRegisteredArgs(getNames()));
     }
+    
+    /**
+     * Registers the passed spell effect definition, without raising definitionsRegistered.
+     * @param definition The definition to register.
+     * @return The spell effect definition previously registered with the same name, or null if there was none.
+     */
+    private SpellEffectDefinition registerWithoutRaising(SpellEffectDefinition definition)
+    { synchronized(definitions) { return definitions.put(definition.getName(), definition); } }
 }
\ No newline at end of file
@@ -0,0 +1,176 @@
+package com.haniitsu.arcanebooks.registries;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a spell effects file, and reloads a spell effect registry from it whenever it's changed, as
+ * SpellEffectRegistry.reloadFromFile does. Only the spell effects on lines that were changed are replaced, so spell
+ * effects can be tuned on a running server without everyone being sent every spell effect again.
+ *
+ * The file's read and parsed on the watching thread, but the spell effects parsed are published to the registry by
+ * the passed executor, (e.g. on the server thread) so that the events raised and the packets sent for them don't come
+ * from the watching thread.
+ */
+public class SpellEffectFileWatcher implements Closeable
+{
+    /**
+     * Creates a watcher for the passed file. Doesn't start watching it until .start is called.
+     * @param registry The registry to reload.
+     * @param file The file the registry was loaded from.
+     * @param publisher Runs the publishing of reloaded spell effects to the registry.
+     */
+    public SpellEffectFileWatcher(SpellEffectRegistry registry, File file, Executor publisher)
+    {
+        this.registry  = registry;
+        this.file      = file.getAbsoluteFile();
+        this.publisher = publisher;
+    }
+    
+    /** The registry to reload. */
+    final SpellEffectRegistry registry;
+    
+    /** The file the registry was loaded from. */
+    final File file;
+    
+    /** Runs the publishing of reloaded spell effects to the registry. */
+    final Executor publisher;
+    
+    /** The watch service watching the file's directory, or null if not watching. */
+    WatchService watchService = null;
+    
+    /** How long to wait for the file to stop changing before reloading it. Editors often write files in several goes. */
+    static final long settleTimeInMilliseconds = 250;
+    
+    /**
+     * Starts watching the file on a background thread. If the file's directory can't be watched, the registry just
+     * won't be reloaded when the file changes.
+     */
+    public synchronized void start()
+    {
+        if(watchService != null)
+            return;
+        
+        try
+        {
+            watchService = FileSystems.getDefault().newWatchService();
+            
+            // Editors that save by writing a new file and renaming it over the old one create it rather than modify it.
+            file.getParentFile().toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                                                                 StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+        catch(IOException exception)
+        {
+            System.out.println("Could not watch " + file.getName() + " for changes, so changes to it won't be loaded "
+                             + "until restarting: " + exception.getMessage());
+            
+            close();
+            return;
+        }
+        
+        final WatchService service = watchService;
+        
+        Thread thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            { watch(service); }
+        }, "ArcaneBooks spell effect file watcher");
+        
+        thread.setDaemon(true); // So it doesn't keep the game open.
+        thread.start();
+    }
+    
+    /** Stops watching the file. */
+    @Override
+    public synchronized void close()
+    {
+        if(watchService == null)
+            return;
+        
+        try
+        { watchService.close(); } // Stops the watching thread, as it's waiting on the service.
+        catch(IOException exception)
+        { System.out.println("Could not stop watching " + file.getName() + ": " + exception.getMessage()); }
+        
+        watchService = null;
+    }
+    
+    /**
+     * Waits for the file to change, and parses it and has it published to the registry when it does, until the passed
+     * watch service is closed.
+     * @param service The watch service watching the file's directory.
+     */
+    private void watch(WatchService service)
+    {
+        try
+        {
+            for(;;)
+            {
+                if(!isAboutFile(service.take()))
+                    continue;
+                
+                for(WatchKey key = service.poll(settleTimeInMilliseconds, TimeUnit.MILLISECONDS);
+                    key != null;
+                    key = service.poll(settleTimeInMilliseconds, TimeUnit.MILLISECONDS))
+                { isAboutFile(key); }
+                
+                final SpellEffectRegistry.ReloadedFile reload;
+                
+                try
+                { reload = registry.parseReload(file); }
+                catch(RuntimeException exception)
+                {
+                    System.out.println("Could not reload spell effects from " + file.getName() + ": " + exception);
+                    continue;
+                }
+                
+                if(reload != null)
+                    publisher.execute(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            try
+                            { registry.publishReload(reload); }
+                            catch(RuntimeException exception)
+                            {
+                                System.out.println("Could not reload spell effects from " + file.getName() + ": "
+                                                 + exception);
+                            }
+                        }
+                    });
+            }
+        }
+        catch(InterruptedException exception)
+        {}
+        catch(ClosedWatchServiceException exception)
+        {}
+    }
+    
+    /**
+     * Gets whether the events of a watch key include any about the file, and readies the key for further events.
+     * @param key The watch key.
+     * @return True if any of the events were about the file (or might have been, if some were lost), otherwise false.
+     */
+    private boolean isAboutFile(WatchKey key)
+    {
+        boolean aboutFile = false;
+        
+        for(WatchEvent<?> event : key.pollEvents())
+            if(event.kind() == StandardWatchEventKinds.OVERFLOW || file.getName().equals(String.valueOf(event.context())))
+                aboutFile = true;
+        
+        key.reset();
+        return aboutFile;
+    }
+}
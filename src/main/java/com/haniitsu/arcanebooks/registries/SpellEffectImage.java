@@ -0,0 +1,366 @@
+package com.haniitsu.arcanebooks.registries;
+
+import com.haniitsu.arcanebooks.magic.modifiers.definition.BasicDefinitionModifier;
+import com.haniitsu.arcanebooks.magic.modifiers.definition.LogicalCheckDefinitionModifier;
+import com.haniitsu.arcanebooks.magic.modifiers.definition.ModifierValueDefinitionModifier;
+import com.haniitsu.arcanebooks.magic.modifiers.definition.NumericDefinitionModifier;
+import com.haniitsu.arcanebooks.magic.modifiers.definition.SpellEffectDefinitionModifier;
+import com.haniitsu.arcanebooks.registries.SpellEffectRegistry.ConfiguredDefinitionInstruction;
+import com.haniitsu.arcanebooks.registries.SpellEffectRegistry.ParsedEffect;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes images of parsed spell effect files - the configured definition instruction trees of each line,
+ * in binary - so that a spell effects file that hasn't changed since it was last loaded doesn't have to be parsed
+ * again.
+ *
+ * Each image is keyed by a hash of the spell effects file's contents and the names of the spell effect definitions
+ * registered when it was made, and is only used when both match. Images also hold a checksum of their contents, so a
+ * damaged image is ignored (and then replaced) rather than loading nonsense.
+ *
+ * Layout: magic number, format version, key, line count, body length, body checksum, body. The body holds, for each
+ * line, its spell effect name, the problem reported parsing it, and its instruction trees.
+ */
+final class SpellEffectImage
+{
+    private SpellEffectImage()
+    {}
+    
+    /** The number at the start of every image, so other files aren't mistaken for one. ("ABSE") */
+    static final int magicNumber = 0x41425345;
+    
+    /** The version of the image format, written after the magic number. */
+    static final int fileFormatVersion = 1;
+    
+    /** The charset strings are written in. */
+    static final Charset charset = Charset.forName("UTF-8");
+    
+    /** The tags written before each modifier, saying which kind of modifier it is. */
+    static final byte tagConfiguredDefinition = 0,
+                      tagBasic                = 1,
+                      tagLogicalCheck         = 2,
+                      tagModifierValue        = 3,
+                      tagNumeric              = 4;
+    
+    /** How deep modifiers can be nested before an image is taken to be damaged. */
+    static final int maxDepth = 256;
+    
+    /**
+     * Works out the key an image of a spell effects file is stored under.
+     * @param fileContents The contents of the spell effects file.
+     * @param definitionNames The names of the spell effect definitions registered.
+     * @return The key, as a hash of the passed file contents and definition names.
+     */
+    static byte[] makeKey(byte[] fileContents, Collection<String> definitionNames)
+    {
+        MessageDigest digest;
+        
+        try
+        { digest = MessageDigest.getInstance("SHA-1"); }
+        catch(NoSuchAlgorithmException exception)
+        { throw new RuntimeException("SHA-1 isn't available.", exception); }
+        
+        digest.update(fileContents);
+        String[] names = definitionNames.toArray(new String[definitionNames.size()]);
+        Arrays.sort(names);
+        
+        for(String name : names)
+        {
+            digest.update((byte)0); // Separator, so "ab", "c" and "a", "bc" differ.
+            digest.update(name.getBytes(charset));
+        }
+        
+        return digest.digest();
+    }
+    
+    /**
+     * Reads the parsed lines of a spell effects file from an image of it, if the image is of the same file contents.
+     * The lines read aren't realised.
+     * @param imageFile The image to read.
+     * @param key The key of the spell effects file, as given by .makeKey.
+     * @param lineCount The number of lines in the spell effects file.
+     * @return The parsed lines, in order, or null if there's no image, it's of something else, or it's damaged.
+     */
+    static List<ParsedEffect> read(File imageFile, byte[] key, int lineCount)
+    {
+        if(!imageFile.exists())
+            return null;
+        
+        try
+        {
+            // Read through a stream rather than mapped, as a mapped file stays open until the mapping's collected,
+            // which stops it from being replaced on some systems.
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(imageFile)));
+            
+            try
+            {
+                if(input.readInt() != magicNumber || input.readInt() != fileFormatVersion)
+                    return null;
+                
+                if(input.readInt() != key.length)
+                    return null;
+                
+                byte[] imageKey = new byte[key.length];
+                input.readFully(imageKey);
+                
+                if(!Arrays.equals(imageKey, key) || input.readInt() != lineCount)
+                    return null;
+                
+                int  bodyLength = input.readInt();
+                long checksum   = input.readLong();
+                
+                if(bodyLength < 0 || bodyLength > imageFile.length())
+                    return damaged(imageFile);
+                
+                byte[] bodyArray = new byte[bodyLength];
+                input.readFully(bodyArray);
+                
+                if(input.read() != -1)
+                    return damaged(imageFile);
+                
+                CRC32 crc = new CRC32();
+                crc.update(bodyArray);
+                
+                if(crc.getValue() != checksum)
+                    return damaged(imageFile);
+                
+                ByteBuffer body = ByteBuffer.wrap(bodyArray);
+                List<ParsedEffect> parsed = new ArrayList<ParsedEffect>(lineCount);
+                
+                for(int i = 0; i < lineCount; i++)
+                    parsed.add(readLine(body));
+                
+                return body.hasRemaining() ? damaged(imageFile) : parsed;
+            }
+            finally
+            { input.close(); }
+        }
+        catch(IOException exception)
+        { return damaged(imageFile); }
+        catch(BufferUnderflowException exception)
+        { return damaged(imageFile); }
+        catch(IllegalArgumentException exception)
+        { return damaged(imageFile); }
+    }
+    
+    private static <T> T damaged(File imageFile)
+    {
+        System.out.println("Spell effects image " + imageFile + " is damaged, and will be replaced.");
+        return null;
+    }
+    
+    private static ParsedEffect readLine(ByteBuffer buffer)
+    {
+        String effectName = readString(buffer);
+        String problem    = readString(buffer);
+        
+        if(effectName == null)
+            return new ParsedEffect(null, null, null, problem);
+        
+        int instructionCount = readCount(buffer);
+        List<ConfiguredDefinitionInstruction> instructions = new ArrayList<ConfiguredDefinitionInstruction>(instructionCount);
+        
+        for(int i = 0; i < instructionCount; i++)
+        {
+            SpellEffectDefinitionModifier instruction = readModifier(buffer, 0);
+            
+            if(!(instruction instanceof ConfiguredDefinitionInstruction))
+                throw new IllegalArgumentException("Top-level modifier isn't a configured definition.");
+            
+            instructions.add((ConfiguredDefinitionInstruction)instruction);
+        }
+        
+        return new ParsedEffect(effectName, instructions, null, problem);
+    }
+    
+    private static SpellEffectDefinitionModifier readModifier(ByteBuffer buffer, int depth)
+    {
+        if(depth > maxDepth)
+            throw new IllegalArgumentException("Modifiers nested too deeply.");
+        
+        byte tag = buffer.get();
+        
+        switch(tag)
+        {
+            case tagLogicalCheck:  return new LogicalCheckDefinitionModifier(readString(buffer));
+            case tagModifierValue: return new ModifierValueDefinitionModifier(readString(buffer));
+            case tagNumeric:       return new NumericDefinitionModifier(buffer.getDouble());
+        }
+        
+        if(tag != tagConfiguredDefinition && tag != tagBasic)
+            throw new IllegalArgumentException("Unknown modifier tag: " + tag);
+        
+        String name  = readString(buffer);
+        String value = readString(buffer);
+        int subModifierCount = readCount(buffer);
+        List<SpellEffectDefinitionModifier> subModifiers = new ArrayList<SpellEffectDefinitionModifier>(subModifierCount);
+        
+        for(int i = 0; i < subModifierCount; i++)
+            subModifiers.add(readModifier(buffer, depth + 1));
+        
+        return tag == tagConfiguredDefinition ? new ConfiguredDefinitionInstruction(name, value, subModifiers)
+                                              : new BasicDefinitionModifier(name, value, subModifiers);
+    }
+    
+    private static int readCount(ByteBuffer buffer)
+    {
+        int count = buffer.getInt();
+        
+        // Every entry takes at least a byte, so a count over what's left can only come from a damaged image.
+        if(count < 0 || count > buffer.remaining())
+            throw new IllegalArgumentException("Impossible count: " + count);
+        
+        return count;
+    }
+    
+    private static String readString(ByteBuffer buffer)
+    {
+        int length = buffer.getInt();
+        
+        if(length == -1)
+            return null;
+        
+        if(length < 0 || length > buffer.remaining())
+            throw new IllegalArgumentException("Impossible string length: " + length);
+        
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, charset);
+    }
+    
+    /**
+     * Writes an image of the parsed lines of a spell effects file, replacing any image already there. Problems
+     * writing it are reported, but otherwise ignored - the file will just be parsed again next time.
+     * @param imageFile The file to write the image to.
+     * @param key The key of the spell effects file, as given by .makeKey.
+     * @param parsed The parsed lines of the spell effects file, in order.
+     */
+    static void write(File imageFile, byte[] key, List<ParsedEffect> parsed)
+    {
+        try
+        {
+            ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+            DataOutputStream body = new DataOutputStream(bodyBytes);
+            
+            for(ParsedEffect i : parsed)
+                writeLine(body, i);
+            
+            body.close();
+            byte[] bodyArray = bodyBytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(bodyArray);
+            
+            imageFile.getParentFile().mkdirs();
+            File tempFile = new File(imageFile.getPath() + ".tmp");
+            FileOutputStream fileOutput = new FileOutputStream(tempFile);
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput));
+            
+            try
+            {
+                output.writeInt(magicNumber);
+                output.writeInt(fileFormatVersion);
+                output.writeInt(key.length);
+                output.write(key);
+                output.writeInt(parsed.size());
+                output.writeInt(bodyArray.length);
+                output.writeLong(crc.getValue());
+                output.write(bodyArray);
+                output.flush();
+                fileOutput.getFD().sync(); // So the move can't reach the disk before the contents do.
+            }
+            finally
+            { output.close(); }
+            
+            RegistryFileService.moveOver(tempFile, imageFile);
+        }
+        catch(IOException exception)
+        {
+            System.out.println("Spell effects image " + imageFile + " couldn't be written.");
+            exception.printStackTrace();
+        }
+    }
+    
+    private static void writeLine(DataOutputStream output, ParsedEffect parsed) throws IOException
+    {
+        writeString(output, parsed.effectName);
+        writeString(output, parsed.problem);
+        
+        if(parsed.effectName == null)
+            return;
+        
+        output.writeInt(parsed.instructions.size());
+        
+        for(ConfiguredDefinitionInstruction i : parsed.instructions)
+            writeModifier(output, i);
+    }
+    
+    private static void writeModifier(DataOutputStream output, SpellEffectDefinitionModifier modifier) throws IOException
+    {
+        if(modifier instanceof LogicalCheckDefinitionModifier)
+        {
+            output.writeByte(tagLogicalCheck);
+            writeString(output, modifier.getName());
+            return;
+        }
+        
+        if(modifier instanceof ModifierValueDefinitionModifier)
+        {
+            output.writeByte(tagModifierValue);
+            writeString(output, modifier.getName()); // The value's held as the name.
+            return;
+        }
+        
+        if(modifier instanceof NumericDefinitionModifier)
+        {
+            output.writeByte(tagNumeric);
+            output.writeDouble(((NumericDefinitionModifier)modifier).asDouble());
+            return;
+        }
+        
+        // Anything else might hold things this can't write, so no image is made rather than a wrong one.
+        if(modifier.getClass() == ConfiguredDefinitionInstruction.class)
+            output.writeByte(tagConfiguredDefinition);
+        else if(modifier.getClass() == BasicDefinitionModifier.class)
+            output.writeByte(tagBasic);
+        else
+            throw new IOException("Can't write modifiers of type " + modifier.getClass().getName() + " to an image.");
+        
+        writeString(output, modifier.getName());
+        writeString(output, modifier.getValue());
+        output.writeInt(modifier.getSubModifiers().size());
+        
+        for(SpellEffectDefinitionModifier i : modifier.getSubModifiers())
+            writeModifier(output, i);
+    }
+    
+    private static void writeString(DataOutputStream output, String string) throws IOException
+    {
+        if(string == null)
+        {
+            output.writeInt(-1);
+            return;
+        }
+        
+        byte[] bytes = string.getBytes(charset);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+}
@@ -0,0 +1,255 @@
+package com.haniitsu.arcanebooks.registries;
+
+import com.google.common.primitives.Doubles;
+import com.haniitsu.arcanebooks.magic.modifiers.definition.BasicDefinitionModifier;
+import com.haniitsu.arcanebooks.magic.modifiers.definition.LogicalCheckDefinitionModifier;
+import com.haniitsu.arcanebooks.magic.modifiers.definition.NumericDefinitionModifier;
+import com.haniitsu.arcanebooks.magic.modifiers.definition.SpellEffectDefinitionModifier;
+import com.haniitsu.arcanebooks.registries.SpellEffectRegistry.ConfiguredDefinitionInstruction;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses the definitions part of a spell effect line (everything after "EffectName:") into configured definition
+ * instructions in a single pass over the text, without splitting it up into intermediate strings first.
+ *
+ * This only takes the plain form of the syntax: names, [logical checks], (comma-separated args), and: values, with
+ * whitespace around them. Anything else - backslash escapes, quotes, curly brackets, or text that's malformed (e.g. a
+ * bracket left open) - is handed back to SpellEffectRegistry's original parser, so that every line comes out exactly
+ * as it always has. Malformed text is reported, with where it is in the line, before being handed back.
+ *
+ * @example Modifier Name[Logical check 1][Logical check 2](Arg1, Arg2(foo): bar, arg3[lc3]): Modifier value.
+ */
+final class SpellEffectParser
+{
+    /**
+     * Creates a new parser over the passed text.
+     * @param text The definitions part of a spell effect line.
+     */
+    SpellEffectParser(CharSequence text)
+    {
+        this.text = text;
+        this.end  = text.length();
+    }
+    
+    /** The text being parsed. */
+    final CharSequence text;
+    
+    /** The index after the last character to parse. */
+    final int end;
+    
+    /** The index of the next character to parse. */
+    int position = 0;
+    
+    /** What was wrong with the text, if it was malformed. Null if it wasn't, or if it just used unsupported syntax. */
+    String problem = null;
+    
+    /** The index in the text of the problem, if there was one. */
+    int problemPosition = -1;
+    
+    /**
+     * Parses the text as a comma-separated list of configured definitions.
+     * @return The configured definition instructions, in order, or null if the text isn't in the plain form of the
+     * syntax and has to be parsed by the original parser. If it was malformed, .getProblem says why.
+     */
+    List<ConfiguredDefinitionInstruction> parseDefinitions()
+    {
+        List<ConfiguredDefinitionInstruction> definitions = new ArrayList<ConfiguredDefinitionInstruction>();
+        
+        for(;;)
+        {
+            SpellEffectDefinitionModifier definition = parseModifier(true);
+            
+            if(definition == null)
+                return null;
+            
+            definitions.add((ConfiguredDefinitionInstruction)definition);
+            skipWhitespace();
+            
+            if(position >= end)
+                return definitions;
+            
+            if(text.charAt(position) != ',')
+                return fail("Expected a comma or the end of the line");
+            
+            position++;
+        }
+    }
+    
+    /**
+     * Gets what was wrong with the text, if it was malformed.
+     * @return A description of the problem, or null if there wasn't one.
+     */
+    String getProblem()
+    { return problem; }
+    
+    /**
+     * Gets where in the text the problem was, if there was one.
+     * @return The index of the problem in the text, or -1 if there wasn't one.
+     */
+    int getProblemPosition()
+    { return problemPosition; }
+    
+    /**
+     * Parses a single modifier, and the modifiers in its args.
+     * @param definitelyEffect Whether the modifier has to be a configured definition, as top-level modifiers are.
+     * @return The modifier, or null if the text at this point can't be parsed. Built the same way as
+     * SpellEffectRegistry.getModifierFromString builds it.
+     */
+    private SpellEffectDefinitionModifier parseModifier(boolean definitelyEffect)
+    {
+        skipWhitespace();
+        int nameStart = position;
+        
+        while(position < end && isNameChar(text.charAt(position)))
+            position++;
+        
+        String name = trimmedSubstring(nameStart, position);
+        
+        if(name.isEmpty())
+            return fail("Expected a name");
+        
+        List<SpellEffectDefinitionModifier> logicalChecks = new ArrayList<SpellEffectDefinitionModifier>();
+        List<SpellEffectDefinitionModifier> args          = new ArrayList<SpellEffectDefinitionModifier>();
+        
+        for(;;)
+        {
+            skipWhitespace();
+            
+            if(position >= end)
+                break;
+            
+            char current = text.charAt(position);
+            
+            if(current == '[')
+            {
+                int checkStart = ++position;
+                
+                while(position < end && isCheckChar(text.charAt(position)))
+                    position++;
+                
+                if(position >= end || text.charAt(position) != ']')
+                    return fail("Expected a closing square bracket");
+                
+                logicalChecks.add(new LogicalCheckDefinitionModifier(text.subSequence(checkStart, position).toString()));
+                position++;
+            }
+            else if(current == '(')
+            {
+                position++;
+                
+                for(;;)
+                {
+                    SpellEffectDefinitionModifier arg = parseModifier(false);
+                    
+                    if(arg == null)
+                        return null;
+                    
+                    args.add(arg);
+                    skipWhitespace();
+                    
+                    if(position >= end)
+                        return fail("Expected a closing bracket");
+                    
+                    char afterArg = text.charAt(position++);
+                    
+                    if(afterArg == ')')
+                        break;
+                    
+                    if(afterArg != ',')
+                    {
+                        position--;
+                        return fail("Expected a comma or a closing bracket");
+                    }
+                }
+            }
+            else
+                break;
+        }
+        
+        String value = null;
+        
+        if(position < end && text.charAt(position) == ':')
+        {
+            int valueStart = ++position;
+            
+            while(position < end && isValueChar(text.charAt(position)))
+                position++;
+            
+            value = trimmedSubstring(valueStart, position);
+        }
+        
+        if(!definitelyEffect)
+        {
+            Double numericValue = Doubles.tryParse(name);
+            
+            if(numericValue != null)
+                return new NumericDefinitionModifier(numericValue);
+        }
+        
+        List<SpellEffectDefinitionModifier> subModifiers = logicalChecks;
+        subModifiers.addAll(args);
+        
+        if(definitelyEffect || Character.isUpperCase(name.codePointAt(0)))
+            return value == null ? new ConfiguredDefinitionInstruction(name, subModifiers)
+                                 : new ConfiguredDefinitionInstruction(name, value, subModifiers);
+        else
+            return value == null ? new BasicDefinitionModifier(name, subModifiers)
+                                 : new BasicDefinitionModifier(name, value, subModifiers);
+    }
+    
+    /**
+     * Gives up on parsing the text, noting why if it's malformed rather than just using syntax this doesn't take.
+     * @param message What the parser expected to find.
+     * @return null.
+     */
+    private <T> T fail(String message)
+    {
+        if(position < end && isUnsupportedChar(text.charAt(position)))
+            return null;
+        
+        problem         = message + (position < end ? ", but found '" + text.charAt(position) + "'." : ", but found the end.");
+        problemPosition = position;
+        return null;
+    }
+    
+    private void skipWhitespace()
+    {
+        while(position < end && text.charAt(position) <= ' ')
+            position++;
+    }
+    
+    /**
+     * Gets a substring of the text, without leading or trailing whitespace, as String.trim would.
+     * @param start The index of the start of the substring.
+     * @param finish The index after the end of the substring.
+     * @return The trimmed substring.
+     */
+    private String trimmedSubstring(int start, int finish)
+    {
+        while(start < finish && text.charAt(start) <= ' ')
+            start++;
+        
+        while(finish > start && text.charAt(finish - 1) <= ' ')
+            finish--;
+        
+        return text.subSequence(start, finish).toString();
+    }
+    
+    /**
+     * Gets whether a character is one that only the original parser handles. (escapes, quotes, and curly brackets)
+     * @param c The character to check.
+     * @return True if the character has to be left to the original parser, otherwise false.
+     */
+    private static boolean isUnsupportedChar(char c)
+    { return c == '\\' || c == '"' || c == '\'' || c == '{' || c == '}'; }
+    
+    private static boolean isNameChar(char c)
+    { return c != ':' && c != ',' && c != '[' && c != ']' && c != '(' && c != ')' && !isUnsupportedChar(c); }
+    
+    private static boolean isCheckChar(char c)
+    { return c != '[' && c != ']' && c != '(' && c != ')' && !isUnsupportedChar(c); }
+    
+    private static boolean isValueChar(char c)
+    { return c != ',' && c != '[' && c != ']' && c != '(' && c != ')' && !isUnsupportedChar(c); }
+}
@@ -1,26 +1,29 @@
 package com.haniitsu.arcanebooks.registries;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.io.Files;
 import com.google.common.primitives.Doubles;
 import com.haniitsu.arcanebooks.magic.ConfiguredDefinition;
 import com.haniitsu.arcanebooks.magic.SpellEffect;
 import com.haniitsu.arcanebooks.magic.SpellEffectDefinition;
+import com.haniitsu.arcanebooks.magic.SpellWordIds;
 import com.haniitsu.arcanebooks.magic.modifiers.definition.BasicDefinitionModifier;
 import com.haniitsu.arcanebooks.magic.modifiers.definition.LogicalCheckDefinitionModifier;
 import com.haniitsu.arcanebooks.magic.modifiers.definition.ModifierValueDefinitionModifier;
 import com.haniitsu.arcanebooks.magic.modifiers.definition.NumericDefinitionModifier;
 import com.haniitsu.arcanebooks.magic.modifiers.definition.SpellEffectDefinitionModifier;
+import com.haniitsu.arcanebooks.misc.PersistentHashMap;
 import com.haniitsu.arcanebooks.misc.UtilMethods;
+import com.haniitsu.arcanebooks.misc.VersionedHashMap;
 import com.haniitsu.arcanebooks.misc.events.BasicEvent;
 import com.haniitsu.arcanebooks.misc.events.Event;
 import com.haniitsu.arcanebooks.misc.events.args.BasicEventArgs;
 import java.io.BufferedReader;
-import java.io.DataInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -31,6 +34,13 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Registry for storing spell effects, backed against a SpellEffectDefinitionRegistry which contains definitions for
@@ -111,7 +121,12 @@ public class SpellEffectRegistry
             List<SpellEffectDefinitionModifier> subMods = new ArrayList<SpellEffectDefinitionModifier>(arguments);
             
             if(value != null)
-                subMods.add(new ModifierValueDefinitionModifier(value));
+            {
+                ModifierValueDefinitionModifier valueModifier = new ModifierValueDefinitionModifier(value);
+                
+                if(!subMods.contains(valueModifier)) // Already there if this is a copy.
+                    subMods.add(valueModifier);
+            }
             
             this.modifiers = Collections.unmodifiableList(subMods);
         }
@@ -223,9 +238,186 @@ public class SpellEffectRegistry
         public final List<String> logicalChecks;
     }
     
+    /**
+     * A spell effect parsed and realised, (or not, if it's to be backlogged) waiting to be added to the registry.
+     */
+    protected static class ParsedEffect
+    {
+        public ParsedEffect(String effectName, List<ConfiguredDefinitionInstruction> instructions, SpellEffect effect,
+                            String problem)
+        {
+            this.effectName   = effectName;
+            this.instructions = instructions;
+            this.effect       = effect;
+            this.problem      = problem;
+        }
+        
+        /** The name of the spell effect, or null if the line it was on couldn't be split into a name and definitions. */
+        final String effectName;
+        
+        /** The spell effect's configured definition instructions. */
+        final List<ConfiguredDefinitionInstruction> instructions;
+        
+        /** The realised spell effect, or null if it has to be backlogged. */
+        final SpellEffect effect;
+        
+        /** A description of what was wrong with the spell effect's text, or null if nothing was. */
+        final String problem;
+    }
+    
+    /**
+     * The lines of a changed spell effects file, read and with the changed ones parsed by .parseReload, waiting to be
+     * published to the registry by .publishReload.
+     */
+    public static class ReloadedFile
+    {
+        /**
+         * Creates a reloaded file with none of its lines parsed yet.
+         * @param fileName The name of the file, for reporting problems with it.
+         * @param lines The lines of the file, in order.
+         */
+        ReloadedFile(String fileName, List<String> lines)
+        {
+            this.fileName = fileName;
+            this.lines    = lines;
+            
+            for(String line : lines)
+            {
+                String[] lineParts = line.split(":", 2);
+                
+                if(lineParts.length == 2)
+                    effectLines.put(lineParts[0], line); // Later lines replace earlier ones, as when loading.
+            }
+        }
+        
+        /** The name of the file, for reporting problems with it. */
+        final String fileName;
+        
+        /** The lines of the file, in order. */
+        final List<String> lines;
+        
+        /** The last line in the file for each spell effect, by the spell effect's name. */
+        final Map<String, String> effectLines = new HashMap<String, String>();
+        
+        /** The lines that are new or have changed since the file was last loaded, in order. */
+        final List<String> changedLines = new ArrayList<String>();
+        
+        /** The changed lines that have been parsed, by their text. */
+        final Map<String, ParsedEffect> parsedLines = new HashMap<String, ParsedEffect>();
+    }
+    
+    /**
+     * An unchanging copy of the spell effects in a registry, as of one change to it. Reading from a snapshot never
+     * waits on the registry, and a snapshot held onto (e.g. for the length of a spell cast) doesn't see later changes.
+     * Taking a snapshot costs nothing, as the registry's spell effects are held in a persistent map.
+     */
+    public static class EffectsSnapshot
+    {
+        /**
+         * Creates a new snapshot of the passed spell effects.
+         * @param effects The spell effects, by name.
+         * @param epoch How many times the registry had changed when the snapshot was taken.
+         */
+        EffectsSnapshot(PersistentHashMap<String, SpellEffect> effects, long epoch)
+        {
+            this.effects = effects;
+            this.epoch   = epoch;
+        }
+        
+        /** A snapshot of no spell effects, as a registry starts with. */
+        static final EffectsSnapshot empty = new EffectsSnapshot(PersistentHashMap.<String, SpellEffect>empty(), 0);
+        
+        /** Orders spell effects by name, as the sorted spell effects are. */
+        static final Comparator<SpellEffect> byName = new Comparator<SpellEffect>()
+        {
+            @Override
+            public int compare(SpellEffect first, SpellEffect second)
+            { return first.getName().compareTo(second.getName()); }
+        };
+        
+        /** The spell effects, by name. */
+        final PersistentHashMap<String, SpellEffect> effects;
+        
+        /** The spell effects, sorted by name. Only sorted the first time they're asked for. */
+        volatile List<SpellEffect> sortedEffects = null;
+        
+        /** How many times the registry had changed when the snapshot was taken. */
+        final long epoch;
+        
+        /**
+         * Gets the spell effect with the given name.
+         * @param name The name of the spell effect to get.
+         * @return The spell effect with the given name, or null if there was none.
+         */
+        public SpellEffect getEffect(String name)
+        { return effects.get(name); }
+        
+        /**
+         * Gets all of the spell effects.
+         * @return An unmodifiable list of the spell effects, sorted by name.
+         */
+        public List<SpellEffect> getEffects()
+        {
+            List<SpellEffect> sorted = sortedEffects;
+            
+            // Sorting it twice if two threads get here at once does no harm.
+            if(sorted == null)
+            {
+                SpellEffect[] sortedArray = new SpellEffect[effects.size()];
+                int i = 0;
+                
+                for(Map.Entry<String, SpellEffect> entry : effects)
+                    sortedArray[i++] = entry.getValue();
+                
+                Arrays.sort(sortedArray, byName);
+                sortedEffects = sorted = Collections.unmodifiableList(Arrays.asList(sortedArray));
+            }
+            
+            return sorted;
+        }
+        
+        /**
+         * Gets the spell effects registered, removed, and replaced since the passed snapshot was taken. Takes time
+         * proportional to how much has changed, rather than to the number of spell effects.
+         * @param older An earlier snapshot of the same registry, or of the one it was copied from.
+         * @return The differences between the passed snapshot and this one.
+         */
+        public PersistentHashMap.Difference<String, SpellEffect> changesSince(EffectsSnapshot older)
+        { return older.effects.differencesTo(effects); }
+        
+        /**
+         * Gets how many times the registry had changed when the snapshot was taken. Snapshots of the same registry
+         * with the same epoch have the same contents.
+         * @return The snapshot's epoch.
+         */
+        public long getEpoch()
+        { return epoch; }
+    }
+    
     /** Event-args for when the backlog is partially cleared. */
     public static class BacklogClearedArgs extends BasicEventArgs
-    { }
+    {
+        /** Creates a new instance of this event args, without the names of the spell effects realised. */
+        public BacklogClearedArgs()
+        { this(Collections.<String>emptyList()); }
+        
+        /**
+         * Creates a new instance of this event args with the passed args.
+         * @param effectNames The names of the backlogged spell effects that were realised.
+         */
+        public BacklogClearedArgs(Collection<String> effectNames)
+        { this.effectNames = Collections.unmodifiableCollection(new ArrayList<String>(effectNames)); }
+        
+        /** The names of the backlogged spell effects that were realised. */
+        Collection<String> effectNames;
+        
+        /**
+         * Gets the names of the backlogged spell effects that were realised.
+         * @return The names of the spell effects no longer backlogged.
+         */
+        public Collection<String> getEffectNames()
+        { return effectNames; }
+    }
     
     /** Event-args for when spell effects are added to this registry. */
     public static class EffectsAddedArgs extends BasicEventArgs
@@ -248,6 +440,29 @@ public class SpellEffectRegistry
         { return effectStrings; }
     }
     
+    /**
+     * Event-args for when registered or backlogged spell effects are replaced by new spell effects with the same names.
+     */
+    public static class EffectsReplacedArgs extends BasicEventArgs
+    {
+        /**
+         * Creates a new instance of this event args with the passed args.
+         * @param effectNames The names of the spell effects replaced.
+         */
+        public EffectsReplacedArgs(Collection<String> effectNames)
+        { this.effectNames = Collections.unmodifiableCollection(new ArrayList<String>(effectNames)); }
+        
+        /** The names of the spell effects replaced. */
+        Collection<String> effectNames;
+        
+        /**
+         * Gets the names of the spell effects replaced.
+         * @return The names of the spell effects replaced.
+         */
+        public Collection<String> getEffectNames()
+        { return effectNames; }
+    }
+    
     /** Event-args for when spell effects are removed from this registry. */
     public static class EffectsRemovedArgs extends BasicEventArgs
     {
@@ -312,21 +527,33 @@ public class SpellEffectRegistry
     
     /**
      * Creates a new SpellEffectRegistry with the same contents as the passed SpellEffectRegistry. The resulting
-     * SpellEffectRegistry will be backed against the same SpellEffectDefinitionRegistry as the other.
+     * SpellEffectRegistry will be backed against the same SpellEffectDefinitionRegistry as the other. The registered
+     * spell effects are shared with the other registry until either changes, so this doesn't copy them.
      * @param other The SpellEffectRegistry to base this one off of.
      */
     public SpellEffectRegistry(SpellEffectRegistry other)
     {
         synchronized(other.effects)
         {
-            effects.putAll(other.effects);
-            backloggedEffects.putAll(other.backloggedEffects);
+            effects.setVersion(other.effects.getVersion()); // Shares the other's effects rather than copying them.
             linkedDefinitionRegistry = other.linkedDefinitionRegistry;
+            
+            for(Map.Entry<String, List<ConfiguredDefinitionInstruction>> i : other.backloggedEffects.entrySet())
+                addToBacklog(i.getKey(), i.getValue());
+            
+            fileEffectLines.putAll(other.fileEffectLines);
+            effectsChanged();
         }
     }
     
-    /** The current active spell effects. */
-    final protected Map<String, SpellEffect> effects = new HashMap<String, SpellEffect>();
+    /** The current active spell effects. Also the lock held while changing the registry. */
+    final protected VersionedHashMap<String, SpellEffect> effects = new VersionedHashMap<String, SpellEffect>();
+    
+    /**
+     * An unchanging copy of effects, replaced whenever it changes. Read without locking, so looking spell effects up
+     * never waits on the registry being changed.
+     */
+    protected volatile EffectsSnapshot snapshot = EffectsSnapshot.empty;
     
     /**
      * The backlogged spell effects not yet compiled into active, actual Spell Effects. Uses effects as a
@@ -335,9 +562,59 @@ public class SpellEffectRegistry
     final protected Map<String, List<ConfiguredDefinitionInstruction>> backloggedEffects
         = new HashMap<String, List<ConfiguredDefinitionInstruction>>();
     
+    /**
+     * The names of the backlogged spell effects waiting on each spell effect definition that isn't registered yet, by
+     * the name of the definition. Lets registering a definition only retry the spell effects that were waiting on it.
+     * Uses effects as a synchronisation lock.
+     */
+    final protected Map<String, Set<String>> backlogDependents = new HashMap<String, Set<String>>();
+    
+    /**
+     * The names of the spell effect definitions each backlogged spell effect is waiting on, by the name of the spell
+     * effect. The other way round from backlogDependents. Uses effects as a synchronisation lock.
+     */
+    final protected Map<String, Set<String>> backlogDependencies = new HashMap<String, Set<String>>();
+    
+    /**
+     * The names of backlogged spell effects that aren't waiting on anything, as their definitions were registered
+     * between trying to realise them and backlogging them. Uses effects as a synchronisation lock.
+     */
+    final protected Set<String> unblockedBacklog = new HashSet<String>();
+    
+    /**
+     * The lines of the file the registry was last loaded from, by the name of the spell effect on each. Lets reloading
+     * the file only parse the lines that have changed. Uses effects as a synchronisation lock.
+     */
+    final protected Map<String, String> fileEffectLines = new HashMap<String, String>();
+    
+    /**
+     * The names of the spell effects, registered or backlogged, that this registry has registered the spell word ids
+     * of with SpellWordIds. Uses effects as a synchronisation lock.
+     */
+    final protected Set<String> namesWithIds = new HashSet<String>();
+    
+    /**
+     * The names of spell effects taken out of the registry or the backlog since effectsChanged was last called. Uses
+     * effects as a synchronisation lock.
+     */
+    final protected Set<String> namesLeaving = new HashSet<String>();
+    
+    /**
+     * The names of spell effects taken out of the registry or the backlog before effectsChanged was last called, whose
+     * ids are released the next time it's called if they haven't come back. Uses effects as a synchronisation lock.
+     */
+    final protected Set<String> namesLeft = new HashSet<String>();
+    
     /** The spell effect definition registry providing spell effect definitions for spell effects in this registry. */
     final protected SpellEffectDefinitionRegistry linkedDefinitionRegistry;
     
+    /**
+     * Realised definition modifiers, interned by structure so that identical subtrees (e.g. the same "Damage(fire): 4"
+     * in several spell effects) are the same object, and so share a single cast cache. Held weakly, so modifiers
+     * drop out of it once no spell effect uses them any more.
+     */
+    final protected Interner<SpellEffectDefinitionModifier> realisedModifiers = Interners.newWeakInterner();
+    
     /** When the backlogged is cleared of some of its values. That is, when some backlogged spell effects are turned
         into actual functioning spell effects. */
     final public Event<BacklogClearedArgs> backlogCleared = new BasicEvent<BacklogClearedArgs>();
@@ -352,6 +629,18 @@ public class SpellEffectRegistry
     
     final Event<EffectsAddedArgs> effectsAddedForRuneDesigns = new BasicEvent<EffectsAddedArgs>();
     
+    /** When spell effects are replaced by new ones with the same names, so rune designs can follow them. */
+    final Event<EffectsReplacedArgs> effectsReplacedForRuneDesigns = new BasicEvent<EffectsReplacedArgs>();
+    
+    /**
+     * The threads used to parse spell effects and make the cast caches of newly realised spell effects. Shared between
+     * all registries, and only created the first time it's needed.
+     */
+    private static ExecutorService workerThreads = null;
+    
+    /** The fewest lines of spell effects worth handing to another thread to parse. */
+    private static final int minLinesPerParsingBatch = 64;
+    
     /** Prints the contents of this registry to console. */
     public void printContents()
     {
@@ -388,15 +677,75 @@ public class SpellEffectRegistry
      * spell effect definition.
      */
     public SpellEffect getEffect(String name)
-    { synchronized(effects) { return effects.get(name); } }
+    { return snapshot.getEffect(name); }
     
     /**
      * Gets all of the currently registered spell effects.
-     * @return The currently registered spell effects as a list. Does not include spell effects registered by string
-     * but not yet matched up against a spell effect definition from the linked spell effect definitions registry.
+     * @return The currently registered spell effects as an unmodifiable list, sorted by name. Does not include spell
+     * effects registered by string but not yet matched up against a spell effect definition from the linked spell
+     * effect definitions registry.
      */
     public Collection<SpellEffect> getEffects()
-    { return new ArrayList<SpellEffect>(effects.values()); }
+    { return snapshot.getEffects(); }
+    
+    /**
+     * Gets an unchanging copy of the currently registered spell effects, for looking up several spell effects without
+     * the registry changing between them.
+     * @return A snapshot of the registered spell effects.
+     */
+    public EffectsSnapshot getSnapshot()
+    { return snapshot; }
+    
+    /**
+     * Replaces the snapshot of the spell effects read by getEffect, etc, and registers and releases the spell word ids
+     * of spell effects that came and went. Should be called after changing effects, while still holding the lock on it.
+     */
+    protected void effectsChanged()
+    {
+        PersistentHashMap<String, SpellEffect> current = effects.getVersion();
+        
+        if(current != snapshot.effects)
+        {
+            PersistentHashMap.Difference<String, SpellEffect> changes = snapshot.effects.differencesTo(current);
+            
+            for(String effectName : changes.getAdded().keySet())
+                holdId(effectName);
+            
+            namesLeaving.addAll(changes.getRemoved().keySet());
+            snapshot = new EffectsSnapshot(current, snapshot.getEpoch() + 1);
+        }
+        
+        // Given up a change late, so the events raised for spell effects leaving can still give their ids.
+        for(String effectName : namesLeft)
+            releaseIdIfUnused(effectName);
+        
+        namesLeft.clear();
+        namesLeft.addAll(namesLeaving);
+        namesLeaving.clear();
+    }
+    
+    /**
+     * Registers the spell word id of a spell effect, if this registry hasn't already. Should only be called while
+     * holding the lock on the effects map.
+     * @param effectName The name of the spell effect.
+     */
+    private void holdId(String effectName)
+    {
+        if(namesWithIds.add(effectName))
+            SpellWordIds.register(SpellWordIds.effectKey(effectName));
+    }
+    
+    /**
+     * Releases the spell word id of a spell effect, if it's no longer registered or backlogged. Should only be called
+     * while holding the lock on the effects map.
+     * @param effectName The name of the spell effect.
+     */
+    private void releaseIdIfUnused(String effectName)
+    {
+        if(!effects.containsKey(effectName) && !backloggedEffects.containsKey(effectName)
+        && namesWithIds.remove(effectName))
+            SpellWordIds.release(SpellWordIds.effectKey(effectName));
+    }
     
     /**
      * Registers a spell effect object. The effect is registered against the name stored in the spell effect object.
@@ -404,13 +753,55 @@ public class SpellEffectRegistry
      */
     public void register(SpellEffect effect)
     {
+        boolean replaced;
+        
         synchronized(effects)
-        { effects.put(effect.getName(), effect); }
+        {
+            replaced = effects.put(effect.getName(), effect) != null | removeFromBacklog(effect.getName()) != null;
+            effectsChanged();
+        }
         
         Collection<String> effectStrings = new ArrayList<String>();
         effectStrings.add(effect.toString());
         this.effectsAdded.raise(this, new EffectsAddedArgs(effectStrings));
         this.effectsAddedForRuneDesigns.raise(this, new EffectsAddedArgs(effectStrings));
+        
+        if(replaced)
+            this.effectsReplacedForRuneDesigns.raise(this, new EffectsReplacedArgs(Arrays.asList(effect.getName())));
+    }
+    
+    /**
+     * Registers multiple spell effect objects, each against the name stored in it. The snapshot read by getEffect,
+     * etc. is only replaced, and the events only raised, once for all of them, so this should be used over calling
+     * register for each when registering many.
+     * @param effectsToRegister The spell effects to register.
+     */
+    public void register(Collection<? extends SpellEffect> effectsToRegister)
+    {
+        Collection<String> effectStrings = new ArrayList<String>();
+        List<String> replacedNames = new ArrayList<String>();
+        
+        synchronized(effects)
+        {
+            for(SpellEffect effect : effectsToRegister)
+            {
+                if(effects.put(effect.getName(), effect) != null | removeFromBacklog(effect.getName()) != null)
+                    replacedNames.add(effect.getName());
+                
+                effectStrings.add(effect.toString());
+            }
+            
+            effectsChanged();
+        }
+        
+        if(effectStrings.isEmpty())
+            return;
+        
+        this.effectsAdded.raise(this, new EffectsAddedArgs(effectStrings));
+        this.effectsAddedForRuneDesigns.raise(this, new EffectsAddedArgs(effectStrings));
+        
+        if(!replacedNames.isEmpty())
+            this.effectsReplacedForRuneDesigns.raise(this, new EffectsReplacedArgs(replacedNames));
     }
     
     /**
@@ -434,6 +825,143 @@ public class SpellEffectRegistry
      * @param fireEvent Whether or not to fire the effectsAdded event.
      */
     protected void load(String effectName, String effectDefinitions, boolean fireEvent)
+    {
+        SpellEffect effect = loadWithoutPreparingCastCaches(effectName, effectDefinitions);
+        
+        if(effect != null)
+            prepareCastCaches(Arrays.asList(effect));
+        
+        if(fireEvent)
+        {
+            Collection<String> effectStrings = new ArrayList<String>();
+            effectStrings.add(effectName + ": " + effectDefinitions);
+            this.effectsAdded.raise(this, new EffectsAddedArgs(effectStrings));
+            this.effectsAddedForRuneDesigns.raise(this, new EffectsAddedArgs(effectStrings));
+        }
+    }
+    
+    /**
+     * Loads a spell effect, as per .load, but leaves making the cast caches of the resulting spell effect up to the
+     * caller, so that callers loading several spell effects at once can make them all together.
+     * @param effectName The name of the new spell effect.
+     * @param effectDefinitions The unparsed string containing the information needed to construct a the spell effect
+     * from spell effect definitions and modifiers.
+     * @return The realised spell effect, or null if it was backlogged.
+     */
+    private SpellEffect loadWithoutPreparingCastCaches(String effectName, String effectDefinitions)
+    {
+        ParsedEffect parsed = parseEffect(effectName, effectDefinitions, null);
+        Collection<String> replacedNames = new ArrayList<String>();
+        
+        synchronized(effects)
+        {
+            publish(parsed, replacedNames);
+            effectsChanged();
+        }
+        
+        if(!replacedNames.isEmpty())
+            this.effectsReplacedForRuneDesigns.raise(this, new EffectsReplacedArgs(replacedNames));
+        
+        return parsed.effect;
+    }
+    
+    /**
+     * Parses and realises a single line of spell effects, without adding it to the registry. Doesn't touch anything
+     * but the linked spell effect definition registry, so lines can be parsed on several threads at once.
+     * @param line The text to parse as a spell effect.
+     * @param source Where the line came from, (e.g. "SpellEffects.cfg line 12") for reporting problems with it.
+     * @return The parsed line, which can't be loaded if the line couldn't be split into a name and definitions.
+     */
+    private ParsedEffect parseLine(String line, String source)
+    {
+        String[] lineParts = line.split(":", 2);
+        
+        if(lineParts.length < 2)
+            return new ParsedEffect(null, null, null, "Line cannot be split into spell effect name and definition: \n" + line);
+        
+        return parseEffect(lineParts[0], lineParts[1], source);
+    }
+    
+    /**
+     * Parses and realises a spell effect, without adding it to the registry. Doesn't touch anything but the linked
+     * spell effect definition registry, so spell effects can be parsed on several threads at once.
+     * @param effectName The name of the spell effect.
+     * @param effectDefinitions The unparsed string containing the information needed to construct a the spell effect
+     * from spell effect definitions and modifiers.
+     * @param source Where the spell effect came from, (e.g. "SpellEffects.cfg line 12") for reporting problems. The
+     * effect name and definitions are taken to be a whole line from there, split at the colon. Null if it's not known.
+     * @return The parsed spell effect.
+     */
+    private ParsedEffect parseEffect(String effectName, String effectDefinitions, String source)
+    {
+        SpellEffectParser parser = new SpellEffectParser(effectDefinitions);
+        List<ConfiguredDefinitionInstruction> defInstructions = parser.parseDefinitions();
+        String problem = null;
+        
+        // Not in the plain form of the syntax, so it's left to the original parser, which takes everything.
+        if(defInstructions == null)
+        {
+            if(parser.getProblem() != null && source != null)
+                problem = describeProblem(parser, effectName, source);
+            
+            defInstructions = parseDefinitionsLeniently(effectDefinitions);
+        }
+        
+        return new ParsedEffect(effectName, defInstructions, realise(effectName, defInstructions), problem);
+    }
+    
+    /**
+     * Describes what was wrong with a malformed spell effect line, and where in the line it was.
+     * @param parser The parser that found the definitions part of the line to be malformed.
+     * @param effectName The name of the spell effect, i.e. the part of the line before the colon.
+     * @param source Where the line came from, e.g. "SpellEffects.cfg line 12".
+     * @return The description of the problem, with the column of the line it was at.
+     */
+    static String describeProblem(SpellEffectParser parser, String effectName, String source)
+    {
+        return source + ", column " + (effectName.length() + 2 + parser.getProblemPosition()) + ": "
+             + parser.getProblem() + " Loading it as best as possible anyway.";
+    }
+    
+    /**
+     * Adds a parsed spell effect to the registry, or to the backlog if it couldn't be realised, replacing any spell
+     * effect already registered or backlogged with the same name. Reports any problems found parsing it. Should only
+     * be called while holding the lock on the effects map.
+     * @param parsed The parsed spell effect.
+     * @param replacedNames Where to add the name of the spell effect if it replaced one, or null.
+     * @return True if the spell effect could be loaded, otherwise false.
+     */
+    private boolean publish(ParsedEffect parsed, Collection<String> replacedNames)
+    {
+        if(parsed.problem != null)
+            System.out.println(parsed.problem);
+        
+        if(parsed.effectName == null)
+            return false;
+        
+        // Taken out of wherever it was first, so a spell effect going from realised to backlogged (or back) doesn't
+        // end up in both.
+        boolean replaced = effects.remove(parsed.effectName) != null | removeFromBacklog(parsed.effectName) != null;
+        
+        if(parsed.effect == null)
+            addToBacklog(parsed.effectName, parsed.instructions);
+        else
+            effects.put(parsed.effectName, parsed.effect);
+        
+        if(replaced && replacedNames != null)
+            replacedNames.add(parsed.effectName);
+        
+        return true;
+    }
+    
+    /**
+     * Parses the definitions part of a spell effect line by splitting it up into strings for each definition and
+     * modifier. Slower than SpellEffectParser, but takes the whole syntax, including escapes and quotes, and makes
+     * the best of malformed text.
+     * @param effectDefinitions The definitions part of a spell effect line.
+     * @return The configured definition instructions.
+     */
+    static List<ConfiguredDefinitionInstruction> parseDefinitionsLeniently(String effectDefinitions)
     {
         List<String> definitionStrings = UtilMethods.splitCSVLine(effectDefinitions);
         List<ConfiguredDefinitionInstruction> defInstructions = new ArrayList<ConfiguredDefinitionInstruction>();
@@ -441,22 +969,99 @@ public class SpellEffectRegistry
         for(String i : definitionStrings)
             defInstructions.add((ConfiguredDefinitionInstruction)getModifierFromString(i.trim(), true));
         
-        SpellEffect effect = realise(effectName, defInstructions);
+        return defInstructions;
+    }
+    
+    /**
+     * Makes the cast caches of every configured definition in the passed spell effects, including ones nested inside
+     * other configured definitions, spread across several threads. Returns once they've all been made, so that the
+     * first cast of a newly loaded spell effect costs the same as any other.
+     * @param realisedEffects The spell effects to make the cast caches of.
+     */
+    protected static void prepareCastCaches(Collection<SpellEffect> realisedEffects)
+    {
+        List<ConfiguredDefinition> defs = new ArrayList<ConfiguredDefinition>();
         
-        if(effect == null)
-            synchronized(effects)
-            { backloggedEffects.put(effectName, defInstructions); }
-        else
-            synchronized(effects)
-            { effects.put(effectName, effect); }
+        for(SpellEffect effect : realisedEffects)
+            for(ConfiguredDefinition def : effect.getDefinitions())
+                addConfiguredDefinitionsTo(def, defs);
         
-        if(fireEvent)
+        if(defs.size() < 2) // Not worth handing off to another thread.
+        {
+            for(ConfiguredDefinition def : defs)
+                def.prepareCastCache();
+            
+            return;
+        }
+        
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(defs.size());
+        
+        for(final ConfiguredDefinition def : defs)
+            tasks.add(new Callable<Object>()
+            {
+                @Override
+                public Object call()
+                {
+                    def.prepareCastCache();
+                    return null;
+                }
+            });
+        
+        try
+        {
+            for(Future<Object> i : getWorkerThreads().invokeAll(tasks))
+            {
+                try
+                { i.get(); }
+                catch(ExecutionException exception)
+                {
+                    // Leave it to be made (and to fail again) when the spell effect is first cast, as it always used
+                    // to be.
+                    System.out.println("Could not prepare a cast cache ahead of time:");
+                    exception.getCause().printStackTrace();
+                }
+            }
+        }
+        catch(InterruptedException exception)
+        { Thread.currentThread().interrupt(); } // Any cast caches not yet made will be made when first needed.
+    }
+    
+    /**
+     * Adds the passed modifier to the passed list if it's a configured definition, along with any configured
+     * definitions in its submodifiers, their submodifiers, etc.
+     * @param modifier The modifier to search.
+     * @param defs The list to add any configured definitions found to.
+     */
+    private static void addConfiguredDefinitionsTo(SpellEffectDefinitionModifier modifier, List<ConfiguredDefinition> defs)
+    {
+        if(modifier instanceof ConfiguredDefinition)
+            defs.add((ConfiguredDefinition)modifier);
+        
+        for(SpellEffectDefinitionModifier i : modifier.getSubModifiers())
+            addConfiguredDefinitionsTo(i, defs);
+    }
+    
+    /**
+     * Gets the threads used to parse spell effects and make cast caches, creating them if they haven't been yet.
+     * @return The worker threads.
+     */
+    private static synchronized ExecutorService getWorkerThreads()
+    {
+        if(workerThreads == null)
         {
-            Collection<String> effectStrings = new ArrayList<String>();
-            effectStrings.add(effectName + ": " + effectDefinitions);
-            this.effectsAdded.raise(this, new EffectsAddedArgs(effectStrings));
-            this.effectsAddedForRuneDesigns.raise(this, new EffectsAddedArgs(effectStrings));
+            workerThreads = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable, "ArcaneBooks spell effect worker");
+                    thread.setDaemon(true); // So they don't keep the game open.
+                    return thread;
+                }
+            });
         }
+        
+        return workerThreads;
     }
     
     /**
@@ -486,7 +1091,8 @@ public class SpellEffectRegistry
     
     /**
      * Turns a single modifier into a ConfiguredDefinition if it's a ConfiguredDefinitionInstruction, and does the same
-     * to all submodifiers, their submodifiers, etc.
+     * to all submodifiers, their submodifiers, etc. The realised modifiers are interned, so realising the same thing
+     * twice gives the same object.
      * @param toRealise The unrealised spell effect definition modifier to turn into a realised one.
      * @return A spell effect modifier realised using the method described above, or null if not all required spell
      * effect definitions have been registered yet in the linked spell effect definition registry.
@@ -516,39 +1122,200 @@ public class SpellEffectRegistry
         }
         
         if(relevantDefinition != null) // AKA (toRealise instanceof ConfiguredDefinitionInstruction)
-            return new ConfiguredDefinition(relevantDefinition, toRealise.getValue(), realisedSubModifiers);
+            return realisedModifiers.intern(new ConfiguredDefinition(relevantDefinition, toRealise.getValue(), realisedSubModifiers));
         else
-            return toRealise.getCopyWithNewModifiers(realisedSubModifiers);
+            return realisedModifiers.intern(toRealise.getCopyWithNewModifiers(realisedSubModifiers));
     }
     
     /** realises all backlogged spell effects that don't refer to any spell effect definitions not currently registered
-     in the linked spell effect definition registry. */
+     in the linked spell effect definition registry. Only the spell effects waiting on definitions that have since
+     been registered are tried again, rather than the whole backlog. */
     public void updateBackloggedEffects()
     {
-        Map<String, SpellEffect> newEffects = new HashMap<String, SpellEffect>();
-        Collection<String> backloggedEffectsToRemove = new HashSet<String>();
+        Map<String, SpellEffect> newEffects;
         
         synchronized(effects)
         {
-            for(Map.Entry<String, List<ConfiguredDefinitionInstruction>> i : backloggedEffects.entrySet())
+            Collection<String> registeredDefinitionNames = new ArrayList<String>();
+            
+            for(String i : backlogDependents.keySet())
+                if(linkedDefinitionRegistry.getByName(i) != null)
+                    registeredDefinitionNames.add(i);
+            
+            newEffects = realiseBackloggedEffectsWaitingOn(registeredDefinitionNames);
+        }
+        
+        prepareCastCaches(newEffects.values());
+        this.backlogCleared.raise(this, new BacklogClearedArgs(newEffects.keySet()));
+        this.backlogClearedForRuneDesigns.raise(this, new BacklogClearedArgs(newEffects.keySet()));
+    }
+    
+    /**
+     * Realises the backlogged spell effects waiting on the passed spell effect definitions, where they're no longer
+     * waiting on anything else. Meant to be called when definitions are registered.
+     * @param definitionNames The names of the spell effect definitions that have been registered.
+     */
+    public void updateBackloggedEffects(Collection<String> definitionNames)
+    {
+        Map<String, SpellEffect> newEffects;
+        
+        synchronized(effects)
+        { newEffects = realiseBackloggedEffectsWaitingOn(definitionNames); }
+        
+        if(newEffects.isEmpty())
+            return;
+        
+        prepareCastCaches(newEffects.values());
+        this.backlogCleared.raise(this, new BacklogClearedArgs(newEffects.keySet()));
+        this.backlogClearedForRuneDesigns.raise(this, new BacklogClearedArgs(newEffects.keySet()));
+    }
+    
+    /**
+     * Tries to realise the backlogged spell effects waiting on any of the passed spell effect definitions, moving the
+     * ones that can be into the registry. The ones that can't are re-indexed by what they're still waiting on. Should
+     * only be called while holding the lock on the effects map.
+     * @param definitionNames The names of the spell effect definitions that have been registered.
+     * @return The spell effects realised, by name. Their cast caches still have to be made.
+     */
+    private Map<String, SpellEffect> realiseBackloggedEffectsWaitingOn(Collection<String> definitionNames)
+    {
+        Set<String> candidates = new HashSet<String>(unblockedBacklog);
+        
+        for(String i : definitionNames)
+        {
+            Set<String> dependents = backlogDependents.get(i);
+            
+            if(dependents != null)
+                candidates.addAll(dependents);
+        }
+        
+        Map<String, SpellEffect> newEffects = new HashMap<String, SpellEffect>();
+        
+        for(String i : candidates)
+        {
+            List<ConfiguredDefinitionInstruction> instructions = backloggedEffects.get(i);
+            SpellEffect effect = realise(i, instructions);
+            
+            if(effect != null)
+            {
+                removeFromBacklog(i);
+                newEffects.put(i, effect);
+            }
+            else
+                addToBacklog(i, instructions); // Still waiting on something else.
+        }
+        
+        if(!newEffects.isEmpty())
+        {
+            effects.putAll(newEffects);
+            effectsChanged();
+        }
+        
+        return newEffects;
+    }
+    
+    /**
+     * Backlogs a spell effect, indexing it by the spell effect definitions it's waiting on. Should only be called
+     * while holding the lock on the effects map.
+     * @param effectName The name of the spell effect.
+     * @param instructions The spell effect's configured definition instructions.
+     */
+    private void addToBacklog(String effectName, List<ConfiguredDefinitionInstruction> instructions)
+    {
+        removeFromBacklog(effectName);
+        backloggedEffects.put(effectName, instructions);
+        holdId(effectName);
+        
+        Set<String> missing = new HashSet<String>();
+        findMissingDefinitions(instructions, missing);
+        backlogDependencies.put(effectName, missing);
+        
+        if(missing.isEmpty())
+            unblockedBacklog.add(effectName);
+        
+        for(String i : missing)
+        {
+            Set<String> dependents = backlogDependents.get(i);
+            
+            if(dependents == null)
+                backlogDependents.put(i, dependents = new HashSet<String>());
+            
+            dependents.add(effectName);
+        }
+    }
+    
+    /**
+     * Removes a spell effect from the backlog and its index. Should only be called while holding the lock on the
+     * effects map.
+     * @param effectName The name of the spell effect.
+     * @return The configured definition instructions of the spell effect removed, or null if it wasn't backlogged.
+     */
+    private List<ConfiguredDefinitionInstruction> removeFromBacklog(String effectName)
+    {
+        Set<String> missing = backlogDependencies.remove(effectName);
+        unblockedBacklog.remove(effectName);
+        
+        if(missing != null)
+            for(String i : missing)
             {
-                SpellEffect iEffect = realise(i.getKey(), i.getValue());
+                Set<String> dependents = backlogDependents.get(i);
                 
-                if(iEffect != null)
-                {
-                    newEffects.put(null, iEffect);
-                    backloggedEffectsToRemove.add(i.getKey());
-                }
+                if(dependents != null && dependents.remove(effectName) && dependents.isEmpty())
+                    backlogDependents.remove(i);
             }
+        
+        List<ConfiguredDefinitionInstruction> removed = backloggedEffects.remove(effectName);
+        
+        if(removed != null)
+            namesLeaving.add(effectName);
+        
+        return removed;
+    }
+    
+    /** Removes all spell effects from the backlog and its index. Should only be called while holding the lock on the
+     effects map. */
+    private void clearBacklog()
+    {
+        namesLeaving.addAll(backloggedEffects.keySet());
+        backloggedEffects.clear();
+        backlogDependents.clear();
+        backlogDependencies.clear();
+        unblockedBacklog.clear();
+    }
+    
+    /**
+     * Finds the names of the spell effect definitions referenced by the passed modifiers, (and their submodifiers,
+     * etc.) that aren't registered. These are what stop realiseSingleModifier from realising them.
+     * @param modifiers The modifiers to check.
+     * @param missing The set to add the names of unregistered definitions to.
+     */
+    private void findMissingDefinitions(List<? extends SpellEffectDefinitionModifier> modifiers, Set<String> missing)
+    {
+        for(SpellEffectDefinitionModifier i : modifiers)
+        {
+            if(i instanceof ConfiguredDefinitionInstruction && linkedDefinitionRegistry.getByName(i.getName()) == null)
+                missing.add(i.getName());
             
-            for(String i : backloggedEffectsToRemove)
-                backloggedEffects.remove(i);
+            findMissingDefinitions(i.getSubModifiers(), missing);
+        }
+    }
+    
+    /**
+     * Gets what each backlogged spell effect is waiting on, for working out why spell effects aren't being realised.
+     * @return A map of the names of backlogged spell effects to the names of the unregistered spell effect
+     * definitions they reference.
+     */
+    public Map<String, Collection<String>> getBacklogDependencies()
+    {
+        Map<String, Collection<String>> dependencies = new HashMap<String, Collection<String>>();
         
-            effects.putAll(newEffects);
+        synchronized(effects)
+        {
+            for(Map.Entry<String, Set<String>> i : backlogDependencies.entrySet())
+                dependencies.put(i.getKey(), Collections.unmodifiableCollection(new ArrayList<String>(i.getValue())));
         }
         
-        this.backlogCleared.raise(this, new BacklogClearedArgs());
-        this.backlogClearedForRuneDesigns.raise(this, new BacklogClearedArgs());
+        return dependencies;
     }
     
     /**
@@ -562,7 +1329,7 @@ public class SpellEffectRegistry
      * after the colon: becomes the modifier argument, and the text before any square brackets, round brackets, or
      * colons becomes the name of the modifier.
      */
-    private SpellEffectDefinitionModifier getModifierFromString(String modifierString, boolean definitelyEffect)
+    private static SpellEffectDefinitionModifier getModifierFromString(String modifierString, boolean definitelyEffect)
     {
         ConfiguredDefinitionStrings confDefStrings = getConfDefinitionStrings(modifierString);
         String modifierName = confDefStrings.name;
@@ -768,7 +1535,9 @@ public class SpellEffectRegistry
             effectNames.addAll(effects.keySet());
             effectNames.addAll(backloggedEffects.keySet());
             effects.clear();
-            backloggedEffects.clear();
+            clearBacklog();
+            fileEffectLines.clear();
+            effectsChanged();
         }
         
         this.effectsRemoved.raise(this, new EffectsRemovedArgs(effectNames, true));
@@ -794,12 +1563,55 @@ public class SpellEffectRegistry
      * Fills the registry from the passed file. Parses each line into a spell effect, and backlogs the ones that can't
      * yet be compiled. (If the some of the spell effect definitions references, for instance, hasn't been registered
      * yet.)
+     * 
+     * Lines are read and then parsed and realised spread across several threads, without holding the lock on the
+     * registry. The results are then put into the registry in a single go, in the order they appear in the file, so
+     * the registry, the messages printed, and the events raised are the same as if they'd been loaded one at a time.
      * @param file The file containing the spell effects to load.
      */
     public void loadFromFile(File file)
+    { loadFromFile(file, null); }
+    
+    /**
+     * Fills the registry from the passed file, as .loadFromFile(File) does, but keeps a binary image of the parsed
+     * file alongside it. If the file and the spell effect definitions registered haven't changed since the image was
+     * made, the lines are read from the image rather than parsed again. Otherwise, they're parsed and the image is
+     * remade.
+     * @param file The file containing the spell effects to load.
+     * @param imageFile The file to keep the image of the parsed spell effects in, or null to not keep one.
+     */
+    public void loadFromFile(File file, File imageFile)
     {
         List<String> loadedLines = new ArrayList<String>();
         List<String> removedEffectNames = new ArrayList<String>();
+        List<SpellEffect> realisedEffects = new ArrayList<SpellEffect>();
+        List<String> lines = null;
+        List<ParsedEffect> parsedLines = null;
+        
+        if(file.exists())
+        {
+            byte[] contents;
+            
+            try
+            { contents = Files.toByteArray(file); }
+            catch(IOException exception)
+            { throw new RuntimeException("IO Exceptions not currently handled.", exception); }
+            
+            lines = readLines(contents);
+            byte[] imageKey = imageFile == null ? null
+                                                : SpellEffectImage.makeKey(contents, linkedDefinitionRegistry.getNames());
+            
+            if(imageKey != null)
+                parsedLines = realiseAll(SpellEffectImage.read(imageFile, imageKey, lines.size()));
+            
+            if(parsedLines == null)
+            {
+                parsedLines = parseLines(lines, null, file.getName());
+                
+                if(imageKey != null)
+                    SpellEffectImage.write(imageFile, imageKey, parsedLines);
+            }
+        }
         
         synchronized(effects)
         {
@@ -807,38 +1619,36 @@ public class SpellEffectRegistry
             removedEffectNames.addAll(backloggedEffects.keySet());
             
             effects.clear();
-            backloggedEffects.clear();
-
-            try
+            clearBacklog();
+            fileEffectLines.clear();
+            
+            if(parsedLines != null)
             {
-                if(file.exists())
+                for(int i = 0; i < parsedLines.size(); i++)
                 {
-                    DataInputStream input = new DataInputStream(new FileInputStream(file));
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(input));
-
-                    try
-                    {
-                        for(String line = ""; line != null; line = reader.readLine())
-                            if(handleFileLine(line))
-                                loadedLines.add(line);
-                    }
-                    finally
+                    ParsedEffect parsed = parsedLines.get(i);
+                    
+                    if(publish(parsed, null))
                     {
-                        input.close();
-                        reader.close();
+                        loadedLines.add(lines.get(i));
+                        fileEffectLines.put(parsed.effectName, lines.get(i));
+                        
+                        if(parsed.effect != null)
+                            realisedEffects.add(parsed.effect);
                     }
                 }
-                else
-                {
-                    loadDefaultValues();
-                    saveToFile(file);
-                }
-
             }
-            catch(IOException exception)
-            { throw new RuntimeException("IO Exceptions not currently handled.", exception); }
+            else
+            {
+                loadDefaultValues();
+                saveToFile(file);
+            }
+            
+            effectsChanged();
         }
         
+        prepareCastCaches(realisedEffects);
+        
         if(!removedEffectNames.isEmpty())
             this.effectsRemoved.raise(this, new EffectsRemovedArgs(removedEffectNames, true));
         
@@ -847,22 +1657,255 @@ public class SpellEffectRegistry
     }
     
     /**
-     * Loads a single line, e.g. from a file.
-     * @param line The text to load as a spell effect.
-     * @return True if the line was able to be split properly. Otherwise, false.
+     * Brings the registry up to date with the passed file after it's been changed, without clearing it first. Only
+     * lines that are new or have changed since the file was last loaded are parsed, and only the spell effects on them
+     * are replaced. Spell effects whose lines are gone are removed, and the rest are left as they are. (Along with
+     * their rune designs) The events raised only carry what changed, so players are only sent that.
+     * 
+     * Spell effects on unchanged lines that were deregistered since are loaded again. If the file doesn't exist, the
+     * registry is left alone, as that's more likely an editor part-way through saving it than an intent to have no
+     * spell effects.
+     * @param file The file containing the spell effects to load, as last loaded by .loadFromFile.
      */
-    private boolean handleFileLine(String line)
+    public void reloadFromFile(File file)
     {
-        String[] lineParts = line.split(":", 2);
+        ReloadedFile reload = parseReload(file);
         
-        if(lineParts.length < 2)
+        if(reload != null)
+            publishReload(reload);
+    }
+    
+    /**
+     * Reads a spell effects file after it's been changed, and parses the lines that are new or have changed since it
+     * was last loaded, without changing the registry. The spell effects parsed can then be published to the registry
+     * with .publishReload, e.g. on another thread. This is the slow part of .reloadFromFile.
+     * @param file The file containing the spell effects to load, as last loaded by .loadFromFile.
+     * @return The file's lines, parsed where changed, or null if the file doesn't exist.
+     */
+    public ReloadedFile parseReload(File file)
+    {
+        if(!file.exists())
+            return null;
+        
+        List<String> lines;
+        
+        try
+        { lines = readLines(Files.toByteArray(file)); }
+        catch(IOException exception)
+        { throw new RuntimeException("IO Exceptions not currently handled.", exception); }
+        
+        ReloadedFile reload = new ReloadedFile(file.getName(), lines);
+        parseChangedLines(reload);
+        return reload;
+    }
+    
+    /**
+     * Brings the registry up to date with a spell effects file read and parsed by .parseReload, and raises the events
+     * for what changed. The rest of .reloadFromFile.
+     * @param reload The file's lines, as parsed by .parseReload.
+     */
+    public void publishReload(ReloadedFile reload)
+    {
+        // Other reloads may have been published since this was parsed, changing which of its lines are new.
+        parseChangedLines(reload);
+        
+        List<String> loadedLines = new ArrayList<String>();
+        List<String> removedEffectNames = new ArrayList<String>();
+        List<SpellEffect> realisedEffects = new ArrayList<SpellEffect>();
+        Collection<String> replacedNames = new ArrayList<String>();
+        
+        synchronized(effects)
         {
-            System.out.println("Line cannot be split into spell effect name and definition: \n" + line);
-            return false;
+            for(String effectName : fileEffectLines.keySet())
+                if(!reload.effectLines.containsKey(effectName))
+                    if(effects.remove(effectName) != null || removeFromBacklog(effectName) != null)
+                        removedEffectNames.add(effectName);
+            
+            for(String line : reload.changedLines)
+            {
+                ParsedEffect parsed = reload.parsedLines.get(line);
+                
+                // Only the last line for each spell effect is published, as the others would be replaced by it anyway.
+                if(parsed.effectName != null && !line.equals(reload.effectLines.get(parsed.effectName)))
+                    continue;
+                
+                if(publish(parsed, replacedNames))
+                {
+                    loadedLines.add(line);
+                    
+                    if(parsed.effect != null)
+                        realisedEffects.add(parsed.effect);
+                }
+            }
+            
+            fileEffectLines.clear();
+            fileEffectLines.putAll(reload.effectLines);
+            effectsChanged();
         }
         
-        load(lineParts[0], lineParts[1], false);
-        return true;
+        prepareCastCaches(realisedEffects);
+        
+        if(!removedEffectNames.isEmpty())
+            this.effectsRemoved.raise(this, new EffectsRemovedArgs(removedEffectNames));
+        
+        if(!loadedLines.isEmpty())
+        {
+            this.effectsAdded.raise(this, new EffectsAddedArgs(loadedLines));
+            this.effectsAddedForRuneDesigns.raise(this, new EffectsAddedArgs(loadedLines));
+        }
+        
+        if(!replacedNames.isEmpty())
+            this.effectsReplacedForRuneDesigns.raise(this, new EffectsReplacedArgs(replacedNames));
+    }
+    
+    /**
+     * Works out which lines of a reloaded file are new or have changed since the file was last loaded, and parses any
+     * of them that haven't been parsed already.
+     * @param reload The reloaded file.
+     */
+    private void parseChangedLines(ReloadedFile reload)
+    {
+        List<String> unparsedLines = new ArrayList<String>();
+        List<Integer> unparsedLineNumbers = new ArrayList<Integer>();
+        reload.changedLines.clear();
+        
+        synchronized(effects)
+        {
+            for(int i = 0; i < reload.lines.size(); i++)
+            {
+                String line = reload.lines.get(i);
+                String effectName = line.split(":", 2)[0];
+                
+                // Lines that can't be split are passed on too, so they get reported as they would be when loading.
+                if(line.equals(fileEffectLines.get(effectName))
+                && (effects.containsKey(effectName) || backloggedEffects.containsKey(effectName)))
+                    continue;
+                
+                reload.changedLines.add(line);
+                
+                if(!reload.parsedLines.containsKey(line))
+                {
+                    unparsedLines.add(line);
+                    unparsedLineNumbers.add(i + 1);
+                }
+            }
+        }
+        
+        if(unparsedLines.isEmpty())
+            return;
+        
+        List<ParsedEffect> parsed = parseLines(unparsedLines, unparsedLineNumbers, reload.fileName);
+        
+        for(int i = 0; i < unparsedLines.size(); i++)
+            reload.parsedLines.put(unparsedLines.get(i), parsed.get(i));
+    }
+    
+    /**
+     * Splits the contents of a file into lines.
+     * @param contents The contents of the file.
+     * @return The lines of the file, in order.
+     */
+    private static List<String> readLines(byte[] contents)
+    {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(contents)));
+        
+        try
+        {
+            for(String line = reader.readLine(); line != null; line = reader.readLine())
+                lines.add(line);
+        }
+        catch(IOException exception)
+        { throw new RuntimeException("Reading from memory shouldn't fail.", exception); }
+        
+        return lines;
+    }
+    
+    /**
+     * Realises spell effects parsed earlier, such as those read from an image.
+     * @param parsedLines The parsed spell effects, or null.
+     * @return The parsed spell effects, realised where possible, in the same order. Null if null was passed.
+     */
+    private List<ParsedEffect> realiseAll(List<ParsedEffect> parsedLines)
+    {
+        if(parsedLines == null)
+            return null;
+        
+        List<ParsedEffect> realised = new ArrayList<ParsedEffect>(parsedLines.size());
+        
+        for(ParsedEffect i : parsedLines)
+        {
+            if(i.effectName == null)
+                realised.add(i);
+            else
+                realised.add(new ParsedEffect(i.effectName, i.instructions, realise(i.effectName, i.instructions), i.problem));
+        }
+        
+        return realised;
+    }
+    
+    /**
+     * Parses and realises lines of spell effects, spread across several threads. Doesn't add them to the registry.
+     * @param lines The lines to parse.
+     * @param lineNumbers The line numbers in the file of the lines passed, for reporting problems with them, or null
+     * if the lines passed are the whole file.
+     * @param sourceName The name of the file the lines came from, for reporting problems with them.
+     * @return The parsed lines, in the same order as the lines passed.
+     */
+    private List<ParsedEffect> parseLines(final List<String> lines, final List<Integer> lineNumbers,
+                                          final String sourceName)
+    {
+        final ParsedEffect[] parsed = new ParsedEffect[lines.size()];
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        
+        // Lines are handed out in batches, since most lines are quick to parse on their own.
+        int batchSize = Math.max(minLinesPerParsingBatch, (lines.size() + threadCount * 4 - 1) / (threadCount * 4));
+        
+        if(lines.size() <= batchSize) // Not worth handing off to another thread.
+        {
+            for(int i = 0; i < lines.size(); i++)
+                parsed[i] = parseLine(lines.get(i), sourceName + " line " + (lineNumbers == null ? i + 1 : lineNumbers.get(i)));
+            
+            return Arrays.asList(parsed);
+        }
+        
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        
+        for(int batchStart = 0; batchStart < lines.size(); batchStart += batchSize)
+        {
+            final int start = batchStart;
+            final int end   = Math.min(batchStart + batchSize, lines.size());
+            
+            tasks.add(new Callable<Object>()
+            {
+                @Override
+                public Object call()
+                {
+                    for(int i = start; i < end; i++)
+                        parsed[i] = parseLine(lines.get(i), sourceName + " line " + (lineNumbers == null ? i + 1 : lineNumbers.get(i)));
+                    
+                    return null;
+                }
+            });
+        }
+        
+        try
+        {
+            for(Future<Object> i : getWorkerThreads().invokeAll(tasks))
+            {
+                try
+                { i.get(); }
+                catch(ExecutionException exception)
+                { throw new RuntimeException("Could not parse spell effects.", exception.getCause()); }
+            }
+        }
+        catch(InterruptedException exception)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while parsing spell effects.", exception);
+        }
+        
+        return Arrays.asList(parsed);
     }
     
     /**
@@ -882,13 +1925,14 @@ public class SpellEffectRegistry
         };
         
         List<String> effectStrings = new ArrayList<String>();
-        Collection<Map.Entry<String, SpellEffect>> effectEntries = null;
-        Collection<Map.Entry<String, List<ConfiguredDefinitionInstruction>>> backloggedEffectEntries = null;
+        PersistentHashMap<String, SpellEffect> effectEntries;
+        Collection<Map.Entry<String, List<ConfiguredDefinitionInstruction>>> backloggedEffectEntries;
         
+        // Only takes copies while holding the lock, and turns them into text after.
         synchronized(effects)
         {
-            effectEntries = effects.entrySet();
-            backloggedEffectEntries = backloggedEffects.entrySet();
+            effectEntries = effects.getVersion();
+            backloggedEffectEntries = new HashMap<String, List<ConfiguredDefinitionInstruction>>(backloggedEffects).entrySet();
         }
         
         for(Map.Entry<String, SpellEffect> entry : effectEntries)
@@ -917,31 +1961,18 @@ public class SpellEffectRegistry
         Collections.sort(effectStrings, alphabeticalOrder);
         
         System.out.println("Effect strings count: " + effectStrings.size());
+        StringBuilder contents = new StringBuilder();
         
-        try
+        for(int i = 0; i < effectStrings.size(); i++)
         {
-            file.mkdirs();
-
-            if(file.exists())
-                file.delete();
-
-            file.createNewFile();
-
-            FileWriter fw = new FileWriter(file, true);
-            PrintWriter pw = new PrintWriter(fw);
-
-            for(int i = 0; i < effectStrings.size(); i++)
-            {
-                if(i > 0)
-                    pw.println();
-                
-                pw.print(effectStrings.get(i));
-            }
-
-            pw.flush();
-            pw.close();
-            fw.close();
+            if(i > 0)
+                contents.append(System.getProperty("line.separator"));
+            
+            contents.append(effectStrings.get(i));
         }
+        
+        try
+        { RegistryFileService.writeAtomically(file, contents.toString()); }
         catch(IOException exception)
         { exception.printStackTrace(); }
     }
@@ -994,6 +2025,8 @@ public class SpellEffectRegistry
         BufferedReader reader = new BufferedReader(new StringReader(s));
         List<String> loadedLines = new ArrayList<String>();
         List<String> removedEffectNames = null;
+        List<SpellEffect> realisedEffects = new ArrayList<SpellEffect>();
+        Collection<String> replacedNames = new ArrayList<String>();
         
         try
         {
@@ -1004,7 +2037,8 @@ public class SpellEffectRegistry
                     removedEffectNames = new ArrayList<String>(effects.keySet());
                     removedEffectNames.addAll(backloggedEffects.keySet());
                     effects.clear();
-                    backloggedEffects.clear();
+                    clearBacklog();
+                    fileEffectLines.clear();
                 }
                 
                 for(String line = ""; line != null; line = reader.readLine())
@@ -1020,18 +2054,29 @@ public class SpellEffectRegistry
                     }
 
                     loadedLines.add(line);
-                    load(parts[0], parts[1], false);
+                    ParsedEffect parsed = parseEffect(parts[0], parts[1], null);
+                    publish(parsed, replacedNames);
+                    
+                    if(parsed.effect != null)
+                        realisedEffects.add(parsed.effect);
                 }
+                
+                effectsChanged();
             }
         }
         catch(IOException e)
         { throw new RuntimeException("IOException not currently handled. It shouldn't be thrown here anyway.", e); }
         
+        prepareCastCaches(realisedEffects);
+        
         if(clearFirst)
             this.effectsRemoved.raise(this, new EffectsRemovedArgs(removedEffectNames, true));
         
         this.effectsAdded.raise(this, new EffectsAddedArgs(loadedLines));
         this.effectsAddedForRuneDesigns.raise(this, new EffectsAddedArgs(loadedLines));
+        
+        if(!replacedNames.isEmpty())
+            this.effectsReplacedForRuneDesigns.raise(this, new EffectsReplacedArgs(replacedNames));
     }
     
     /**
@@ -1043,7 +2088,10 @@ public class SpellEffectRegistry
         boolean removed = false;
         
         synchronized(effects)
-        { removed = effects.remove(effectName) != null || backloggedEffects.remove(effectName) != null; }
+        {
+            removed = effects.remove(effectName) != null || removeFromBacklog(effectName) != null;
+            effectsChanged();
+        }
         
         if(removed)
         {
@@ -1064,8 +2112,10 @@ public class SpellEffectRegistry
         synchronized(effects)
         {
             for(String effectName : effectNames)
-                if(effects.remove(effectName) != null || backloggedEffects.remove(effectName) != null)
+                if(effects.remove(effectName) != null || removeFromBacklog(effectName) != null)
                     removedEffectNames.add(effectName);
+            
+            effectsChanged();
         }
         
         this.effectsRemoved.raise(this, new EffectsRemovedArgs(removedEffectNames));
@@ -1074,16 +2124,14 @@ public class SpellEffectRegistry
     Map<String, SpellEffect> getActiveSpellEffectsWithNames(Collection<String> names)
     {
         Map<String, SpellEffect> matchingEffects = new HashMap<String, SpellEffect>();
+        EffectsSnapshot current = snapshot;
         
-        synchronized(effects)
+        for(String name : names)
         {
-            for(String name : names)
-            {
-                SpellEffect found = effects.get(name);
-                
-                if(found != null)
-                    matchingEffects.put(found.getName(), found);
-            }
+            SpellEffect found = current.getEffect(name);
+            
+            if(found != null)
+                matchingEffects.put(found.getName(), found);
         }
         
         return matchingEffects;
@@ -0,0 +1,126 @@
+package com.haniitsu.arcanebooks.magic;
+
+import com.haniitsu.arcanebooks.magic.Spell.SpellCast;
+import com.haniitsu.arcanebooks.magic.caster.SpellCaster;
+import com.haniitsu.arcanebooks.magic.mana.ManaStore;
+import com.haniitsu.arcanebooks.misc.Direction;
+import com.haniitsu.arcanebooks.misc.Location;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CastRateLimiterTest
+{
+    /** A caster that doesn't do anything, for the limiter to key buckets by. */
+    static class IdleCaster implements SpellCaster
+    {
+        @Override
+        public ManaStore getMana()
+        { return null; }
+        
+        @Override
+        public Location getLocation()
+        { return null; }
+        
+        @Override
+        public Direction getDirection()
+        { return null; }
+        
+        @Override
+        public int launchSpellPhrases(SpellCast spellCast, Spell.Phrase... phrases)
+        { return -1; }
+        
+        @Override
+        public int launchSpellPhrases(SpellCast spellCast, List<? extends Spell.Phrase> phrases)
+        { return -1; }
+    }
+    
+    /** Puts every caster in whichever group it's currently set to. */
+    static class SettableGroupResolver implements CastRateLimiter.GroupResolver
+    {
+        SettableGroupResolver(String group)
+        { this.group = group; }
+        
+        String group;
+        
+        @Override
+        public String getGroup(SpellCaster caster)
+        { return group; }
+    }
+    
+    @Test
+    public void opBucketRefilledWithNoTimePassedIsStillFull()
+    {
+        CastRateLimiter.Limits opLimits = new CastRateLimiter().getLimits("op");
+        CastRateLimiter.Bucket bucket = new CastRateLimiter.Bucket("op", opLimits);
+        
+        // The same time the bucket was made, as happens when a caster's first cast is checked straight away.
+        bucket.refill(opLimits, bucket.lastRefilled);
+        
+        assertFalse("The bucket shouldn't hold NaN.", Double.isNaN(bucket.millisLeft));
+        assertTrue(bucket.millisLeft > 0);
+    }
+    
+    @Test
+    public void opsAreNeverThrottled()
+    {
+        CastRateLimiter limiter = new CastRateLimiter();
+        limiter.setGroupResolver(new SettableGroupResolver("op"));
+        IdleCaster caster = new IdleCaster();
+        Spell spell = new Spell();
+        
+        for(int i = 0; i < 1000; i++)
+        {
+            assertTrue("Cast " + i + " should have been let through.", limiter.tryAcquire(spell, caster));
+            limiter.charge(caster, 1000000000L); // A whole second each.
+        }
+        
+        assertEquals(1000, limiter.getMetrics().get("op").getCastsAllowed());
+        assertEquals(0, limiter.getMetrics().get("op").getCastsRejected());
+    }
+    
+    @Test
+    public void fullOpBucketsAreForgotten()
+    {
+        CastRateLimiter limiter = new CastRateLimiter();
+        limiter.setGroupResolver(new SettableGroupResolver("op"));
+        IdleCaster caster = new IdleCaster();
+        
+        assertTrue(limiter.tryAcquire(new Spell(), caster));
+        limiter.charge(caster, 5000000L);
+        limiter.onServerTick();
+        
+        assertEquals(0, limiter.buckets.size());
+    }
+    
+    @Test
+    public void groupIsLookedUpOnEachCast()
+    {
+        CastRateLimiter limiter = new CastRateLimiter();
+        SettableGroupResolver resolver = new SettableGroupResolver("slow");
+        limiter.setGroupResolver(resolver);
+        limiter.setLimits("slow", new CastRateLimiter.Limits(10, 0, false));
+        IdleCaster caster = new IdleCaster();
+        Spell spell = new Spell();
+        
+        assertTrue(limiter.tryAcquire(spell, caster));
+        limiter.charge(caster, 20000000L); // 20ms, leaving the caster 10ms short.
+        assertFalse(limiter.tryAcquire(spell, caster));
+        
+        // Opped, so should be let through straight away, without waiting for the bucket to be forgotten.
+        resolver.group = "op";
+        assertTrue(limiter.tryAcquire(spell, caster));
+        limiter.charge(caster, 20000000L);
+        assertTrue(limiter.tryAcquire(spell, caster));
+        
+        // Deopped, so back to the slow group's limits, starting from at most its capacity.
+        resolver.group = "slow";
+        assertTrue(limiter.tryAcquire(spell, caster));
+        assertEquals(10.0, limiter.getBucket(caster).millisLeft, 0.0);
+        limiter.charge(caster, 20000000L);
+        assertFalse(limiter.tryAcquire(spell, caster));
+    }
+}
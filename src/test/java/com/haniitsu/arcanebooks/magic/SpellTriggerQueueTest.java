@@ -0,0 +1,145 @@
+package com.haniitsu.arcanebooks.magic;
+
+import com.haniitsu.arcanebooks.magic.Spell.SpellCast;
+import com.haniitsu.arcanebooks.magic.caster.SpellCaster;
+import com.haniitsu.arcanebooks.magic.mana.ManaStore;
+import com.haniitsu.arcanebooks.misc.Direction;
+import com.haniitsu.arcanebooks.misc.Location;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SpellTriggerQueueTest
+{
+    /** A caster that holds onto the spell casts of the projectiles it launches, rather than launching anything. */
+    static class ProjectileHoldingCaster implements SpellCaster
+    {
+        /** The spell casts of the projectiles launched and not yet landed. */
+        final List<SpellCast> projectilesInFlight = new ArrayList<SpellCast>();
+        
+        @Override
+        public ManaStore getMana()
+        { return null; }
+        
+        @Override
+        public Location getLocation()
+        { return null; }
+        
+        @Override
+        public Direction getDirection()
+        { return null; }
+        
+        @Override
+        public int launchSpellPhrases(SpellCast spellCast, Spell.Phrase... phrases)
+        { return launchSpellPhrases(spellCast, Arrays.asList(phrases)); }
+        
+        @Override
+        public int launchSpellPhrases(SpellCast spellCast, List<? extends Spell.Phrase> phrases)
+        {
+            projectilesInFlight.add(spellCast);
+            return projectilesInFlight.size() - 1;
+        }
+    }
+    
+    /** A spell that just launches a projectile when cast, and counts how many times it's been cast. */
+    static class ProjectileSpell extends Spell
+    {
+        int timesCast = 0;
+        
+        @Override
+        void cast(SpellCaster caster, SpellTriggerQueue triggerQueue, SpellTriggerQueue.TriggerChain triggeredBy,
+                  BurstGeometryCache geometryCache)
+        {
+            timesCast++;
+            SpellCast spellCast = new SpellCast(this, caster, null, null, triggerQueue, triggeredBy, geometryCache);
+            caster.launchSpellPhrases(spellCast);
+        }
+    }
+    
+    @After
+    public void clearCarriedOver()
+    { SpellTriggerQueue.clearCarriedOver(); }
+    
+    @Test
+    public void triggerFromProjectileHitIsCastOnNextTick()
+    {
+        ProjectileHoldingCaster caster = new ProjectileHoldingCaster();
+        ProjectileSpell spell = new ProjectileSpell();
+        ProjectileSpell triggered = new ProjectileSpell();
+        
+        assertTrue(spell.cast(caster));
+        assertEquals(1, caster.projectilesInFlight.size());
+        
+        // The projectile lands after the cast's finished, and its phrases trigger a spell, as TriggerSpell would.
+        SpellCast projectileCast = caster.projectilesInFlight.get(0);
+        assertFalse(projectileCast.getTriggerQueue().hasPendingTriggers());
+        assertTrue(projectileCast.triggerSpell(triggered, caster));
+        assertEquals(0, triggered.timesCast);
+        
+        SpellTriggerQueue.onServerTick();
+        
+        assertEquals("The triggered spell should be cast on the next tick.", 1, triggered.timesCast);
+        assertFalse(projectileCast.getTriggerQueue().hasPendingTriggers());
+        
+        SpellTriggerQueue.onServerTick();
+        
+        assertEquals("The triggered spell should only be cast once.", 1, triggered.timesCast);
+    }
+    
+    @Test
+    public void spellIsNotTriggeredOnACasterAlreadyCastingItInTheChain()
+    {
+        ProjectileHoldingCaster caster = new ProjectileHoldingCaster();
+        ProjectileHoldingCaster otherCaster = new ProjectileHoldingCaster();
+        ProjectileSpell spell = new ProjectileSpell();
+        ProjectileSpell triggered = new ProjectileSpell();
+        SpellCast cast = new SpellCast(spell, caster, null, null);
+        
+        assertFalse("A spell triggering itself on its own caster should be cut.", cast.triggerSpell(spell, caster));
+        assertTrue(cast.triggerSpell(triggered, caster));
+        
+        SpellTriggerQueue.onServerTick();
+        
+        assertEquals(1, triggered.timesCast);
+        assertEquals(0, spell.timesCast);
+        
+        SpellCast triggeredCast = caster.projectilesInFlight.get(0);
+        assertEquals(1, triggeredCast.getTriggerDepth());
+        assertFalse("Triggering the first spell again would loop.", triggeredCast.triggerSpell(spell, caster));
+        assertTrue("The first spell isn't being cast by the other caster.", triggeredCast.triggerSpell(spell, otherCaster));
+        
+        SpellTriggerQueue.onServerTick();
+        
+        assertEquals(1, spell.timesCast);
+    }
+    
+    @Test
+    public void sameSpellCanBeTriggeredOnTheSameCasterBySeparateBranches()
+    {
+        ProjectileHoldingCaster caster = new ProjectileHoldingCaster();
+        ProjectileSpell spell = new ProjectileSpell();
+        ProjectileSpell left = new ProjectileSpell();
+        ProjectileSpell right = new ProjectileSpell();
+        ProjectileSpell joined = new ProjectileSpell();
+        SpellCast cast = new SpellCast(spell, caster, null, null);
+        
+        assertTrue(cast.triggerSpell(left, caster));
+        assertTrue(cast.triggerSpell(right, caster));
+        
+        SpellTriggerQueue.onServerTick();
+        
+        assertEquals(2, caster.projectilesInFlight.size());
+        assertTrue(caster.projectilesInFlight.get(0).triggerSpell(joined, caster));
+        assertTrue(caster.projectilesInFlight.get(1).triggerSpell(joined, caster));
+        
+        SpellTriggerQueue.onServerTick();
+        
+        assertEquals("Neither trigger loops, so both should be cast.", 2, joined.timesCast);
+    }
+}
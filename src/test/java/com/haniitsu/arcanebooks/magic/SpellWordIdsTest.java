@@ -0,0 +1,69 @@
+package com.haniitsu.arcanebooks.magic;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SpellWordIdsTest
+{
+    static final String localEffect  = SpellWordIds.effectKey("SpellWordIdsTest Local"),
+                        sharedEffect = SpellWordIds.effectKey("SpellWordIdsTest Shared"),
+                        serverEffect = SpellWordIds.effectKey("SpellWordIdsTest Server");
+    
+    @After
+    public void releaseIds()
+    {
+        SpellWordIds.restoreLocal();
+        SpellWordIds.release(localEffect);
+        SpellWordIds.release(sharedEffect);
+    }
+    
+    @Test
+    public void clientsOwnIdsArePutBackAfterTheServers()
+    {
+        SpellWordIds.register(localEffect);
+        SpellWordIds.register(sharedEffect);
+        List<String> localKeys = SpellWordIds.getKeys();
+        int localId  = SpellWordIds.getId(localEffect);
+        int sharedId = SpellWordIds.getId(sharedEffect);
+        
+        SpellWordIds.setAll(Arrays.asList(serverEffect, null, sharedEffect));
+        SpellWordIds.set(1, SpellWordIds.effectKey("SpellWordIdsTest Added"));
+        SpellWordIds.setAll(Arrays.asList(serverEffect, sharedEffect)); // Sent again, as by the same server.
+        
+        assertEquals(-1, SpellWordIds.getId(localEffect));
+        assertEquals(1, SpellWordIds.getId(sharedEffect));
+        
+        int generation = SpellWordIds.getGeneration();
+        SpellWordIds.restoreLocal();
+        
+        assertTrue("Ids looked up from the server's should be looked up again.",
+                   SpellWordIds.getGeneration() != generation);
+        assertEquals(localKeys, SpellWordIds.getKeys());
+        assertEquals(localId, SpellWordIds.getId(localEffect));
+        assertEquals(sharedId, SpellWordIds.getId(sharedEffect));
+        assertEquals(-1, SpellWordIds.getId(serverEffect));
+        
+        // Still held by what registered it, so registering and releasing it again doesn't give up its id.
+        SpellWordIds.register(localEffect);
+        SpellWordIds.release(localEffect);
+        assertEquals(localId, SpellWordIds.getId(localEffect));
+    }
+    
+    @Test
+    public void restoringWithoutTheServersIdsChangesNothing()
+    {
+        SpellWordIds.register(localEffect);
+        List<String> keys = SpellWordIds.getKeys();
+        int generation = SpellWordIds.getGeneration();
+        
+        SpellWordIds.restoreLocal();
+        
+        assertEquals(keys, SpellWordIds.getKeys());
+        assertEquals(generation, SpellWordIds.getGeneration());
+    }
+}
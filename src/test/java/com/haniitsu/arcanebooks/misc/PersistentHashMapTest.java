@@ -0,0 +1,268 @@
+package com.haniitsu.arcanebooks.misc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PersistentHashMapTest
+{
+    /** The seed the random changes are made from, so that every run checks the same changes. */
+    static final long seed = 0x48414D54L;
+    
+    /** The number of random changes to make. */
+    static final int changeCount = 20000;
+    
+    /** The number of different keys the random changes are made with. */
+    static final int keyCount = 300;
+    
+    /** How many changes are made between each version kept to check later. */
+    static final int changesPerVersion = 100;
+    
+    /** A key with whatever hash it's given, so that keys can be made to share all or part of their hashes. */
+    static final class Key
+    {
+        Key(int id, int hash)
+        {
+            this.id   = id;
+            this.hash = hash;
+        }
+        
+        final int id;
+        
+        final int hash;
+        
+        @Override
+        public int hashCode()
+        { return hash; }
+        
+        @Override
+        public boolean equals(Object other)
+        { return other instanceof Key && ((Key)other).id == id; }
+        
+        @Override
+        public String toString()
+        { return "Key" + id + "#" + Integer.toHexString(hash); }
+    }
+    
+    /**
+     * Makes the keys for the random changes. Some have random hashes, but most share their whole hash with other keys,
+     * differ only in the high bits the trie looks at last, or fall in the last slot of each node.
+     * @param random The source of randomness.
+     * @return The keys.
+     */
+    static Key[] makeKeys(Random random)
+    {
+        Key[] keys = new Key[keyCount];
+        
+        for(int i = 0; i < keyCount; i++)
+        {
+            switch(random.nextInt(5))
+            {
+                case 0:  keys[i] = new Key(i, random.nextInt());   break;
+                case 1:  keys[i] = new Key(i, i % 4);              break;
+                case 2:  keys[i] = new Key(i, (i % 8) << 27);      break;
+                case 3:  keys[i] = new Key(i, -1 - (i % 4));       break;
+                default: keys[i] = new Key(i, i);                  break;
+            }
+        }
+        
+        return keys;
+    }
+    
+    /**
+     * Checks that a map has exactly the expected contents, through both looking up each key and going through it.
+     * @param message What's being checked, for if it fails.
+     * @param expected The expected contents.
+     * @param actual The map to check.
+     */
+    static void assertContents(String message, Map<Key, Integer> expected, PersistentHashMap<Key, Integer> actual)
+    {
+        assertEquals(message, expected.size(), actual.size());
+        assertEquals(message, expected.isEmpty(), actual.isEmpty());
+        
+        for(Map.Entry<Key, Integer> entry : expected.entrySet())
+        {
+            assertTrue(message + ": " + entry.getKey(), actual.containsKey(entry.getKey()));
+            assertEquals(message + ": " + entry.getKey(), entry.getValue(), actual.get(entry.getKey()));
+        }
+        
+        Map<Key, Integer> gone = new HashMap<Key, Integer>();
+        int entryCount = 0;
+        
+        for(Map.Entry<Key, Integer> entry : actual)
+        {
+            gone.put(entry.getKey(), entry.getValue());
+            entryCount++;
+        }
+        
+        assertEquals(message + ": Each entry should be gone through once.", actual.size(), entryCount);
+        assertEquals(message, expected, gone);
+    }
+    
+    /**
+     * Checks that .differencesTo gives what's actually different between two versions.
+     * @param message What's being checked, for if it fails.
+     * @param older The contents of the older version.
+     * @param newer The contents of the newer version.
+     * @param difference What .differencesTo gave going from the older version to the newer one.
+     */
+    static void assertDifference(String message, Map<Key, Integer> older, Map<Key, Integer> newer,
+                                 PersistentHashMap.Difference<Key, Integer> difference)
+    {
+        Map<Key, Integer> added   = new HashMap<Key, Integer>();
+        Map<Key, Integer> removed = new HashMap<Key, Integer>();
+        Map<Key, Integer> changed = new HashMap<Key, Integer>();
+        
+        for(Map.Entry<Key, Integer> entry : older.entrySet())
+        {
+            if(!newer.containsKey(entry.getKey()))
+                removed.put(entry.getKey(), entry.getValue());
+            else if(!newer.get(entry.getKey()).equals(entry.getValue()))
+                changed.put(entry.getKey(), newer.get(entry.getKey()));
+        }
+        
+        for(Map.Entry<Key, Integer> entry : newer.entrySet())
+            if(!older.containsKey(entry.getKey()))
+                added.put(entry.getKey(), entry.getValue());
+        
+        assertEquals(message + ", added", added, difference.getAdded());
+        assertEquals(message + ", removed", removed, difference.getRemoved());
+        assertEquals(message + ", changed", changed, difference.getChanged());
+        assertEquals(message, added.isEmpty() && removed.isEmpty() && changed.isEmpty(), difference.isEmpty());
+    }
+    
+    @Test
+    public void randomChangesMatchHashMap()
+    {
+        Random random = new Random(seed);
+        Key[] keys = makeKeys(random);
+        VersionedHashMap<Key, Integer> map = new VersionedHashMap<Key, Integer>();
+        Map<Key, Integer> expected = new HashMap<Key, Integer>();
+        List<PersistentHashMap<Key, Integer>> versions = new ArrayList<PersistentHashMap<Key, Integer>>();
+        List<Map<Key, Integer>> expectedVersions = new ArrayList<Map<Key, Integer>>();
+        
+        for(int i = 0; i < changeCount; i++)
+        {
+            Key key = keys[random.nextInt(keyCount)];
+            int roll = random.nextInt(100);
+            
+            if(roll < 50)
+            {
+                // Few enough values that keys are often given the value they already have.
+                Integer value = random.nextInt(4);
+                assertEquals("Change " + i + ", putting " + key, expected.put(key, value), map.put(key, value));
+            }
+            else if(roll < 85)
+                assertEquals("Change " + i + ", removing " + key, expected.remove(key), map.remove(key));
+            else if(roll < 99)
+            {
+                assertEquals("Change " + i + ", getting " + key, expected.get(key), map.get(key));
+                assertEquals("Change " + i + ", " + key, expected.containsKey(key), map.containsKey(key));
+            }
+            else if(!versions.isEmpty())
+            {
+                // Goes back to an earlier version, so that later versions branch off from it.
+                int version = random.nextInt(versions.size());
+                map.setVersion(versions.get(version));
+                expected = new HashMap<Key, Integer>(expectedVersions.get(version));
+            }
+            
+            if(i % changesPerVersion == 0)
+            {
+                versions.add(map.getVersion());
+                expectedVersions.add(new HashMap<Key, Integer>(expected));
+                assertContents("Change " + i, expected, map.getVersion());
+            }
+        }
+        
+        for(int i = 0; i < versions.size(); i++)
+            assertContents("Old version " + i + " should be as it was", expectedVersions.get(i), versions.get(i));
+        
+        for(int i = 0; i < versions.size() * 5; i++)
+        {
+            int older = random.nextInt(versions.size());
+            int newer = random.nextInt(versions.size());
+            
+            assertDifference("Version " + older + " to " + newer, expectedVersions.get(older),
+                             expectedVersions.get(newer), versions.get(older).differencesTo(versions.get(newer)));
+        }
+    }
+    
+    @Test
+    public void keysWithTheSameHashAreKeptApart()
+    {
+        PersistentHashMap<Key, Integer> map = PersistentHashMap.empty();
+        Map<Key, Integer> expected = new HashMap<Key, Integer>();
+        Key[] keys = { new Key(0, 7), new Key(1, 7), new Key(2, 7), new Key(3, 7 | 1 << 31), new Key(4, 7) };
+        
+        for(Key key : keys)
+        {
+            map = map.plus(key, key.id);
+            expected.put(key, key.id);
+            assertContents("Adding " + key, expected, map);
+        }
+        
+        PersistentHashMap<Key, Integer> full = map;
+        
+        // Taken away down to one, so the collision node has to be folded back up into the trie.
+        for(int i = keys.length - 1; i >= 0; i--)
+        {
+            PersistentHashMap<Key, Integer> before = map;
+            map = map.minus(keys[i]);
+            Map<Key, Integer> expectedBefore = new HashMap<Key, Integer>(expected);
+            expected.remove(keys[i]);
+            
+            assertContents("Removing " + keys[i], expected, map);
+            assertDifference("Removing " + keys[i], expectedBefore, expected, before.differencesTo(map));
+            assertDifference("Putting back " + keys[i], expected, expectedBefore, map.differencesTo(before));
+        }
+        
+        assertTrue(map.isEmpty());
+        assertEquals(5, full.size());
+    }
+    
+    @Test
+    public void unchangingChangesGiveTheSameVersion()
+    {
+        Integer value = 1000;
+        Key key = new Key(1, 1);
+        PersistentHashMap<Key, Integer> map = PersistentHashMap.<Key, Integer>empty().plus(key, value);
+        
+        assertSame(map, map.plus(key, value));
+        assertSame(map, map.minus(new Key(2, 1)));
+        assertSame(map, map.minus(null));
+        assertTrue(map.differencesTo(map).isEmpty());
+    }
+    
+    @Test
+    public void entriesCanBeRemovedWhileGoingThroughThem()
+    {
+        VersionedHashMap<Key, Integer> map = new VersionedHashMap<Key, Integer>();
+        
+        for(int i = 0; i < 100; i++)
+            map.put(new Key(i, i % 10), i);
+        
+        PersistentHashMap<Key, Integer> before = map.getVersion();
+        
+        for(Iterator<Map.Entry<Key, Integer>> i = map.entrySet().iterator(); i.hasNext();)
+            if(i.next().getValue() % 2 == 0)
+                i.remove();
+        
+        assertEquals(50, map.size());
+        assertEquals(100, before.size());
+        
+        for(int i = 0; i < 100; i++)
+            assertEquals("Key " + i, i % 2 != 0, map.containsKey(new Key(i, i % 10)));
+        
+        assertFalse(map.getVersion().differencesTo(before).getAdded().isEmpty());
+    }
+}
@@ -0,0 +1,240 @@
+package com.haniitsu.arcanebooks.registries;
+
+import com.haniitsu.arcanebooks.misc.Getter;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RuneDesignJournalTest
+{
+    /** The directory the rune designs file and journal are written to for each test. */
+    File directory;
+    
+    /** The rune designs file. */
+    File checkpointFile;
+    
+    /** The file service the journals are written with. */
+    RegistryFileService files;
+    
+    /** The journal currently open, or null if there isn't one. */
+    RuneDesignJournal journal;
+    
+    @Before
+    public void createDirectory() throws IOException
+    {
+        directory      = Files.createTempDirectory("runedesignjournaltest").toFile();
+        checkpointFile = new File(directory, "RuneDesigns.dat");
+        files          = new RegistryFileService();
+    }
+    
+    @After
+    public void deleteDirectory()
+    {
+        closeJournal();
+        File[] contents = directory.listFiles();
+        
+        if(contents != null)
+            for(File file : contents)
+                file.delete();
+        
+        directory.delete();
+    }
+    
+    /**
+     * Opens a new journal on the rune designs file, as when a world's loaded.
+     * @return The rune designs loaded.
+     */
+    String openJournal()
+    {
+        closeJournal();
+        journal = new RuneDesignJournal(checkpointFile, files, 0);
+        return journal.load();
+    }
+    
+    /** Closes the journal, if it's open, and waits for everything it's written to be. */
+    void closeJournal()
+    {
+        if(journal == null)
+            return;
+        
+        journal.close();
+        files.flush();
+        journal = null;
+    }
+    
+    static Map<String, String> added(String... spellWordsAndDesigns)
+    {
+        Map<String, String> added = new LinkedHashMap<String, String>();
+        
+        for(int i = 0; i < spellWordsAndDesigns.length; i += 2)
+            added.put(spellWordsAndDesigns[i], spellWordsAndDesigns[i + 1]);
+        
+        return added;
+    }
+    
+    static List<String> removed(String... spellWords)
+    { return Arrays.asList(spellWords); }
+    
+    static List<String> none()
+    { return Collections.<String>emptyList(); }
+    
+    /**
+     * Gets the lengths of the journal file after the header and after each change recorded so far, by recording them
+     * one at a time.
+     * @param changes The added spell words and designs of each change to record.
+     * @return The journal's length after the header, and after each change.
+     */
+    long[] recordAndMeasure(Map<String, String>... changes)
+    {
+        long[] lengths = new long[changes.length + 1];
+        files.flush();
+        lengths[0] = journal.journalFile.length();
+        
+        for(int i = 0; i < changes.length; i++)
+        {
+            journal.record(none(), changes[i]);
+            files.flush();
+            lengths[i + 1] = journal.journalFile.length();
+        }
+        
+        return lengths;
+    }
+    
+    @Test
+    public void recordedChangesAreReplayedOnTopOfTheCheckpoint() throws IOException
+    {
+        RegistryFileService.writeAtomically(checkpointFile, "effect:Heal=1,1>2,2\nAOE:self=3,3>4,4");
+        assertEquals("effect:Heal=1,1>2,2\nAOE:self=3,3>4,4", openJournal());
+        
+        journal.record(removed("AOE:self"), added("effect:Burn", "5,5>6,6"));
+        journal.record(none(), added("effect:Heal", "7,7>8,8"));
+        
+        assertEquals("effect:Heal=7,7>8,8\neffect:Burn=5,5>6,6", openJournal());
+    }
+    
+    @Test
+    public void tornLastChangeIsDroppedAndCutOff() throws IOException
+    {
+        openJournal();
+        long[] lengths = recordAndMeasure(added("effect:Heal", "1,1>2,2"), added("effect:Burn", "3,3>4,4"));
+        closeJournal();
+        
+        // As if the game crashed part-way through writing the second change.
+        for(long cutTo : new long[] { lengths[2] - 1, lengths[1] + 6, lengths[1] + 1 })
+        {
+            RandomAccessFile file = new RandomAccessFile(new File(checkpointFile.getPath() + ".journal"), "rw");
+            
+            try
+            { file.setLength(cutTo); }
+            finally
+            { file.close(); }
+            
+            assertEquals("Cut to " + cutTo + " bytes.", "effect:Heal=1,1>2,2", openJournal());
+            assertEquals("Cut to " + cutTo + " bytes.", lengths[1], journal.journalFile.length());
+            closeJournal();
+        }
+        
+        // Changes recorded afterwards follow on from the last whole change.
+        openJournal();
+        journal.record(none(), added("effect:Shield", "5,5>6,6"));
+        assertEquals("effect:Heal=1,1>2,2\neffect:Shield=5,5>6,6", openJournal());
+    }
+    
+    @Test
+    public void changeFailingItsChecksumIsDropped() throws IOException
+    {
+        openJournal();
+        long[] lengths = recordAndMeasure(added("effect:Heal", "1,1>2,2"), added("effect:Burn", "3,3>4,4"),
+                                          added("effect:Shield", "5,5>6,6"));
+        closeJournal();
+        
+        // Flips a bit in the last byte of the second change's rune design.
+        RandomAccessFile file = new RandomAccessFile(new File(checkpointFile.getPath() + ".journal"), "rw");
+        
+        try
+        {
+            file.seek(lengths[2] - 1);
+            int last = file.read();
+            file.seek(lengths[2] - 1);
+            file.write(last ^ 1);
+        }
+        finally
+        { file.close(); }
+        
+        // Nothing after a change that fails its checksum can be trusted either.
+        assertEquals("effect:Heal=1,1>2,2", openJournal());
+        assertEquals(lengths[1], journal.journalFile.length());
+    }
+    
+    @Test
+    public void journalIsStartedAgainAfterCompaction()
+    {
+        openJournal();
+        journal.record(none(), added("effect:Heal", "1,1>2,2"));
+        journal.record(none(), added("effect:Burn", "3,3>4,4"));
+        
+        journal.compact(new Getter<String>()
+        {
+            @Override
+            public String get()
+            { return "effect:Heal=1,1>2,2\neffect:Burn=3,3>4,4"; }
+        });
+        
+        journal.record(removed("effect:Heal"), added());
+        files.flush();
+        
+        assertTrue(journal.journalFile.length() > 4);
+        assertEquals("effect:Burn=3,3>4,4", openJournal());
+    }
+    
+    @Test
+    public void oldJournalReplayedOnTopOfItsCompactedCheckpointGivesTheSameDesigns() throws IOException
+    {
+        openJournal();
+        journal.record(none(), added("effect:Heal", "1,1>2,2", "AOE:Self", "3,3>4,4"));
+        journal.record(removed("effect:Heal"), added("effect:Burn", "5,5>6,6"));
+        String designs = openJournal();
+        closeJournal();
+        
+        // As if the game crashed after the checkpoint was written, but before the journal was started again.
+        RegistryFileService.writeAtomically(checkpointFile, designs);
+        
+        assertEquals(designs, openJournal());
+    }
+    
+    @Test
+    public void recordingTheSameChangeAgainChangesNothing()
+    {
+        openJournal();
+        journal.record(none(), added("effect:Heal", "1,1>2,2"));
+        String once = openJournal();
+        
+        journal.record(none(), added("effect:Heal", "1,1>2,2"));
+        journal.record(removed("effect:Missing"), added());
+        
+        assertEquals(once, openJournal());
+        assertEquals("Loading without changes shouldn't change anything either.", once, openJournal());
+    }
+    
+    @Test
+    public void spellWordsAreMatchedHoweverTheyreWritten()
+    {
+        openJournal();
+        journal.record(none(), added("AOE:TargetOnly", "1,1>2,2"));
+        journal.record(none(), added("AOE:targetonly", "3,3>4,4"));
+        
+        assertEquals("AOE:targetonly=3,3>4,4", openJournal());
+    }
+}
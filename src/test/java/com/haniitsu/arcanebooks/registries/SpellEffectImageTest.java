@@ -0,0 +1,231 @@
+package com.haniitsu.arcanebooks.registries;
+
+import com.haniitsu.arcanebooks.magic.modifiers.definition.BasicDefinitionModifier;
+import com.haniitsu.arcanebooks.magic.modifiers.definition.LogicalCheckDefinitionModifier;
+import com.haniitsu.arcanebooks.magic.modifiers.definition.NumericDefinitionModifier;
+import com.haniitsu.arcanebooks.registries.SpellEffectRegistry.ConfiguredDefinitionInstruction;
+import com.haniitsu.arcanebooks.registries.SpellEffectRegistry.ParsedEffect;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class SpellEffectImageTest
+{
+    /** Where in an image its line count is, after the magic number, format version, key length, and SHA-1 key. */
+    static final int lineCountPosition = 4 + 4 + 4 + 20;
+    
+    /** Where in an image its body starts, after the line count, body length, and body checksum. */
+    static final int bodyPosition = lineCountPosition + 4 + 4 + 8;
+    
+    static final byte[] fileContents = "Fireball:Damage(2.5): 5, Heal\nnonsense\nIce:Slow: 3, Damage(Cold)[lc]"
+                                       .getBytes(Charset.forName("UTF-8"));
+    
+    static final List<String> definitionNames = Arrays.asList("Damage", "Heal", "Slow");
+    
+    /** The directory the image is written to for each test. */
+    File directory;
+    
+    /** The image file. */
+    File imageFile;
+    
+    /** The key of fileContents with definitionNames registered. */
+    byte[] key;
+    
+    /** What the lines of fileContents are parsed to. */
+    List<ParsedEffect> parsed;
+    
+    @Before
+    public void writeImage() throws IOException
+    {
+        directory = Files.createTempDirectory("spelleffectimagetest").toFile();
+        imageFile = new File(directory, "SpellEffects.cfg.image");
+        key       = SpellEffectImage.makeKey(fileContents, definitionNames);
+        
+        BasicDefinitionModifier area = new BasicDefinitionModifier("Area", new LogicalCheckDefinitionModifier("lc"));
+        ConfiguredDefinitionInstruction damage
+                = new ConfiguredDefinitionInstruction("Damage", "5", new NumericDefinitionModifier(2.5), area);
+        
+        List<ConfiguredDefinitionInstruction> fireball
+                = Arrays.asList(damage, new ConfiguredDefinitionInstruction("Heal"));
+        
+        List<ConfiguredDefinitionInstruction> ice
+                = SpellEffectRegistry.parseDefinitionsLeniently("Slow: 3, Damage(Cold)[lc]");
+        
+        parsed = Arrays.asList(new ParsedEffect("Fireball", fireball, null, null),
+                               new ParsedEffect(null, null, null, "SpellEffects.cfg line 2 has no spell effect name."),
+                               new ParsedEffect("Ice", ice, null, "Something odd, but loaded anyway."));
+        
+        SpellEffectImage.write(imageFile, key, parsed);
+    }
+    
+    @After
+    public void deleteDirectory()
+    {
+        File[] contents = directory.listFiles();
+        
+        if(contents != null)
+            for(File file : contents)
+                file.delete();
+        
+        directory.delete();
+    }
+    
+    static String describe(List<ParsedEffect> lines)
+    {
+        StringBuilder builder = new StringBuilder();
+        
+        for(ParsedEffect line : lines)
+        {
+            builder.append(line.effectName).append(" / ").append(line.problem).append('\n');
+            
+            if(line.instructions != null)
+                builder.append(SpellEffectParserTest.describe(line.instructions));
+        }
+        
+        return builder.toString();
+    }
+    
+    void overwriteInt(long position, int value) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(imageFile, "rw");
+        
+        try
+        {
+            file.seek(position);
+            file.writeInt(value);
+        }
+        finally
+        { file.close(); }
+    }
+    
+    /**
+     * Reads the image, checking that it's ignored, so that the spell effects file would be parsed in full, and that
+     * the image is usable again once rewritten, as it would be after that parse.
+     * @param message Why the image should be ignored.
+     */
+    void assertFallsBackToParsing(String message)
+    {
+        assertNull(message, SpellEffectImage.read(imageFile, key, parsed.size()));
+        
+        SpellEffectImage.write(imageFile, key, parsed);
+        assertNotNull(message + ": The rewritten image should be read.",
+                      SpellEffectImage.read(imageFile, key, parsed.size()));
+    }
+    
+    @Test
+    public void imageReadsBackAsWritten()
+    {
+        List<ParsedEffect> read = SpellEffectImage.read(imageFile, key, parsed.size());
+        
+        assertNotNull(read);
+        assertEquals(describe(parsed), describe(read));
+        assertFalse("The temporary file should have been moved over the image.",
+                    new File(imageFile.getPath() + ".tmp").exists());
+    }
+    
+    @Test
+    public void imageWithTheWrongMagicNumberIsIgnored() throws IOException
+    {
+        overwriteInt(0, SpellEffectImage.magicNumber + 1);
+        assertFallsBackToParsing("Wrong magic number");
+    }
+    
+    @Test
+    public void imageOfAnotherFormatVersionIsIgnored() throws IOException
+    {
+        overwriteInt(4, SpellEffectImage.fileFormatVersion + 1);
+        assertFallsBackToParsing("Other format version");
+    }
+    
+    @Test
+    public void imageOfOtherContentsIsIgnored()
+    {
+        byte[] otherContents = Arrays.copyOf(fileContents, fileContents.length + 1);
+        otherContents[fileContents.length] = '\n';
+        
+        byte[] otherFileKey        = SpellEffectImage.makeKey(otherContents, definitionNames);
+        byte[] otherDefinitionsKey = SpellEffectImage.makeKey(fileContents, definitionNames.subList(0, 2));
+        
+        assertNull("Changed file", SpellEffectImage.read(imageFile, otherFileKey, parsed.size()));
+        assertNull("Changed definitions", SpellEffectImage.read(imageFile, otherDefinitionsKey, parsed.size()));
+        
+        assertNull("Changed line count", SpellEffectImage.read(imageFile, key, parsed.size() + 1));
+        
+        // Ignored because it's of something else, not damaged, so still read for what it's of.
+        assertNotNull(SpellEffectImage.read(imageFile, key, parsed.size()));
+    }
+    
+    @Test
+    public void definitionNamesAreKeyedWhateverOrderTheyreIn()
+    {
+        assertArrayEquals(key, SpellEffectImage.makeKey(fileContents, Arrays.asList("Slow", "Damage", "Heal")));
+        
+        // Names are separated, rather than just run together.
+        assertFalse(Arrays.equals(SpellEffectImage.makeKey(fileContents, Arrays.asList("ab", "c")),
+                                  SpellEffectImage.makeKey(fileContents, Arrays.asList("a", "bc"))));
+    }
+    
+    @Test
+    public void imageFailingItsChecksumIsIgnored() throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(imageFile, "rw");
+        
+        try
+        {
+            // Flips a bit in the last byte of the body, which is in the last line's last instruction.
+            file.seek(file.length() - 1);
+            int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 1);
+        }
+        finally
+        { file.close(); }
+        
+        assertFallsBackToParsing("Failed checksum");
+    }
+    
+    @Test
+    public void truncatedImageIsIgnored() throws IOException
+    {
+        long fullLength = imageFile.length();
+        
+        // Every length short of the whole image, from part-way through the header to one byte short of the body's end.
+        for(long length = 0; length < fullLength; length++)
+        {
+            RandomAccessFile file = new RandomAccessFile(imageFile, "rw");
+            
+            try
+            { file.setLength(length); }
+            finally
+            { file.close(); }
+            
+            assertFallsBackToParsing("Truncated to " + length + " of " + fullLength + " bytes");
+        }
+    }
+    
+    @Test
+    public void imageWithAnImpossibleBodyLengthIsIgnored() throws IOException
+    {
+        overwriteInt(lineCountPosition + 4, Integer.MAX_VALUE);
+        assertFallsBackToParsing("Body longer than the image");
+        
+        overwriteInt(lineCountPosition + 4, -1);
+        assertFallsBackToParsing("Negative body length");
+        
+        overwriteInt(lineCountPosition + 4, (int)imageFile.length() - bodyPosition - 1);
+        assertFallsBackToParsing("Bytes left over after the body");
+    }
+}
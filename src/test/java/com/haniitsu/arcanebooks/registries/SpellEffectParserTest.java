@@ -0,0 +1,218 @@
+package com.haniitsu.arcanebooks.registries;
+
+import com.haniitsu.arcanebooks.magic.modifiers.definition.SpellEffectDefinitionModifier;
+import com.haniitsu.arcanebooks.registries.SpellEffectRegistry.ConfiguredDefinitionInstruction;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SpellEffectParserTest
+{
+    /** The seed the random lines are made from, so that every run checks the same lines. */
+    static final long seed = 0x41424C4EL;
+    
+    /** The number of random lines to check. */
+    static final int lineCount = 20000;
+    
+    static final String[] names = { "Damage", "heal", "Set Fire", "x", "Y", "2", "-1.5", "3e2", " Padded ", "NaN" };
+    
+    static final String[] checks = { "lc", "a b", "", " spaced ", "x: y", "1,2" };
+    
+    static final String[] values = { "5", " foo bar ", "", "-0.5", "A", "x y z" };
+    
+    /** Bits of syntax only the original parser takes. */
+    static final String[] unsupported = { "\\:", "\\(", "\\\\", "\\,", "\"a, b\"", "'q'", "{x}", "\\" };
+    
+    /** Bits of text that can leave a line malformed, depending on where they're put. */
+    static final String[] malformed = { ")", "(", "[", "]", ",", ":", "((", "[[", ",,", " " };
+    
+    /**
+     * Makes a random modifier, as would be found in the definitions part of a spell effect line.
+     * @param random The source of randomness.
+     * @param depth How many modifiers deep this is, so that modifiers don't nest forever.
+     * @return The modifier's text.
+     */
+    static String randomModifier(Random random, int depth)
+    {
+        StringBuilder builder = new StringBuilder(names[random.nextInt(names.length)]);
+        
+        for(int i = random.nextInt(3); i > 0; i--)
+            builder.append('[').append(checks[random.nextInt(checks.length)]).append(']');
+        
+        for(int i = depth < 3 ? random.nextInt(3) : 0; i > 0; i--)
+        {
+            builder.append('(');
+            
+            for(int j = random.nextInt(3); j >= 0; j--)
+                builder.append(randomModifier(random, depth + 1)).append(j > 0 ? "," : "");
+            
+            builder.append(')');
+            
+            if(random.nextInt(4) == 0)
+                builder.append(' ');
+        }
+        
+        if(random.nextInt(3) == 0)
+            builder.append(':').append(values[random.nextInt(values.length)]);
+        
+        return builder.toString();
+    }
+    
+    /**
+     * Makes a random definitions part of a spell effect line, sometimes with escapes, quotes, or malformed text put in
+     * somewhere.
+     * @param random The source of randomness.
+     * @return The line's text.
+     */
+    static String randomDefinitions(Random random)
+    {
+        StringBuilder builder = new StringBuilder();
+        
+        for(int i = random.nextInt(3); i >= 0; i--)
+            builder.append(random.nextBoolean() ? " " : "").append(randomModifier(random, 0)).append(i > 0 ? "," : "");
+        
+        int roll = random.nextInt(10);
+        
+        if(roll < 2)
+            builder.insert(random.nextInt(builder.length() + 1), unsupported[random.nextInt(unsupported.length)]);
+        else if(roll < 4)
+            builder.insert(random.nextInt(builder.length() + 1), malformed[random.nextInt(malformed.length)]);
+        
+        return builder.toString();
+    }
+    
+    /**
+     * Writes out a modifier and everything in it, for comparing what the two parsers make of a line.
+     * @param modifier The modifier.
+     * @param builder Where to write it out to.
+     */
+    static void describe(SpellEffectDefinitionModifier modifier, StringBuilder builder)
+    {
+        builder.append(modifier.getClass().getSimpleName()).append('<').append(modifier.getName()).append('|')
+               .append(modifier.getValue()).append('>');
+        
+        List<SpellEffectDefinitionModifier> subModifiers = modifier.getSubModifiers();
+        
+        if(subModifiers == null || subModifiers.isEmpty())
+            return;
+        
+        builder.append('{');
+        
+        for(SpellEffectDefinitionModifier subModifier : subModifiers)
+        {
+            describe(subModifier, builder);
+            builder.append(';');
+        }
+        
+        builder.append('}');
+    }
+    
+    static String describe(List<ConfiguredDefinitionInstruction> definitions)
+    {
+        StringBuilder builder = new StringBuilder();
+        
+        for(ConfiguredDefinitionInstruction definition : definitions)
+        {
+            describe(definition, builder);
+            builder.append('\n');
+        }
+        
+        return builder.toString();
+    }
+    
+    static boolean hasUnsupportedChar(String text)
+    {
+        for(char c : text.toCharArray())
+            if(c == '\\' || c == '"' || c == '\'' || c == '{' || c == '}')
+                return true;
+        
+        return false;
+    }
+    
+    @Test
+    public void acceptedLinesParseTheSameAsTheOriginalParser()
+    {
+        Random random = new Random(seed);
+        int accepted = 0, malformedFound = 0, leftOver = 0;
+        
+        for(int i = 0; i < lineCount; i++)
+        {
+            String line = randomDefinitions(random);
+            SpellEffectParser parser = new SpellEffectParser(line);
+            List<ConfiguredDefinitionInstruction> parsed = parser.parseDefinitions();
+            
+            if(parsed != null)
+            {
+                accepted++;
+                assertEquals("Line " + i + ": " + line, describe(SpellEffectRegistry.parseDefinitionsLeniently(line)),
+                             describe(parsed));
+            }
+            else if(parser.getProblem() != null)
+            {
+                malformedFound++;
+                assertTrue("Line " + i + ": " + line, parser.getProblemPosition() >= 0);
+                assertTrue("Line " + i + ": " + line, parser.getProblemPosition() <= line.length());
+            }
+            else
+            {
+                leftOver++;
+                assertTrue("Only lines with escapes, quotes, or curly brackets should be left to the original parser "
+                           + "without a problem being found. Line " + i + ": " + line, hasUnsupportedChar(line));
+            }
+        }
+        
+        // So that a change to the generator can't quietly stop any of these from being checked.
+        assertTrue("Only " + accepted + " lines were accepted.", accepted > lineCount / 4);
+        assertTrue("Only " + malformedFound + " lines were malformed.", malformedFound > lineCount / 50);
+        assertTrue("Only " + leftOver + " lines were left over.", leftOver > lineCount / 50);
+    }
+    
+    @Test
+    public void escapesAndQuotesAreLeftToTheOriginalParser()
+    {
+        String[] lines = { "Damage\\:x: 5", "Damage(\"a, b\")", "Heal: it\\'s", "Damage{1}", "Damage: 5\\" };
+        
+        for(String line : lines)
+        {
+            SpellEffectParser parser = new SpellEffectParser(line);
+            assertNull(line, parser.parseDefinitions());
+            assertNull(line, parser.getProblem());
+            assertNotNull(line, SpellEffectRegistry.parseDefinitionsLeniently(line));
+        }
+    }
+    
+    @Test
+    public void unclosedBracketIsReportedAtTheEndOfTheLine()
+    {
+        SpellEffectParser parser = new SpellEffectParser("Damage(5");
+        
+        assertNull(parser.parseDefinitions());
+        assertEquals("Expected a closing bracket, but found the end.", parser.getProblem());
+        assertEquals(8, parser.getProblemPosition());
+        
+        // "Fireball:" is 9 characters, so the end of "Fireball:Damage(5" is the 18th column.
+        assertEquals("SpellEffects.cfg line 3, column 18: Expected a closing bracket, but found the end. Loading it as "
+                     + "best as possible anyway.",
+                     SpellEffectRegistry.describeProblem(parser, "Fireball", "SpellEffects.cfg line 3"));
+    }
+    
+    @Test
+    public void strayBracketIsReportedWhereItIs()
+    {
+        SpellEffectParser parser = new SpellEffectParser("Heal: 2, Damage] x");
+        
+        assertNull(parser.parseDefinitions());
+        assertEquals("Expected a comma or the end of the line, but found ']'.", parser.getProblem());
+        assertEquals(15, parser.getProblemPosition());
+        
+        // Columns count from 1, so the 21st column of "Fire:Heal: 2, Damage] x" is the bracket.
+        assertEquals(']', "Fire:Heal: 2, Damage] x".charAt(21 - 1));
+        assertTrue(SpellEffectRegistry.describeProblem(parser, "Fire", "SpellEffects.cfg line 40")
+                                      .startsWith("SpellEffects.cfg line 40, column 21: "));
+    }
+}